@@ -42,6 +42,18 @@ public class Configure {
 	private int m_RpcChannelMaxConcurrent; // auto
 	private int m_StreamChannelMaxConcurrent; // auto
 	private int m_SingleServiceConcurrentPercent = 65;
+	private String m_ServiceConcurrencyLimiter = "";
+	private int m_AdmissionQueueCapacity = 0;
+	private int m_AdmissionMaxWait = 1000;
+	private boolean m_TrustSplice = true;
+	private int m_ServiceHostMaxConnections = 0;
+	private boolean m_NotifyBroadcastAsync = false;
+	private int m_NotifyBroadcastParallelism = 16;
+	private int m_NotifyBroadcastAsyncMax = 256;
+	private String m_NotifyStoreDir = "";
+	private long m_NotifyStoreMaxSize = 1024L * 1024 * 1024; // 1G
+	private int m_NotifyStoreSegmentSize = 8 * 1024 * 1024; // 8M
+	private int m_NotifyStoreRetention = 24 * 60 * 60; // 1 day
 	private int m_UserAccessCacheMaxCapacity; // auto
 	private boolean m_NettyDebug = false;
 
@@ -201,6 +213,114 @@ public class Configure {
 		return m_SingleServiceConcurrentPercent;
 	}
 
+	/**
+	 * 微服务自适应并发限制的算法（aimd、gradient），为空表示不启用
+	 * 
+	 * @return
+	 */
+	public String getServiceConcurrencyLimiter() {
+		return m_ServiceConcurrencyLimiter;
+	}
+
+	/**
+	 * 配额满时准入排队的最大数量，0表示不排队
+	 * 
+	 * @return
+	 */
+	public int getAdmissionQueueCapacity() {
+		return m_AdmissionQueueCapacity;
+	}
+
+	/**
+	 * 准入排队的最长时间（毫秒），实际不超过请求等待时间的一半
+	 * 
+	 * @return
+	 */
+	public int getAdmissionMaxWait() {
+		return m_AdmissionMaxWait;
+	}
+
+	/**
+	 * 请求/响应内容都无需验证（auth_type为none且是可信的微服务）时，是否跳过验证器直接接驳输入输出流
+	 * 
+	 * @return
+	 */
+	public boolean isTrustSplice() {
+		return m_TrustSplice;
+	}
+
+	/**
+	 * 每个后端主机（scheme://host:port）转发中的最大连接数，0为不限制
+	 * 
+	 * @return
+	 */
+	public int getServiceHostMaxConnections() {
+		return m_ServiceHostMaxConnections;
+	}
+
+	/**
+	 * 广播通知是否异步投递（请求接收完即应答调用方，后台再分批投递到各实例）
+	 * 
+	 * @return
+	 */
+	public boolean isNotifyBroadcastAsync() {
+		return m_NotifyBroadcastAsync;
+	}
+
+	/**
+	 * 异步广播通知同时投递的最大实例数
+	 * 
+	 * @return
+	 */
+	public int getNotifyBroadcastParallelism() {
+		return m_NotifyBroadcastParallelism;
+	}
+
+	/**
+	 * 网关同时进行中的异步广播通知的最大数，超出时按同步广播处理
+	 * 
+	 * @return
+	 */
+	public int getNotifyBroadcastAsyncMax() {
+		return m_NotifyBroadcastAsyncMax;
+	}
+
+	/**
+	 * 未送达通知的本地转存目录，为空表示不转存
+	 * 
+	 * @return
+	 */
+	public String getNotifyStoreDir() {
+		return m_NotifyStoreDir;
+	}
+
+	/**
+	 * 转存通知占用的最大磁盘空间（字节），超出时淘汰最旧的
+	 * 
+	 * @return
+	 */
+	public long getNotifyStoreMaxSize() {
+		return m_NotifyStoreMaxSize;
+	}
+
+	/**
+	 * 转存通知的日志分段大小（字节），也是单条通知的大小上限
+	 * 
+	 * @return
+	 */
+	public int getNotifyStoreSegmentSize() {
+		return m_NotifyStoreSegmentSize;
+	}
+
+	/**
+	 * 转存通知的保留时间（秒）
+	 * 
+	 * @return
+	 */
+	public int getNotifyStoreRetention() {
+		return m_NotifyStoreRetention;
+	}
+
 	public boolean isNotVerifyAccessId() {
 		return m_NotVerifyAccessId;
 	}
@@ -450,6 +570,156 @@ public class Configure {
 			INSTANCE.m_SingleServiceConcurrentPercent = percent;
 		}
 
+		public static void setServiceConcurrencyLimiter(String algorithm) {
+			if (StringUtil.isEmpty(algorithm)) {
+				return;
+			}
+			algorithm = algorithm.trim();
+			if (!"aimd".equals(algorithm) && !"gradient".equals(algorithm)) {
+				throw new IllegalArgumentException("无效的ServiceConcurrencyLimiter：" + algorithm);
+			}
+			INSTANCE.m_ServiceConcurrencyLimiter = algorithm;
+		}
+
+		public static void setAdmissionQueueCapacity(String capacityStr) {
+			if (StringUtil.isEmpty(capacityStr)) {
+				return;
+			}
+			int capacity;
+			try {
+				capacity = NumberUtil.toInt(capacityStr);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("无效的AdmissionQueueCapacity：" + capacityStr);
+			}
+			if (capacity < 0) {
+				throw new IllegalArgumentException("无效的AdmissionQueueCapacity：" + capacityStr);
+			}
+			INSTANCE.m_AdmissionQueueCapacity = capacity;
+		}
+
+		public static void setAdmissionMaxWait(String millisStr) {
+			if (StringUtil.isEmpty(millisStr)) {
+				return;
+			}
+			int millis;
+			try {
+				millis = NumberUtil.toInt(millisStr);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("无效的AdmissionMaxWait：" + millisStr);
+			}
+			if (millis <= 0) {
+				throw new IllegalArgumentException("无效的AdmissionMaxWait：" + millisStr);
+			}
+			INSTANCE.m_AdmissionMaxWait = millis;
+		}
+
+		public static void setServiceHostMaxConnections(String countStr) {
+			if (StringUtil.isEmpty(countStr)) {
+				return;
+			}
+			int count;
+			try {
+				count = NumberUtil.toInt(countStr);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("无效的ServiceHostMaxConnections：" + countStr);
+			}
+			if (count < 0) {
+				throw new IllegalArgumentException("无效的ServiceHostMaxConnections：" + countStr);
+			}
+			INSTANCE.m_ServiceHostMaxConnections = count;
+		}
+
+		public static void setNotifyBroadcastAsync(String boolStr) {
+			if (StringUtil.isEmpty(boolStr)) {
+				return;
+			}
+			INSTANCE.m_NotifyBroadcastAsync = Boolean.valueOf(boolStr);
+		}
+
+		public static void setNotifyBroadcastParallelism(String countStr) {
+			if (StringUtil.isEmpty(countStr)) {
+				return;
+			}
+			int count;
+			try {
+				count = NumberUtil.toInt(countStr);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("无效的NotifyBroadcastParallelism：" + countStr);
+			}
+			if (count <= 0) {
+				throw new IllegalArgumentException("无效的NotifyBroadcastParallelism：" + countStr);
+			}
+			INSTANCE.m_NotifyBroadcastParallelism = count;
+		}
+
+		public static void setNotifyBroadcastAsyncMax(String countStr) {
+			if (StringUtil.isEmpty(countStr)) {
+				return;
+			}
+			int count;
+			try {
+				count = NumberUtil.toInt(countStr);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("无效的NotifyBroadcastAsyncMax：" + countStr);
+			}
+			if (count <= 0) {
+				throw new IllegalArgumentException("无效的NotifyBroadcastAsyncMax：" + countStr);
+			}
+			INSTANCE.m_NotifyBroadcastAsyncMax = count;
+		}
+
+		public static void setNotifyStoreDir(String dir) {
+			if (StringUtil.isEmpty(dir)) {
+				return;
+			}
+			INSTANCE.m_NotifyStoreDir = dir.trim();
+		}
+
+		public static void setNotifyStoreMaxSize(String sizeStr) {
+			if (StringUtil.isEmpty(sizeStr)) {
+				return;
+			}
+			long size = Bytes.parseHumanReadable(sizeStr);
+			if (size <= 0) {
+				throw new IllegalArgumentException("无效的NotifyStoreMaxSize：" + sizeStr);
+			}
+			INSTANCE.m_NotifyStoreMaxSize = size;
+		}
+
+		public static void setNotifyStoreSegmentSize(String sizeStr) {
+			if (StringUtil.isEmpty(sizeStr)) {
+				return;
+			}
+			long size = Bytes.parseHumanReadable(sizeStr);
+			if (size < 64 * 1024 || size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("无效的NotifyStoreSegmentSize：" + sizeStr);
+			}
+			INSTANCE.m_NotifyStoreSegmentSize = (int) size;
+		}
+
+		public static void setNotifyStoreRetention(String secondStr) {
+			if (StringUtil.isEmpty(secondStr)) {
+				return;
+			}
+			int second;
+			try {
+				second = NumberUtil.toInt(secondStr);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("无效的NotifyStoreRetention：" + secondStr);
+			}
+			if (second <= 0) {
+				throw new IllegalArgumentException("无效的NotifyStoreRetention：" + secondStr);
+			}
+			INSTANCE.m_NotifyStoreRetention = second;
+		}
+
+		public static void setTrustSplice(String boolStr) {
+			if (StringUtil.isEmpty(boolStr)) {
+				return;
+			}
+			INSTANCE.m_TrustSplice = Boolean.valueOf(boolStr);
+		}
+
 		public static void setNotVerifyAccessId(String boolStr) {
 			if (StringUtil.isEmpty(boolStr)) {
 				return;
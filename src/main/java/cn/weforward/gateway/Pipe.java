@@ -10,6 +10,7 @@
  */
 package cn.weforward.gateway;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 
@@ -68,6 +69,18 @@ public interface Pipe {
 	 */
 	void requestCompleted(Tunnel tunnel);
 
+	/**
+	 * 可直接接驳的请求输出流（不经验证器，wf_req部分已输出），请求内容无需签名时使用。
+	 * <p>
+	 * 在{@linkplain Tunnel#requestReady(Pipe, OutputStream)}中调用，不支持时返回null
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	default OutputStream getRequestSpliceOutput() throws IOException {
+		return null;
+	}
+
 	/**
 	 * 客户端管道的响应输出流已就绪
 	 * 
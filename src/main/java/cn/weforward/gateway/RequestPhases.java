@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway;
+
+/**
+ * 一次微服务调用各阶段的耗时
+ * <p>
+ * 由各进度的时间点（System.nanoTime）计算，未经过的阶段耗时为-1
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RequestPhases {
+	/** 阶段 - 在rpc任务执行器中排队 */
+	public static final int PHASE_QUEUE = 0;
+	/** 阶段 - 验证及选择微服务实例 */
+	public static final int PHASE_BALANCE = 1;
+	/** 阶段 - 连接微服务 */
+	public static final int PHASE_CONNECT = 2;
+	/** 阶段 - 传输请求内容到微服务 */
+	public static final int PHASE_UPLOAD = 3;
+	/** 阶段 - 等待微服务响应 */
+	public static final int PHASE_BACKEND = 4;
+	/** 阶段 - 传输响应内容 */
+	public static final int PHASE_DOWNLOAD = 5;
+	/** 阶段数 */
+	public static final int PHASE_COUNT = 6;
+
+	static final String[] NAMES = { "queue", "balance", "connect", "upload", "backend", "download" };
+
+	/** 各阶段耗时（微秒） */
+	final long[] m_Durations;
+
+	/**
+	 * 由各进度的时间点构造，时间点为0表示未经过
+	 * 
+	 * @param queued
+	 *            请求进入任务执行器排队
+	 * @param run
+	 *            请求开始处理
+	 * @param opened
+	 *            打开微服务管道
+	 * @param established
+	 *            与微服务建立连接
+	 * @param connected
+	 *            开始输出请求（另一次排队之后）
+	 * @param requestCompleted
+	 *            请求输出完成
+	 * @param responseHeader
+	 *            开始读取响应头
+	 * @param end
+	 *            结束
+	 */
+	public RequestPhases(long queued, long run, long opened, long established, long connected, long requestCompleted,
+			long responseHeader, long end) {
+		m_Durations = new long[PHASE_COUNT];
+		long queue = elapsed(queued, run);
+		long requeue = elapsed(established, connected);
+		if (-1 == queue || -1 == requeue) {
+			m_Durations[PHASE_QUEUE] = Math.max(queue, requeue);
+		} else {
+			m_Durations[PHASE_QUEUE] = queue + requeue;
+		}
+		m_Durations[PHASE_BALANCE] = elapsed(run, opened);
+		m_Durations[PHASE_CONNECT] = elapsed(opened, established);
+		m_Durations[PHASE_UPLOAD] = elapsed(connected, requestCompleted);
+		m_Durations[PHASE_BACKEND] = elapsed((0 == requestCompleted) ? connected : requestCompleted, responseHeader);
+		m_Durations[PHASE_DOWNLOAD] = elapsed(responseHeader, end);
+	}
+
+	private static long elapsed(long begin, long end) {
+		if (0 == begin || 0 == end) {
+			return -1;
+		}
+		return Math.max(end - begin, 0) / 1000;
+	}
+
+	/**
+	 * 阶段的耗时
+	 * 
+	 * @param phase
+	 *            PHASE_xxx
+	 * @return 微秒，未经过此阶段时返回-1
+	 */
+	public long get(int phase) {
+		return m_Durations[phase];
+	}
+
+	/**
+	 * 阶段名
+	 * 
+	 * @param phase
+	 *            PHASE_xxx
+	 * @return
+	 */
+	public static String getName(int phase) {
+		return NAMES[phase];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+		for (int i = 0; i < PHASE_COUNT; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(NAMES[i]).append(':').append(m_Durations[i]);
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+}
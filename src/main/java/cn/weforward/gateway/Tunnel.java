@@ -105,6 +105,24 @@ public interface Tunnel {
 		return false;
 	}
 
+	/**
+	 * 请求进入rpc任务执行器排队的时间（System.nanoTime）
+	 * 
+	 * @return 未知时返回0
+	 */
+	default long getQueuedTime() {
+		return 0;
+	}
+
+	/**
+	 * 请求开始处理（离开任务执行器队列）的时间（System.nanoTime）
+	 * 
+	 * @return 未知时返回0
+	 */
+	default long getRunTime() {
+		return 0;
+	}
+
 	// /**
 	// * 输出错误
 	// *
@@ -159,6 +177,18 @@ public interface Tunnel {
 	 */
 	void responseReady(Pipe pipe);
 
+	/**
+	 * 可直接接驳的响应输出流（不经验证器，wf_resp部分已输出），响应内容无需签名时使用。
+	 * <p>
+	 * 在{@linkplain Pipe#responseReady(Tunnel, OutputStream)}中调用，不支持时返回null
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	default OutputStream getResponseSpliceOutput() throws IOException {
+		return null;
+	}
+
 	/**
 	 * 微服务管道的响应输入流已完成
 	 * 
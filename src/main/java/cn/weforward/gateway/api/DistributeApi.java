@@ -17,6 +17,7 @@ import cn.weforward.gateway.GatewayNode;
 import cn.weforward.gateway.distribute.DistributeManage;
 import cn.weforward.gateway.distribute.DistributedService;
 import cn.weforward.gateway.distribute.GatewayNodeMapper;
+import cn.weforward.gateway.ops.ratelimit.RateLimitUsage;
 import cn.weforward.protocol.Header;
 import cn.weforward.protocol.ServiceName;
 import cn.weforward.protocol.support.BeanObjectMapper;
@@ -42,6 +43,7 @@ public class DistributeApi extends AbstractGatewayApi {
 		m_Mappers = new SimpleObjectMapperSet();
 		m_Mappers.register(BeanObjectMapper.getInstance(DistributedService.class));
 		m_Mappers.register(GatewayNodeMapper.INSTANCE);
+		m_Mappers.register(BeanObjectMapper.getInstance(RateLimitUsage.class));
 		PageDataMapper pageDataMapper = new PageDataMapper(m_Mappers);
 		m_Mappers.register(pageDataMapper);
 
@@ -70,8 +72,9 @@ public class DistributeApi extends AbstractGatewayApi {
 			List<GatewayNode> nodes = params.getList("nodes", GatewayNode.class, getMappers());
 			List<DistributedService> regs = params.getList("reg_services", DistributedService.class, getMappers());
 			List<DistributedService> unregs = params.getList("unreg_services", DistributedService.class, getMappers());
+			List<RateLimitUsage> rateLimits = params.getList("rate_limits", RateLimitUsage.class, getMappers());
 
-			m_DistributeManage.syncFromBrother(nodes, regs, unregs);
+			m_DistributeManage.syncFromBrother(nodes, regs, unregs, rateLimits);
 			return null;
 		}
 	};
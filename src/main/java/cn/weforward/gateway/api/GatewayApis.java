@@ -15,6 +15,7 @@ import cn.weforward.gateway.PluginContainer;
 import cn.weforward.gateway.distribute.DistributeManage;
 import cn.weforward.gateway.mesh.MeshManage;
 import cn.weforward.gateway.ops.access.AccessManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitManage;
 import cn.weforward.gateway.ops.right.RightManage;
 import cn.weforward.gateway.ops.traffic.TrafficManage;
 
@@ -55,6 +56,10 @@ public class GatewayApis {
 		m_KeeperApi.setTrafficManage(tm);
 	}
 
+	public void setRateLimitManage(RateLimitManage rlm) {
+		m_KeeperApi.setRateLimitManage(rlm);
+	}
+
 	public void setDistributeManage(DistributeManage dm) {
 		m_DistributeApi.setDistributeManage(dm);
 	}
@@ -11,6 +11,7 @@
 package cn.weforward.gateway.api;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -23,11 +24,19 @@ import cn.weforward.gateway.GatewayExt;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.gateway.exception.DebugServiceException;
 import cn.weforward.gateway.ops.access.AccessManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTable;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RateLimitTableItemVo;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RejectVo;
 import cn.weforward.gateway.ops.right.RightManage;
 import cn.weforward.gateway.ops.traffic.TrafficManage;
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
 import cn.weforward.protocol.Header;
 import cn.weforward.protocol.ServiceName;
 import cn.weforward.protocol.client.ext.ResponseResultObject;
+import cn.weforward.protocol.datatype.DtList;
+import cn.weforward.protocol.datatype.DtObject;
 import cn.weforward.protocol.doc.ServiceDocument;
 import cn.weforward.protocol.gateway.ServiceSummary;
 import cn.weforward.protocol.gateway.vo.AccessExtVo;
@@ -63,6 +72,7 @@ class KeeperApi extends AbstractGatewayApi {
 	AccessManage m_AccessManage;
 	RightManage m_RightManage;
 	TrafficManage m_TrafficManage;
+	RateLimitManage m_RateLimitManage;
 	GatewayExt m_Gateway;
 
 	KeeperApi() {
@@ -76,6 +86,9 @@ class KeeperApi extends AbstractGatewayApi {
 		mappers.register(BeanObjectMapper.getInstance(TrafficTableVo.class));
 		mappers.register(BeanObjectMapper.getInstance(TrafficTableItemVo.class));
 		mappers.register(BeanObjectMapper.getInstance(ServiceSummary.class));
+		mappers.register(BeanObjectMapper.getInstance(RateLimitTableVo.class));
+		mappers.register(BeanObjectMapper.getInstance(RateLimitTableItemVo.class));
+		mappers.register(BeanObjectMapper.getInstance(RejectVo.class));
 		PageDataMapper pageDataMapper = new PageDataMapper(mappers);
 		mappers.register(pageDataMapper);
 		m_Mappers = mappers;
@@ -108,6 +121,15 @@ class KeeperApi extends AbstractGatewayApi {
 		register(removeTrafficRule);
 		register(setTrafficRules);
 
+		register(getRateLimitTable);
+		register(appendRateLimitRule);
+		register(insertRateLimitRule);
+		register(moveRateLimitRule);
+		register(replaceRateLimitRule);
+		register(removeRateLimitRule);
+		register(setRateLimitRules);
+		register(listRateLimitRejects);
+
 		register(getDocuments);
 		register(debugService);
 	}
@@ -133,6 +155,10 @@ class KeeperApi extends AbstractGatewayApi {
 		m_TrafficManage = tm;
 	}
 
+	public void setRateLimitManage(RateLimitManage rlm) {
+		m_RateLimitManage = rlm;
+	}
+
 	@Override
 	public String getName() {
 		return ServiceName.KEEPER.name;
@@ -437,9 +463,10 @@ class KeeperApi extends AbstractGatewayApi {
 		@Override
 		TrafficTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
 			String name = params.getString("name");
-			TrafficTableItemVo item = params.getObject("item", TrafficTableItemVo.class, m_Mappers);
+			TrafficTableItemVo vo = params.getObject("item", TrafficTableItemVo.class, m_Mappers);
+			TrafficTableItem item = toTrafficTableItem(vo, params.getObject("item"));
 			TrafficTable table = m_TrafficManage.openTrafficTable(name);
-			table.appendItem(new TrafficTableItemWrap(item));
+			table.appendItem(item);
 			return new TrafficTableVo(table);
 		}
 	};
@@ -451,8 +478,8 @@ class KeeperApi extends AbstractGatewayApi {
 			String name = params.getString("name");
 			TrafficTableItemVo vo = params.getObject("item", TrafficTableItemVo.class, m_Mappers);
 			int idx = params.getInt("index", -1);
+			TrafficTableItem item = toTrafficTableItem(vo, params.getObject("item"));
 			TrafficTable table = m_TrafficManage.openTrafficTable(name);
-			TrafficTableItem item = new TrafficTableItemWrap(vo);
 			if (idx >= 0) {
 				table.insertItem(item, idx);
 			} else {
@@ -467,11 +494,12 @@ class KeeperApi extends AbstractGatewayApi {
 		@Override
 		TrafficTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
 			String name = params.getString("name");
-			TrafficTableItemVo item = params.getObject("item", TrafficTableItemVo.class, m_Mappers);
+			TrafficTableItemVo vo = params.getObject("item", TrafficTableItemVo.class, m_Mappers);
+			TrafficTableItem item = toTrafficTableItem(vo, params.getObject("item"));
 			int index = params.getInt("index", -1);
 			String replaceName = params.getString("replace_name");
 			TrafficTable table = m_TrafficManage.openTrafficTable(name);
-			table.replaceItem(new TrafficTableItemWrap(item), index, replaceName);
+			table.replaceItem(item, index, replaceName);
 			return new TrafficTableVo(table);
 		}
 	};
@@ -508,19 +536,273 @@ class KeeperApi extends AbstractGatewayApi {
 		TrafficTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
 			String name = params.getString("name");
 			List<TrafficTableItemVo> vos = params.getList("items", TrafficTableItemVo.class, m_Mappers);
+			if (null == vos) {
+				vos = Collections.emptyList();
+			}
+			DtList objs = params.getList("items");
+			List<TrafficTableItem> items = new ArrayList<>(vos.size());
+			for (int i = 0; i < vos.size(); i++) {
+				DtObject obj = (null != objs && i < objs.size()) ? (DtObject) objs.getItem(i) : null;
+				items.add(toTrafficTableItem(vos.get(i), obj));
+			}
 			TrafficTable table = m_TrafficManage.openTrafficTable(name);
-			List<TrafficTableItem> items = new TransList<TrafficTableItem, TrafficTableItemVo>(vos) {
-
-				@Override
-				protected TrafficTableItem trans(TrafficTableItemVo src) {
-					return new TrafficTableItemWrap(src);
-				}
-			};
 			table.setItems(items);
 			return new TrafficTableVo(table);
 		}
 	};
 
+	private ApiMethod getRateLimitTable = new ApiMethod("get_rate_limit_table") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			RateLimitTable table = m_RateLimitManage.getRateLimitTable(name);
+			if (null == table) {
+				return null;
+			}
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod appendRateLimitRule = new ApiMethod("append_rate_limit_rule") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			RateLimitTableItemVo item = params.getObject("item", RateLimitTableItemVo.class, m_Mappers);
+			checkRateLimitItem(item);
+			RateLimitTable table = m_RateLimitManage.openRateLimitTable(name);
+			table.appendItem(item);
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod insertRateLimitRule = new ApiMethod("insert_rate_limit_rule") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			RateLimitTableItemVo item = params.getObject("item", RateLimitTableItemVo.class, m_Mappers);
+			int idx = params.getInt("index", -1);
+			checkRateLimitItem(item);
+			RateLimitTable table = m_RateLimitManage.openRateLimitTable(name);
+			if (idx >= 0) {
+				table.insertItem(item, idx);
+			} else {
+				table.appendItem(item);
+			}
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod replaceRateLimitRule = new ApiMethod("replace_rate_limit_rule") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			RateLimitTableItemVo item = params.getObject("item", RateLimitTableItemVo.class, m_Mappers);
+			int index = params.getInt("index", -1);
+			String replaceName = params.getString("replace_name");
+			checkRateLimitItem(item);
+			RateLimitTable table = m_RateLimitManage.openRateLimitTable(name);
+			table.replaceItem(item, index, replaceName);
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod removeRateLimitRule = new ApiMethod("remove_rate_limit_rule") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			int index = params.getInt("index", -1);
+			String removeName = params.getString("remove_name");
+			RateLimitTable table = m_RateLimitManage.openRateLimitTable(name);
+			table.removeItem(index, removeName);
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod moveRateLimitRule = new ApiMethod("move_rate_limit_rule") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			int from = params.getInt("from", -1);
+			int to = params.getInt("to", -1);
+			RateLimitTable table = m_RateLimitManage.openRateLimitTable(name);
+			table.moveItem(from, to);
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod setRateLimitRules = new ApiMethod("set_rate_limit_rules") {
+
+		@Override
+		RateLimitTableVo execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			List<RateLimitTableItemVo> items = params.getList("items", RateLimitTableItemVo.class, m_Mappers);
+			if (null == items) {
+				items = Collections.emptyList();
+			}
+			for (RateLimitTableItemVo item : items) {
+				checkRateLimitItem(item);
+			}
+			RateLimitTable table = m_RateLimitManage.openRateLimitTable(name);
+			table.setItems(items);
+			return new RateLimitTableVo(table);
+		}
+	};
+
+	private ApiMethod listRateLimitRejects = new ApiMethod("list_rate_limit_rejects") {
+
+		@Override
+		List<RejectVo> execute(Header reqHeader, FriendlyObject params) throws ApiException {
+			String name = params.getString("name");
+			int limit = params.getInt("limit", 100);
+			RateLimitTable table = m_RateLimitManage.getRateLimitTable(name);
+			if (null == table) {
+				return Collections.emptyList();
+			}
+			return table.getRejects(limit);
+		}
+	};
+
+	static void checkRateLimitItem(RateLimitTableItemVo item) throws ApiException {
+		try {
+			RateLimitTable.check(item);
+		} catch (IllegalArgumentException e) {
+			throw new ApiException(CommonServiceCodes.ILLEGAL_ARGUMENT.code, e.getMessage());
+		}
+	}
+
+	/**
+	 * 转换为流量规则项，并附上扩展的属性（strategy、slow_start、eject_errors、eject_latency、hedge）
+	 * 
+	 * @param vo
+	 * @param obj
+	 *            规则项的原始参数
+	 * @return
+	 * @throws ApiException
+	 */
+	static TrafficTableItem toTrafficTableItem(TrafficTableItemVo vo, DtObject obj) throws ApiException {
+		TrafficTableItem item = new TrafficTableItemWrap(vo);
+		if (null == obj) {
+			return item;
+		}
+		String strategy = FriendlyObject.getString(obj, "strategy");
+		if (!TrafficTableItemExt.Helper.isValidStrategy(strategy)) {
+			throw new ApiException(CommonServiceCodes.ILLEGAL_ARGUMENT.code, "无效的均衡策略:" + strategy);
+		}
+		int slowStart = FriendlyObject.getInt(obj, "slow_start", 0);
+		int ejectErrors = FriendlyObject.getInt(obj, "eject_errors", 0);
+		int ejectLatency = FriendlyObject.getInt(obj, "eject_latency", 0);
+		int hedge = FriendlyObject.getInt(obj, "hedge", 0);
+		if (slowStart < 0 || ejectErrors < 0 || ejectLatency < 0 || hedge < 0 || hedge >= 100) {
+			throw new ApiException(CommonServiceCodes.ILLEGAL_ARGUMENT.code, "无效的参数:slow_start=" + slowStart
+					+ ",eject_errors=" + ejectErrors + ",eject_latency=" + ejectLatency + ",hedge=" + hedge);
+		}
+		if (StringUtil.isEmpty(strategy) && 0 == slowStart && 0 == ejectErrors && 0 == ejectLatency && 0 == hedge) {
+			return item;
+		}
+		return new ExtTrafficTableItem(item, strategy, slowStart, ejectErrors, ejectLatency, hedge);
+	}
+
+	/**
+	 * 带扩展属性（均衡策略、慢启动、剔除实例及对冲请求）的流量规则项
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	static class ExtTrafficTableItem implements TrafficTableItemExt {
+		final TrafficTableItem m_Item;
+		final String m_Strategy;
+		final int m_SlowStart;
+		final int m_EjectErrors;
+		final int m_EjectLatency;
+		final int m_Hedge;
+
+		ExtTrafficTableItem(TrafficTableItem item, String strategy, int slowStart, int ejectErrors, int ejectLatency,
+				int hedge) {
+			m_Item = item;
+			m_Strategy = strategy;
+			m_SlowStart = slowStart;
+			m_EjectErrors = ejectErrors;
+			m_EjectLatency = ejectLatency;
+			m_Hedge = hedge;
+		}
+
+		@Override
+		public String getName() {
+			return m_Item.getName();
+		}
+
+		@Override
+		public String getServiceNo() {
+			return m_Item.getServiceNo();
+		}
+
+		@Override
+		public String getServiceVersion() {
+			return m_Item.getServiceVersion();
+		}
+
+		@Override
+		public int getWeight() {
+			return m_Item.getWeight();
+		}
+
+		@Override
+		public int getMaxFails() {
+			return m_Item.getMaxFails();
+		}
+
+		@Override
+		public int getFailTimeout() {
+			return m_Item.getFailTimeout();
+		}
+
+		@Override
+		public int getMaxConcurrent() {
+			return m_Item.getMaxConcurrent();
+		}
+
+		@Override
+		public int getConnectTimeout() {
+			return m_Item.getConnectTimeout();
+		}
+
+		@Override
+		public int getReadTimeout() {
+			return m_Item.getReadTimeout();
+		}
+
+		@Override
+		public String getStrategy() {
+			return m_Strategy;
+		}
+
+		@Override
+		public int getSlowStart() {
+			return m_SlowStart;
+		}
+
+		@Override
+		public int getEjectErrors() {
+			return m_EjectErrors;
+		}
+
+		@Override
+		public int getEjectLatency() {
+			return m_EjectLatency;
+		}
+
+		@Override
+		public int getHedge() {
+			return m_Hedge;
+		}
+	}
+
 	private ApiMethod getDocuments = new ApiMethod("get_documents") {
 
 		@Override
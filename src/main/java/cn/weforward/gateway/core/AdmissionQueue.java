@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.Tunnel;
+import cn.weforward.protocol.Access;
+import cn.weforward.protocol.exception.WeforwardException;
+import cn.weforward.protocol.ops.AccessExt;
+
+/**
+ * 配额/限流满时的准入排队。
+ * <p>
+ * 请求按优先级（网关内部、微服务间调用、其它）排队，有配额释放时优先级高的先重试；
+ * 排队时间不超过请求等待时间的一半，超时或被挤出时返回网关忙。
+ * <p>
+ * 等待网关配额的请求在任一微服务释放时都可重试，等待微服务自身并发/限流的请求按微服务分开排队，只在该微服务释放时重试。
+ * <p>
+ * 排队不占用线程，重试在{@linkplain GatewayTimer}的工作线程上进行
+ * 
+ * @author zhangpengji
+ *
+ */
+class AdmissionQueue {
+	static final Logger _Logger = LoggerFactory.getLogger(AdmissionQueue.class);
+
+	/** 优先级：网关内部 */
+	static final int PRIORITY_HIGH = 0;
+	/** 优先级：微服务间调用 */
+	static final int PRIORITY_NORMAL = 1;
+	/** 优先级：其它（用户等） */
+	static final int PRIORITY_LOW = 2;
+
+	/** 最长排队时间占请求等待时间的百分比 */
+	static final int WAIT_TIMEOUT_PERCENT = 50;
+
+	/** 排队的最大数量 */
+	protected final int m_Capacity;
+	/** 最长排队时间（毫秒） */
+	protected final int m_MaxWait;
+	/** 等待网关配额的排队 */
+	protected final Lane m_Shared;
+	/** 等待微服务自身并发/限流的排队（在锁内访问） */
+	protected final Map<ServiceInstanceBalance, Lane> m_Lanes;
+	/** 排队中的数量（在锁内修改） */
+	protected volatile int m_Size;
+
+	AdmissionQueue(int capacity, int maxWait) {
+		m_Capacity = capacity;
+		m_MaxWait = maxWait;
+		m_Shared = new Lane();
+		m_Lanes = new HashMap<>();
+	}
+
+	public int getSize() {
+		return m_Size;
+	}
+
+	/**
+	 * 请求的优先级
+	 */
+	static int getPriority(ServiceInstanceBalance balance, Tunnel tunnel) {
+		if (tunnel.isFromGatewayInternal()) {
+			return PRIORITY_HIGH;
+		}
+		String accessId = tunnel.getHeader().getAccessId();
+		if (AccessExt.GATEWAY_INTERNAL_ACCESS_ID.equals(accessId)) {
+			return PRIORITY_HIGH;
+		}
+		if (!StringUtil.isEmpty(tunnel.getTraceToken())) {
+			// 调用链中的请求，上游已投入了资源
+			return PRIORITY_NORMAL;
+		}
+		if (!StringUtil.isEmpty(accessId)) {
+			AccessExt acc = balance.getAccess(accessId);
+			if (null != acc) {
+				if (Access.KIND_GATEWAY.equals(acc.getKind())) {
+					return PRIORITY_HIGH;
+				}
+				if (Access.KIND_SERVICE.equals(acc.getKind())) {
+					return PRIORITY_NORMAL;
+				}
+			}
+		}
+		return PRIORITY_LOW;
+	}
+
+	/**
+	 * 请求的最长排队时间（毫秒）
+	 */
+	int getMaxWait(Tunnel tunnel) {
+		int waitTimeout = tunnel.getWaitTimeout();
+		if (waitTimeout <= 0) {
+			return m_MaxWait;
+		}
+		return (int) Math.min(m_MaxWait, waitTimeout * 1000L * WAIT_TIMEOUT_PERCENT / 100);
+	}
+
+	/**
+	 * 请求进入排队
+	 * 
+	 * @param balance
+	 * @param tunnel
+	 * @param code
+	 *            排队失败时的错误码
+	 * @param keyword
+	 *            排队失败时的提示
+	 * @param shared
+	 *            是否等待网关配额（否则等待微服务自身的并发/限流）
+	 * @return 是否已进入排队
+	 */
+	boolean offer(ServiceInstanceBalance balance, Tunnel tunnel, int code, String keyword, boolean shared) {
+		int maxWait = getMaxWait(tunnel);
+		if (maxWait <= 0) {
+			return false;
+		}
+		Waiter waiter = new Waiter(balance, tunnel, getPriority(balance, tunnel), code, keyword);
+		waiter.m_Shared = shared;
+		if (!enqueue(waiter)) {
+			return false;
+		}
+		waiter.m_Timeout = GatewayTimer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				expire(waiter);
+			}
+		}, maxWait);
+		return true;
+	}
+
+	/**
+	 * 重试后仍未获得配额，重新排队（排在同优先级的最后，避免阻塞其它微服务的请求）
+	 * 
+	 * @param waiter
+	 * @param shared
+	 *            是否等待网关配额
+	 * @return 是否已进入排队
+	 */
+	boolean requeue(Waiter waiter, boolean shared) {
+		ScheduledFuture<?> timeout = waiter.m_Timeout;
+		if (null != timeout && timeout.isDone()) {
+			// 已超时
+			return false;
+		}
+		synchronized (this) {
+			waiter.m_Shared = shared;
+		}
+		return enqueue(waiter);
+	}
+
+	private Lane getLane(Waiter waiter) {
+		return waiter.m_Shared ? m_Shared : m_Lanes.get(waiter.m_Balance);
+	}
+
+	private void removeIfEmpty(ServiceInstanceBalance balance, Lane lane) {
+		if (lane != m_Shared && 0 == lane.m_Size) {
+			m_Lanes.remove(balance);
+		}
+	}
+
+	private boolean enqueue(Waiter waiter) {
+		Waiter evicted = null;
+		synchronized (this) {
+			if (m_Size >= m_Capacity) {
+				// 挤掉优先级更低的最后排队者
+				for (int p = PRIORITY_LOW; p > waiter.m_Priority && null == evicted; p--) {
+					evicted = evict(p);
+				}
+				if (null == evicted) {
+					return false;
+				}
+				m_Size--;
+			}
+			Lane lane = getLane(waiter);
+			if (null == lane) {
+				lane = new Lane();
+				m_Lanes.put(waiter.m_Balance, lane);
+			}
+			lane.offerLast(waiter);
+			m_Size++;
+		}
+		if (null != evicted) {
+			evicted.reject("排队被挤出");
+		}
+		return true;
+	}
+
+	private Waiter evict(int priority) {
+		Waiter evicted = m_Shared.pollLast(priority);
+		if (null != evicted) {
+			return evicted;
+		}
+		for (Lane lane : m_Lanes.values()) {
+			evicted = lane.pollLast(priority);
+			if (null != evicted) {
+				removeIfEmpty(evicted.m_Balance, lane);
+				return evicted;
+			}
+		}
+		return null;
+	}
+
+	private void expire(Waiter waiter) {
+		synchronized (this) {
+			Lane lane = getLane(waiter);
+			if (null == lane || !lane.remove(waiter)) {
+				// 正在重试
+				return;
+			}
+			removeIfEmpty(waiter.m_Balance, lane);
+			m_Size--;
+		}
+		waiter.reject("排队超时");
+	}
+
+	/**
+	 * 微服务释放配额时，让可用此配额的优先级最高的排队请求重试
+	 * 
+	 * @param balance
+	 *            释放配额的微服务
+	 */
+	void onFree(ServiceInstanceBalance balance) {
+		if (0 == m_Size) {
+			return;
+		}
+		Waiter waiter;
+		synchronized (this) {
+			Lane lane = m_Lanes.get(balance);
+			if (null == lane || m_Shared.getFirstPriority() < lane.getFirstPriority()) {
+				lane = m_Shared;
+			}
+			waiter = lane.pollFirst();
+			if (null == waiter) {
+				return;
+			}
+			removeIfEmpty(balance, lane);
+			m_Size--;
+		}
+		GatewayTimer.execute(waiter);
+	}
+
+	/**
+	 * 按优先级排队
+	 */
+	static class Lane {
+		final ArrayDeque<Waiter>[] m_Queues;
+		int m_Size;
+
+		@SuppressWarnings("unchecked")
+		Lane() {
+			m_Queues = new ArrayDeque[PRIORITY_LOW + 1];
+			for (int i = 0; i < m_Queues.length; i++) {
+				m_Queues[i] = new ArrayDeque<>();
+			}
+		}
+
+		/**
+		 * 排在最前的优先级，没有排队时返回Integer.MAX_VALUE
+		 */
+		int getFirstPriority() {
+			if (0 == m_Size) {
+				return Integer.MAX_VALUE;
+			}
+			for (int p = PRIORITY_HIGH; p <= PRIORITY_LOW; p++) {
+				if (!m_Queues[p].isEmpty()) {
+					return p;
+				}
+			}
+			return Integer.MAX_VALUE;
+		}
+
+		void offerLast(Waiter waiter) {
+			m_Queues[waiter.m_Priority].offerLast(waiter);
+			m_Size++;
+		}
+
+		Waiter pollFirst() {
+			if (0 == m_Size) {
+				return null;
+			}
+			for (int p = PRIORITY_HIGH; p <= PRIORITY_LOW; p++) {
+				Waiter waiter = m_Queues[p].pollFirst();
+				if (null != waiter) {
+					m_Size--;
+					return waiter;
+				}
+			}
+			return null;
+		}
+
+		Waiter pollLast(int priority) {
+			Waiter waiter = m_Queues[priority].pollLast();
+			if (null != waiter) {
+				m_Size--;
+			}
+			return waiter;
+		}
+
+		boolean remove(Waiter waiter) {
+			if (m_Queues[waiter.m_Priority].remove(waiter)) {
+				m_Size--;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 排队中的请求
+	 */
+	static class Waiter implements Runnable {
+		final ServiceInstanceBalance m_Balance;
+		final Tunnel m_Tunnel;
+		final int m_Priority;
+		final int m_Code;
+		final String m_Keyword;
+		/** 是否等待网关配额（在队列的锁内修改） */
+		boolean m_Shared;
+		volatile ScheduledFuture<?> m_Timeout;
+
+		Waiter(ServiceInstanceBalance balance, Tunnel tunnel, int priority, int code, String keyword) {
+			m_Balance = balance;
+			m_Tunnel = tunnel;
+			m_Priority = priority;
+			m_Code = code;
+			m_Keyword = keyword;
+		}
+
+		/**
+		 * 已获得配额或已结束排队
+		 */
+		void cancelTimeout() {
+			ScheduledFuture<?> timeout = m_Timeout;
+			if (null != timeout) {
+				timeout.cancel(false);
+			}
+		}
+
+		void reject(String reason) {
+			cancelTimeout();
+			String name = m_Balance.getName();
+			_Logger.warn("微服务[" + name + "]" + reason + ":" + m_Keyword);
+			try {
+				m_Tunnel.responseError(null, m_Code, "微服务[" + name + "]忙：" + m_Keyword + "（" + reason + "）");
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				m_Balance.joint(m_Tunnel, this);
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+				m_Tunnel.responseError(null, WeforwardException.CODE_INTERNAL_ERROR, "内部错误");
+			}
+		}
+	}
+}
@@ -10,9 +10,15 @@
  */
 package cn.weforward.gateway.core;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import cn.weforward.gateway.util.StripedCounter;
+
 /**
  * 负载均衡基本信息（如：权值，状态等）
  * 
@@ -34,6 +40,8 @@ public abstract class BalanceElement {
 	public final static int STATE_EXCEPTION = 4;
 	/** 资源不可用:( */
 	public final static int STATE_UNAVAILABLE = 5;
+	/** 这次对资源的使用被取消（如对冲落败），不计入耗时、错误等统计 */
+	public final static int STATE_CANCELED = 6;
 
 	/** 权重 - 后备资源 */
 	public final static int WEIGHT_BACKUP = -100;
@@ -48,6 +56,21 @@ public abstract class BalanceElement {
 	public final static int UNAVAILABLE_FAILS = Integer.MAX_VALUE / 2;
 	/** 重置失败次数的最小时间 */
 	public final static int FAIL_RESET_MIN_TIMEOUT = 10 * 1000;
+	/** 错误率的定点比例（百万分之一） */
+	public final static int ERROR_RATE_SCALE = 1000 * 1000;
+	/** 慢启动开始时放行的比例（千分比） */
+	public final static int SLOW_START_FLOOR = 100;
+	/** 并发数分散计数的槽数 */
+	final static int CONCURRENT_STRIPES = 8;
+	/** 并发数分散计数每槽累计满此数才并入（误差不超过槽数） */
+	final static int CONCURRENT_BATCH = 2;
+
+	/** 有效权重的原子更新器（多个RPC线程会同时调整有效权重） */
+	static final AtomicIntegerFieldUpdater<BalanceElement> EFFECTIVE_WEIGHT = AtomicIntegerFieldUpdater
+			.newUpdater(BalanceElement.class, "effectiveWeight");
+	/** 连续错误次数的原子更新器 */
+	static final AtomicIntegerFieldUpdater<BalanceElement> ERRORS = AtomicIntegerFieldUpdater
+			.newUpdater(BalanceElement.class, "errors");
 
 	/** 分配请求的权重（1~100，越高被分配到的几率越大），WEIGHT_BACKUP表示作后备 */
 	final int weight;
@@ -57,26 +80,38 @@ public abstract class BalanceElement {
 	int maxFails;
 	/** 在达到最大失败次数时，此期间不使用资源 */
 	int failTimeout;
-	// /** 恢复资源权重的启动时间 */
-	// int slowStart;
+	/** 恢复可用后的慢启动时间（毫秒），0表示不启用 */
+	int slowStart;
+	/** 剔除资源的连续错误次数，0表示不启用 */
+	int ejectErrors;
+	/** 剔除资源的响应时间倍数（与其它资源的平均值比较），0表示不启用 */
+	int ejectLatency;
 
-	/** 当前选择权重 */
-	int currentWeight;
 	/** 有效权重 */
 	volatile int effectiveWeight;
 
 	// /** 占用中的线程 */
 	// volatile Thread thread;
-	/** 使用次数 */
-	volatile int times;
+	/** 使用次数（使用次数及失败总次数只在查看统计时读取，分散计数避免多个RPC线程争用） */
+	final LongAdder times = new LongAdder();
 	/** 失败总次数 */
-	volatile int failTotal;
-	/** 并发数 */
-	volatile int concurrent;
+	final LongAdder failTotal = new LongAdder();
+	/** 并发数（选择端点时读近似值，判断过载时接近上限才取精确值） */
+	final StripedCounter concurrent = new StripedCounter(CONCURRENT_STRIPES, CONCURRENT_BATCH);
 	/** 失败时间 */
 	volatile long failLast;
 	/** 连续失败次数 */
 	volatile int fails;
+	/** 连续错误次数（失败、超时、异常） */
+	volatile int errors;
+	/** 被剔除的时间，0表示未被剔除 */
+	volatile long ejectLast;
+	/** 慢启动的开始时间，0表示不在慢启动期 */
+	volatile long slowStartBegin;
+	/** 响应时间的指数加权平均值（微秒），0表示还没有样本 */
+	volatile long latencyEwma;
+	/** 错误率的指数加权平均值（百万分比，0~ERROR_RATE_SCALE） */
+	volatile int errorRateEwma;
 
 	public BalanceElement(int weight) {
 		this.weight = weight;
@@ -105,6 +140,36 @@ public abstract class BalanceElement {
 		this.failTimeout = failTimeout;
 	}
 
+	/**
+	 * 慢启动时间
+	 * 
+	 * @param slowStart
+	 *            慢启动时间（毫秒，为0则不启用）
+	 */
+	public void setSlowStart(int slowStart) {
+		this.slowStart = slowStart;
+	}
+
+	/**
+	 * 连续错误剔除
+	 * 
+	 * @param ejectErrors
+	 *            剔除资源的连续错误次数（为0则不启用）
+	 */
+	public void setEjectErrors(int ejectErrors) {
+		this.ejectErrors = ejectErrors;
+	}
+
+	/**
+	 * 响应时间剔除
+	 * 
+	 * @param ejectLatency
+	 *            响应时间超过其它资源平均值的倍数（为0则不启用）
+	 */
+	public void setEjectLatency(int ejectLatency) {
+		this.ejectLatency = ejectLatency;
+	}
+
 	/**
 	 * 控制最大并发数
 	 * 
@@ -119,8 +184,39 @@ public abstract class BalanceElement {
 	 * 使用资源
 	 */
 	protected void use() {
-		++concurrent;
-		++times;
+		concurrent.increment();
+		times.increment();
+	}
+
+	/**
+	 * 用完资源
+	 * 
+	 * @param state
+	 *            使用资源的状态 STATE_xxx
+	 * @param elapsed
+	 *            使用资源的耗时（微秒），小于等于0表示不计入
+	 */
+	protected void free(int state, long elapsed) {
+		if (STATE_CANCELED == state) {
+			free(state);
+			return;
+		}
+		// 错误率按每次使用计入，平滑系数为1/16（可覆盖最近数十次调用）
+		int rate = errorRateEwma;
+		int sample = (STATE_OK == state) ? 0 : ERROR_RATE_SCALE;
+		errorRateEwma = rate + ((sample - rate) >> 4);
+		if (elapsed > 0 && (STATE_OK == state || STATE_TIMEOUT == state)) {
+			// 只统计有响应（或超时）的耗时，连接失败等的耗时没有参考价值
+			long ewma = latencyEwma;
+			if (0 == ewma) {
+				ewma = elapsed;
+			} else {
+				// 平滑系数为1/8
+				ewma += (elapsed - ewma) >> 3;
+			}
+			latencyEwma = (ewma > 0) ? ewma : 1;
+		}
+		free(state);
 	}
 
 	/**
@@ -130,83 +226,146 @@ public abstract class BalanceElement {
 	 *            使用资源的状态 STATE_xxx
 	 */
 	protected void free(int state) {
-		--concurrent;
+		concurrent.decrement();
 		// thread = null;
+		if (STATE_CANCELED == state) {
+			return;
+		}
 		if (STATE_OK == state) {
 			// 是成功的
 			reset();
 			return;
 		}
 		// 是不成功的
+		if (STATE_BUSY != state && ejectErrors > 0 && 0 == ejectLast
+				&& ERRORS.incrementAndGet(this) >= ejectErrors) {
+			// 连续错误（忙不算）达到次数，在允许时剔除（只由把计数归零的那个线程执行）
+			int count = errors;
+			if (count >= ejectErrors && ERRORS.compareAndSet(this, count, 0) && isEjectable()) {
+				eject();
+			}
+		}
 		if (STATE_FAIL == state) {
 			// 若状态是失败的，计数加一
 			++fails;
-			++failTotal;
+			failTotal.increment();
 			// 标记最后失败时间
 			failLast = System.currentTimeMillis();
 			if (maxFails > 0 && weight > 0) {
-				effectiveWeight -= (weight / maxFails);
+				lowerWeight(weight / maxFails);
 			} else {
-				--effectiveWeight;
-			}
-			if (effectiveWeight < 0) {
-				effectiveWeight = 0;
+				lowerWeight(1);
 			}
 			_Logger.warn("failed " + this);
 		} else if (STATE_UNAVAILABLE == state) {
 			// 不可用，直接置为最大失败值
 			fails = UNAVAILABLE_FAILS;
-			++failTotal;
+			failTotal.increment();
 			// 标记最后失败时间
 			failLast = System.currentTimeMillis();
 			if (maxFails > 0 && weight > 0) {
-				effectiveWeight -= (weight / maxFails);
+				lowerWeight(weight / maxFails);
 			} else {
-				--effectiveWeight;
-			}
-			if (effectiveWeight < 0) {
-				effectiveWeight = 0;
+				lowerWeight(1);
 			}
 			_Logger.warn("unavailable " + this);
 		} else if (STATE_EXCEPTION == state) {
-			// 当资源使用异常
-			// 把选择权重减小有效权重
-			if (effectiveWeight > 0) {
-				currentWeight -= effectiveWeight;
-			} else if (currentWeight > 0) {
-				currentWeight = 0;
-			}
-			// 降低权重
-			if (effectiveWeight > WEIGHT_EXCEPTION) {
-				effectiveWeight = WEIGHT_EXCEPTION;
-			}
+			// 当资源使用异常，降低权重
+			limitWeight(WEIGHT_EXCEPTION);
 			_Logger.warn("abnormal " + this);
 		} else if (STATE_BUSY == state) {
 			// 资源忙，降低权重
-			if (effectiveWeight > WEIGHT_BUSY) {
-				effectiveWeight = WEIGHT_BUSY;
-			}
+			limitWeight(WEIGHT_BUSY);
 			_Logger.warn("busy " + this);
 		} else {
 			// 降低权重
-			int lowWeight = effectiveWeight / 2;
-			if (lowWeight > 0) {
-				effectiveWeight = lowWeight;
-			}
+			int ew;
+			do {
+				ew = effectiveWeight;
+				if (ew / 2 <= 0) {
+					break;
+				}
+			} while (!EFFECTIVE_WEIGHT.compareAndSet(this, ew, ew / 2));
 			_Logger.warn("timeout " + this);
 		}
 	}
 
 	/**
-	 * 是否失效期内
+	 * 降低有效权重（最低为0）
+	 * 
+	 * @param delta
+	 *            要降低的值
+	 */
+	void lowerWeight(int delta) {
+		int ew;
+		int lower;
+		do {
+			ew = effectiveWeight;
+			lower = ew - delta;
+			if (lower < 0) {
+				lower = 0;
+			}
+		} while (!EFFECTIVE_WEIGHT.compareAndSet(this, ew, lower));
+	}
+
+	/**
+	 * 限制有效权重不超过指定值
+	 * 
+	 * @param max
+	 *            最大值
+	 */
+	void limitWeight(int max) {
+		int ew;
+		do {
+			ew = effectiveWeight;
+			if (ew <= max) {
+				return;
+			}
+		} while (!EFFECTIVE_WEIGHT.compareAndSet(this, ew, max));
+	}
+
+	/**
+	 * 逐步恢复有效权重（每次加一，直到所设置的权重）。
+	 * <p>
+	 * 只尝试一次CAS，并发时由其它线程完成恢复即可
+	 */
+	void recoverWeight() {
+		int ew = effectiveWeight;
+		if (ew < getBaseWeight()) {
+			EFFECTIVE_WEIGHT.compareAndSet(this, ew, ew + 1);
+		}
+	}
+
+	/**
+	 * 参与选择的基准权重，后备或预发资源为1
+	 */
+	int getBaseWeight() {
+		return (weight > 0) ? weight : 1;
+	}
+
+	/**
+	 * 是否失效期内（包括被剔除期间）
 	 */
 	boolean isFailDuring() {
+		long ejected = ejectLast;
+		if (0 != ejected) {
+			long now = System.currentTimeMillis();
+			if (now <= (ejected + failTimeout)) {
+				// 还在剔除期内
+				return true;
+			}
+			// 超出剔除期，恢复并开始慢启动
+			ejectLast = 0;
+			beginSlowStart(now);
+			_Logger.info("regain(eject) " + this);
+		}
 		if (UNAVAILABLE_FAILS == fails || (maxFails > 0 && fails >= maxFails)) {
 			// 大于或等于最大失败次数时
 			long now = System.currentTimeMillis();
 			if (now > (failLast + failTimeout)) {
 				// 若已超出失效期，重置失败数
 				fails = 0;
+				beginSlowStart(now);
 				// 返回不是失效期
 				_Logger.info("regain(expire) " + this);
 				return false;
@@ -217,11 +376,66 @@ public abstract class BalanceElement {
 		return false;
 	}
 
+	/**
+	 * 剔除资源，在失效时间（failTimeout）内不再使用
+	 */
+	void eject() {
+		errors = 0;
+		slowStartBegin = 0;
+		// 响应时间需要在恢复后重新统计
+		latencyEwma = 0;
+		ejectLast = System.currentTimeMillis();
+		_Logger.warn("eject " + this);
+	}
+
+	/**
+	 * 是否允许剔除（由所属的均衡器限制同时被剔除的数量）
+	 */
+	protected boolean isEjectable() {
+		return true;
+	}
+
+	/**
+	 * 是否被剔除
+	 */
+	boolean isEjected() {
+		return 0 != ejectLast;
+	}
+
+	/**
+	 * 开始慢启动
+	 */
+	private void beginSlowStart(long now) {
+		if (slowStart > 0) {
+			slowStartBegin = now;
+		}
+	}
+
+	/**
+	 * 慢启动期内按时间由SLOW_START_FLOOR线性增长的比例随机放行
+	 * 
+	 * @return 是否放行（不在慢启动期总是放行）
+	 */
+	boolean admitSlowStart() {
+		long begin = slowStartBegin;
+		if (0 == begin) {
+			return true;
+		}
+		long elapsed = System.currentTimeMillis() - begin;
+		if (elapsed >= slowStart || elapsed < 0) {
+			// 慢启动期结束
+			slowStartBegin = 0;
+			return true;
+		}
+		int ratio = SLOW_START_FLOOR + (int) ((1000 - SLOW_START_FLOOR) * elapsed / slowStart);
+		return ThreadLocalRandom.current().nextInt(1000) < ratio;
+	}
+
 	/**
 	 * 是否过载
 	 */
 	boolean isOverload() {
-		if (maxConcurrent > 0 && concurrent >= maxConcurrent) {
+		if (maxConcurrent > 0 && concurrent.get(maxConcurrent) >= maxConcurrent) {
 			return true;
 		}
 		return false;
@@ -234,23 +448,53 @@ public abstract class BalanceElement {
 		return (WEIGHT_BACKUP == weight);
 	}
 
+	/**
+	 * 继承被替换的资源项（同一实例重新打开时）的统计及均衡状态
+	 * <p>
+	 * 不继承并发数：原资源项上未完成的调用结束时释放的是原资源项，若继承则新资源项的并发数永远降不下来；
+	 * 代价是替换后的短时间内新资源项的并发数偏低
+	 * 
+	 * @param old
+	 *            被替换的资源项
+	 * @param keepWeight
+	 *            是否保留有效权重及慢启动状态（原资源项超时后恢复的不保留）
+	 */
+	protected void inherit(BalanceElement old, boolean keepWeight) {
+		times.add(old.times.sum());
+		failTotal.add(old.failTotal.sum());
+		latencyEwma = old.latencyEwma;
+		errorRateEwma = old.errorRateEwma;
+		if (keepWeight && weight == old.weight) {
+			effectiveWeight = old.effectiveWeight;
+			slowStartBegin = old.slowStartBegin;
+		}
+	}
+
 	/**
 	 * 重置失败的状态
 	 */
 	protected void reset() {
 		// 清除失败计数
 		fails = 0;
+		errors = 0;
 		failLast = 0;
 		// 恢复所设置的权重
-		effectiveWeight = weight;
+		effectiveWeight = getBaseWeight();
 	}
 
 	protected void resetAtFail(int timeout) {
-		if (fails > 0 && fails >= maxFails && System.currentTimeMillis() > (failLast + timeout)) {
+		long now = System.currentTimeMillis();
+		if (fails > 0 && fails >= maxFails && now > (failLast + timeout)) {
 			// reset();
 			// 清除失败计数
 			fails = 0;
 			failLast = 0;
+			beginSlowStart(now);
+		}
+		long ejected = ejectLast;
+		if (0 != ejected && now > (ejected + timeout)) {
+			ejectLast = 0;
+			beginSlowStart(now);
 		}
 	}
 
@@ -265,7 +509,7 @@ public abstract class BalanceElement {
 	 * 使用次数
 	 */
 	public int getTimes() {
-		return times;
+		return times.intValue();
 	}
 
 	public int getWeight() {
@@ -284,8 +528,13 @@ public abstract class BalanceElement {
 		return failTimeout;
 	}
 
+	/**
+	 * 当前选择权重
+	 * <p>
+	 * 平滑加权轮询的选择序列已在端点列表变化时预先算好，不再逐项维护当前选择权重，返回有效权重以兼容原接口
+	 */
 	public int getCurrentWeight() {
-		return currentWeight;
+		return effectiveWeight;
 	}
 
 	public int getEffectiveWeight() {
@@ -293,27 +542,50 @@ public abstract class BalanceElement {
 	}
 
 	public int getFailTotal() {
-		return failTotal;
+		return failTotal.intValue();
 	}
 
 	public int getConcurrent() {
-		return concurrent;
+		return concurrent.sum();
 	}
 
 	public int getFails() {
 		return fails;
 	}
 
+	/**
+	 * 响应时间的指数加权平均值（微秒）
+	 */
+	public long getLatencyEwma() {
+		return latencyEwma;
+	}
+
+	/**
+	 * 错误率的指数加权平均值
+	 * 
+	 * @return 0~1
+	 */
+	public double getErrorRate() {
+		return (double) errorRateEwma / ERROR_RATE_SCALE;
+	}
+
 	@Override
 	public String toString() {
 		return toString(new StringBuilder()).toString();
 	}
 
 	public StringBuilder toString(StringBuilder sb) {
-		sb.append("{n:").append(getElementName()).append(",ts:").append(times).append(",c:").append(concurrent).append(",max-c:")
-				.append(maxConcurrent).append(",w:").append(weight).append(",c-w:").append(currentWeight)
-				.append(",e-w:").append(effectiveWeight).append(",f:").append(fails).append(",max-f:").append(maxFails)
-				.append(",t-f:").append(failTotal).append(",f-to:").append(failTimeout).append("}");
+		sb.append("{n:").append(getElementName()).append(",ts:").append(times.sum()).append(",c:").append(concurrent.sum()).append(",max-c:")
+				.append(maxConcurrent).append(",w:").append(weight).append(",e-w:").append(effectiveWeight)
+				.append(",f:").append(fails).append(",max-f:").append(maxFails).append(",t-f:").append(failTotal).append(",f-to:").append(failTimeout).append(",l:").append(latencyEwma)
+				.append(",e-r:").append(errorRateEwma);
+		if (0 != ejectLast) {
+			sb.append(",eject:").append(ejectLast);
+		}
+		if (0 != slowStartBegin) {
+			sb.append(",s-s:").append(slowStartBegin);
+		}
+		sb.append("}");
 		return sb;
 	}
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import cn.weforward.common.util.StringUtil;
+
+/**
+ * 微服务的自适应并发限制，根据响应时间及超时、忙等信号调整并发上限，在微服务饱和前限流
+ * <p>
+ * 每次调用结束都会采样，上限以CAS更新，不加锁
+ * 
+ * @author zhangpengji
+ *
+ */
+abstract class ConcurrencyLimiter {
+	/** 算法 - 加性增、乘性减 */
+	static final String ALGORITHM_AIMD = "aimd";
+	/** 算法 - 按长短期响应时间的梯度调整 */
+	static final String ALGORITHM_GRADIENT = "gradient";
+
+	/** 初始的并发上限 */
+	static final int INITIAL_LIMIT = 20;
+	/** 最低的并发上限 */
+	static final int MIN_LIMIT = 2;
+	/** 出现超时或忙时的衰减比例 */
+	static final double BACKOFF_RATIO = 0.9;
+
+	static final AtomicIntegerFieldUpdater<ConcurrencyLimiter> LIMIT = AtomicIntegerFieldUpdater
+			.newUpdater(ConcurrencyLimiter.class, "m_Limit");
+
+	/** 允许的最大并发上限 */
+	final int m_MaxLimit;
+	/** 当前的并发上限 */
+	volatile int m_Limit;
+
+	ConcurrencyLimiter(int maxLimit) {
+		m_MaxLimit = Math.max(maxLimit, MIN_LIMIT);
+		m_Limit = Math.min(INITIAL_LIMIT, m_MaxLimit);
+	}
+
+	/**
+	 * 创建限制器
+	 * 
+	 * @param algorithm
+	 *            ALGORITHM_xxx
+	 * @param maxLimit
+	 *            最大并发上限
+	 * @return 算法为空或无效时返回null
+	 */
+	static ConcurrencyLimiter getInstance(String algorithm, int maxLimit) {
+		if (StringUtil.isEmpty(algorithm)) {
+			return null;
+		}
+		if (ALGORITHM_AIMD.equals(algorithm)) {
+			return new AimdLimiter(maxLimit);
+		}
+		if (ALGORITHM_GRADIENT.equals(algorithm)) {
+			return new GradientLimiter(maxLimit);
+		}
+		ServiceInstanceBalance._Logger.warn("不支持的并发限制算法：" + algorithm);
+		return null;
+	}
+
+	/**
+	 * 当前的并发上限
+	 */
+	int getLimit() {
+		return m_Limit;
+	}
+
+	/**
+	 * 调用结束时的采样
+	 * 
+	 * @param rtt
+	 *            响应时间（微秒），小于等于0表示没有
+	 * @param inflight
+	 *            调用时的并发数
+	 * @param dropped
+	 *            是否超时或忙（微服务饱和的信号）
+	 */
+	abstract void onSample(long rtt, int inflight, boolean dropped);
+
+	/**
+	 * 超时或忙时按BACKOFF_RATIO衰减上限
+	 * 
+	 * @return 衰减后的上限
+	 */
+	int backoff() {
+		int limit, next;
+		do {
+			limit = m_Limit;
+			next = clamp(limit * BACKOFF_RATIO);
+		} while (!LIMIT.compareAndSet(this, limit, next));
+		return next;
+	}
+
+	int clamp(double limit) {
+		if (limit < MIN_LIMIT) {
+			return MIN_LIMIT;
+		}
+		if (limit > m_MaxLimit) {
+			return m_MaxLimit;
+		}
+		return (int) limit;
+	}
+
+	@Override
+	public String toString() {
+		return "{limit:" + m_Limit + ",max:" + m_MaxLimit + "}";
+	}
+
+	/**
+	 * 加性增、乘性减：每成功limit次加一，超时或忙时按BACKOFF_RATIO衰减
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	static class AimdLimiter extends ConcurrencyLimiter {
+		static final AtomicIntegerFieldUpdater<AimdLimiter> SUCCESSES = AtomicIntegerFieldUpdater
+				.newUpdater(AimdLimiter.class, "m_Successes");
+
+		/** 上次调整后的成功次数 */
+		volatile int m_Successes;
+
+		AimdLimiter(int maxLimit) {
+			super(maxLimit);
+		}
+
+		@Override
+		void onSample(long rtt, int inflight, boolean dropped) {
+			if (dropped) {
+				backoff();
+				m_Successes = 0;
+				return;
+			}
+			int limit = m_Limit;
+			if (inflight * 2 < limit) {
+				// 并发还远未到上限，不能说明可承受更多
+				return;
+			}
+			int successes = SUCCESSES.incrementAndGet(this);
+			// 由计满的线程清零并加一，清零失败说明其它线程计在其后，交由它处理
+			if (successes >= limit && SUCCESSES.compareAndSet(this, successes, 0)) {
+				LIMIT.compareAndSet(this, limit, clamp(limit + 1));
+			}
+		}
+	}
+
+	/**
+	 * 梯度：以长期响应时间与短期响应时间之比（0.5~1）缩放上限，再加上允许排队的余量，并平滑。
+	 * <p>
+	 * 样本按WINDOW个一批计入窗口，由计满窗口的线程重算，其它线程只累加
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	static class GradientLimiter extends ConcurrencyLimiter {
+		/** 每个窗口的样本数（2的幂） */
+		static final int WINDOW = 8;
+		/** 长期响应时间（每个窗口）的平滑系数 */
+		static final double LONG_ALPHA = (double) WINDOW / 600;
+		/** 上限变化的平滑系数 */
+		static final double SMOOTHING = 0.2;
+
+		/** 已计入的样本数 */
+		final AtomicInteger m_Samples;
+		/** 窗口内响应时间（微秒）的合计 */
+		final LongAdder m_RttSum;
+		/** 窗口内合计的样本数 */
+		final LongAdder m_RttCount;
+		/** 是否有线程在重算 */
+		final AtomicBoolean m_Updating;
+
+		/* 以下只由重算的线程访问 */
+		/** 长期响应时间（微秒） */
+		double m_LongRtt;
+		/** 短期响应时间（微秒），即上个窗口的平均 */
+		double m_ShortRtt;
+		/** 未取整的上限 */
+		double m_Estimated;
+
+		GradientLimiter(int maxLimit) {
+			super(maxLimit);
+			m_Samples = new AtomicInteger();
+			m_RttSum = new LongAdder();
+			m_RttCount = new LongAdder();
+			m_Updating = new AtomicBoolean();
+			m_Estimated = m_Limit;
+		}
+
+		@Override
+		void onSample(long rtt, int inflight, boolean dropped) {
+			if (dropped) {
+				backoff();
+				return;
+			}
+			if (rtt <= 0) {
+				return;
+			}
+			m_RttSum.add(rtt);
+			m_RttCount.increment();
+			if (0 != (m_Samples.incrementAndGet() & (WINDOW - 1)) || !m_Updating.compareAndSet(false, true)) {
+				// 窗口未满，或者已有线程在重算（样本留到下个窗口）
+				return;
+			}
+			try {
+				long count = m_RttCount.sumThenReset();
+				long sum = m_RttSum.sumThenReset();
+				if (count > 0) {
+					update((double) sum / count, inflight);
+				}
+			} finally {
+				m_Updating.set(false);
+			}
+		}
+
+		private void update(double rtt, int inflight) {
+			int limit = m_Limit;
+			if (limit != clamp(m_Estimated)) {
+				// 期间因超时或忙衰减过
+				m_Estimated = limit;
+			}
+			m_ShortRtt = rtt;
+			if (0 == m_LongRtt) {
+				m_LongRtt = rtt;
+				return;
+			}
+			m_LongRtt += (rtt - m_LongRtt) * LONG_ALPHA;
+			if (m_LongRtt > m_ShortRtt * 2) {
+				// 负载下降后长期值偏高，加快回落，避免上限被过度放大
+				m_LongRtt *= 0.95;
+			}
+			if (inflight * 2 < m_Estimated) {
+				// 并发还远未到上限，不调整
+				return;
+			}
+			double gradient = Math.max(0.5, Math.min(1.0, m_LongRtt / m_ShortRtt));
+			double queueSize = Math.sqrt(m_Estimated);
+			double target = m_Estimated * gradient + queueSize;
+			m_Estimated = m_Estimated * (1 - SMOOTHING) + target * SMOOTHING;
+			m_Estimated = Math.max(MIN_LIMIT, Math.min(m_MaxLimit, m_Estimated));
+			// 期间又衰减过的话以衰减为准
+			LIMIT.compareAndSet(this, limit, clamp(m_Estimated));
+		}
+	}
+}
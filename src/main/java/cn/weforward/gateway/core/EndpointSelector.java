@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+/**
+ * 微服务实例端点的选择器（负载均衡算法）
+ * <p>
+ * 由<code>ServiceInstanceBalance</code>在端点列表变化时（已持有其锁）调用<code>reinit</code>，各RPC线程则并发调用
+ * <code>select</code>，故实现须是线程安全的，且尽量不加锁
+ * 
+ * @author zhangpengji
+ *
+ */
+abstract class EndpointSelector {
+
+	/** 选择范围 - 非后备端点 */
+	static final int SCOPE_PRIMARY = 0;
+	/** 选择范围 - 仅后备端点 */
+	static final int SCOPE_BACKUP = 1;
+	/** 选择范围 - 所有端点 */
+	static final int SCOPE_ALL = 2;
+
+	/**
+	 * 按均衡策略创建选择器
+	 * 
+	 * @param strategy
+	 *            TrafficTableItemExt.STRATEGY_xxx，为空或无效时使用平滑加权轮询
+	 * @return
+	 */
+	static EndpointSelector getInstance(String strategy) {
+		if (TrafficTableItemExt.STRATEGY_LEAST_CONCURRENT.equals(strategy)) {
+			return new LeastConcurrentSelector();
+		}
+		if (TrafficTableItemExt.STRATEGY_POWER_OF_TWO.equals(strategy)) {
+			return new PowerOfTwoSelector();
+		}
+		if (TrafficTableItemExt.STRATEGY_EWMA.equals(strategy)) {
+			return new EwmaSelector();
+		}
+		if (!StringUtil.isEmpty(strategy) && !TrafficTableItemExt.STRATEGY_ROUND_ROBIN.equals(strategy)) {
+			ServiceInstanceBalance._Logger.warn("无效的均衡策略[" + strategy + "]，使用默认的");
+		}
+		return new SmoothWeightedSelector();
+	}
+
+	/**
+	 * 均衡策略
+	 * 
+	 * @return TrafficTableItemExt.STRATEGY_xxx
+	 */
+	abstract String getStrategy();
+
+	/**
+	 * 是否此均衡策略（为空等同于默认策略）
+	 * 
+	 * @param strategy
+	 * @return
+	 */
+	boolean isStrategy(String strategy) {
+		if (StringUtil.isEmpty(strategy)) {
+			strategy = TrafficTableItemExt.STRATEGY_ROUND_ROBIN;
+		}
+		return strategy.equals(getStrategy());
+	}
+
+	/**
+	 * 端点列表已变化
+	 * 
+	 * @param endpoints
+	 *            新的端点列表，可能为null
+	 */
+	abstract void reinit(ServiceEndpoint[] endpoints);
+
+	/**
+	 * 在端点列表中选择一个端点
+	 * 
+	 * @param endpoints
+	 *            端点列表
+	 * @param version
+	 *            要求的版本
+	 * @param excludeNos
+	 *            要排除的实例编号
+	 * @param scope
+	 *            选择范围 SCOPE_xxx
+	 * @return 没有可选的端点时返回null
+	 */
+	abstract ServiceEndpoint select(ServiceEndpoint[] endpoints, String version, List<String> excludeNos,
+			int scope);
+
+	/**
+	 * 端点是否可选
+	 */
+	static boolean isCandidate(ServiceEndpoint ep, String version, List<String> excludeNos, int scope) {
+		if (SCOPE_PRIMARY == scope && ep.isBackup()) {
+			return false;
+		}
+		if (SCOPE_BACKUP == scope && !ep.isBackup()) {
+			return false;
+		}
+		if (ep.isOverload() || ep.isFailDuring()) {
+			return false;
+		}
+		return ep.matchVersion(version) && !ep.matchNos(excludeNos);
+	}
+
+	/**
+	 * 端点的并发负载：(并发数+1)/(有效权重+1)，越小越空闲
+	 */
+	static double concurrentLoad(ServiceEndpoint ep) {
+		int ew = ep.effectiveWeight;
+		if (ew < 0) {
+			ew = 0;
+		}
+		// 近似的并发数，争用时可能偏差几个，甚至是负数
+		return (Math.max(ep.concurrent.get(), 0) + 1.0) / (ew + 1);
+	}
+
+	/**
+	 * 随机取一个可选的端点
+	 * 
+	 * @param exclude
+	 *            要排除的端点，可为null
+	 */
+	static ServiceEndpoint randomCandidate(ServiceEndpoint[] endpoints, String version, List<String> excludeNos,
+			int scope, ServiceEndpoint exclude) {
+		int n = endpoints.length;
+		int start = ThreadLocalRandom.current().nextInt(n);
+		for (int i = 0; i < n; i++) {
+			ServiceEndpoint ep = endpoints[(start + i) % n];
+			if (ep != exclude && isCandidate(ep, version, excludeNos, scope)) {
+				return ep;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 按有效权重随机选择，有效权重全为0时选择第一个可选的
+	 */
+	static ServiceEndpoint randomSelect(ServiceEndpoint[] endpoints, String version, List<String> excludeNos,
+			int scope) {
+		ServiceEndpoint first = null;
+		ServiceEndpoint best = null;
+		int total = 0;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (ServiceEndpoint ep : endpoints) {
+			if (!isCandidate(ep, version, excludeNos, scope)) {
+				continue;
+			}
+			if (null == first) {
+				first = ep;
+			}
+			int ew = ep.effectiveWeight;
+			if (ew <= 0) {
+				continue;
+			}
+			// 蓄水池抽样，每项被选中的几率是ew/total
+			total += ew;
+			if (random.nextInt(total) < ew) {
+				best = ep;
+			}
+		}
+		return (null == best) ? first : best;
+	}
+}
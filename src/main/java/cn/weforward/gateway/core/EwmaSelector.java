@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+/**
+ * 按响应时间加权的随机选择器
+ * <p>
+ * 各端点被选中的几率与 有效权重/响应时间的指数加权平均值 成正比，慢的实例自然分到较少的请求；
+ * 还没有响应时间样本的端点按可选端点中最快的算
+ * 
+ * @author zhangpengji
+ *
+ */
+class EwmaSelector extends EndpointSelector {
+
+	@Override
+	String getStrategy() {
+		return TrafficTableItemExt.STRATEGY_EWMA;
+	}
+
+	@Override
+	void reinit(ServiceEndpoint[] endpoints) {
+		// 无状态
+	}
+
+	@Override
+	ServiceEndpoint select(ServiceEndpoint[] endpoints, String version, List<String> excludeNos, int scope) {
+		// 先找出最快的响应时间
+		long fastest = 0;
+		for (ServiceEndpoint ep : endpoints) {
+			long latency = ep.latencyEwma;
+			if (latency > 0 && (0 == fastest || latency < fastest) && isCandidate(ep, version, excludeNos, scope)) {
+				fastest = latency;
+			}
+		}
+		if (0 == fastest) {
+			// 都没有样本
+			return randomSelect(endpoints, version, excludeNos, scope);
+		}
+		// 蓄水池抽样
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		ServiceEndpoint first = null;
+		ServiceEndpoint best = null;
+		double total = 0;
+		for (ServiceEndpoint ep : endpoints) {
+			if (!isCandidate(ep, version, excludeNos, scope)) {
+				continue;
+			}
+			if (null == first) {
+				first = ep;
+			}
+			int ew = ep.effectiveWeight;
+			if (ew <= 0) {
+				continue;
+			}
+			long latency = ep.latencyEwma;
+			double w = (double) ew / (latency > 0 ? latency : fastest);
+			total += w;
+			if (random.nextDouble() * total < w) {
+				best = ep;
+			}
+		}
+		return (null == best) ? first : best;
+	}
+}
@@ -15,6 +15,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +31,9 @@ import cn.weforward.protocol.Service;
 import cn.weforward.protocol.exception.WeforwardException;
 
 /**
- * 支持微服务转发（单<code>Tunnel</code>对接多<code>Pipe</code>）
+ * 支持微服务转发（单<code>Tunnel</code>对接多<code>Pipe</code>）。
+ * <p>
+ * 启用对冲时，若首个实例在延时内未响应，向另一实例发出同样的请求，取先响应的，取消另一个
  * 
  * @author zhangpengji
  *
@@ -49,14 +52,27 @@ class ForwardBridger {
 	volatile InputStream m_TransferBuffer;
 	volatile boolean m_End;
 
+	/** 对冲请求的延时（毫秒），0表示不启用 */
+	final int m_HedgeDelay;
+	volatile ScheduledFuture<?> m_HedgeTask;
+	/** 对冲请求的Tunnel，未发出对冲时为null */
+	volatile HedgeTunnel m_HedgeTunnel;
+	/** 先响应（胜出）的Pipe */
+	volatile Pipe m_Winner;
+
 	ForwardBridger(ServiceInstanceBalance balance, Tunnel tunnel, int maxForward) throws IOException {
+		this(balance, tunnel, maxForward, 0);
+	}
+
+	ForwardBridger(ServiceInstanceBalance balance, Tunnel tunnel, int maxForward, int hedgeDelay) throws IOException {
 		m_TransferBuffer = tunnel.mirrorTransferStream();
 
 		m_Balance = balance;
 		m_TunnelWrap = new TunnelWrap(tunnel);
 		m_PipeWrap = new PipeWrap();
 		m_MaxForward = maxForward;
-		m_Connected = new ArrayList<String>(m_MaxForward + 1);
+		m_HedgeDelay = hedgeDelay;
+		m_Connected = new ArrayList<String>(m_MaxForward + 2);
 	}
 
 	void connect(ServiceEndpoint endpoint) {
@@ -78,6 +94,7 @@ class ForwardBridger {
 		synchronized (getLock()) {
 			m_End = true;
 		}
+		cancelHedgeTask();
 
 		InputStream buffer = m_TransferBuffer;
 		if (null != buffer) {
@@ -116,6 +133,99 @@ class ForwardBridger {
 		return buffer;
 	}
 
+	/**
+	 * 请求已完整传给首个实例后，安排对冲
+	 */
+	void scheduleHedge() {
+		if (m_HedgeDelay <= 0 || null != m_HedgeTask || null != m_Winner || 1 != getConnectedCount()) {
+			return;
+		}
+		m_HedgeTask = GatewayTimer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					hedge();
+				} catch (Throwable e) {
+					_Logger.error(e.toString(), e);
+				}
+			}
+		}, m_HedgeDelay);
+	}
+
+	/**
+	 * 取消还未执行的对冲
+	 */
+	private void cancelHedgeTask() {
+		ScheduledFuture<?> task = m_HedgeTask;
+		if (null != task) {
+			m_HedgeTask = null;
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * 首个实例未在延时内响应，向另一实例发出对冲请求
+	 */
+	void hedge() {
+		m_HedgeTask = null;
+		ServiceEndpoint endpoint;
+		synchronized (getLock()) {
+			if (m_End || null != m_Winner || 1 != getConnectedCount() || null == m_TransferBuffer) {
+				return;
+			}
+			try {
+				endpoint = next(null);
+			} catch (BalanceException e) {
+				// 没有其它可用的实例，不对冲
+				if (_Logger.isDebugEnabled()) {
+					_Logger.debug("放弃对冲：" + e.getKeyword());
+				}
+				return;
+			}
+			m_Connected.add(endpoint.getService().getNo());
+			m_HedgeTunnel = new HedgeTunnel(m_TunnelWrap.getTunnel());
+		}
+		if (_Logger.isDebugEnabled()) {
+			_Logger.debug("对冲至" + endpoint + "，延时：" + m_HedgeDelay + "ms");
+		}
+		endpoint.connect(m_HedgeTunnel, false);
+	}
+
+	/**
+	 * 选取转发或对冲的下一个实例（排除已连接过的）
+	 * 
+	 * @param no
+	 *            指定的实例编号，可为null
+	 */
+	ServiceEndpoint next(String no) throws BalanceException {
+		return m_Balance.get(no, m_TunnelWrap.getVersion(), m_Connected);
+	}
+
+	/**
+	 * 由先响应的Pipe胜出，胜出后不再对冲
+	 * 
+	 * @return 是否胜出
+	 */
+	boolean claim(Pipe pipe) {
+		synchronized (getLock()) {
+			if (null != m_Winner) {
+				return m_Winner == pipe;
+			}
+			m_Winner = pipe;
+		}
+		cancelHedgeTask();
+		return true;
+	}
+
+	/**
+	 * 已有其它Pipe胜出（此Pipe的后续回调应忽略）
+	 */
+	boolean isLoser(Pipe pipe) {
+		Pipe winner = m_Winner;
+		return null != winner && winner != pipe;
+	}
+
 	void checkPipe(Pipe pipe) {
 		// 可能是上一个pipe？
 		if (null != m_PipeWrap.m_Pipe && m_PipeWrap.m_Pipe != pipe) {
@@ -137,12 +247,22 @@ class ForwardBridger {
 
 		@Override
 		public void responseError(Pipe pipe, int code, String msg) {
-			if (!checkPipe(pipe)) {
+			if (isLoser(pipe) || !checkPipe(pipe)) {
 				return;
 			}
 			if (m_End) {
 				return;
 			}
+			HedgeTunnel hedge = m_HedgeTunnel;
+			if (null != hedge && m_Winner != pipe) {
+				// 已发出对冲，交由对冲请求响应
+				if (hedge.primaryFailed(code, msg)) {
+					return;
+				}
+				if (WeforwardException.CODE_SERVICE_FORWARD == code) {
+					code = WeforwardException.CODE_SERVICE_INVOKE_ERROR;
+				}
+			}
 
 			if (WeforwardException.CODE_SERVICE_FORWARD != code) {
 				responseError0(null, WeforwardException.CODE_SERVICE_INVOKE_ERROR, msg);
@@ -160,7 +280,7 @@ class ForwardBridger {
 			}
 
 			try {
-				ServiceEndpoint endpoint = m_Balance.get(pipe.getForwardTo(), getVersion(), m_Connected);
+				ServiceEndpoint endpoint = next(pipe.getForwardTo());
 				connect(endpoint);
 			} catch (BalanceException e) {
 				_Logger.warn(e.toString());
@@ -178,6 +298,10 @@ class ForwardBridger {
 			if (null != pipe) {
 				pipe.requestCanceled(m_TunnelWrap);
 			}
+			HedgeTunnel hedge = m_HedgeTunnel;
+			if (null != hedge) {
+				hedge.cancel();
+			}
 			m_Tunnel.responseError(m_PipeWrap, code, msg);
 		}
 
@@ -280,19 +404,31 @@ class ForwardBridger {
 
 		@Override
 		public void requestCompleted(Pipe pipe) {
+			if (!m_End && checkPipe(pipe)) {
+				scheduleHedge();
+			}
 		}
 
 		@Override
 		public void responseReady(Pipe pipe) {
-			if (!checkPipe(pipe)) {
+			if (isLoser(pipe) || !checkPipe(pipe)) {
 				return;
 			}
+			// 开始响应即胜出，之后才到期的对冲会放弃
+			if (!claim(pipe)) {
+				return;
+			}
+			HedgeTunnel hedge = m_HedgeTunnel;
+			if (null != hedge) {
+				// 首个实例先响应，取消对冲请求
+				hedge.cancel();
+			}
 			m_Tunnel.responseReady(m_PipeWrap);
 		}
 
 		@Override
 		public void responseCompleted(Pipe pipe) {
-			if (!checkPipe(pipe)) {
+			if (isLoser(pipe) || !checkPipe(pipe)) {
 				return;
 			}
 			end();
@@ -302,17 +438,166 @@ class ForwardBridger {
 
 	}
 
+	/**
+	 * 对冲请求的Tunnel
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	private class HedgeTunnel extends cn.weforward.gateway.util.TunnelWrap {
+		volatile Pipe m_Pipe;
+		/** 对冲请求已失败 */
+		boolean m_Failed;
+		/** 首个实例已失败，等待对冲请求的响应 */
+		boolean m_PrimaryFailed;
+
+		HedgeTunnel(Tunnel tunnel) {
+			super(tunnel);
+		}
+
+		/**
+		 * 首个实例失败
+		 * 
+		 * @return 对冲请求还在进行中时返回true（由对冲请求响应），否则返回false
+		 */
+		boolean primaryFailed(int code, String msg) {
+			synchronized (getLock()) {
+				if (m_Failed || null != m_Winner) {
+					return false;
+				}
+				m_PrimaryFailed = true;
+			}
+			if (_Logger.isDebugEnabled()) {
+				_Logger.debug(code + "/" + msg + "，等待对冲请求");
+			}
+			return true;
+		}
+
+		/**
+		 * 取消（未胜出的）对冲请求
+		 */
+		void cancel() {
+			Pipe pipe = m_Pipe;
+			if (null != pipe && m_Winner != pipe) {
+				pipe.requestCanceled(this);
+			}
+		}
+
+		@Override
+		public void responseError(Pipe pipe, int code, String msg) {
+			if (m_Winner == pipe) {
+				// 胜出后转发响应时出错
+				m_TunnelWrap.responseError0(null, WeforwardException.CODE_SERVICE_INVOKE_ERROR, msg);
+				return;
+			}
+			boolean primaryFailed;
+			synchronized (getLock()) {
+				if (null != m_Winner || m_End) {
+					return;
+				}
+				m_Failed = true;
+				primaryFailed = m_PrimaryFailed;
+			}
+			if (primaryFailed) {
+				// 两个都失败了
+				m_TunnelWrap.responseError0(null, WeforwardException.CODE_SERVICE_INVOKE_ERROR, msg);
+			} else if (_Logger.isDebugEnabled()) {
+				_Logger.debug("对冲请求失败：" + code + "/" + msg);
+			}
+		}
+
+		@Override
+		public InputStream mirrorTransferStream() throws IOException {
+			throw new IOException("不支持");
+		}
+
+		@Override
+		public void requestInit(Pipe pipe, int requestMaxSize) {
+			m_Pipe = pipe;
+		}
+
+		@Override
+		public void requestReady(Pipe pipe, OutputStream output) {
+			InputStream buffer;
+			synchronized (getLock()) {
+				if (m_End || isLoser(pipe)) {
+					buffer = null;
+				} else {
+					buffer = duplicateTransferBuffer();
+				}
+			}
+			if (null == buffer) {
+				pipe.requestCanceled(this);
+				return;
+			}
+			try {
+				if (output instanceof OutputStreamNio) {
+					((OutputStreamNio) output).write(buffer);
+				} else {
+					BytesOutputStream.transfer(buffer, output, -1);
+				}
+			} catch (IOException e) {
+				_Logger.error(e.toString(), e);
+				responseError(pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "IO异常:" + e.getMessage());
+				pipe.requestCanceled(this);
+				return;
+			} finally {
+				try {
+					buffer.close();
+				} catch (IOException e) {
+				}
+			}
+			pipe.requestCompleted(this);
+		}
+
+		@Override
+		public void requestCompleted(Pipe pipe) {
+		}
+
+		@Override
+		public void responseReady(Pipe pipe) {
+			if (!claim(pipe)) {
+				return;
+			}
+			// 对冲请求先响应，取消首个实例的请求
+			Pipe primary = m_PipeWrap.m_Pipe;
+			m_PipeWrap.change(pipe, this);
+			if (null != primary) {
+				primary.requestCanceled(m_TunnelWrap);
+			}
+			m_Tunnel.responseReady(m_PipeWrap);
+		}
+
+		@Override
+		public void responseCompleted(Pipe pipe) {
+			if (m_Winner != pipe) {
+				return;
+			}
+			end();
+
+			m_Tunnel.responseCompleted(m_PipeWrap);
+		}
+	}
+
 	private class PipeWrap implements Pipe {
 
 		// volatile ServiceEndpoint m_Endpoint;
 		volatile Pipe m_Pipe;
+		/** m_Pipe所对接的Tunnel */
+		volatile Tunnel m_PipeTunnel = m_TunnelWrap;
 
 		synchronized void reset() {
 			m_Pipe = null;
+			m_PipeTunnel = m_TunnelWrap;
 		}
 
 		synchronized void change(Pipe pipe) {
+			change(pipe, m_TunnelWrap);
+		}
+
+		synchronized void change(Pipe pipe, Tunnel tunnel) {
 			m_Pipe = pipe;
+			m_PipeTunnel = tunnel;
 		}
 
 		@Override
@@ -369,17 +654,21 @@ class ForwardBridger {
 		public void requestCanceled(Tunnel tunnel) {
 			end();
 
-			m_Pipe.requestCanceled(m_TunnelWrap);
+			HedgeTunnel hedge = m_HedgeTunnel;
+			if (null != hedge) {
+				hedge.cancel();
+			}
+			m_Pipe.requestCanceled(m_PipeTunnel);
 		}
 
 		@Override
 		public void requestCompleted(Tunnel tunnel) {
-			m_Pipe.requestCompleted(m_TunnelWrap);
+			m_Pipe.requestCompleted(m_PipeTunnel);
 		}
 
 		@Override
 		public void responseReady(Tunnel tunnel, OutputStream output) {
-			m_Pipe.responseReady(m_TunnelWrap, output);
+			m_Pipe.responseReady(m_PipeTunnel, output);
 		}
 
 	}
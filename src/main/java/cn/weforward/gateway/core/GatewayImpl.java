@@ -13,6 +13,8 @@ package cn.weforward.gateway.core;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,10 +45,14 @@ import cn.weforward.gateway.Tunnel;
 import cn.weforward.gateway.exception.DebugServiceException;
 import cn.weforward.gateway.ops.access.AccessManage;
 import cn.weforward.gateway.ops.acl.AclManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RateLimitTableItemVo;
 import cn.weforward.gateway.ops.right.RightManage;
 import cn.weforward.gateway.ops.trace.ServiceTracer;
 import cn.weforward.gateway.ops.traffic.TrafficListener;
 import cn.weforward.gateway.ops.traffic.TrafficManage;
+import cn.weforward.gateway.util.OverloadLimit;
+import cn.weforward.gateway.util.RpcExecutor;
 import cn.weforward.gateway.util.ServiceNameMatcher;
 import cn.weforward.metrics.WeforwardMetrics;
 import cn.weforward.protocol.Header;
@@ -80,6 +86,7 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 
 	protected AccessManage m_AccessManage;
 	protected TrafficManage m_TrafficManage;
+	protected RateLimitManage m_RateLimitManage;
 	protected RightManage m_RightManage;
 	protected AclManage m_AclManage;
 	protected ServiceTracer m_ServiceTracer;
@@ -90,11 +97,23 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 
 	// 已注册的服务集合
 	private Map<String, ServiceInstance> m_Services = new ConcurrentHashMap<>();
+	// 已注册服务的索引（按名称、所有者、运行id）
+	private ServiceIndex m_ServicesByName = new ServiceIndex();
+	private ServiceIndex m_ServicesByOwner = new ServiceIndex();
+	private ServiceIndex m_ServicesByRunningId = new ServiceIndex();
 
 	// 按名称分组合并后的服务集合
 	private Map<String, ServiceInstanceBalance> m_ServiceBalances = new ConcurrentHashMap<>();
 	// 微服务配额
 	private ServiceQuotas m_ServiceQuotas;
+	/** 配额满时的准入排队，为null表示不排队 */
+	private AdmissionQueue m_AdmissionQueue;
+	// 后端主机的连接数
+	private HostConnections m_HostConnections;
+	/** 未送达通知的本地转存，为null表示不转存 */
+	private NotifyStore m_NotifyStore;
+	/** 同时进行中的异步广播通知的限制 */
+	private OverloadLimit m_AsyncBroadcastLimit;
 	// 允许服务心跳连续缺失的次数
 	private int m_HeartbeatMissing = 3;
 	// 已注册的微服务监听器
@@ -107,6 +126,8 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 	private volatile NettyHttpClientFactory m_HttpClientFactory;
 	// 清理任务
 	private Task m_ClearTask;
+	// 心跳到期的时间轮
+	private HeartbeatWheel m_HeartbeatWheel;
 
 	public GatewayImpl(String serverId, MeterRegistry meterRegistry) {
 		m_ServerId = serverId;
@@ -116,6 +137,7 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 
 		m_ServiceDocCache = new LruCache<>(1000, "service_doc");
 		m_ServiceDocCache.setTimeout(60 * 60);
+		m_HeartbeatWheel = new HeartbeatWheel(this::onHeartbeatExpired);
 
 		Configure cfg = Configure.getInstance();
 		NettyHttpClientFactory factory = new NettyHttpClientFactory();
@@ -128,6 +150,18 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		int maxQuotas = cfg.getRpcChannelMaxConcurrent() + cfg.getStreamChannelMaxConcurrent();
 		int reserveQuotas = maxQuotas * (100 - cfg.getSingleServiceConcurrentPercent()) / 100;
 		m_ServiceQuotas = new ServiceQuotas(maxQuotas, reserveQuotas);
+		if (cfg.getAdmissionQueueCapacity() > 0) {
+			m_AdmissionQueue = new AdmissionQueue(cfg.getAdmissionQueueCapacity(), cfg.getAdmissionMaxWait());
+		}
+		if (cfg.getServiceHostMaxConnections() > 0) {
+			m_HostConnections = new HostConnections(cfg.getServiceHostMaxConnections());
+		}
+		m_AsyncBroadcastLimit = new OverloadLimit(cfg.getNotifyBroadcastAsyncMax());
+		if (!StringUtil.isEmpty(cfg.getNotifyStoreDir())) {
+			m_NotifyStore = new NotifyStore(this, cfg.getNotifyStoreDir(), cfg.getNotifyStoreSegmentSize(),
+					cfg.getNotifyStoreMaxSize(), cfg.getNotifyStoreRetention());
+			m_NotifyStore.startGauge(m_ServerId, m_MeterRegistry);
+		}
 
 		new Thread("wait_ready") {
 			public void run() {
@@ -163,6 +197,10 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		tm.registerListener(this);
 	}
 
+	public void setRateLimitManage(RateLimitManage rlm) {
+		m_RateLimitManage = rlm;
+	}
+
 	public void setRightManage(RightManage rm) {
 		m_RightManage = rm;
 	}
@@ -184,13 +222,14 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		if (null == executor) {
 			return;
 		}
+		// 心跳超时由时间轮检查，这里只是兜底
 		m_ClearTask = executor.execute(new Runnable() {
 
 			@Override
 			public void run() {
 				clear();
 			}
-		}, TaskExecutor.OPTION_NONE, 60 * 1000, 60 * 1000);
+		}, TaskExecutor.OPTION_NONE, 10 * 60 * 1000, 10 * 60 * 1000);
 	}
 
 	public void setProducer(Producer p) {
@@ -199,6 +238,9 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 
 	public void setRpcExecutor(Executor executor) {
 		m_RpcExecutor = executor;
+		if (executor instanceof RpcExecutor) {
+			((RpcExecutor) executor).startGauge(m_ServerId, m_MeterRegistry);
+		}
 	}
 
 	public void setPluginContainer(PluginContainer container) {
@@ -227,19 +269,54 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 	 */
 	public void clear() {
 		for (ServiceInstance s : m_Services.values()) {
-			if (!s.isTimeout()) {
-				if (s.isHeartbeatTimeout(m_HeartbeatMissing)) {
-					// 心跳超时
-					s.setTimeout(true);
-					timeoutService(s);
-				}
-			} else {
-				if (s.isHeartbeatTimeout(m_HeartbeatMissing * 100)) {
-					// 移除太久没心跳的
-					_Logger.error("微服务[" + s.toStringNameNo() + "]心跳超时，被移除");
-					removeService(s);
-				}
+			checkHeartbeat(s);
+		}
+	}
+
+	/**
+	 * 检查实例的心跳，超时的标记为超时，超时太久的移除
+	 * 
+	 * @param s
+	 */
+	private void checkHeartbeat(ServiceInstance s) {
+		if (!s.isTimeout()) {
+			if (s.isHeartbeatTimeout(m_HeartbeatMissing)) {
+				// 心跳超时
+				s.setTimeout(true);
+				timeoutService(s);
 			}
+		} else {
+			if (s.isHeartbeatTimeout(m_HeartbeatMissing * 100)) {
+				// 移除太久没心跳的
+				_Logger.error("微服务[" + s.toStringNameNo() + "]心跳超时，被移除");
+				removeService(s);
+				return;
+			}
+		}
+		scheduleHeartbeat(s);
+	}
+
+	/**
+	 * 按实例的心跳时间，设置（或重设）时间轮上的到期时间
+	 * 
+	 * @param s
+	 */
+	private void scheduleHeartbeat(ServiceInstance s) {
+		long period = s.getHeartbeatPeriod();
+		if (-1 == period) {
+			// 永不过期
+			m_HeartbeatWheel.cancel(s.getId());
+			return;
+		}
+		int missing = s.isTimeout() ? m_HeartbeatMissing * 100 : m_HeartbeatMissing;
+		// 与isHeartbeatTimeout一致，超过（而不是等于）才算超时
+		m_HeartbeatWheel.schedule(s.getId(), s.getHeartbeatMills() + period * missing * 1000 + 1);
+	}
+
+	private void onHeartbeatExpired(String id) {
+		ServiceInstance s = m_Services.get(id);
+		if (null != s) {
+			checkHeartbeat(s);
 		}
 	}
 
@@ -282,6 +359,18 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 			tunnel.responseError(null, WeforwardException.CODE_SERVICE_TOO_DEPTH, "调用栈溢出：" + depth + " > " + maxDepth);
 			return;
 		}
+		RateLimitManage rateLimitManage = m_RateLimitManage;
+		if (null != rateLimitManage && !tunnel.isFromGatewayInternal()) {
+			RateLimitTableItemVo rule = rateLimitManage.tryAcquire(header.getAccessId(), serviceName, tunnel.getAddr());
+			if (null != rule) {
+				if (_Logger.isDebugEnabled()) {
+					_Logger.debug("限流[" + rule.name + "]:" + serviceName + "," + header.getAccessId() + ","
+							+ tunnel.getAddr());
+				}
+				tunnel.responseError(null, WeforwardException.CODE_GATEWAY_BUSY, "请求过于频繁：" + rule.name);
+				return;
+			}
+		}
 		balance.joint(tunnel);
 	}
 
@@ -379,15 +468,30 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 			}
 		}
 		m_Services.put(service.getId(), service);
+		indexService(service);
+		scheduleHeartbeat(service);
+		if (null != exist) {
+			// 所有者、运行id可能有变化
+			unindexService(exist);
+		}
 
 		String name = service.getName();
 		ServiceInstanceBalance balance = m_ServiceBalances.get(name);
 		if (null == balance) {
-			// 并发时只会保留最后一个，重新注册一遍就行，不做同步
+			// 并发时只保留先加入的一个（指标也只由它注册）
 			balance = new ServiceInstanceBalance(this, name);
-			m_ServiceBalances.put(name, balance);
+			ServiceInstanceBalance other = m_ServiceBalances.putIfAbsent(name, balance);
+			if (null != other) {
+				balance = other;
+			} else if (null != m_MeterRegistry) {
+				balance.startGauge(m_MeterRegistry);
+			}
 		}
 		balance.put(service);
+		if (null != m_NotifyStore && (null == exist || exist.isTimeout())) {
+			// 新实例或超时后恢复，投递转存的通知
+			m_NotifyStore.onServiceRegister(name);
+		}
 
 		for (ServiceListener l : m_ServiceListeners) {
 			try {
@@ -433,15 +537,29 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		notifyServiceTimeout(service);
 	}
 
+	private void indexService(ServiceInstance service) {
+		m_ServicesByName.put(service.getName(), service);
+		m_ServicesByOwner.put(service.getOwner(), service);
+		m_ServicesByRunningId.put(service.getRunningId(), service);
+	}
+
+	private void unindexService(ServiceInstance service) {
+		m_ServicesByName.remove(service.getName(), service);
+		m_ServicesByOwner.remove(service.getOwner(), service);
+		m_ServicesByRunningId.remove(service.getRunningId(), service);
+	}
+
 	private void removeService(ServiceInstance service) {
 		m_Services.remove(service.getId());
+		unindexService(service);
+		m_HeartbeatWheel.cancel(service.getId());
 
 		ServiceInstanceBalance balance = m_ServiceBalances.get(service.getName());
 		if (null != balance) {
 			balance.remove(service);
-			if (0 == balance.getEndpointCount()) {
+			if (0 == balance.getEndpointCount() && m_ServiceBalances.remove(service.getName(), balance)) {
 				// 与注册并发时，可能抢先移除，重新注册一遍就行，不做同步
-				m_ServiceBalances.remove(service.getName());
+				balance.stopGauge();
 			}
 		}
 	}
@@ -527,9 +645,10 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		}
 		if (!StringUtil.isEmpty(accessGroup) && result.size() > 0) {
 			// 按所属access group过滤
+			Set<String> owners = getOwners(accessGroup);
 			List<String> filterByGroup = new ArrayList<>(result.size());
-			for(String name : result) {
-				if(isExistService(name, accessGroup)) {
+			for (String name : result) {
+				if (isExistService(name, owners)) {
 					filterByGroup.add(name);
 				}
 			}
@@ -554,20 +673,38 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		if (maxSize <= 0) {
 			maxSize = Integer.MAX_VALUE;
 		}
-		List<ServiceInstance> list = null;
 		if (StringUtil.isEmpty(name)) {
 			name = null;
 		}
 		if (StringUtil.isEmpty(accessGroup)) {
 			accessGroup = null;
 		}
-		for (ServiceInstance s : m_Services.values()) {
-			if (null != name && !s.getName().equals(name)) {
-				continue;
+		Iterable<ServiceInstance> services;
+		if (null != name) {
+			services = m_ServicesByName.get(name);
+		} else if (null != accessGroup) {
+			// 由所有者索引取得，不用再过滤
+			List<ServiceInstance> byOwners = new ArrayList<>();
+			for (String owner : getOwners(accessGroup)) {
+				byOwners.addAll(m_ServicesByOwner.get(owner));
 			}
-			if (null != accessGroup) {
-				AccessExt access = m_AccessManage.getAccess(s.getOwner());
-				if (null == access || !accessGroup.equals(access.getGroupId())) {
+			services = byOwners;
+			accessGroup = null;
+		} else {
+			services = m_Services.values();
+		}
+		// 同一所有者只查一次access
+		Map<String, Boolean> groupMatchs = (null == accessGroup) ? null : new HashMap<>();
+		List<ServiceInstance> list = null;
+		for (ServiceInstance s : services) {
+			if (null != groupMatchs) {
+				Boolean match = groupMatchs.get(s.getOwner());
+				if (null == match) {
+					AccessExt access = m_AccessManage.getAccess(s.getOwner());
+					match = (null != access && accessGroup.equals(access.getGroupId()));
+					groupMatchs.put(s.getOwner(), match);
+				}
+				if (!match) {
 					continue;
 				}
 			}
@@ -584,6 +721,32 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		}
 		return null == list ? Collections.emptyList() : list;
 	}
+
+	/**
+	 * 属于access group的微服务所有者。只遍历已注册微服务的所有者，不遍历实例
+	 * 
+	 * @param accessGroup
+	 * @return
+	 */
+	private Set<String> getOwners(String accessGroup) {
+		Set<String> owners = new HashSet<>();
+		for (String owner : m_ServicesByOwner.keys()) {
+			AccessExt access = m_AccessManage.getAccess(owner);
+			if (null != access && accessGroup.equals(access.getGroupId())) {
+				owners.add(owner);
+			}
+		}
+		return owners;
+	}
+
+	private boolean isExistService(String name, Set<String> owners) {
+		for (ServiceInstance s : m_ServicesByName.get(name)) {
+			if (owners.contains(s.getOwner())) {
+				return true;
+			}
+		}
+		return false;
+	}
 	
 	@Override
 	public List<ServiceInstance> listValidService(String name) {
@@ -599,14 +762,21 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		List<ServiceInstance> list = new ArrayList<>();
 		keyword = StringUtil.isEmpty(keyword) ? null : keyword;
 		runningId = StringUtil.isEmpty(runningId) ? null : runningId;
-		for (ServiceInstance s : m_Services.values()) {
-			if (null != keyword && !s.getName().contains(keyword)) {
-				continue;
+		if (null != runningId) {
+			for (ServiceInstance s : m_ServicesByRunningId.get(runningId)) {
+				if (null != keyword && !s.getName().contains(keyword)) {
+					continue;
+				}
+				list.add(s);
 			}
-			if (null != runningId && !StringUtil.eq(s.getRunningId(), runningId)) {
-				continue;
+		} else if (null != keyword) {
+			for (String name : m_ServicesByName.keys()) {
+				if (name.contains(keyword)) {
+					list.addAll(m_ServicesByName.get(name));
+				}
 			}
-			list.add(s);
+		} else {
+			list.addAll(m_Services.values());
 		}
 		if (list.size() > 1) {
 			Collections.sort(list, Service.CMP_BY_NAME);
@@ -621,14 +791,9 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		if (null == balance) {
 			return;
 		}
-		List<ServiceInstance> services = new ArrayList<>();
-		for (ServiceInstance s : m_Services.values()) {
-			if (!StringUtil.eq(s.getName(), serviceName)) {
-				continue;
-			}
-			services.add(s);
-		}
-		balance.reinit(services);
+		List<ServiceInstance> services = new ArrayList<>(m_ServicesByName.get(serviceName));
+		// 只重建适用规则有变化的端点，保留其余端点的均衡状态
+		balance.reapplyRules(services);
 	}
 
 	@Override
@@ -692,6 +857,22 @@ public class GatewayImpl implements GatewayExt, TrafficListener, PluginListener,
 		return m_ServiceQuotas;
 	}
 
+	NotifyStore getNotifyStore() {
+		return m_NotifyStore;
+	}
+
+	OverloadLimit getAsyncBroadcastLimit() {
+		return m_AsyncBroadcastLimit;
+	}
+
+	AdmissionQueue getAdmissionQueue() {
+		return m_AdmissionQueue;
+	}
+
+	HostConnections getHostConnections() {
+		return m_HostConnections;
+	}
+
 	@Override
 	public DtObject debugService(String serviceName, String serviceNo, String scriptSource, String scriptName,
 			String scriptArgs) throws DebugServiceException {
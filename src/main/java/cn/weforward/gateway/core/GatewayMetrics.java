@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+/**
+ * 网关自有的指标名（WeforwardMetrics未定义的部分）
+ * 
+ * @author zhangpengji
+ *
+ */
+public class GatewayMetrics {
+
+	/** 微服务实例的响应时间（指数加权平均，单位：毫秒） */
+	public static final String GATEWAY_SERVICE_RPC_LATENCY = "gateway.service.rpc.latency";
+	/** 微服务实例的错误率（指数加权平均，0~1） */
+	public static final String GATEWAY_SERVICE_RPC_ERROR_RATE = "gateway.service.rpc.error.rate";
+	/** 微服务的响应时间百分位（按间隔统计，单位：毫秒），以quantile标签区分分位 */
+	public static final String GATEWAY_SERVICE_RPC_QUANTILE = "gateway.service.rpc.quantile";
+	/** 微服务调用各阶段耗时的百分位（按间隔统计，单位：毫秒），以phase、quantile标签区分 */
+	public static final String GATEWAY_SERVICE_RPC_PHASE = "gateway.service.rpc.phase";
+	/** 微服务的自适应并发上限 */
+	public static final String GATEWAY_SERVICE_RPC_LIMIT = "gateway.service.rpc.limit";
+	/** 被限流规则拒绝的请求数 */
+	public static final String GATEWAY_RATE_LIMIT_REJECT = "gateway.rate.limit.reject";
+	/** 网关所有rpc请求的响应时间百分位（按间隔统计，单位：毫秒），以quantile标签区分分位 */
+	public static final String GATEWAY_RPC_LATENCY_QUANTILE = "gateway.rpc.latency.quantile";
+	/** 任务执行器排队加执行中的任务数 */
+	public static final String GATEWAY_EXECUTOR_PENDING = "gateway.executor.pending";
+	/** 任务执行器拒绝的任务数 */
+	public static final String GATEWAY_EXECUTOR_REJECT = "gateway.executor.reject";
+	/** 异步广播通知的投递结果数，以result标签区分成功（success）与失败（fail） */
+	public static final String GATEWAY_NOTIFY_DELIVERY = "gateway.notify.delivery";
+	/** 异步广播通知已受理但未投递完的实例数 */
+	public static final String GATEWAY_NOTIFY_PENDING = "gateway.notify.pending";
+	/** 本地转存的通知数，以result标签区分转存（stored）、重新投递成功（delivered）与淘汰（dropped） */
+	public static final String GATEWAY_NOTIFY_STORE = "gateway.notify.store";
+	/** 本地转存通知占用的空间（字节） */
+	public static final String GATEWAY_NOTIFY_STORE_SIZE = "gateway.notify.store.size";
+	/** 调用追踪因导出缓冲区满而丢弃的数量 */
+	public static final String GATEWAY_TRACE_DROPPED = "gateway.trace.dropped";
+
+	private GatewayMetrics() {
+
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 网关内部的短时计时器（如对冲请求、排队超时）
+ * <p>
+ * 计时只在单个线程上进行，到期的任务交给工作线程执行，避免某个较慢的任务（如连接实例）推迟其它任务
+ * 
+ * @author zhangpengji
+ *
+ */
+class GatewayTimer {
+	static final ScheduledThreadPoolExecutor _Timer;
+	/** 执行到期任务的工作线程 */
+	static final ThreadPoolExecutor _Worker;
+	static {
+		_Timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "gateway-timer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		_Timer.setRemoveOnCancelPolicy(true);
+
+		int threads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+		_Worker = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					final AtomicInteger m_Count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "gateway-timer-worker-" + m_Count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		_Worker.allowCoreThreadTimeOut(true);
+	}
+
+	private GatewayTimer() {
+
+	}
+
+	/**
+	 * 延时执行任务（在工作线程上）
+	 * 
+	 * @param task
+	 * @param delay
+	 *            延时（毫秒）
+	 * @return 取消只对未到期的任务有效
+	 */
+	static ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return _Timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				_Worker.execute(task);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 在工作线程上执行任务
+	 * 
+	 * @param task
+	 */
+	static void execute(Runnable task) {
+		_Worker.execute(task);
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 心跳到期的时间轮
+ * <p>
+ * 每个微服务实例只占一个节点，按到期时间挂在对应刻度的槽（双向链表）中，每次心跳重新挂接是O(1)；
+ * 时间轮转一圈（{@value #WHEEL_SIZE}×{@value #TICK}毫秒）内未到期的节点留在槽中，等下一圈再检查。
+ * 到期回调在时间轮自己的线程中执行
+ * 
+ * @author zhangpengji
+ *
+ */
+class HeartbeatWheel implements Runnable {
+	static final Logger _Logger = LoggerFactory.getLogger(HeartbeatWheel.class);
+
+	/** 刻度（毫秒） */
+	static final int TICK = 250;
+	/** 槽数，须为2的幂 */
+	static final int WHEEL_SIZE = 512;
+	static final int MASK = WHEEL_SIZE - 1;
+
+	/** 到期处理 */
+	interface Handler {
+		/**
+		 * 到期
+		 * 
+		 * @param id
+		 *            实例id
+		 */
+		void onExpired(String id);
+	}
+
+	final Handler m_Handler;
+	/** 各槽的链表头 */
+	final Node[] m_Wheel;
+	/** 实例id -> 节点 */
+	final Map<String, Node> m_Nodes;
+	/** 已处理到的刻度 */
+	long m_Tick;
+
+	HeartbeatWheel(Handler handler) {
+		m_Handler = handler;
+		m_Wheel = new Node[WHEEL_SIZE];
+		m_Nodes = new HashMap<>();
+		m_Tick = System.currentTimeMillis() / TICK;
+		Thread t = new Thread(this, "heartbeat-wheel");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * 设置（或重设）实例的到期时间
+	 * 
+	 * @param id
+	 * @param deadline
+	 *            到期时间（毫秒）
+	 */
+	synchronized void schedule(String id, long deadline) {
+		Node node = m_Nodes.get(id);
+		if (null == node) {
+			node = new Node(id);
+			m_Nodes.put(id, node);
+		} else {
+			unlink(node);
+		}
+		node.deadline = deadline;
+		// 向上取整到刻度，已过期的放到下一个刻度
+		long tick = Math.max((deadline + TICK - 1) / TICK, m_Tick + 1);
+		link(node, (int) (tick & MASK));
+	}
+
+	/**
+	 * 取消实例的到期检查
+	 * 
+	 * @param id
+	 */
+	synchronized void cancel(String id) {
+		Node node = m_Nodes.remove(id);
+		if (null != node) {
+			unlink(node);
+		}
+	}
+
+	private void link(Node node, int slot) {
+		Node head = m_Wheel[slot];
+		node.slot = slot;
+		node.prev = null;
+		node.next = head;
+		if (null != head) {
+			head.prev = node;
+		}
+		m_Wheel[slot] = node;
+	}
+
+	private void unlink(Node node) {
+		if (null != node.prev) {
+			node.prev.next = node.next;
+		} else if (m_Wheel[node.slot] == node) {
+			m_Wheel[node.slot] = node.next;
+		}
+		if (null != node.next) {
+			node.next.prev = node.prev;
+		}
+		node.prev = null;
+		node.next = null;
+	}
+
+	/**
+	 * 推进到当前时间，取出到期的节点
+	 */
+	private synchronized List<String> advance(long now) {
+		long current = now / TICK;
+		if (current - m_Tick > WHEEL_SIZE) {
+			// 落后超过一圈（如系统时间被调整），每个槽检查一次就够了
+			m_Tick = current - WHEEL_SIZE;
+		}
+		List<String> expired = null;
+		while (m_Tick < current) {
+			m_Tick++;
+			Node node = m_Wheel[(int) (m_Tick & MASK)];
+			while (null != node) {
+				Node next = node.next;
+				if (node.deadline <= now) {
+					unlink(node);
+					m_Nodes.remove(node.id);
+					if (null == expired) {
+						expired = new ArrayList<>();
+					}
+					expired.add(node.id);
+				}
+				node = next;
+			}
+		}
+		return expired;
+	}
+
+	@Override
+	public void run() {
+		for (;;) {
+			try {
+				long now = System.currentTimeMillis();
+				Thread.sleep(TICK - (now % TICK));
+				List<String> expired = advance(System.currentTimeMillis());
+				if (null == expired) {
+					continue;
+				}
+				for (String id : expired) {
+					try {
+						m_Handler.onExpired(id);
+					} catch (Throwable e) {
+						_Logger.error("处理心跳到期失败：" + id, e);
+					}
+				}
+			} catch (InterruptedException e) {
+				_Logger.warn("时间轮被中断", e);
+				return;
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+			}
+		}
+	}
+
+	static class Node {
+		final String id;
+		long deadline;
+		int slot;
+		Node prev;
+		Node next;
+
+		Node(String id) {
+			this.id = id;
+		}
+	}
+}
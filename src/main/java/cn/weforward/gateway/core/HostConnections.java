@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 按后端主机（scheme://host:port）统计转发中的连接数。
+ * <p>
+ * 多个微服务实例部署在同一主机时，各端点的maxConcurrent只能各自限制，由此限制主机上的连接总数。
+ * 占用时先原子加一再检查上限，超出则减回，并发占用也不会超出上限；计数归零的主机被移除
+ * 
+ * @author zhangpengji
+ *
+ */
+class HostConnections {
+	/** 计数器已移除的标记（加上任何并发的占用仍为负数） */
+	static final int RETIRED = Integer.MIN_VALUE / 2;
+
+	/** 每个主机的最大连接数 */
+	final int m_MaxConnections;
+	/** 转发中的连接数，计数为0时移除 */
+	final ConcurrentHashMap<String, Counter> m_Hosts;
+
+	HostConnections(int maxConnections) {
+		m_MaxConnections = maxConnections;
+		m_Hosts = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * 由链接取得主机部分（scheme://host:port），不是有效的链接返回null
+	 * 
+	 * @param url
+	 * @return
+	 */
+	static String getHost(String url) {
+		if (null == url) {
+			return null;
+		}
+		int idx = url.indexOf("://");
+		if (-1 == idx) {
+			return null;
+		}
+		int end = url.indexOf('/', idx + 3);
+		return (-1 == end) ? url : url.substring(0, end);
+	}
+
+	/**
+	 * 主机的连接数是否已满（只作选择时的参考，占用以{@link #tryUse(String)}为准）
+	 * 
+	 * @param host
+	 * @return
+	 */
+	boolean isFull(String host) {
+		Counter c = m_Hosts.get(host);
+		return null != c && c.value >= m_MaxConnections;
+	}
+
+	/**
+	 * 占用主机的一个连接
+	 * 
+	 * @param host
+	 * @return 已满时返回false
+	 */
+	boolean tryUse(String host) {
+		for (;;) {
+			Counter c = m_Hosts.get(host);
+			if (null == c) {
+				c = m_Hosts.computeIfAbsent(host, k -> new Counter());
+			}
+			int v = Counter.VALUE.incrementAndGet(c);
+			if (v < 0) {
+				// 计数器刚被移除，换新的
+				m_Hosts.remove(host, c);
+				continue;
+			}
+			if (v > m_MaxConnections) {
+				// 超出，减回
+				release(host, c);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	void free(String host) {
+		Counter c = m_Hosts.get(host);
+		if (null != c) {
+			release(host, c);
+		}
+	}
+
+	private void release(String host, Counter c) {
+		if (0 == Counter.VALUE.decrementAndGet(c) && Counter.VALUE.compareAndSet(c, 0, RETIRED)) {
+			m_Hosts.remove(host, c);
+		}
+	}
+
+	static class Counter {
+		static final AtomicIntegerFieldUpdater<Counter> VALUE = AtomicIntegerFieldUpdater.newUpdater(Counter.class,
+				"value");
+
+		volatile int value;
+	}
+}
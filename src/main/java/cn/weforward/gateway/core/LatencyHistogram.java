@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 响应时间分布（HDR风格的分桶），内存固定，记录只对一个桶做原子加，无锁
+ * <p>
+ * 小于16微秒的值各占一桶，其余每个2的幂区间再等分为8个子桶，相对误差不超过12.5%。有两种用法：
+ * <ul>
+ * <li>按间隔统计：每个间隔调用{@link #drain(long[])}取出并清零计数，各间隔的快照可合并后估算百分位值</li>
+ * <li>持续统计：每记录一定数量的样本将各桶减半，使分布偏向近期，随时可用{@link #percentile(int)}估算</li>
+ * </ul>
+ * 
+ * @author zhangpengji
+ *
+ */
+class LatencyHistogram {
+	/** 子桶位数（每个2的幂区间分为2^SUB_BITS个子桶） */
+	static final int SUB_BITS = 3;
+	static final int SUB_COUNT = 1 << SUB_BITS;
+	/** 精确记录的值的上限（不含） */
+	static final int LINEAR_LIMIT = SUB_COUNT << 1;
+	/** 覆盖的最高位（2^40微秒约12天） */
+	static final int MAX_BITS = 40;
+	/** 桶数 */
+	static final int BUCKETS = LINEAR_LIMIT + (MAX_BITS - SUB_BITS - 1) * SUB_COUNT;
+	/** 持续统计时衰减的样本间隔 */
+	static final int DECAY_SAMPLES = 4096;
+	/** 持续统计时估算百分位值所需的最少样本数 */
+	static final int MIN_SAMPLES = 100;
+
+	final AtomicLongArray m_Counts;
+	/** 持续统计的样本计数，按间隔统计时为null */
+	final AtomicInteger m_Samples;
+
+	/**
+	 * 按间隔统计的分布
+	 */
+	LatencyHistogram() {
+		this(false);
+	}
+
+	/**
+	 * @param decay
+	 *            是否持续统计（定期衰减）
+	 */
+	LatencyHistogram(boolean decay) {
+		m_Counts = new AtomicLongArray(BUCKETS);
+		m_Samples = decay ? new AtomicInteger() : null;
+	}
+
+	/**
+	 * 记录样本
+	 * 
+	 * @param micros
+	 *            响应时间（微秒）
+	 */
+	void record(long micros) {
+		m_Counts.incrementAndGet(indexOf(micros));
+		if (null != m_Samples && 0 == (m_Samples.incrementAndGet() % DECAY_SAMPLES)) {
+			decay();
+		}
+	}
+
+	private void decay() {
+		for (int i = 0; i < BUCKETS; i++) {
+			long v;
+			do {
+				v = m_Counts.get(i);
+			} while (v > 0 && !m_Counts.compareAndSet(i, v, v >> 1));
+		}
+	}
+
+	/**
+	 * 取出当前间隔的计数（累加到counts）并清零
+	 * 
+	 * @param counts
+	 *            长度为BUCKETS的数组
+	 */
+	void drain(long[] counts) {
+		for (int i = 0; i < BUCKETS; i++) {
+			if (0 != m_Counts.get(i)) {
+				counts[i] += m_Counts.getAndSet(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * 估算当前分布的百分位值（持续统计时用）
+	 * 
+	 * @param percentile
+	 *            百分位（1~99）
+	 * @return 响应时间（微秒，取所在桶的上限），样本不足时返回0
+	 */
+	long percentile(int percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += m_Counts.get(i);
+		}
+		if (total < MIN_SAMPLES) {
+			return 0;
+		}
+		long target = (total * percentile + 99) / 100;
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += m_Counts.get(i);
+			if (count >= target) {
+				return upperOf(i);
+			}
+		}
+		return upperOf(BUCKETS - 1);
+	}
+
+	static long[] newCounts() {
+		return new long[BUCKETS];
+	}
+
+	/**
+	 * 合并计数
+	 * 
+	 * @param to
+	 * @param from
+	 */
+	static void merge(long[] to, long[] from) {
+		for (int i = 0; i < BUCKETS; i++) {
+			to[i] += from[i];
+		}
+	}
+
+	/**
+	 * 由计数估算百分位值
+	 * 
+	 * @param counts
+	 * @param quantile
+	 *            分位（0~1）
+	 * @return 响应时间（微秒，取所在桶的上限），没有样本时返回0
+	 */
+	static long quantile(long[] counts, double quantile) {
+		long total = 0;
+		for (long n : counts) {
+			total += n;
+		}
+		if (0 == total) {
+			return 0;
+		}
+		long target = Math.max((long) Math.ceil(total * quantile), 1);
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts[i];
+			if (count >= target) {
+				return upperOf(i);
+			}
+		}
+		return upperOf(BUCKETS - 1);
+	}
+
+	static int indexOf(long micros) {
+		if (micros < LINEAR_LIMIT) {
+			return (micros < 0) ? 0 : (int) micros;
+		}
+		int bits = 63 - Long.numberOfLeadingZeros(micros);
+		if (bits >= MAX_BITS) {
+			return BUCKETS - 1;
+		}
+		int shift = bits - SUB_BITS;
+		int sub = (int) (micros >>> shift) & (SUB_COUNT - 1);
+		return LINEAR_LIMIT + (bits - SUB_BITS - 1) * SUB_COUNT + sub;
+	}
+
+	static long upperOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int i = index - LINEAR_LIMIT;
+		int shift = i / SUB_COUNT + 1;
+		int sub = i % SUB_COUNT;
+		return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+	}
+}
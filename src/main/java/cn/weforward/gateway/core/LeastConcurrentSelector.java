@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+/**
+ * 最少并发请求选择器
+ * <p>
+ * 选择(并发数+1)/(有效权重+1)最小的端点，负载相同时从随机位置开始的第一个优先，避免总是集中到列表前面的端点
+ * 
+ * @author zhangpengji
+ *
+ */
+class LeastConcurrentSelector extends EndpointSelector {
+
+	@Override
+	String getStrategy() {
+		return TrafficTableItemExt.STRATEGY_LEAST_CONCURRENT;
+	}
+
+	@Override
+	void reinit(ServiceEndpoint[] endpoints) {
+		// 无状态
+	}
+
+	@Override
+	ServiceEndpoint select(ServiceEndpoint[] endpoints, String version, List<String> excludeNos, int scope) {
+		int n = endpoints.length;
+		int start = ThreadLocalRandom.current().nextInt(n);
+		ServiceEndpoint best = null;
+		double bestLoad = 0;
+		for (int i = 0; i < n; i++) {
+			ServiceEndpoint ep = endpoints[(start + i) % n];
+			if (!isCandidate(ep, version, excludeNos, scope)) {
+				continue;
+			}
+			double load = concurrentLoad(ep);
+			if (null == best || load < bestLoad) {
+				best = ep;
+				bestLoad = load;
+			}
+		}
+		return best;
+	}
+}
@@ -10,7 +10,12 @@
  */
 package cn.weforward.gateway.core;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,62 +40,123 @@ public class MetricsCollecter {
 
 	/** 计时器 */
 	static final ClockTick _Tick = ClockTick.getInstance(1);
+	/** 统计响应时间分布的微服务数上限 */
+	static final int MAX_SERVICE_LATENCIES = 1000;
 
 	String m_ServerId;
 	long m_StartTime;
 	RpcCounter m_RpcCounter;
+	MeterRegistry m_Registry;
+	/** 网关的响应时间分布（由各微服务的合并而来） */
+	Latency m_Latency;
+	/** 各微服务的响应时间分布 */
+	final Map<String, Latency> m_ServiceLatencies;
 	// 刷新间隔，单位：秒
 	int m_RefreshInterval;
 
 	volatile long m_LastRefresh;
 
+	/**
+	 * 网关的rpc/stream计数，无锁：计数用分散的加法器，最大并发数以CAS更新
+	 */
 	static class RpcCounter {
-		volatile int m_RpcCount;
-		volatile int m_RpcConcurrent;
-		volatile int m_RpcMaxConcurrent;
+		final LongAdder m_RpcCount = new LongAdder();
+		final AtomicInteger m_RpcConcurrent = new AtomicInteger();
+		final AtomicInteger m_RpcMaxConcurrent = new AtomicInteger();
 		volatile int m_RpcCountLast;
 		volatile int m_RpcMaxConcurrentLast;
 
-		volatile int m_StreamCount;
-		volatile int m_StreamConcurrent;
-		volatile int m_StreamMaxConcurrent;
+		final LongAdder m_StreamCount = new LongAdder();
+		final AtomicInteger m_StreamConcurrent = new AtomicInteger();
+		final AtomicInteger m_StreamMaxConcurrent = new AtomicInteger();
 		volatile int m_StreamCountLast;
 		volatile int m_StreamMaxConcurrentLast;
 
-		public synchronized void onRpcBegin() {
-			++m_RpcCount;
-			int curr = ++m_RpcConcurrent;
-			if (curr > m_RpcMaxConcurrent) {
-				m_RpcMaxConcurrent = curr;
-			}
+		public void onRpcBegin() {
+			m_RpcCount.increment();
+			updateMax(m_RpcMaxConcurrent, m_RpcConcurrent.incrementAndGet());
+		}
+
+		public void onRpcEnd() {
+			m_RpcConcurrent.decrementAndGet();
 		}
 
-		public synchronized void onRpcEnd() {
-			--m_RpcConcurrent;
+		public void onStreamBegin() {
+			m_StreamCount.increment();
+			updateMax(m_StreamMaxConcurrent, m_StreamConcurrent.incrementAndGet());
 		}
 
-		public synchronized void onStreamBegin() {
-			++m_StreamCount;
-			int curr = ++m_StreamConcurrent;
-			if (curr > m_StreamMaxConcurrent) {
-				m_StreamMaxConcurrent = curr;
+		public void onStreamEnd() {
+			m_StreamConcurrent.decrementAndGet();
+		}
+
+		private static void updateMax(AtomicInteger max, int curr) {
+			int m;
+			while (curr > (m = max.get())) {
+				if (max.compareAndSet(m, curr)) {
+					break;
+				}
 			}
 		}
 
-		public synchronized void onStreamEnd() {
-			--m_StreamConcurrent;
+		public void refresh() {
+			m_RpcCountLast = (int) m_RpcCount.sumThenReset();
+			m_RpcMaxConcurrentLast = m_RpcMaxConcurrent.getAndSet(0);
+
+			m_StreamCountLast = (int) m_StreamCount.sumThenReset();
+			m_StreamMaxConcurrentLast = m_StreamMaxConcurrent.getAndSet(0);
+		}
+	}
+
+	/**
+	 * 响应时间的分布及上个间隔的百分位值
+	 */
+	static class Latency {
+		final LatencyHistogram m_Histogram = new LatencyHistogram();
+		/** 上个间隔的计数 */
+		final long[] m_Counts = LatencyHistogram.newCounts();
+		volatile long m_P50;
+		volatile long m_P99;
+		volatile long m_P999;
+
+		/**
+		 * 取出当前间隔的计数并计算百分位值
+		 * 
+		 * @param merge
+		 *            合并计数到此
+		 */
+		void refresh(long[] merge) {
+			Arrays.fill(m_Counts, 0);
+			m_Histogram.drain(m_Counts);
+			LatencyHistogram.merge(merge, m_Counts);
+			compute(m_Counts);
+		}
+
+		void compute(long[] counts) {
+			m_P50 = LatencyHistogram.quantile(counts, 0.5);
+			m_P99 = LatencyHistogram.quantile(counts, 0.99);
+			m_P999 = LatencyHistogram.quantile(counts, 0.999);
 		}
 
-		public synchronized void refresh() {
-			m_RpcCountLast = m_RpcCount;
-			m_RpcCount = 0;
-			m_RpcMaxConcurrentLast = m_RpcMaxConcurrent;
-			m_RpcMaxConcurrent = 0;
+		double getP50() {
+			return m_P50 / 1000.0;
+		}
+
+		double getP99() {
+			return m_P99 / 1000.0;
+		}
 
-			m_StreamCountLast = m_StreamCount;
-			m_StreamCount = 0;
-			m_StreamMaxConcurrentLast = m_StreamMaxConcurrent;
-			m_StreamMaxConcurrent = 0;
+		double getP999() {
+			return m_P999 / 1000.0;
+		}
+
+		void startGauge(String name, Tags tags, MeterRegistry registry) {
+			Gauge.builder(name, this, Latency::getP50).tags(tags).tag("quantile", "0.5").strongReference(true)
+					.register(registry);
+			Gauge.builder(name, this, Latency::getP99).tags(tags).tag("quantile", "0.99").strongReference(true)
+					.register(registry);
+			Gauge.builder(name, this, Latency::getP999).tags(tags).tag("quantile", "0.999").strongReference(true)
+					.register(registry);
 		}
 	}
 
@@ -101,8 +167,12 @@ public class MetricsCollecter {
 		m_RefreshInterval = 30;
 
 		m_RpcCounter = new RpcCounter();
+		m_Registry = register;
+		m_Latency = new Latency();
+		m_ServiceLatencies = new ConcurrentHashMap<>();
 
 		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(m_ServerId));
+		m_Latency.startGauge(GatewayMetrics.GATEWAY_RPC_LATENCY_QUANTILE, tags, register);
 		TimeGauge.builder(WeforwardMetrics.GATEWAY_START_TIME, this, TimeUnit.MILLISECONDS,
 				MetricsCollecter::getStartTime).tags(tags).register(register);
 		TimeGauge.builder(WeforwardMetrics.GATEWAY_UP_TIME, this, TimeUnit.MILLISECONDS, MetricsCollecter::getUpTime)
@@ -148,10 +218,21 @@ public class MetricsCollecter {
 		if (Math.abs(t - m_LastRefresh) > m_RefreshInterval) {
 			VmStat.refresh();
 			m_RpcCounter.refresh();
+			refreshLatency();
 			m_LastRefresh = t;
 		}
 	}
 
+	private void refreshLatency() {
+		long[] merge = LatencyHistogram.newCounts();
+		for (Latency l : m_ServiceLatencies.values()) {
+			l.refresh(merge);
+		}
+		// 未对接到微服务的请求只记入网关的分布
+		m_Latency.m_Histogram.drain(merge);
+		m_Latency.compute(merge);
+	}
+
 	public long getMemoryMax() {
 		refresh();
 		return VmStat.getMemory().getMax();
@@ -221,6 +302,41 @@ public class MetricsCollecter {
 		m_RpcCounter.onRpcEnd();
 	}
 
+	/**
+	 * rpc请求结束
+	 * 
+	 * @param serviceName
+	 *            已对接的微服务名，未对接到微服务时为null
+	 * @param beginNanos
+	 *            请求开始时的System.nanoTime()
+	 */
+	public void onRpcEnd(String serviceName, long beginNanos) {
+		m_RpcCounter.onRpcEnd();
+		long micros = (System.nanoTime() - beginNanos) / 1000;
+		Latency latency = (null == serviceName) ? m_Latency : openServiceLatency(serviceName);
+		latency.m_Histogram.record(micros);
+	}
+
+	private Latency openServiceLatency(String serviceName) {
+		Latency latency = m_ServiceLatencies.get(serviceName);
+		if (null != latency) {
+			return latency;
+		}
+		if (m_ServiceLatencies.size() >= MAX_SERVICE_LATENCIES) {
+			// 微服务太多，只计入网关的
+			return m_Latency;
+		}
+		latency = new Latency();
+		Latency old = m_ServiceLatencies.putIfAbsent(serviceName, latency);
+		if (null != old) {
+			return old;
+		}
+		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(m_ServerId),
+				WeforwardMetrics.TagHelper.serviceName(serviceName));
+		latency.startGauge(GatewayMetrics.GATEWAY_SERVICE_RPC_QUANTILE, tags, m_Registry);
+		return latency;
+	}
+
 	public void onStreamBegin() {
 		m_RpcCounter.onStreamBegin();
 	}
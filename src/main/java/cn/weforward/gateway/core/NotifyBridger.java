@@ -16,6 +16,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -23,13 +24,17 @@ import org.slf4j.LoggerFactory;
 
 import cn.weforward.common.io.BytesOutputStream;
 import cn.weforward.common.io.InputStreamNio;
+import cn.weforward.common.util.Bytes;
 import cn.weforward.common.util.ListUtil;
+import cn.weforward.gateway.Configure;
 import cn.weforward.gateway.Pipe;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.gateway.Tunnel;
 import cn.weforward.gateway.exception.BalanceException;
 import cn.weforward.gateway.util.CloseUtil;
 import cn.weforward.gateway.util.DiscardOutputStream;
+import cn.weforward.gateway.util.OverloadLimit.OverloadLimitToken;
+import cn.weforward.gateway.util.TunnelWrap;
 import cn.weforward.protocol.Header;
 import cn.weforward.protocol.Request;
 import cn.weforward.protocol.Service;
@@ -49,13 +54,29 @@ class NotifyBridger {
 	final PipeWrap m_PipeWrap;
 	volatile InputStream m_RequestBuffer;
 	volatile boolean m_RequestBufferReady;
+	/** 未送达通知的转存，为null表示不转存 */
+	final NotifyStore m_Store;
+	/** 是否转为转存处理 */
+	volatile boolean m_Deferred;
+	boolean m_Stored;
 
 	NotifyBridger(ServiceInstanceBalance balance, Tunnel tunnel) throws IOException {
 		m_RequestBuffer = tunnel.mirrorTransferStream();
 
 		m_Balance = balance;
+		m_Store = balance.getNotifyStore();
 		if (Request.MARK_NOTIFY_BROADCAST == (Request.MARK_NOTIFY_BROADCAST & tunnel.getMarks())) {
-			m_TunnelWrap = new BroadCastTunnel(tunnel);
+			Configure cfg = Configure.getInstance();
+			OverloadLimitToken token = null;
+			if (cfg.isNotifyBroadcastAsync()) {
+				// 异步广播太多时按同步广播处理，让调用方等待
+				token = balance.getAsyncBroadcastLimit().use();
+			}
+			if (null != token) {
+				m_TunnelWrap = new AsyncBroadCastTunnel(tunnel, cfg.getNotifyBroadcastParallelism(), token);
+			} else {
+				m_TunnelWrap = new BroadCastTunnel(tunnel);
+			}
 		} else {
 			m_TunnelWrap = new RoundRobinTunnel(tunnel);
 		}
@@ -84,6 +105,57 @@ class NotifyBridger {
 		return buffer;
 	}
 
+	/**
+	 * 实例都不可达时，转存通知待实例重新注册后再投递
+	 * 
+	 * @return 是否转为转存处理
+	 */
+	boolean defer() {
+		if (null == m_Store) {
+			return false;
+		}
+		m_Deferred = true;
+		storeIfReady();
+		return true;
+	}
+
+	void storeIfReady() {
+		if (!m_RequestBufferReady) {
+			// 等请求数据接收完再继续
+			return;
+		}
+		synchronized (this) {
+			if (m_Stored) {
+				return;
+			}
+			m_Stored = true;
+		}
+
+		Bytes body;
+		InputStream in = null;
+		try {
+			in = duplicateTransferBuffer();
+			BytesOutputStream bos = new BytesOutputStream();
+			BytesOutputStream.transfer(in, bos, 0);
+			body = bos.getBytes();
+		} catch (Throwable e) {
+			m_TunnelWrap.responseError(e);
+			return;
+		} finally {
+			CloseUtil.close(in, _Logger);
+		}
+		end();
+
+		Tunnel tunnel = m_TunnelWrap.getTunnel();
+		if (!m_Store.store(m_Balance.getName(), tunnel, body)) {
+			m_TunnelWrap.responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "通知失败，转存失败");
+			return;
+		}
+		// 已转存即应答
+		m_PipeWrap.setNotifyReceives(Collections.<String>emptyList());
+		tunnel.responseReady(m_PipeWrap);
+	}
+
 	void end() {
 		InputStream buffer;
 		synchronized (this) {
@@ -160,6 +232,9 @@ class NotifyBridger {
 				ep = m_Balance.get(null, getVersion(), m_Connected);
 			} catch (BalanceException e) {
 				_Logger.warn(e.toString());
+				if (defer()) {
+					return;
+				}
 				responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "单播失败，已尝试：" + m_Connected);
 				return;
 			}
@@ -319,6 +394,9 @@ class NotifyBridger {
 		void doNotify() {
 			List<ServiceEndpoint> eps = m_Balance.list();
 			if (ListUtil.isEmpty(eps)) {
+				if (defer()) {
+					return;
+				}
 				responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "广播失败，无可用实例");
 				return;
 			}
@@ -395,6 +473,9 @@ class NotifyBridger {
 			}
 			if (0 == m_Successes.size()) {
 				// 全失败
+				if (defer()) {
+					return;
+				}
 				responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "广播失败，全失败");
 				return;
 			}
@@ -486,6 +567,287 @@ class NotifyBridger {
 
 	}
 
+	/**
+	 * 异步广播：请求接收完即应答调用方，再按并发窗口逐个投递到各实例。
+	 * <p>
+	 * 请求内容只读取一次，各实例共用同一份只读的内容；应答中的接收实例列表为空，投递结果见指标
+	 * {@linkplain GatewayMetrics#GATEWAY_NOTIFY_DELIVERY}
+	 */
+	private class AsyncBroadCastTunnel extends NotifyTunnel {
+		/** 同时投递的最大实例数 */
+		final int m_Parallelism;
+		/** 待投递的实例 */
+		List<ServiceEndpoint> m_Targets;
+		/** 共用的请求内容 */
+		volatile Bytes m_Body;
+		boolean m_Started;
+		boolean m_Canceled;
+		/** 下一个待投递实例的位置，只在launch的投递循环中访问 */
+		int m_Next;
+		/** 投递中的实例数 */
+		final AtomicInteger m_Active;
+		/** launch的重入计数，保证同一时刻只有一个线程在补位 */
+		final AtomicInteger m_Wip;
+		final AtomicInteger m_Successes;
+		final AtomicInteger m_Fails;
+		/** 网关异步广播数的占用，结束后释放 */
+		OverloadLimitToken m_LimitToken;
+
+		AsyncBroadCastTunnel(Tunnel tunnel, int parallelism, OverloadLimitToken limitToken) {
+			super(tunnel);
+			m_Parallelism = parallelism;
+			m_LimitToken = limitToken;
+			m_Active = new AtomicInteger();
+			m_Wip = new AtomicInteger();
+			m_Successes = new AtomicInteger();
+			m_Fails = new AtomicInteger();
+		}
+
+		@Override
+		void doNotify() {
+			List<ServiceEndpoint> eps = m_Balance.list();
+			if (ListUtil.isEmpty(eps)) {
+				if (defer()) {
+					release();
+					return;
+				}
+				responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "广播失败，无可用实例");
+				return;
+			}
+			synchronized (this) {
+				m_Targets = eps;
+			}
+			start();
+		}
+
+		/**
+		 * 释放网关异步广播数的占用（可重复调用）
+		 */
+		synchronized void release() {
+			OverloadLimitToken token = m_LimitToken;
+			if (null != token) {
+				m_LimitToken = null;
+				token.free();
+			}
+		}
+
+		@Override
+		void requestCanceled() {
+			synchronized (this) {
+				if (m_Started) {
+					// 已应答调用方，投递不受影响
+					return;
+				}
+				m_Canceled = true;
+			}
+			release();
+			end();
+		}
+
+		@Override
+		void requestCompleted() {
+			start();
+		}
+
+		/**
+		 * 实例列表及请求内容都就绪后，读取内容、应答调用方并开始投递
+		 */
+		void start() {
+			List<ServiceEndpoint> eps;
+			synchronized (this) {
+				if (m_Started || m_Canceled || null == m_Targets || !m_RequestBufferReady) {
+					return;
+				}
+				m_Started = true;
+				eps = m_Targets;
+			}
+
+			InputStream in = null;
+			try {
+				in = duplicateTransferBuffer();
+				BytesOutputStream bos = new BytesOutputStream();
+				BytesOutputStream.transfer(in, bos, 0);
+				m_Body = bos.getBytes();
+			} catch (Throwable e) {
+				responseError(e);
+				return;
+			} finally {
+				CloseUtil.close(in, _Logger);
+			}
+			end();
+
+			m_Balance.onNotifyEnqueue(eps.size());
+			m_PipeWrap.setNotifyReceives(Collections.<String>emptyList());
+			m_Tunnel.responseReady(m_PipeWrap);
+
+			launch();
+		}
+
+		/**
+		 * 在并发窗口内补位投递
+		 */
+		void launch() {
+			if (0 != m_Wip.getAndIncrement()) {
+				// 正在补位的线程会再检查一次
+				return;
+			}
+			List<ServiceEndpoint> eps = m_Targets;
+			do {
+				while (m_Next < eps.size() && m_Active.get() < m_Parallelism) {
+					ServiceEndpoint ep = eps.get(m_Next++);
+					m_Active.incrementAndGet();
+					new Delivery(ep).connect();
+				}
+			} while (0 != m_Wip.decrementAndGet());
+		}
+
+		void onDelivered(boolean success) {
+			m_Balance.onNotifyDelivered(success);
+			int done;
+			if (success) {
+				done = m_Successes.incrementAndGet() + m_Fails.get();
+			} else {
+				done = m_Fails.incrementAndGet() + m_Successes.get();
+			}
+			m_Active.decrementAndGet();
+			if (done >= m_Targets.size()) {
+				release();
+				if (0 == m_Successes.get() && null != m_Store) {
+					// 全失败，已应答调用方，直接转存
+					m_Store.store(m_Balance.getName(), m_Tunnel, m_Body);
+				}
+				if (_Logger.isTraceEnabled()) {
+					_Logger.trace("微服务[" + m_Tunnel.getHeader().getService() + "]异步广播完成，成功：" + m_Successes.get()
+							+ "，失败：" + m_Fails.get());
+				}
+				return;
+			}
+			launch();
+		}
+
+		void responseError(int code, String msg) {
+			release();
+			end();
+
+			m_TunnelWrap.getTunnel().responseError(m_PipeWrap, code, msg);
+		}
+
+		@Override
+		public void responseError(Pipe pipe, int code, String msg) {
+			// 各实例的回调由Delivery处理
+		}
+
+		@Override
+		public InputStream mirrorTransferStream() throws IOException {
+			throw new IOException("不支持");
+		}
+
+		@Override
+		public void requestInit(Pipe pipe, int requestMaxSize) {
+
+		}
+
+		@Override
+		public void requestReady(Pipe pipe, OutputStream output) {
+
+		}
+
+		@Override
+		public void requestCompleted(Pipe pipe) {
+
+		}
+
+		@Override
+		public void responseReady(Pipe pipe) {
+
+		}
+
+		@Override
+		public void responseCompleted(Pipe pipe) {
+
+		}
+
+		/**
+		 * 投递到单个实例
+		 */
+		private class Delivery extends TunnelWrap {
+			final ServiceEndpoint m_Endpoint;
+			/** 请求内容是否已发送成功 */
+			volatile boolean m_Requested;
+			final AtomicBoolean m_Done;
+
+			Delivery(ServiceEndpoint ep) {
+				super(AsyncBroadCastTunnel.this.getTunnel());
+				m_Endpoint = ep;
+				m_Done = new AtomicBoolean();
+			}
+
+			void connect() {
+				try {
+					m_Endpoint.connect(this, false);
+				} catch (Throwable e) {
+					_Logger.error("微服务[" + ServiceInstance.getNameNo(m_Endpoint.getService()) + "]广播失败", e);
+					finish(false);
+				}
+			}
+
+			void finish(boolean success) {
+				if (m_Done.compareAndSet(false, true)) {
+					onDelivered(success);
+				}
+			}
+
+			@Override
+			public void responseError(Pipe pipe, int code, String msg) {
+				_Logger.warn("微服务[" + ServiceInstance.getNameNo(pipe.getService()) + "]广播失败：" + code + "/" + msg);
+				// 已经成功发送请求，忽略后续的失败
+				finish(m_Requested);
+			}
+
+			@Override
+			public InputStream mirrorTransferStream() throws IOException {
+				throw new IOException("不支持");
+			}
+
+			@Override
+			public void requestInit(Pipe pipe, int requestMaxSize) {
+
+			}
+
+			@Override
+			public void requestReady(Pipe pipe, OutputStream output) {
+				Bytes body = m_Body;
+				try {
+					output.write(body.getBytes(), body.getOffset(), body.getSize());
+				} catch (Throwable e) {
+					_Logger.error("微服务[" + ServiceInstance.getNameNo(pipe.getService()) + "]广播失败", e);
+					pipe.requestCanceled(this);
+					finish(false);
+					return;
+				}
+				pipe.requestCompleted(this);
+			}
+
+			@Override
+			public void requestCompleted(Pipe pipe) {
+				if (_Logger.isTraceEnabled()) {
+					_Logger.trace("微服务[" + ServiceInstance.getNameNo(pipe.getService()) + "]广播成功");
+				}
+				m_Requested = true;
+			}
+
+			@Override
+			public void responseReady(Pipe pipe) {
+				pipe.responseReady(this, new DiscardOutputStream());
+			}
+
+			@Override
+			public void responseCompleted(Pipe pipe) {
+				finish(true);
+			}
+		}
+	}
+
 	private class PipeReady {
 		final Pipe pipe;
 		final OutputStream output;
@@ -566,6 +928,10 @@ class NotifyBridger {
 		@Override
 		public void requestCompleted(Tunnel tunnel) {
 			m_RequestBufferReady = true;
+			if (m_Deferred) {
+				storeIfReady();
+				return;
+			}
 			m_TunnelWrap.requestCompleted();
 		}
 
@@ -0,0 +1,615 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.util.Bytes;
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.Configure;
+import cn.weforward.gateway.Pipe;
+import cn.weforward.gateway.ServiceInstance;
+import cn.weforward.gateway.Tunnel;
+import cn.weforward.gateway.util.DiscardOutputStream;
+import cn.weforward.gateway.util.SegmentLog;
+import cn.weforward.metrics.WeforwardMetrics;
+import cn.weforward.protocol.Header;
+import cn.weforward.protocol.Request;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * 未送达通知（notify、topic信道）的本地转存
+ * <p>
+ * 每个目标微服务一个{@linkplain SegmentLog}，实例重新注册时按序重新投递，失败则按指数退避重试；
+ * 超过保留时间或占用空间超出上限时淘汰最旧的通知。
+ * <p>
+ * 重新投递、过期检查及日志段刷盘都在独立的线程执行，不占用网关的短时计时器
+ * 
+ * @author zhangpengji
+ *
+ */
+class NotifyStore {
+	static final Logger _Logger = LoggerFactory.getLogger(NotifyStore.class);
+
+	/** 重新投递的最小间隔（毫秒） */
+	static final int RETRY_MIN_DELAY = 1000;
+	/** 重新投递的最大间隔（毫秒） */
+	static final int RETRY_MAX_DELAY = 60 * 1000;
+	/** 检查过期通知的间隔（毫秒） */
+	static final int EXPIRE_INTERVAL = 60 * 1000;
+	/** 记录格式的版本 */
+	static final int FORMAT_VERSION = 1;
+	/** 单次投递在请求等待时间之外的超时余量（毫秒） */
+	static final int ATTEMPT_TIMEOUT_MARGIN = 10 * 1000;
+
+	final GatewayImpl m_Gateway;
+	final File m_Dir;
+	final int m_SegmentSize;
+	final long m_MaxSize;
+	/** 保留时间（毫秒） */
+	final long m_Retention;
+	/** 各微服务的转存队列 */
+	final Map<String, Queue> m_Queues;
+	final LongAdder m_Stored;
+	final LongAdder m_Delivered;
+	final LongAdder m_Dropped;
+	/** 所有转存队列未投递通知的占用空间 */
+	final AtomicLong m_UsedSize;
+	/** 重新投递、过期检查及刷盘的执行器 */
+	final ScheduledThreadPoolExecutor m_Executor;
+
+	NotifyStore(GatewayImpl gateway, String dir, int segmentSize, long maxSize, int retention) {
+		m_Gateway = gateway;
+		m_Dir = new File(dir);
+		m_SegmentSize = segmentSize;
+		m_MaxSize = maxSize;
+		m_Retention = retention * 1000L;
+		m_Queues = new ConcurrentHashMap<>();
+		m_Stored = new LongAdder();
+		m_Delivered = new LongAdder();
+		m_Dropped = new LongAdder();
+		m_UsedSize = new AtomicLong();
+		m_Executor = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "notify-store");
+			t.setDaemon(true);
+			return t;
+		});
+		m_Executor.setRemoveOnCancelPolicy(true);
+
+		// 加载上次未投递的，待实例注册后投递
+		File[] dirs = m_Dir.listFiles(File::isDirectory);
+		if (null != dirs) {
+			for (File f : dirs) {
+				try {
+					openQueue(URLDecoder.decode(f.getName(), Header.CHARSET_UTF8));
+				} catch (IOException e) {
+					_Logger.error("加载转存通知失败：" + f, e);
+				}
+			}
+		}
+		m_Executor.scheduleWithFixedDelay(this::expire, EXPIRE_INTERVAL, EXPIRE_INTERVAL,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 注册转存数及占用空间的指标
+	 * 
+	 * @param gatewayId
+	 *            网关标识
+	 * @param registry
+	 */
+	void startGauge(String gatewayId, MeterRegistry registry) {
+		if (null == registry) {
+			return;
+		}
+		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(gatewayId));
+		FunctionCounter.builder(GatewayMetrics.GATEWAY_NOTIFY_STORE, m_Stored, LongAdder::sum).tags(tags)
+				.tag("result", "stored").register(registry);
+		FunctionCounter.builder(GatewayMetrics.GATEWAY_NOTIFY_STORE, m_Delivered, LongAdder::sum).tags(tags)
+				.tag("result", "delivered").register(registry);
+		FunctionCounter.builder(GatewayMetrics.GATEWAY_NOTIFY_STORE, m_Dropped, LongAdder::sum).tags(tags)
+				.tag("result", "dropped").register(registry);
+		Gauge.builder(GatewayMetrics.GATEWAY_NOTIFY_STORE_SIZE, this, NotifyStore::getUsedSize).tags(tags)
+				.register(registry);
+	}
+
+	Queue openQueue(String serviceName) throws IOException {
+		Queue q = m_Queues.get(serviceName);
+		if (null != q) {
+			return q;
+		}
+		synchronized (m_Queues) {
+			q = m_Queues.get(serviceName);
+			if (null == q) {
+				File dir = new File(m_Dir, URLEncoder.encode(serviceName, Header.CHARSET_UTF8));
+				q = new Queue(serviceName, new SegmentLog(dir, m_SegmentSize, m_Retention, m_Executor, m_UsedSize));
+				m_Queues.put(serviceName, q);
+			}
+		}
+		return q;
+	}
+
+	/**
+	 * 转存未送达的通知
+	 * 
+	 * @param serviceName
+	 *            目标微服务
+	 * @param tunnel
+	 *            通知的来源
+	 * @param body
+	 *            请求内容
+	 * @return 是否已转存
+	 */
+	boolean store(String serviceName, Tunnel tunnel, Bytes body) {
+		Queue q;
+		try {
+			byte[] data = encode(tunnel, body);
+			q = openQueue(serviceName);
+			if (!q.m_Log.append(data, 0, data.length)) {
+				_Logger.warn("通知过大，无法转存：" + serviceName + "," + data.length);
+				return false;
+			}
+		} catch (IOException e) {
+			_Logger.error("转存通知失败：" + serviceName, e);
+			return false;
+		}
+		m_Stored.increment();
+		if (_Logger.isTraceEnabled()) {
+			_Logger.trace("微服务[" + serviceName + "]的通知已转存");
+		}
+		limit();
+		q.retry();
+		return true;
+	}
+
+	/**
+	 * 微服务有实例（重新）注册
+	 * 
+	 * @param serviceName
+	 */
+	void onServiceRegister(String serviceName) {
+		Queue q = m_Queues.get(serviceName);
+		if (null != q) {
+			q.wakeup();
+		}
+	}
+
+	long getUsedSize() {
+		return m_UsedSize.get();
+	}
+
+	/**
+	 * 占用空间超出上限时，淘汰最旧的日志段
+	 */
+	void limit() {
+		if (m_UsedSize.get() <= m_MaxSize) {
+			return;
+		}
+		synchronized (this) {
+			limitInner();
+		}
+	}
+
+	private void limitInner() {
+		while (m_UsedSize.get() > m_MaxSize) {
+			Queue oldest = null;
+			long oldestTime = Long.MAX_VALUE;
+			for (Queue q : m_Queues.values()) {
+				long time = q.m_Log.getOldestTime();
+				if (time < oldestTime) {
+					oldestTime = time;
+					oldest = q;
+				}
+			}
+			if (null == oldest) {
+				return;
+			}
+			try {
+				int count = oldest.m_Log.dropOldest();
+				m_Dropped.add(count);
+				_Logger.warn("转存空间不足，淘汰微服务[" + oldest.m_Name + "]的通知：" + count);
+			} catch (IOException e) {
+				_Logger.error(e.toString(), e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 淘汰超过保留时间的通知
+	 */
+	void expire() {
+		for (Queue q : m_Queues.values()) {
+			try {
+				int count = q.m_Log.expire();
+				if (count > 0) {
+					m_Dropped.add(count);
+					_Logger.warn("微服务[" + q.m_Name + "]的转存通知已过期：" + count);
+				}
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+			}
+		}
+	}
+
+	static byte[] encode(Tunnel tunnel, Bytes body) throws IOException {
+		Header header = tunnel.getHeader();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64 + body.getSize());
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeByte(FORMAT_VERSION);
+		out.writeInt(tunnel.getMarks());
+		out.writeUTF(StringUtil.toString(header.getChannel()));
+		out.writeUTF(StringUtil.toString(header.getAccessId()));
+		out.writeUTF(StringUtil.toString(tunnel.getVersion()));
+		out.writeUTF(StringUtil.toString(tunnel.getResId()));
+		out.writeUTF(StringUtil.toString(tunnel.getAddr()));
+		out.writeInt(tunnel.getWaitTimeout());
+		out.write(body.getBytes(), body.getOffset(), body.getSize());
+		out.flush();
+		return bos.toByteArray();
+	}
+
+	static String emptyToNull(String str) {
+		return StringUtil.isEmpty(str) ? null : str;
+	}
+
+	/**
+	 * 微服务的转存队列，同一时刻只投递一条
+	 */
+	class Queue implements Runnable {
+		final String m_Name;
+		final SegmentLog m_Log;
+		/** 当前的重试间隔（毫秒） */
+		int m_Delay;
+		/** 是否正在投递 */
+		boolean m_Delivering;
+		/** 已计划的投递 */
+		ScheduledFuture<?> m_Task;
+
+		Queue(String name, SegmentLog log) {
+			m_Name = name;
+			m_Log = log;
+		}
+
+		/**
+		 * 有实例注册，立即投递
+		 */
+		synchronized void wakeup() {
+			m_Delay = 0;
+			if (m_Delivering || !m_Log.hasRemaining()) {
+				return;
+			}
+			schedule(0);
+		}
+
+		/**
+		 * 有新的转存，按当前的退避间隔投递
+		 */
+		synchronized void retry() {
+			if (m_Delivering || null != m_Task) {
+				return;
+			}
+			schedule(Math.max(m_Delay, RETRY_MIN_DELAY));
+		}
+
+		private void schedule(int delay) {
+			if (null != m_Task) {
+				if (m_Task.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+					return;
+				}
+				m_Task.cancel(false);
+			}
+			m_Task = m_Executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				m_Task = null;
+				if (m_Delivering) {
+					return;
+				}
+				m_Delivering = true;
+			}
+			try {
+				deliver();
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+				done(null, false);
+			}
+		}
+
+		void deliver() {
+			SegmentLog.Record record = m_Log.peek();
+			if (null == record) {
+				synchronized (this) {
+					m_Delivering = false;
+					m_Delay = 0;
+				}
+				return;
+			}
+			Redelivery redelivery;
+			try {
+				redelivery = new Redelivery(this, record);
+			} catch (IOException e) {
+				_Logger.error("无效的转存通知，已丢弃：" + m_Name, e);
+				m_Log.remove(record);
+				m_Dropped.increment();
+				synchronized (this) {
+					m_Delivering = false;
+					schedule(0);
+				}
+				return;
+			}
+			ServiceInstanceBalance balance = m_Gateway.getServiceInstanceBalance(m_Name);
+			List<ServiceEndpoint> eps = (null == balance) ? Collections.<ServiceEndpoint>emptyList() : balance.list();
+			if (eps.isEmpty()) {
+				done(record, false);
+				return;
+			}
+			redelivery.start(eps);
+		}
+
+		void done(SegmentLog.Record record, boolean success) {
+			if (success) {
+				m_Log.remove(record);
+				m_Delivered.increment();
+			}
+			synchronized (this) {
+				m_Delivering = false;
+				if (success) {
+					// 继续下一条
+					m_Delay = 0;
+					schedule(0);
+				} else {
+					m_Delay = (0 == m_Delay) ? RETRY_MIN_DELAY : Math.min(m_Delay * 2, RETRY_MAX_DELAY);
+					schedule(m_Delay);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 一条转存通知的重新投递。广播的逐个投递到所有实例，否则投递到任一实例
+	 */
+	class Redelivery {
+		final Queue m_Queue;
+		final SegmentLog.Record m_Record;
+		final Header m_Header;
+		final int m_Marks;
+		final String m_Version;
+		final String m_ResId;
+		final String m_Addr;
+		final int m_WaitTimeout;
+		final int m_BodyOffset;
+		final boolean m_Broadcast;
+
+		List<ServiceEndpoint> m_Targets;
+		/** 起始实例 */
+		int m_Start;
+		/** 已尝试的实例数 */
+		int m_Tried;
+		/** 是否已有实例收到 */
+		volatile boolean m_Received;
+
+		Redelivery(Queue queue, SegmentLog.Record record) throws IOException {
+			m_Queue = queue;
+			m_Record = record;
+			ByteArrayInputStream bis = new ByteArrayInputStream(record.data);
+			DataInputStream in = new DataInputStream(bis);
+			int ver = in.readByte();
+			if (FORMAT_VERSION != ver) {
+				throw new IOException("不支持的格式：" + ver);
+			}
+			m_Marks = in.readInt();
+			m_Header = new Header(queue.m_Name);
+			m_Header.setChannel(emptyToNull(in.readUTF()));
+			m_Header.setAccessId(emptyToNull(in.readUTF()));
+			m_Version = emptyToNull(in.readUTF());
+			m_ResId = emptyToNull(in.readUTF());
+			m_Addr = emptyToNull(in.readUTF());
+			m_WaitTimeout = in.readInt();
+			m_BodyOffset = record.data.length - bis.available();
+			m_Broadcast = Header.CHANNEL_TOPIC.equals(m_Header.getChannel())
+					|| Request.MARK_NOTIFY_BROADCAST == (Request.MARK_NOTIFY_BROADCAST & m_Marks);
+		}
+
+		void start(List<ServiceEndpoint> eps) {
+			m_Targets = eps;
+			m_Start = m_Broadcast ? 0 : ThreadLocalRandom.current().nextInt(eps.size());
+			next();
+		}
+
+		void next() {
+			if (m_Tried >= m_Targets.size() || (m_Received && !m_Broadcast)) {
+				m_Queue.done(m_Record, m_Received);
+				return;
+			}
+			ServiceEndpoint ep = m_Targets.get((m_Start + m_Tried++) % m_Targets.size());
+			new Attempt(this, ep).connect();
+		}
+
+		void onAttempt(boolean received) {
+			if (received) {
+				m_Received = true;
+			}
+			next();
+		}
+	}
+
+	/**
+	 * 投递到单个实例
+	 */
+	class Attempt implements Tunnel {
+		final Redelivery m_Redelivery;
+		final ServiceEndpoint m_Endpoint;
+		/** 请求内容是否已发送成功 */
+		volatile boolean m_Requested;
+		final AtomicBoolean m_Done;
+		/** 投递超时，避免实例一直没有回调而卡住队列 */
+		volatile ScheduledFuture<?> m_Timeout;
+
+		Attempt(Redelivery redelivery, ServiceEndpoint ep) {
+			m_Redelivery = redelivery;
+			m_Endpoint = ep;
+			m_Done = new AtomicBoolean();
+		}
+
+		void connect() {
+			m_Timeout = m_Executor.schedule(this::timeout, getTimeoutMillis(), TimeUnit.MILLISECONDS);
+			try {
+				m_Endpoint.connect(this, false);
+			} catch (Throwable e) {
+				_Logger.error("微服务[" + ServiceInstance.getNameNo(m_Endpoint.getService()) + "]重新投递失败", e);
+				finish(false);
+			}
+		}
+
+		void finish(boolean received) {
+			if (m_Done.compareAndSet(false, true)) {
+				ScheduledFuture<?> timeout = m_Timeout;
+				if (null != timeout) {
+					timeout.cancel(false);
+				}
+				m_Redelivery.onAttempt(received);
+			}
+		}
+
+		int getTimeoutMillis() {
+			int max = Configure.getInstance().getServiceMaxReadTimeout();
+			int timeout = m_Redelivery.m_WaitTimeout;
+			if (timeout <= 0 || timeout > max) {
+				timeout = max;
+			}
+			return timeout * 1000 + ATTEMPT_TIMEOUT_MARGIN;
+		}
+
+		void timeout() {
+			if (m_Done.get()) {
+				return;
+			}
+			_Logger.warn("微服务[" + ServiceInstance.getNameNo(m_Endpoint.getService()) + "]重新投递超时");
+			// 已经成功发送请求，视为已收到
+			finish(m_Requested);
+		}
+
+		@Override
+		public Header getHeader() {
+			return m_Redelivery.m_Header;
+		}
+
+		@Override
+		public int getWaitTimeout() {
+			return m_Redelivery.m_WaitTimeout;
+		}
+
+		@Override
+		public String getVersion() {
+			return m_Redelivery.m_Version;
+		}
+
+		@Override
+		public String getTraceToken() {
+			return null;
+		}
+
+		@Override
+		public String getResId() {
+			return m_Redelivery.m_ResId;
+		}
+
+		@Override
+		public String getAddr() {
+			return m_Redelivery.m_Addr;
+		}
+
+		@Override
+		public int getMarks() {
+			return m_Redelivery.m_Marks;
+		}
+
+		@Override
+		public void responseError(Pipe pipe, int code, String msg) {
+			_Logger.warn("微服务[" + ServiceInstance.getNameNo(pipe.getService()) + "]重新投递失败：" + code + "/" + msg);
+			// 已经成功发送请求，忽略后续的失败
+			finish(m_Requested);
+		}
+
+		@Override
+		public InputStream mirrorTransferStream() throws IOException {
+			throw new IOException("不支持");
+		}
+
+		@Override
+		public void requestInit(Pipe pipe, int requestMaxSize) {
+
+		}
+
+		@Override
+		public void requestReady(Pipe pipe, OutputStream output) {
+			byte[] data = m_Redelivery.m_Record.data;
+			int offset = m_Redelivery.m_BodyOffset;
+			try {
+				output.write(data, offset, data.length - offset);
+			} catch (Throwable e) {
+				_Logger.error("微服务[" + ServiceInstance.getNameNo(pipe.getService()) + "]重新投递失败", e);
+				pipe.requestCanceled(this);
+				finish(false);
+				return;
+			}
+			pipe.requestCompleted(this);
+		}
+
+		@Override
+		public void requestCompleted(Pipe pipe) {
+			if (_Logger.isTraceEnabled()) {
+				_Logger.trace("微服务[" + ServiceInstance.getNameNo(pipe.getService()) + "]重新投递成功");
+			}
+			m_Requested = true;
+		}
+
+		@Override
+		public void responseReady(Pipe pipe) {
+			pipe.responseReady(this, new DiscardOutputStream());
+		}
+
+		@Override
+		public void responseCompleted(Pipe pipe) {
+			finish(true);
+		}
+	}
+}
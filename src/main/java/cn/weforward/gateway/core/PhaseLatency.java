@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import cn.weforward.common.sys.ClockTick;
+import cn.weforward.gateway.RequestPhases;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * 微服务调用各阶段耗时的分布，按间隔统计p50、p99
+ * 
+ * @author zhangpengji
+ *
+ */
+class PhaseLatency {
+	/** 计时器 */
+	static final ClockTick _Tick = ClockTick.getInstance(1);
+	/** 统计间隔（秒） */
+	static final int INTERVAL = 30;
+	/** 统计的分位 */
+	static final double[] QUANTILES = { 0.5, 0.99 };
+
+	final LatencyHistogram[] m_Histograms;
+	/** 上个间隔各阶段各分位的耗时（微秒） */
+	final long[][] m_Quantiles;
+	volatile long m_LastRefresh;
+
+	PhaseLatency() {
+		m_Histograms = new LatencyHistogram[RequestPhases.PHASE_COUNT];
+		m_Quantiles = new long[RequestPhases.PHASE_COUNT][QUANTILES.length];
+		for (int i = 0; i < m_Histograms.length; i++) {
+			m_Histograms[i] = new LatencyHistogram();
+		}
+		m_LastRefresh = _Tick.getTickerLong();
+	}
+
+	void record(RequestPhases phases) {
+		for (int i = 0; i < RequestPhases.PHASE_COUNT; i++) {
+			long micros = phases.get(i);
+			if (micros >= 0) {
+				m_Histograms[i].record(micros);
+			}
+		}
+	}
+
+	private synchronized void refresh() {
+		long t = _Tick.getTickerLong();
+		if (Math.abs(t - m_LastRefresh) < INTERVAL) {
+			return;
+		}
+		m_LastRefresh = t;
+		long[] counts = LatencyHistogram.newCounts();
+		for (int i = 0; i < m_Histograms.length; i++) {
+			Arrays.fill(counts, 0);
+			m_Histograms[i].drain(counts);
+			for (int q = 0; q < QUANTILES.length; q++) {
+				m_Quantiles[i][q] = LatencyHistogram.quantile(counts, QUANTILES[q]);
+			}
+		}
+	}
+
+	/**
+	 * 上个间隔的分位耗时
+	 * 
+	 * @param phase
+	 *            RequestPhases.PHASE_xxx
+	 * @param quantile
+	 *            QUANTILES的下标
+	 * @return 毫秒
+	 */
+	double getQuantile(int phase, int quantile) {
+		refresh();
+		return m_Quantiles[phase][quantile] / 1000.0;
+	}
+
+	/**
+	 * 注册各阶段各分位的指标
+	 * 
+	 * @param tags
+	 * @param registry
+	 * @param meters
+	 *            收集注册的指标，以便注销
+	 */
+	void startGauge(Tags tags, MeterRegistry registry, List<Meter> meters) {
+		for (int i = 0; i < RequestPhases.PHASE_COUNT; i++) {
+			int phase = i;
+			for (int q = 0; q < QUANTILES.length; q++) {
+				int quantile = q;
+				meters.add(Gauge
+						.builder(GatewayMetrics.GATEWAY_SERVICE_RPC_PHASE, this, p -> p.getQuantile(phase, quantile))
+						.tags(tags).tag("phase", RequestPhases.getName(phase))
+						.tag("quantile", String.valueOf(QUANTILES[quantile])).register(registry));
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.List;
+
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+/**
+ * 二选一（Power of two choices）选择器
+ * <p>
+ * 随机取两个可选的端点，选其中负载较低的。负载为并发负载乘以响应时间的指数加权平均值，
+ * 还没有响应时间样本的端点按各端点中最快的响应时间算，让新实例能尽快得到样本又不至于压垮它
+ * 
+ * @author zhangpengji
+ *
+ */
+class PowerOfTwoSelector extends EndpointSelector {
+
+	@Override
+	String getStrategy() {
+		return TrafficTableItemExt.STRATEGY_POWER_OF_TWO;
+	}
+
+	@Override
+	void reinit(ServiceEndpoint[] endpoints) {
+		// 无状态
+	}
+
+	@Override
+	ServiceEndpoint select(ServiceEndpoint[] endpoints, String version, List<String> excludeNos, int scope) {
+		ServiceEndpoint first = randomCandidate(endpoints, version, excludeNos, scope, null);
+		if (null == first) {
+			return null;
+		}
+		ServiceEndpoint second = randomCandidate(endpoints, version, excludeNos, scope, first);
+		if (null == second) {
+			return first;
+		}
+		long latency1 = first.latencyEwma;
+		long latency2 = second.latencyEwma;
+		if (latency1 <= 0 || latency2 <= 0) {
+			// 只在有新实例时才找最快的响应时间
+			long fastest = fastest(endpoints);
+			if (latency1 <= 0) {
+				latency1 = fastest;
+			}
+			if (latency2 <= 0) {
+				latency2 = fastest;
+			}
+		}
+		return (load(second, latency2) < load(first, latency1)) ? second : first;
+	}
+
+	/**
+	 * 各端点中最快的响应时间，都没有样本时返回1
+	 */
+	static long fastest(ServiceEndpoint[] endpoints) {
+		long fastest = 0;
+		for (ServiceEndpoint ep : endpoints) {
+			long latency = ep.latencyEwma;
+			if (latency > 0 && (0 == fastest || latency < fastest)) {
+				fastest = latency;
+			}
+		}
+		return (0 == fastest) ? 1 : fastest;
+	}
+
+	static double load(ServiceEndpoint ep, long latency) {
+		return concurrentLoad(ep) * latency;
+	}
+}
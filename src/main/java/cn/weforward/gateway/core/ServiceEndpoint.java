@@ -29,14 +29,17 @@ import cn.weforward.common.util.ListUtil;
 import cn.weforward.common.util.StringUtil;
 import cn.weforward.common.util.VersionUtil;
 import cn.weforward.gateway.Pipe;
+import cn.weforward.gateway.RequestPhases;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.gateway.StreamPipe;
 import cn.weforward.gateway.StreamTunnel;
 import cn.weforward.gateway.Tunnel;
 import cn.weforward.gateway.auth.GatewayAuther;
 import cn.weforward.gateway.exception.DebugServiceException;
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
 import cn.weforward.gateway.ops.trace.ServiceTracer;
 import cn.weforward.gateway.util.SyncTunnel;
+import cn.weforward.gateway.util.WfNodeScanner;
 import cn.weforward.metrics.WeforwardMetrics;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.Request;
@@ -51,6 +54,7 @@ import cn.weforward.protocol.support.datatype.FriendlyObject;
 import cn.weforward.protocol.support.datatype.SimpleDtObject;
 import cn.weforward.protocol.support.doc.ServiceDocumentVo;
 import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 
@@ -69,17 +73,38 @@ public abstract class ServiceEndpoint extends BalanceElement {
 	protected int m_ConnectTimeout;
 	/** 读取超时，秒 */
 	protected int m_ReadTimeout;
+	/** 负载均衡策略 */
+	protected String m_Strategy;
+	/** 对冲请求的响应时间百分位，0表示不启用 */
+	protected int m_Hedge;
 	protected GatewayAuther m_GatewayAuther;
+	/** 所在的后端主机（scheme://host:port），用于限制主机的连接数 */
+	protected String m_Host;
+	/** 已注册的指标 */
+	protected List<Meter> m_Meters;
+	protected MeterRegistry m_MeterRegistry;
+	/** 打开端点时所用的流量规则 */
+	protected final TrafficTableItem m_Rule;
 
 	protected ServiceEndpoint(ServiceInstanceBalance balance, ServiceInstance service, TrafficTableItem rule) {
 		super(rule.getWeight());
 		setMaxFails(rule.getMaxFails());
 		setFailTimeout(rule.getFailTimeout() * 1000);
 		setMaxConcurrent(rule.getMaxConcurrent());
+		setSlowStart(TrafficTableItemExt.Helper.getSlowStart(rule) * 1000);
+		setEjectErrors(TrafficTableItemExt.Helper.getEjectErrors(rule));
+		setEjectLatency(TrafficTableItemExt.Helper.getEjectLatency(rule));
 		m_Balance = balance;
 		m_Service = service;
 		m_ConnectTimeout = rule.getConnectTimeout();
 		m_ReadTimeout = rule.getReadTimeout();
+		m_Strategy = TrafficTableItemExt.Helper.getStrategy(rule);
+		m_Hedge = TrafficTableItemExt.Helper.getHedge(rule);
+		m_Rule = rule;
+	}
+
+	TrafficTableItem getRule() {
+		return m_Rule;
 	}
 
 	public static ServiceEndpoint openEndpoint(ServiceInstanceBalance group, ServiceInstance service,
@@ -94,12 +119,53 @@ public abstract class ServiceEndpoint extends BalanceElement {
 		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(gatewayId),
 				WeforwardMetrics.TagHelper.serviceName(getName()),
 				WeforwardMetrics.TagHelper.serviceNo(m_Service.getNo()));
-		Gauge.builder(WeforwardMetrics.GATEWAY_SERVICE_RPC_COUNT, this, ServiceEndpoint::getTimes).tags(tags)
-				.register(registry);
-		Gauge.builder(WeforwardMetrics.GATEWAY_SERVICE_RPC_CONCURRENT, this, ServiceEndpoint::getConcurrent).tags(tags)
-				.register(registry);
-		Gauge.builder(WeforwardMetrics.GATEWAY_SERVICE_RPC_FAIL, this, ServiceEndpoint::getFailTotal).tags(tags)
-				.register(registry);
+		List<Meter> meters = new ArrayList<>(5);
+		meters.add(Gauge.builder(WeforwardMetrics.GATEWAY_SERVICE_RPC_COUNT, this, ServiceEndpoint::getTimes)
+				.tags(tags).register(registry));
+		meters.add(Gauge.builder(WeforwardMetrics.GATEWAY_SERVICE_RPC_CONCURRENT, this, ServiceEndpoint::getConcurrent)
+				.tags(tags).register(registry));
+		meters.add(Gauge.builder(WeforwardMetrics.GATEWAY_SERVICE_RPC_FAIL, this, ServiceEndpoint::getFailTotal)
+				.tags(tags).register(registry));
+		meters.add(Gauge.builder(GatewayMetrics.GATEWAY_SERVICE_RPC_LATENCY, this, ServiceEndpoint::getLatencyMillis)
+				.tags(tags).register(registry));
+		meters.add(Gauge.builder(GatewayMetrics.GATEWAY_SERVICE_RPC_ERROR_RATE, this, ServiceEndpoint::getErrorRate)
+				.tags(tags).register(registry));
+		m_MeterRegistry = registry;
+		m_Meters = meters;
+	}
+
+	/**
+	 * 注销已注册的指标（端点被替换或移除时）。
+	 * <p>
+	 * 同名同标签的指标只会注册一次，不注销的话替换后的端点仍指向旧端点
+	 */
+	synchronized void stopGauge() {
+		List<Meter> meters = m_Meters;
+		MeterRegistry registry = m_MeterRegistry;
+		if (null == meters || null == registry) {
+			return;
+		}
+		m_Meters = null;
+		for (Meter m : meters) {
+			registry.remove(m);
+		}
+	}
+
+	/**
+	 * 继承被替换端点（同一微服务实例）的统计及均衡状态
+	 * 
+	 * @param old
+	 */
+	void inherit(ServiceEndpoint old) {
+		// 超时后恢复的实例按新实例对待
+		inherit(old, !old.getService().isTimeout());
+	}
+
+	/**
+	 * 响应时间的指数加权平均值（毫秒）
+	 */
+	double getLatencyMillis() {
+		return getLatencyEwma() / 1000.0;
 	}
 
 	public String getId() {
@@ -114,6 +180,24 @@ public abstract class ServiceEndpoint extends BalanceElement {
 		return m_Service.getName();
 	}
 
+	/**
+	 * 流量规则指定的负载均衡策略
+	 * 
+	 * @return 未指定时返回null
+	 */
+	String getStrategy() {
+		return m_Strategy;
+	}
+
+	/**
+	 * 流量规则指定的对冲请求百分位
+	 * 
+	 * @return 未启用时返回0
+	 */
+	int getHedge() {
+		return m_Hedge;
+	}
+
 	@Override
 	public String getElementName() {
 		return m_Service.toStringNameNo();
@@ -270,6 +354,11 @@ public abstract class ServiceEndpoint extends BalanceElement {
 		return service.toStringNameNo();
 	}
 
+	@Override
+	protected boolean isEjectable() {
+		return m_Balance.isEjectable();
+	}
+
 	boolean isTrust() {
 		// FIXME 暂时假设所有微服务的通信都是安全的
 		return true;
@@ -283,13 +372,56 @@ public abstract class ServiceEndpoint extends BalanceElement {
 		return m_ReadTimeout;
 	}
 
-	void end(Pipe pipe, int state, ServiceTraceToken token) {
-		m_Balance.free(this, state);
-		m_Balance.getServiceTracer().onFinish(token);
+	/**
+	 * 是否需要这次调用各阶段的耗时（不统计也不跟踪时省去构造）
+	 * 
+	 * @param state
+	 *            调用结束的状态
+	 * @param token
+	 *            跟踪标识
+	 */
+	boolean isPhasesNeeded(int state, ServiceTraceToken token) {
+		return null != token || (BalanceElement.STATE_OK == state && m_Balance.isRecordPhases());
+	}
+
+	void end(Pipe pipe, int state, long elapsed, ServiceTraceToken token, RequestPhases phases) {
+		m_Balance.free(this, state, elapsed);
+		if (BalanceElement.STATE_OK == state && null != phases && m_Balance.isRecordPhases()) {
+			m_Balance.recordPhases(phases);
+		}
+		boolean fail = (BalanceElement.STATE_OK != state && BalanceElement.STATE_CANCELED != state);
+		m_Balance.getServiceTracer().onFinish(token, fail, phases);
 	}
 
 	void end(StreamPipe pipe, int state) {
-		m_Balance.free(this, state);
+		// stream的耗时主要取决于内容大小，不计入响应时间
+		m_Balance.free(this, state, 0);
+	}
+
+	/**
+	 * 占用所在主机的连接数，在{@link #use()}之前调用
+	 * 
+	 * @return 主机的连接数已满时返回false
+	 */
+	boolean useHost() {
+		HostConnections hosts = m_Balance.getHostConnections();
+		return null == hosts || null == m_Host || hosts.tryUse(m_Host);
+	}
+
+	/**
+	 * 释放所在主机的连接数
+	 */
+	void freeHost() {
+		HostConnections hosts = m_Balance.getHostConnections();
+		if (null != hosts && null != m_Host) {
+			hosts.free(m_Host);
+		}
+	}
+
+	@Override
+	protected void free(int state) {
+		super.free(state);
+		freeHost();
 	}
 
 	@Override
@@ -302,7 +434,9 @@ public abstract class ServiceEndpoint extends BalanceElement {
 			return true;
 		}
 		m_Service.setOverload(false);
-		return false;
+		// 所在主机的连接数已满，暂不选用（与实例自身的状态无关）
+		HostConnections hosts = m_Balance.getHostConnections();
+		return null != hosts && null != m_Host && hosts.isFull(m_Host);
 	}
 
 	@Override
@@ -526,7 +660,22 @@ public abstract class ServiceEndpoint extends BalanceElement {
 	}
 
 	// WfReq节点
-	protected static class WfResp implements JsonUtil.Listener {
+	protected static class WfResp implements JsonUtil.Listener, WfNodeScanner.Listener {
+		static final WfNodeScanner SCANNER = new WfNodeScanner(ResponseConstants.WF_RESP, ResponseConstants.WF_CODE,
+				ResponseConstants.WF_MSG, ResponseConstants.RESOURCE_ID, ResponseConstants.RESOURCE_EXPIRE,
+				ResponseConstants.RESOURCE_SERVICE, ResponseConstants.RESOURCE_SERVICE_NO, ResponseConstants.RESOURCE_URL,
+				ResponseConstants.FORWARD_TO, ResponseConstants.MARKS);
+		/** SCANNER中属性名的下标 */
+		static final int KEY_CODE = 0;
+		static final int KEY_MSG = 1;
+		static final int KEY_RESOURCE_ID = 2;
+		static final int KEY_RESOURCE_EXPIRE = 3;
+		static final int KEY_RESOURCE_SERVICE = 4;
+		static final int KEY_RESOURCE_SERVICE_NO = 5;
+		static final int KEY_RESOURCE_URL = 6;
+		static final int KEY_FORWARD_TO = 7;
+		static final int KEY_MARKS = 8;
+
 		int code;
 		String msg;
 		String resId;
@@ -586,6 +735,45 @@ public abstract class ServiceEndpoint extends BalanceElement {
 				}
 			}
 		}
+
+		@Override
+		public void foundNumber(int key, long value) throws JsonParseAbort {
+			if (KEY_CODE == key) {
+				this.code = (int) value;
+			} else if (KEY_RESOURCE_EXPIRE == key) {
+				this.resExpire = value;
+			} else if (KEY_MARKS == key) {
+				this.marks = (int) value;
+			} else {
+				foundOther(key);
+			}
+		}
+
+		@Override
+		public void foundString(int key, String value) throws JsonParseAbort {
+			if (KEY_MSG == key) {
+				this.msg = value;
+			} else if (KEY_RESOURCE_ID == key) {
+				this.resId = value;
+			} else if (KEY_RESOURCE_SERVICE == key) {
+				this.resService = value;
+			} else if (KEY_RESOURCE_SERVICE_NO == key) {
+				this.resServiceNo = value;
+			} else if (KEY_RESOURCE_URL == key) {
+				this.resUrl = value;
+			} else if (KEY_FORWARD_TO == key) {
+				this.forwardTo = value;
+			} else {
+				foundOther(key);
+			}
+		}
+
+		@Override
+		public void foundOther(int key) throws JsonParseAbort {
+			// 与foundNode中类型转换失败时一样
+			throw new JsonParseAbort(getName() + "节点解析异常",
+					new ClassCastException(SCANNER.getKey(key) + "属性值的类型不符"));
+		}
 	}
 
 }
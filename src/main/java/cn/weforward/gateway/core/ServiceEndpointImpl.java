@@ -36,11 +36,13 @@ import cn.weforward.gateway.Configure;
 import cn.weforward.gateway.GatewayNode;
 import cn.weforward.gateway.MeshNode;
 import cn.weforward.gateway.Pipe;
+import cn.weforward.gateway.RequestPhases;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.gateway.StreamPipe;
 import cn.weforward.gateway.StreamTunnel;
 import cn.weforward.gateway.Tunnel;
 import cn.weforward.gateway.util.CloseUtil;
+import cn.weforward.gateway.util.WfNodeScanner;
 import cn.weforward.gateway.util.WithoutLastJsonOutput;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.AccessLoader;
@@ -118,8 +120,26 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 			}
 		}
 		m_EndpointUrls = endpointUrls;
+		m_Host = HostConnections.getHost(endpointUrls.get(0).url);
 	}
 	
+	@Override
+	void inherit(ServiceEndpoint old) {
+		super.inherit(old);
+		if (!(old instanceof ServiceEndpointImpl)) {
+			return;
+		}
+		// 保留相同链接的权值
+		for (EndpointUrl url : m_EndpointUrls) {
+			for (EndpointUrl oldUrl : ((ServiceEndpointImpl) old).m_EndpointUrls) {
+				if (url.url.equals(oldUrl.url) && StringUtil.eq(url.relayType, oldUrl.relayType)) {
+					url.weight = oldUrl.weight;
+					break;
+				}
+			}
+		}
+	}
+
 	@Override
 	protected Pipe openPipe(Tunnel tunnel, boolean supportForward) {
 		EndpointPipe pipe;
@@ -226,6 +246,13 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 		boolean m_Trust;
 		Access m_Access;
 		int m_PreparedSize;
+		/** 开始时间（System.nanoTime） */
+		long m_StartTime;
+		/** 各进度的时间（System.nanoTime），0表示未经过 */
+		volatile long m_EstablishedTime;
+		volatile long m_ConnectedTime;
+		volatile long m_RequestCompletedTime;
+		volatile long m_ResponseHeaderTime;
 
 		ClientContext m_Context;
 		// 当前进度
@@ -247,6 +274,7 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 			m_Service = service;
 			m_TraceToken = token;
 			m_SupportForward = supportForward;
+			m_StartTime = System.nanoTime();
 
 			int requestMaxSize = getService().getRequestMaxSize();
 			if (requestMaxSize <= 0) {
@@ -381,6 +409,7 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				}
 				m_Schedule = SCHEDULE_OUT_REQ_HEADER;
 			}
+			m_ConnectedTime = System.nanoTime();
 			if (_Logger.isTraceEnabled()) {
 				_Logger.trace(getService().getName() + " connected.");
 			}
@@ -474,6 +503,7 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				}
 				m_Schedule = SCHEDULE_REQUEST_COMPLETED;
 			}
+			m_RequestCompletedTime = System.nanoTime();
 
 			m_Tunnel.requestCompleted(this);
 		}
@@ -488,6 +518,7 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				}
 				m_Schedule = SCHEDULE_PARES_RESP_HEADER;
 			}
+			m_ResponseHeaderTime = System.nanoTime();
 			// if (null != m_Header) {
 			// return;
 			// }
@@ -530,11 +561,22 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 		// return m_OutputAuther;
 		// }
 
+		@Override
+		public OutputStream getRequestSpliceOutput() throws IOException {
+			AutherOutputStream auther = m_RequestOutputAuther;
+			if (!m_Trust || null == auther) {
+				return null;
+			}
+			// wf_req部分可能还在验证器的缓冲中
+			auther.flush();
+			return m_RequestOutput;
+		}
+
 		@Override
 		public void requestCanceled(Tunnel tunnel) {
 			checkTunnel(tunnel);
 
-			end(BalanceElement.STATE_OK);
+			end(BalanceElement.STATE_CANCELED);
 			if (null != m_Context) {
 				m_Context.disconnect();
 			}
@@ -588,31 +630,48 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 			WfResp wfResp;
 			try {
 				responseInput = m_Context.duplicateResponseStream();
-				jsonInput = new JsonInputStream(responseInput, m_Header.getCharset());
 				wfResp = ServiceEndpointImpl.this.createWfResp();
-				try {
-					JsonUtil.parse(jsonInput, wfResp);
-				} catch (JsonParseAbort e) {
-					if (JsonParseAbort.MATCHED != e) {
-						// _Logger.error(e.toString(), e);
-						throw e;
+				String charset = m_Header.getCharset();
+				if (WfNodeScanner.isSupported(charset)) {
+					// 按字节扫描，不构造json节点
+					int position = WfResp.SCANNER.scan(responseInput, true, wfResp);
+					if (WfNodeScanner.NOT_FOUND == position) {
+						dumpResponse();
+						responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfResp.getName() + "'节点，或该节点不在最前");
+						return;
 					}
+					if (WfNodeScanner.NO_SEPARATOR == position) {
+						dumpResponse();
+						responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfResp.getName() + "'节点后面的','符号");
+						return;
+					}
+					wfResp.nextPosition = position;
+				} else {
+					jsonInput = new JsonInputStream(responseInput, charset);
+					try {
+						JsonUtil.parse(jsonInput, wfResp);
+					} catch (JsonParseAbort e) {
+						if (JsonParseAbort.MATCHED != e) {
+							// _Logger.error(e.toString(), e);
+							throw e;
+						}
+					}
+					if (!wfResp.found) {
+						dumpResponse();
+						responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfResp.getName() + "'节点，或该节点不在最前");
+						return;
+					}
+					// 读取到“,”分隔符
+					char ch = JsonUtil.skipBlank(jsonInput, 100);
+					if (',' != ch && '}' != ch) {
+						// 格式有问题
+						dumpResponse();
+						responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfResp.getName() + "'节点后面的','符号");
+						return;
+					}
+					// 记下输出流转接位置
+					wfResp.nextPosition = jsonInput.position() - 1;
 				}
-				if (!wfResp.found) {
-					dumpResponse();
-					responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfResp.getName() + "'节点，或该节点不在最前");
-					return;
-				}
-				// 读取到“,”分隔符
-				char ch = JsonUtil.skipBlank(jsonInput, 100);
-				if (',' != ch && '}' != ch) {
-					// 格式有问题
-					dumpResponse();
-					responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfResp.getName() + "'节点后面的','符号");
-					return;
-				}
-				// 记下输出流转接位置
-				wfResp.nextPosition = jsonInput.position() - 1;
 				m_WfResp = wfResp;
 			} catch (Throwable e) {
 				responseError(e);
@@ -683,12 +742,23 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 			// OutputStream output;
 			InputStream preparedStream = null;
 			try {
-				// output = m_Tunnel.getOutput();
-				// 先补充验证原先wf_resp部分
-				preparedStream = m_Context.duplicateResponseStream();
-				m_ResponseInputAuther.write(preparedStream, m_WfResp.nextPosition);
-				m_ResponseInputAuther.setTransferTo(null, output);
-				m_Context.responseTransferTo(m_ResponseInputAuther, m_WfResp.nextPosition);
+				OutputStream spliceOutput = null;
+				if (m_Trust && Configure.getInstance().isTrustSplice()
+						&& Header.AUTH_TYPE_NONE.equals(m_Header.getAuthType())) {
+					spliceOutput = tunnel.getResponseSpliceOutput();
+				}
+				if (null != spliceOutput) {
+					// 响应内容无需验证，直接接驳tunnel的输出流
+					m_ResponseInputAuther = null;
+					m_Context.responseTransferTo(spliceOutput, m_WfResp.nextPosition);
+				} else {
+					// output = m_Tunnel.getOutput();
+					// 先补充验证原先wf_resp部分
+					preparedStream = m_Context.duplicateResponseStream();
+					m_ResponseInputAuther.write(preparedStream, m_WfResp.nextPosition);
+					m_ResponseInputAuther.setTransferTo(null, output);
+					m_Context.responseTransferTo(m_ResponseInputAuther, m_WfResp.nextPosition);
+				}
 			} catch (Throwable e) {
 				responseError(e);
 				return;
@@ -805,7 +875,15 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				}
 				m_Schedule = SCHEDULE_END;
 			}
-			ServiceEndpointImpl.this.end(this, state, m_TraceToken);
+			long now = System.nanoTime();
+			// 取消的调用耗时不完整，不计入
+			long elapsed = (BalanceElement.STATE_CANCELED == state) ? 0 : (now - m_StartTime) / 1000;
+			RequestPhases phases = null;
+			if (isPhasesNeeded(state, m_TraceToken)) {
+				phases = new RequestPhases(m_Tunnel.getQueuedTime(), m_Tunnel.getRunTime(), m_StartTime,
+						m_EstablishedTime, m_ConnectedTime, m_RequestCompletedTime, m_ResponseHeaderTime, now);
+			}
+			ServiceEndpointImpl.this.end(this, state, elapsed, m_TraceToken, phases);
 		}
 
 		// ------------ 以下是ClientHandler的实现
@@ -834,11 +912,12 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				_Logger.error("context不一致：" + m_Context + " != " + context);
 			}
 			m_Url.success();
+			m_EstablishedTime = System.nanoTime();
 
 			try {
 				ServiceEndpointImpl.this.getRpcExecutor().execute(this);
 			} catch (RejectedExecutionException e) {
-				responseError(WeforwardException.CODE_GATEWAY_BUSY, "网关忙", BalanceElement.STATE_OK, false);
+				responseError(WeforwardException.CODE_GATEWAY_BUSY, "网关忙", BalanceElement.STATE_CANCELED, false);
 			}
 		}
 
@@ -985,6 +1064,7 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				}
 				m_Schedule = SCHEDULE_OUT_REQ_HEADER;
 			}
+			m_ConnectedTime = System.nanoTime();
 			if (_Logger.isTraceEnabled()) {
 				_Logger.trace(getService().getName() + " connected.");
 			}
@@ -1010,6 +1090,7 @@ public class ServiceEndpointImpl extends ServiceEndpoint {
 				}
 				m_Schedule = SCHEDULE_PARES_RESP_HEADER;
 			}
+			m_ResponseHeaderTime = System.nanoTime();
 			try {
 				Headers hs;
 				hs = m_Context.getResponseHeaders();
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cn.weforward.gateway.ServiceInstance;
+
+/**
+ * 微服务实例的二级索引（如按名称、所有者），在注册/注销时增量维护，查询时不用遍历全部实例
+ * 
+ * @author zhangpengji
+ *
+ */
+class ServiceIndex {
+	/** 索引键 -> (实例id -> 实例) */
+	final ConcurrentHashMap<String, ConcurrentHashMap<String, ServiceInstance>> m_Index;
+
+	ServiceIndex() {
+		m_Index = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * 加入索引，同一id的实例会被替换
+	 * 
+	 * @param key
+	 *            索引键，为空时忽略
+	 * @param service
+	 */
+	void put(String key, ServiceInstance service) {
+		if (null == key) {
+			return;
+		}
+		// 在compute中修改，避免与移除空集合并发
+		m_Index.compute(key, (k, bucket) -> {
+			if (null == bucket) {
+				bucket = new ConcurrentHashMap<>();
+			}
+			bucket.put(service.getId(), service);
+			return bucket;
+		});
+	}
+
+	/**
+	 * 移出索引，只移除同一个实例（已被新实例替换的不移除）
+	 * 
+	 * @param key
+	 * @param service
+	 */
+	void remove(String key, ServiceInstance service) {
+		if (null == key) {
+			return;
+		}
+		m_Index.computeIfPresent(key, (k, bucket) -> {
+			bucket.remove(service.getId(), service);
+			return bucket.isEmpty() ? null : bucket;
+		});
+	}
+
+	/**
+	 * 索引键下的实例
+	 * 
+	 * @param key
+	 * @return
+	 */
+	Collection<ServiceInstance> get(String key) {
+		if (null == key) {
+			return Collections.emptyList();
+		}
+		ConcurrentHashMap<String, ServiceInstance> bucket = m_Index.get(key);
+		if (null == bucket) {
+			return Collections.emptyList();
+		}
+		return bucket.values();
+	}
+
+	Set<String> keys() {
+		return m_Index.keySet();
+	}
+}
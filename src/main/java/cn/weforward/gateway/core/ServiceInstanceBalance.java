@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +30,7 @@ import cn.weforward.common.util.StringUtil;
 import cn.weforward.common.util.TransList;
 import cn.weforward.gateway.AccessLoaderExt;
 import cn.weforward.gateway.Configure;
+import cn.weforward.gateway.RequestPhases;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.gateway.StreamTunnel;
 import cn.weforward.gateway.Tunnel;
@@ -36,6 +38,10 @@ import cn.weforward.gateway.exception.BalanceException;
 import cn.weforward.gateway.exception.DebugServiceException;
 import cn.weforward.gateway.exception.QuotasException;
 import cn.weforward.gateway.ops.trace.ServiceTracer;
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+import cn.weforward.gateway.util.OverloadLimit;
+import cn.weforward.gateway.util.StripedCounter;
+import cn.weforward.metrics.WeforwardMetrics;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.Header;
 import cn.weforward.protocol.ResponseConstants;
@@ -48,7 +54,11 @@ import cn.weforward.protocol.ext.Producer;
 import cn.weforward.protocol.ops.AccessExt;
 import cn.weforward.protocol.ops.ServiceExt;
 import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 
 /**
  * 微服务实例的调度器
@@ -59,6 +69,17 @@ import io.micrometer.core.instrument.MeterRegistry;
 public class ServiceInstanceBalance {
 	static final Logger _Logger = LoggerFactory.getLogger(ServiceInstanceBalance.class);
 
+	/** 检查响应时间异常实例的间隔（毫秒） */
+	static final int OUTLIER_CHECK_INTERVAL = 1000;
+	/** 参与响应时间比较的最少实例数 */
+	static final int OUTLIER_MIN_PEERS = 3;
+	/** 响应时间与其它实例平均值的最小差距（微秒），避免很快的服务因小波动被剔除 */
+	static final long OUTLIER_MIN_LATENCY_DIFF = 10 * 1000;
+	/** 并发数分散计数的槽数 */
+	static final int CONCURRENT_STRIPES = 16;
+	/** 并发数分散计数每槽累计满此数才并入（误差不超过槽数） */
+	static final int CONCURRENT_BATCH = 2;
+
 	protected GatewayImpl m_Gateway;
 	protected String m_Name;
 
@@ -66,39 +87,208 @@ public class ServiceInstanceBalance {
 	protected ServiceEndpoint[] m_Endpoints;
 	/** 有效的端点数 */
 	protected volatile int m_EndpointValids;
-	/** 所有端点的并发数 */
-	protected AtomicInteger m_Concurrent;
+	/** 所有端点的并发数（接近配额或并发上限时才取精确值） */
+	protected StripedCounter m_Concurrent;
+	/** 端点选择器 */
+	protected volatile EndpointSelector m_Selector;
+	/** 是否有端点启用了响应时间剔除 */
+	protected volatile boolean m_OutlierCheck;
+	/** 最后检查响应时间异常的时间 */
+	protected volatile long m_OutlierCheckLast;
+	/** 对冲请求的响应时间百分位，0表示不启用 */
+	protected volatile int m_Hedge;
+	/** 成功调用的响应时间分布 */
+	protected final LatencyHistogram m_Latency = new LatencyHistogram(true);
+	/** 调用各阶段耗时的分布 */
+	protected final PhaseLatency m_PhaseLatency = new PhaseLatency();
+	/** 异步广播通知投递成功的次数 */
+	protected final LongAdder m_NotifyDelivered = new LongAdder();
+	/** 异步广播通知投递失败的次数 */
+	protected final LongAdder m_NotifyFailed = new LongAdder();
+	/** 异步广播通知待投递的实例数 */
+	protected final AtomicInteger m_NotifyPending = new AtomicInteger();
+	/** 自适应并发限制，未启用时为null */
+	protected final ConcurrencyLimiter m_Limiter;
 	/** 微服务文档的加载锁 */
 	private final Object m_DocLock = new Object();
+	/** 已注册的指标 */
+	protected List<Meter> m_Meters;
 
 	public ServiceInstanceBalance(GatewayImpl gateway, String name) {
 		m_Gateway = gateway;
 		m_Name = name;
-		m_Concurrent = new AtomicInteger(0);
+		m_Concurrent = new StripedCounter(CONCURRENT_STRIPES, CONCURRENT_BATCH);
+		m_Selector = EndpointSelector.getInstance(null);
+
+		Configure cfg = Configure.getInstance();
+		int maxLimit = getQuotas().getMax() * cfg.getSingleServiceConcurrentPercent() / 100;
+		m_Limiter = ConcurrencyLimiter.getInstance(cfg.getServiceConcurrencyLimiter(), maxLimit);
 	}
 	
+	/**
+	 * 注册调度器的指标（加入网关的调度器表后）
+	 * 
+	 * @param registry
+	 */
+	synchronized void startGauge(MeterRegistry registry) {
+		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(m_Gateway.m_ServerId),
+				WeforwardMetrics.TagHelper.serviceName(m_Name));
+		List<Meter> meters = new ArrayList<>();
+		if (null != m_Limiter) {
+			meters.add(Gauge.builder(GatewayMetrics.GATEWAY_SERVICE_RPC_LIMIT, m_Limiter, ConcurrencyLimiter::getLimit)
+					.tags(tags).register(registry));
+		}
+		m_PhaseLatency.startGauge(tags, registry, meters);
+		meters.add(FunctionCounter.builder(GatewayMetrics.GATEWAY_NOTIFY_DELIVERY, m_NotifyDelivered, LongAdder::sum)
+				.tags(tags).tag("result", "success").register(registry));
+		meters.add(FunctionCounter.builder(GatewayMetrics.GATEWAY_NOTIFY_DELIVERY, m_NotifyFailed, LongAdder::sum)
+				.tags(tags).tag("result", "fail").register(registry));
+		meters.add(Gauge.builder(GatewayMetrics.GATEWAY_NOTIFY_PENDING, m_NotifyPending, AtomicInteger::get)
+				.tags(tags).register(registry));
+		m_Meters = meters;
+	}
+
+	/**
+	 * 注销已注册的指标（调度器被移除时）。
+	 * <p>
+	 * 同名同标签的指标只会注册一次，不注销的话重建后的调度器仍指向旧调度器
+	 */
+	synchronized void stopGauge() {
+		List<Meter> meters = m_Meters;
+		MeterRegistry registry = m_Gateway.m_MeterRegistry;
+		if (null == meters || null == registry) {
+			return;
+		}
+		m_Meters = null;
+		for (Meter m : meters) {
+			registry.remove(m);
+		}
+	}
+
 	public String getName() {
 		return m_Name;
 	}
 
 	public synchronized void reinit(List<ServiceInstance> services) {
+		ServiceEndpoint[] olds = m_Endpoints;
 		ServiceEndpoint[] eps = new ServiceEndpoint[services.size()];
 		int offset = 0;
 		for (ServiceInstance s : services) {
-			ServiceEndpoint ep = openEndpoint(s);
+			int idx = (null == olds) ? -1 : indexOf(olds, s);
+			ServiceEndpoint ep = openEndpoint(s, (-1 == idx) ? null : olds[idx]);
 			if (null != ep) {
 				eps[offset++] = ep;
 			}
 		}
 		reinit(Arrays.copyOf(eps, offset));
+		if (null != olds) {
+			// 注销未被继承的端点指标
+			for (ServiceEndpoint ep : olds) {
+				ep.stopGauge();
+			}
+		}
+	}
+
+	/**
+	 * 流量规则变化后重新应用规则，只重建适用规则有变化的端点，其余端点原样保留
+	 *
+	 * @param services
+	 *            服务的全部实例
+	 */
+	public synchronized void reapplyRules(List<ServiceInstance> services) {
+		ServiceEndpoint[] olds = m_Endpoints;
+		ServiceEndpoint[] eps = new ServiceEndpoint[services.size()];
+		int offset = 0;
+		int kept = 0;
+		for (ServiceInstance s : services) {
+			int idx = (null == olds) ? -1 : indexOf(olds, s);
+			ServiceEndpoint old = (-1 == idx) ? null : olds[idx];
+			if (null != old && old.getService() == s
+					&& TrafficTableItemExt.Helper.isSameEffect(old.getRule(), findRule(s))) {
+				eps[offset++] = old;
+				kept++;
+				continue;
+			}
+			ServiceEndpoint ep = openEndpoint(s, old);
+			if (null != ep) {
+				eps[offset++] = ep;
+			}
+		}
+		if (kept == offset && kept == ((null == olds) ? 0 : olds.length)) {
+			// 没有端点变化
+			return;
+		}
+		eps = Arrays.copyOf(eps, offset);
+		reinit(eps);
+		if (null != olds) {
+			// 注销未保留的端点指标
+			for (ServiceEndpoint ep : olds) {
+				if (-1 == indexOf(eps, ep)) {
+					ep.stopGauge();
+				}
+			}
+		}
+	}
+
+	private static int indexOf(ServiceEndpoint[] endpoints, ServiceEndpoint endpoint) {
+		for (int i = 0; i < endpoints.length; i++) {
+			if (endpoints[i] == endpoint) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	private synchronized void reinit(ServiceEndpoint... elements) {
 		if (null == elements || 0 == elements.length) {
+			m_Selector.reinit(null);
 			m_Endpoints = null;
+			m_OutlierCheck = false;
+			m_Hedge = 0;
 			return;
 		}
+		// 以第一个指定了均衡策略的端点为准
+		String strategy = null;
+		boolean outlierCheck = false;
+		int hedge = 0;
+		for (ServiceEndpoint ep : elements) {
+			if (ep.ejectLatency > 0) {
+				outlierCheck = true;
+			}
+			if (null == strategy) {
+				strategy = ep.getStrategy();
+			}
+			if (0 == hedge) {
+				hedge = ep.getHedge();
+			}
+		}
+		EndpointSelector selector = m_Selector;
+		if (!selector.isStrategy(strategy)) {
+			selector = EndpointSelector.getInstance(strategy);
+		}
+		// 先准备好选择器的快照，再替换端点列表
+		selector.reinit(elements);
+		m_Selector = selector;
 		m_Endpoints = elements;
+		m_OutlierCheck = outlierCheck;
+		m_Hedge = hedge;
+	}
+
+	/**
+	 * 对冲请求的延时
+	 * 
+	 * @return 毫秒，未启用或样本不足时返回0
+	 */
+	int getHedgeDelay() {
+		int hedge = m_Hedge;
+		if (hedge <= 0) {
+			return 0;
+		}
+		long micros = m_Latency.percentile(hedge);
+		if (micros <= 0) {
+			return 0;
+		}
+		return (int) Math.min((micros + 999) / 1000, Integer.MAX_VALUE);
 	}
 
 	public long getRpcCount() {
@@ -108,7 +298,7 @@ public class ServiceInstanceBalance {
 		}
 		long count = 0;
 		for (ServiceEndpoint ep : endpoints) {
-			count += ep.times;
+			count += ep.times.sum();
 		}
 		return count;
 	}
@@ -120,7 +310,7 @@ public class ServiceInstanceBalance {
 		}
 		long count = 0;
 		for (ServiceEndpoint ep : endpoints) {
-			count += ep.concurrent;
+			count += ep.concurrent.sum();
 		}
 		return count;
 	}
@@ -132,7 +322,7 @@ public class ServiceInstanceBalance {
 		}
 		long count = 0;
 		for (ServiceEndpoint ep : endpoints) {
-			count += ep.failTotal;
+			count += ep.failTotal.sum();
 		}
 		return count;
 	}
@@ -166,7 +356,7 @@ public class ServiceInstanceBalance {
 			return;
 		}
 		// 更新资源项
-		ServiceEndpoint ep = openEndpoint(service);
+		ServiceEndpoint ep = openEndpoint(service, agent);
 		if (null != ep) {
 			// 替换
 			replace(idx, ep);
@@ -232,6 +422,7 @@ public class ServiceInstanceBalance {
 
 	private synchronized void remove(int idx) {
 		ServiceEndpoint[] oldArr = m_Endpoints;
+		oldArr[idx].stopGauge();
 		if (1 == oldArr.length) {
 			// 只有一项，直接清空
 			reinit();
@@ -255,6 +446,18 @@ public class ServiceInstanceBalance {
 	 * @return
 	 */
 	private ServiceEndpoint openEndpoint(ServiceInstance service) {
+		return openEndpoint(service, null);
+	}
+
+	/**
+	 * 打开一个资源项，并继承被替换资源项的状态。若流量规则无效，则返回null
+	 * 
+	 * @param service
+	 * @param old
+	 *            被替换的资源项，可空
+	 * @return
+	 */
+	private ServiceEndpoint openEndpoint(ServiceInstance service, ServiceEndpoint old) {
 		TrafficTableItem rule = findRule(service);
 		if (null == rule || 0 == rule.getWeight()) {
 			// 实例不可达
@@ -264,6 +467,11 @@ public class ServiceInstanceBalance {
 		service.setInaccessible(false);
 
 		ServiceEndpoint ep = ServiceEndpoint.openEndpoint(this, service, rule);
+		if (null != ep && null != old) {
+			ep.inherit(old);
+			// 先注销旧的指标，新端点才能注册上
+			old.stopGauge();
+		}
 		MeterRegistry registry = m_Gateway.m_MeterRegistry;
 		if (null != ep && null != registry) {
 			ep.startGauge(m_Gateway.m_ServerId, registry);
@@ -330,12 +538,20 @@ public class ServiceInstanceBalance {
 	 * @throws BalanceException
 	 */
 	ServiceEndpoint get(String no, String version, List<String> excludeNos) throws BalanceException {
-		int concurrent = m_Concurrent.get();
-		int quota = getQuotas().getQuota(m_Name, concurrent);
+		int quota = getQuotas().getQuota(m_Name, m_Concurrent.get());
+		int concurrent = m_Concurrent.get(quota);
 		if (concurrent > quota) {
 			throw QuotasException.fullQuotas(m_Name,
 					"{满额:" + concurrent + "/" + quota + ", max:" + getQuotas().getMax());
 		}
+		ConcurrencyLimiter limiter = m_Limiter;
+		if (null != limiter) {
+			int limit = limiter.getLimit();
+			concurrent = m_Concurrent.get(limit);
+			if (concurrent >= limit) {
+				throw BalanceException.limited(m_Name, "{限流:" + concurrent + "/" + limit + "}");
+			}
+		}
 
 		boolean onlyBackup = false;
 		if (StringUtil.isEmpty(no)) {
@@ -356,41 +572,37 @@ public class ServiceInstanceBalance {
 				m_EndpointValids = 0;
 				return null;
 			}
-			synchronized (eps) {
-				if (best.isOverload()) {
-					m_EndpointValids = 0;
-					throw BalanceException.overload(m_Name, String.valueOf(best));
-				}
-				if (best.isFailDuring()) {
-					m_EndpointValids = 0;
-					// 先重罢失败状态，避免下次还是没能获取
-					best.resetAtFail(BalanceElement.FAIL_RESET_MIN_TIMEOUT);
-					throw BalanceException.failDuring(m_Name, String.valueOf(best));
-				}
-				m_EndpointValids = 1;
-				if (!best.matchVersion(version)) {
-					throw BalanceException.versionNotMatch(m_Name, String.valueOf(best));
-				}
-				if ((onlyBackup && !best.isBackup()) || best.matchNos(excludeNos)) {
-					throw BalanceException.exclude(m_Name, String.valueOf(best));
-				}
-				// best.use();
-				use(best);
-				return best;
+			if (best.isOverload()) {
+				m_EndpointValids = 0;
+				throw BalanceException.overload(m_Name, String.valueOf(best));
+			}
+			if (best.isFailDuring()) {
+				m_EndpointValids = 0;
+				// 先重罢失败状态，避免下次还是没能获取
+				best.resetAtFail(BalanceElement.FAIL_RESET_MIN_TIMEOUT);
+				throw BalanceException.failDuring(m_Name, String.valueOf(best));
+			}
+			m_EndpointValids = 1;
+			if (!best.matchVersion(version)) {
+				throw BalanceException.versionNotMatch(m_Name, String.valueOf(best));
+			}
+			if ((onlyBackup && !best.isBackup()) || best.matchNos(excludeNos)) {
+				throw BalanceException.exclude(m_Name, String.valueOf(best));
 			}
+			best.recoverWeight();
+			// best.use();
+			use(best);
+			return best;
 		}
 
-		ServiceEndpoint best = null;
+		ServiceEndpoint referto = null;
 		int overloadCount = 0;
 		int failCount = 0;
-		int ew;
-		int total = 0;
+		int candidates = 0;
 		boolean haveBackup = false;
-		boolean isReferto = false;
 		int valids = 0;
 
-		// 以下这段算法参考自Nginx RR算法
-		// ngx_http_upstream_get_peer(ngx_http_upstream_rr_peer_data_t *rrp)
+		// 先统计各端点的状态（只读，不修改选择状态），具体的选择交由m_Selector
 		for (int i = 0; i < eps.length; i++) {
 			ServiceEndpoint element = eps[i];
 			if (element.isBackup()) {
@@ -416,68 +628,40 @@ public class ServiceInstanceBalance {
 			if (element.matchNos(excludeNos)) {
 				continue;
 			}
+			// 逐步恢复有效权重
+			element.recoverWeight();
 
-			ew = (element.effectiveWeight > 0) ? element.effectiveWeight : 0;
-			element.currentWeight += ew;
-			total += ew;
-			if (element.effectiveWeight < element.weight) {
-				element.effectiveWeight++;
-			}
-
-			if (null != no && element.matchNo(no)) {
+			if (null != no && null == referto && element.matchNo(no)) {
 				// 使用符合referto的资源项
-				if (!isReferto || element.currentWeight > best.currentWeight) {
-					best = element;
-					isReferto = true;
-				}
+				referto = element;
 				continue;
 			}
 			// if((onlyBackup && !element.isBackup()) || (!onlyBackup &&
 			// element.isBackup()))
-			if (onlyBackup != element.isBackup()) {
-				continue;
+			if (onlyBackup == element.isBackup()) {
+				++candidates;
 			}
+		}
 
-			if (best == null || (!isReferto && element.currentWeight > best.currentWeight)) {
-				best = element;
+		ServiceEndpoint best = referto;
+		if (null == best && candidates > 0) {
+			int scope = onlyBackup ? EndpointSelector.SCOPE_BACKUP : EndpointSelector.SCOPE_PRIMARY;
+			best = m_Selector.select(eps, version, excludeNos, scope);
+			if (null != best && candidates > 1 && !best.admitSlowStart()) {
+				// 慢启动中的端点未被放行，换一个（若没有其它的，还是用它）
+				List<String> nos = new ArrayList<String>(excludeNos.size() + 1);
+				nos.addAll(excludeNos);
+				nos.add(best.getService().getNo());
+				ServiceEndpoint other = m_Selector.select(eps, version, nos, scope);
+				if (null != other && other.admitSlowStart()) {
+					// 换的端点也要在慢启动放行
+					best = other;
+				}
 			}
 		}
-
 		if (best == null && haveBackup && !onlyBackup) {
 			// 只好在在后备资源中找
-			for (int i = eps.length - 1; i >= 0; i--) {
-				ServiceEndpoint element = eps[i];
-				if (element.isOverload()) {
-					// 过载保护
-					continue;
-				}
-				if (element.isFailDuring()) {
-					// 略过失败的项
-					continue;
-				}
-				// 最后再比较版本，让overloadCount、failCount可以正常统计
-				if (!element.matchVersion(version)) {
-					continue;
-				}
-				if (element.matchNos(excludeNos)) {
-					continue;
-				}
-
-				ew = (element.effectiveWeight > 0) ? element.effectiveWeight : 0;
-				element.currentWeight += ew;
-				// if (element.isBackup()) {
-				total += ew;
-				// }
-				if (element.effectiveWeight < element.weight) {
-					element.effectiveWeight++;
-				} else if (0 == element.effectiveWeight) {
-					element.effectiveWeight = 1;
-				}
-
-				if (best == null || element.currentWeight > best.currentWeight) {
-					best = element;
-				}
-			}
+			best = m_Selector.select(eps, version, excludeNos, EndpointSelector.SCOPE_ALL);
 		}
 
 		if (best == null) {
@@ -526,7 +710,6 @@ public class ServiceInstanceBalance {
 		}
 
 		m_EndpointValids = valids;
-		best.currentWeight -= total;
 		// best.use();
 		use(best);
 		return best;
@@ -596,10 +779,17 @@ public class ServiceInstanceBalance {
 	}
 
 	private void use(ServiceEndpoint endpoint) throws BalanceException {
-		int concurrent = m_Concurrent.get();
-		getQuotas().use(m_Name, concurrent);
+		if (!endpoint.useHost()) {
+			throw BalanceException.overload(m_Name, "主机连接已满:" + endpoint);
+		}
+		try {
+			getQuotas().use(m_Name, m_Concurrent);
+		} catch (BalanceException e) {
+			endpoint.freeHost();
+			throw e;
+		}
 
-		m_Concurrent.incrementAndGet();
+		m_Concurrent.increment();
 
 		endpoint.use();
 	}
@@ -611,11 +801,119 @@ public class ServiceInstanceBalance {
 	 * @param state
 	 */
 	void free(ServiceEndpoint endpoint, int state) {
+		free(endpoint, state, 0);
+	}
+
+	/**
+	 * 释放微服务实例端点
+	 * 
+	 * @param endpoint
+	 * @param state
+	 * @param elapsed
+	 *            调用耗时（微秒）
+	 */
+	void free(ServiceEndpoint endpoint, int state, long elapsed) {
 		getQuotas().free(m_Name);
 
-		m_Concurrent.decrementAndGet();
+		// 限制器只用来判断并发是否远未到上限，近似值即可
+		int concurrent = m_Concurrent.get();
+		m_Concurrent.decrement();
+
+		endpoint.free(state, elapsed);
+
+		AdmissionQueue queue = m_Gateway.getAdmissionQueue();
+		if (null != queue) {
+			queue.onFree(this);
+		}
+
+		ConcurrencyLimiter limiter = m_Limiter;
+		if (null != limiter) {
+			boolean dropped = (BalanceElement.STATE_TIMEOUT == state || BalanceElement.STATE_BUSY == state);
+			if (dropped || (elapsed > 0 && BalanceElement.STATE_OK == state)) {
+				limiter.onSample(elapsed, concurrent, dropped);
+			}
+		}
+
+		if (elapsed > 0 && BalanceElement.STATE_OK == state) {
+			m_Latency.record(elapsed);
+		}
+		if (m_OutlierCheck) {
+			long now = System.currentTimeMillis();
+			long last = m_OutlierCheckLast;
+			if (now - last >= OUTLIER_CHECK_INTERVAL) {
+				m_OutlierCheckLast = now;
+				checkLatencyOutlier();
+			}
+		}
+	}
+
+	/**
+	 * 检查响应时间明显高于其它实例的端点并剔除（每次最多剔除一个，且被剔除的不超过半数）
+	 */
+	void checkLatencyOutlier() {
+		ServiceEndpoint[] eps = m_Endpoints;
+		if (null == eps || eps.length < OUTLIER_MIN_PEERS) {
+			return;
+		}
+		long sum = 0;
+		int count = 0;
+		int ejected = 0;
+		for (ServiceEndpoint ep : eps) {
+			if (ep.isEjected()) {
+				++ejected;
+				continue;
+			}
+			long latency = ep.latencyEwma;
+			if (latency > 0) {
+				sum += latency;
+				++count;
+			}
+		}
+		if (count < OUTLIER_MIN_PEERS || !isEjectable(ejected, eps.length)) {
+			return;
+		}
+		ServiceEndpoint outlier = null;
+		long worst = 0;
+		for (ServiceEndpoint ep : eps) {
+			long latency = ep.latencyEwma;
+			if (ep.ejectLatency <= 0 || latency <= 0 || ep.isEjected()) {
+				continue;
+			}
+			// 与其它实例的平均值比较
+			long others = (sum - latency) / (count - 1);
+			if (latency - others < OUTLIER_MIN_LATENCY_DIFF || latency <= others * ep.ejectLatency) {
+				continue;
+			}
+			if (latency > worst) {
+				worst = latency;
+				outlier = ep;
+			}
+		}
+		if (null != outlier) {
+			_Logger.warn(m_Name + "响应时间异常:" + worst + "us/" + (sum - worst) / (count - 1) + "us");
+			outlier.eject();
+		}
+	}
+
+	/**
+	 * 是否还允许剔除端点（被剔除的不超过半数）
+	 */
+	boolean isEjectable() {
+		ServiceEndpoint[] eps = m_Endpoints;
+		if (null == eps) {
+			return false;
+		}
+		int ejected = 0;
+		for (ServiceEndpoint ep : eps) {
+			if (ep.isEjected()) {
+				++ejected;
+			}
+		}
+		return isEjectable(ejected, eps.length);
+	}
 
-		endpoint.free(state);
+	static boolean isEjectable(int ejected, int total) {
+		return (ejected + 1) * 2 <= total;
 	}
 
 	void onEndpointOverload(ServiceEndpoint ep) {
@@ -627,6 +925,17 @@ public class ServiceInstanceBalance {
 	}
 
 	public void joint(Tunnel tunnel) {
+		joint(tunnel, null);
+	}
+
+	/**
+	 * 接入请求
+	 * 
+	 * @param tunnel
+	 * @param waiter
+	 *            排队后重试时的排队项，首次接入时为null
+	 */
+	void joint(Tunnel tunnel, AdmissionQueue.Waiter waiter) {
 		if (null == m_Endpoints) {
 			tunnel.responseError(null, WeforwardException.CODE_SERVICE_NOT_FOUND, "微服务[" + m_Name + "]无可用实例");
 			return;
@@ -652,15 +961,24 @@ public class ServiceInstanceBalance {
 		try {
 			ep = get(serviceNo, serviceVersion);
 		} catch (BalanceException e) {
-			_Logger.warn(e.toString());
 			int code = (e instanceof QuotasException) ? WeforwardException.CODE_GATEWAY_BUSY
 					: WeforwardException.CODE_SERVICE_BUSY;
+			if (admit(tunnel, waiter, e, code)) {
+				// 已排队等待配额
+				return;
+			}
+			_Logger.warn(e.toString());
 			tunnel.responseError(null, code, "微服务[" + m_Name + "]忙：" + e.getKeyword());
 			return;
 		}
+		if (null != waiter) {
+			waiter.cancelTimeout();
+		}
 
-		if (!ep.getService().isForwardEnable() || m_Endpoints.length <= 1) {
-			// 没启用转发，或者只有一个Endpoint
+		boolean forwardEnable = ep.getService().isForwardEnable();
+		int hedgeDelay = getHedgeDelay();
+		if ((!forwardEnable && hedgeDelay <= 0) || m_Endpoints.length <= 1) {
+			// 没启用转发及对冲，或者只有一个Endpoint
 			ep.connect(tunnel, false);
 			return;
 		}
@@ -669,11 +987,13 @@ public class ServiceInstanceBalance {
 			ep.connect(tunnel, false);
 			return;
 		}
-		// 由ForwardBridger接管转发处理
-		int maxForward = Math.min(Configure.getInstance().getServiceForwardCount(), endpointValids - 1);
+		// 由ForwardBridger接管转发（及对冲）处理
+		int maxForward = forwardEnable
+				? Math.min(Configure.getInstance().getServiceForwardCount(), endpointValids - 1)
+				: 0;
 		ForwardBridger forwardBridger;
 		try {
-			forwardBridger = new ForwardBridger(this, tunnel, maxForward);
+			forwardBridger = new ForwardBridger(this, tunnel, maxForward, hedgeDelay);
 		} catch (Throwable e) {
 			_Logger.error(e.toString(), e);
 			tunnel.responseError(null, WeforwardException.CODE_INTERNAL_ERROR, "内部错误");
@@ -682,6 +1002,27 @@ public class ServiceInstanceBalance {
 		forwardBridger.connect(ep);
 	}
 	
+	/**
+	 * 配额满或限流时尝试排队
+	 * 
+	 * @return 是否已排队
+	 */
+	private boolean admit(Tunnel tunnel, AdmissionQueue.Waiter waiter, BalanceException e, int code) {
+		if (!(e instanceof QuotasException) && BalanceException.CODE_LIMITED.id != e.getCode()) {
+			return false;
+		}
+		AdmissionQueue queue = m_Gateway.getAdmissionQueue();
+		if (null == queue) {
+			return false;
+		}
+		// 网关配额由所有微服务共用，其它的只等本微服务释放
+		boolean shared = (e instanceof QuotasException);
+		if (null != waiter) {
+			return queue.requeue(waiter, shared);
+		}
+		return queue.offer(this, tunnel, code, e.getKeyword(), shared);
+	}
+
 	public void jointByRelay(Tunnel tunnel) {
 		String serviceNo = tunnel.getHeader().getServiceNo();
 		ServiceEndpoint ep;
@@ -735,6 +1076,46 @@ public class ServiceInstanceBalance {
 		return m_Gateway.m_AclManage.findResourceRight(m_Name, access, resId);
 	}
 
+	/**
+	 * 是否统计调用各阶段的耗时（没有指标注册表时不统计）
+	 */
+	boolean isRecordPhases() {
+		return null != m_Gateway.m_MeterRegistry;
+	}
+
+	/**
+	 * 记录一次调用各阶段的耗时
+	 * 
+	 * @param phases
+	 */
+	void recordPhases(RequestPhases phases) {
+		m_PhaseLatency.record(phases);
+	}
+
+	/**
+	 * 异步广播通知已受理，待投递到指定数量的实例
+	 * 
+	 * @param count
+	 */
+	void onNotifyEnqueue(int count) {
+		m_NotifyPending.addAndGet(count);
+	}
+
+	/**
+	 * 异步广播通知投递到一个实例结束
+	 * 
+	 * @param success
+	 *            是否投递成功
+	 */
+	void onNotifyDelivered(boolean success) {
+		m_NotifyPending.decrementAndGet();
+		if (success) {
+			m_NotifyDelivered.increment();
+		} else {
+			m_NotifyFailed.increment();
+		}
+	}
+
 	ServiceTracer getServiceTracer() {
 		return m_Gateway.m_ServiceTracer;
 	}
@@ -743,6 +1124,18 @@ public class ServiceInstanceBalance {
 		return m_Gateway.getHttpClientFactory();
 	}
 
+	HostConnections getHostConnections() {
+		return m_Gateway.getHostConnections();
+	}
+
+	NotifyStore getNotifyStore() {
+		return m_Gateway.getNotifyStore();
+	}
+
+	OverloadLimit getAsyncBroadcastLimit() {
+		return m_Gateway.getAsyncBroadcastLimit();
+	}
+
 	Producer getProducer() {
 		return m_Gateway.m_Producer;
 	}
@@ -860,6 +1253,38 @@ public class ServiceInstanceBalance {
 		}
 		return NameItem.valueOf("部分异常", 5);
 	}
+
+	/**
+	 * 各实例中最慢的平均响应时间（微秒），没有调用记录时为0
+	 */
+	public long getLatency() {
+		ServiceEndpoint[] eps = m_Endpoints;
+		long latency = 0;
+		if (null != eps) {
+			for (ServiceEndpoint ep : eps) {
+				if (ep.latencyEwma > latency) {
+					latency = ep.latencyEwma;
+				}
+			}
+		}
+		return latency;
+	}
+
+	/**
+	 * 各实例中最高的错误率（0~1），没有调用记录时为0
+	 */
+	public double getErrorRate() {
+		ServiceEndpoint[] eps = m_Endpoints;
+		int errorRate = 0;
+		if (null != eps) {
+			for (ServiceEndpoint ep : eps) {
+				if (ep.errorRateEwma > errorRate) {
+					errorRate = ep.errorRateEwma;
+				}
+			}
+		}
+		return (double) errorRate / BalanceElement.ERROR_RATE_SCALE;
+	}
 	
 	public List<ServiceInstance> listServiceInstance(){
 		List<ServiceEndpoint> eps = list();
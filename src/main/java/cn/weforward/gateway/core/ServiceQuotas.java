@@ -10,29 +10,33 @@
  */
 package cn.weforward.gateway.core;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 import cn.weforward.gateway.exception.QuotasException;
+import cn.weforward.gateway.util.StripedCounter;
 
 /**
  * 微服务配额
+ * <p>
+ * 已用配额分散计数，离保留配额还远时只读近似值，接近时才取精确值判断超额及满额
  * 
  * @author zhangpengji
  *
  */
 public class ServiceQuotas {
 
+	/** 已用配额的分散计数每槽累计满此数才并入 */
+	static final int COUNT_BATCH = 8;
+
 	/** 最大限额 */
 	protected int m_Max;
 	/** 保留配额 */
 	protected int m_Reserve;
 	/** 已用配额 */
-	protected AtomicInteger m_Count;
+	protected StripedCounter m_Count;
 
 	public ServiceQuotas(int max, int reserve) {
 		m_Max = max;
 		m_Reserve = reserve;
-		m_Count = new AtomicInteger(0);
+		m_Count = new StripedCounter(StripedCounter.MAX_STRIPES, COUNT_BATCH);
 	}
 
 	public int getMax() {
@@ -40,7 +44,18 @@ public class ServiceQuotas {
 	}
 
 	public int getCount() {
-		return m_Count.get();
+		return m_Count.sum();
+	}
+
+	/**
+	 * 离保留配额还远（近似值加上误差也没到）时返回近似值，否则返回精确值
+	 */
+	private int count() {
+		int count = m_Count.get();
+		if (count + m_Count.getError() < m_Max - m_Reserve) {
+			return count;
+		}
+		return m_Count.sum();
 	}
 
 	protected int calcQuota(int quota, int concurrent) {
@@ -64,14 +79,41 @@ public class ServiceQuotas {
 	}
 
 	public int getQuota(String service, int concurrent) {
-		return calcQuota(m_Max - m_Count.get(), concurrent);
+		return calcQuota(m_Max - count(), concurrent);
 	}
 
 	public int use(String service, int concurrent) throws QuotasException {
-		int count = m_Count.incrementAndGet();
+		m_Count.increment();
+		int count = count();
+		if (count < m_Max - m_Reserve) {
+			// 还有很多，不会超额也不会满额
+			return count;
+		}
+		return check(service, count, concurrent);
+	}
+
+	/**
+	 * 占用配额，接近保留配额时微服务的并发数才可能取精确值
+	 * 
+	 * @param service
+	 *            微服务名
+	 * @param concurrent
+	 *            微服务的并发数
+	 */
+	public int use(String service, StripedCounter concurrent) throws QuotasException {
+		m_Count.increment();
+		int count = count();
+		if (count < m_Max - m_Reserve) {
+			return count;
+		}
+		// 进入保留配额后可用额度与并发数无关，并发数在其附近才取精确值
+		return check(service, count, concurrent.get(calcQuota(m_Max - count, 0)));
+	}
+
+	private int check(String service, int count, int concurrent) throws QuotasException {
 		if (count > m_Max) {
 			// 超额了，减一对冲前面的加一，然后抛出超额异常
-			m_Count.decrementAndGet();
+			m_Count.decrement();
 			throw QuotasException.overQuotas(service, "超额{count:" + count + ",concurrent:" + concurrent + ",reserve:"
 					+ m_Reserve + ",max:" + m_Max + "}");
 		}
@@ -79,7 +121,7 @@ public class ServiceQuotas {
 			int q = calcQuota(m_Max - count, concurrent);
 			if (concurrent >= q) {
 				// 满额了，减一对冲前面的加一，然后抛出满额异常
-				m_Count.decrementAndGet();
+				m_Count.decrement();
 				throw QuotasException.fullQuotas(service, "满额{count:" + (count - 1) + ",concurrent:" + concurrent
 						+ ",quota:" + q + ",reserve:" + m_Reserve + ",max:" + m_Max + "}");
 			}
@@ -87,20 +129,26 @@ public class ServiceQuotas {
 		return count;
 	}
 
+	/**
+	 * 释放配额
+	 * 
+	 * @return 已用配额（近似值）
+	 */
 	public int free(String service) {
-		return m_Count.decrementAndGet();
+		m_Count.decrement();
+		return m_Count.get();
 	}
 
 	/**
 	 * 重置（置零）已用配额，特殊情况下使用
 	 */
 	public void reset() {
-		m_Count.set(0);
+		m_Count.reset();
 	}
 
 	@Override
 	public String toString() {
-		return "{max:" + m_Max + ",count:" + m_Count.get() + "}";
+		return "{max:" + m_Max + ",count:" + m_Count.sum() + "}";
 	}
 
 }
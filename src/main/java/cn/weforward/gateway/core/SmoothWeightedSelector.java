@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+/**
+ * 无锁的平滑加权轮询选择器
+ * <p>
+ * 在端点列表变化时，按Nginx平滑加权轮询算法（ngx_http_upstream_get_peer）预先算出一个完整周期的选择序列，与端点列表一起作为不可变的快照替换；
+ * 选择时各线程只需按游标读取序列，不再修改端点上的共享状态。为避免所有线程争用同一个游标，游标按线程分条（各占一个缓存行），各分条从序列的不同位置开始轮询，
+ * 每条游标走完一个周期，各端点被选中的次数仍严格符合权重比例。
+ * <p>
+ * 端点的有效权重降低（失败、忙等）时，按有效权重/基准权重的几率接受序列中的端点，跳过的按序列继续找下一个
+ * 
+ * @author zhangpengji
+ *
+ */
+class SmoothWeightedSelector extends EndpointSelector {
+	/** 序列的最大长度，超过时按比例缩小各端点的权重 */
+	static final int SEQUENCE_MAX_LENGTH = 8192;
+	/** 每个游标占用的long个数（64字节，避免伪共享） */
+	static final int CURSOR_STRIDE = 8;
+	/** 游标分条数 */
+	static final int CURSOR_STRIPES;
+	static {
+		int n = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while (stripes < n && stripes < 64) {
+			stripes <<= 1;
+		}
+		CURSOR_STRIPES = stripes;
+	}
+
+	/** 选择序列的快照 */
+	volatile Schedule m_Schedule;
+	/** 分条游标 */
+	final AtomicLongArray m_Cursors;
+
+	SmoothWeightedSelector() {
+		m_Cursors = new AtomicLongArray(CURSOR_STRIPES * CURSOR_STRIDE);
+	}
+
+	@Override
+	String getStrategy() {
+		return TrafficTableItemExt.STRATEGY_ROUND_ROBIN;
+	}
+
+	@Override
+	void reinit(ServiceEndpoint[] endpoints) {
+		if (null == endpoints || 0 == endpoints.length) {
+			m_Schedule = null;
+			return;
+		}
+		m_Schedule = new Schedule(endpoints);
+	}
+
+	@Override
+	ServiceEndpoint select(ServiceEndpoint[] endpoints, String version, List<String> excludeNos, int scope) {
+		Schedule schedule = m_Schedule;
+		if (null == schedule || schedule.endpoints != endpoints) {
+			// 快照与端点列表不一致（正在替换中），随机选吧
+			return randomSelect(endpoints, version, excludeNos, scope);
+		}
+		int[] sequence = schedule.sequence;
+		int length = sequence.length;
+		// 限制探测次数，可选的端点很少时改为随机选择，保证最坏情况也只是O(n)
+		int probes = Math.min(length, (endpoints.length << 1) + 16);
+		long cursor = nextCursor(length);
+		ServiceEndpoint spare = null;
+		for (int i = 0; i < probes; i++) {
+			ServiceEndpoint ep = endpoints[sequence[(int) ((cursor + i) % length)]];
+			if (!isCandidate(ep, version, excludeNos, scope)) {
+				continue;
+			}
+			if (accept(ep)) {
+				return ep;
+			}
+			if (null == spare) {
+				spare = ep;
+			}
+		}
+		if (probes < length) {
+			ServiceEndpoint ep = randomSelect(endpoints, version, excludeNos, scope);
+			if (null != ep) {
+				return ep;
+			}
+		}
+		return spare;
+	}
+
+	/**
+	 * 取当前线程所在分条的游标并前进一步
+	 */
+	private long nextCursor(int length) {
+		int stripe = (int) Thread.currentThread().getId() & (CURSOR_STRIPES - 1);
+		long c = m_Cursors.getAndIncrement(stripe * CURSOR_STRIDE);
+		// 各分条从序列的不同位置开始
+		return (c & Long.MAX_VALUE) + ((long) stripe * length / CURSOR_STRIPES);
+	}
+
+	/**
+	 * 按有效权重与基准权重的比例决定是否接受
+	 */
+	private static boolean accept(ServiceEndpoint ep) {
+		int ew = ep.effectiveWeight;
+		int base = ep.getBaseWeight();
+		if (ew >= base) {
+			return true;
+		}
+		if (ew <= 0) {
+			return false;
+		}
+		return ThreadLocalRandom.current().nextInt(base) < ew;
+	}
+
+	/**
+	 * 端点列表及其选择序列
+	 */
+	static class Schedule {
+		final ServiceEndpoint[] endpoints;
+		final int[] sequence;
+
+		Schedule(ServiceEndpoint[] endpoints) {
+			this.endpoints = endpoints;
+			this.sequence = build(endpoints);
+		}
+
+		static int[] build(ServiceEndpoint[] endpoints) {
+			int n = endpoints.length;
+			int[] weights = new int[n];
+			long total = 0;
+			for (int i = 0; i < n; i++) {
+				weights[i] = endpoints[i].getBaseWeight();
+				total += weights[i];
+			}
+			if (total > SEQUENCE_MAX_LENGTH) {
+				// 按比例缩小
+				long scaled = 0;
+				for (int i = 0; i < n; i++) {
+					weights[i] = (int) Math.max(1, weights[i] * SEQUENCE_MAX_LENGTH / total);
+					scaled += weights[i];
+				}
+				total = scaled;
+			} else {
+				// 约去公约数
+				int gcd = weights[0];
+				for (int i = 1; i < n && gcd > 1; i++) {
+					gcd = gcd(gcd, weights[i]);
+				}
+				if (gcd > 1) {
+					for (int i = 0; i < n; i++) {
+						weights[i] /= gcd;
+					}
+					total /= gcd;
+				}
+			}
+			// 以下算法参考自Nginx平滑加权轮询
+			int[] sequence = new int[(int) total];
+			int[] current = new int[n];
+			for (int s = 0; s < sequence.length; s++) {
+				int best = -1;
+				for (int i = 0; i < n; i++) {
+					current[i] += weights[i];
+					if (best < 0 || current[i] > current[best]) {
+						best = i;
+					}
+				}
+				current[best] -= (int) total;
+				sequence[s] = best;
+			}
+			return sequence;
+		}
+
+		private static int gcd(int a, int b) {
+			while (0 != b) {
+				int t = a % b;
+				a = b;
+				b = t;
+			}
+			return a;
+		}
+	}
+}
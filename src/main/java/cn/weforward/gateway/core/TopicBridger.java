@@ -18,6 +18,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -25,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import cn.weforward.common.io.BytesOutputStream;
 import cn.weforward.common.io.InputStreamNio;
+import cn.weforward.common.util.Bytes;
 import cn.weforward.common.util.ListUtil;
 import cn.weforward.gateway.Pipe;
 import cn.weforward.gateway.ServiceInstance;
@@ -54,6 +56,8 @@ class TopicBridger {
 	PipeWrap m_PipeWrap;
 	volatile InputStream m_RequestBuffer;
 	volatile boolean m_RequestBufferReady;
+	/** 未送达通知的转存，为null表示不转存 */
+	NotifyStore m_Store;
 
 	TopicBridger() {
 		m_Details = new HashMap<String, TopicDetail>();
@@ -94,6 +98,7 @@ class TopicBridger {
 
 		m_RequestBuffer = tunnel.mirrorTransferStream();
 
+		m_Store = gw.getNotifyStore();
 		m_Balances = balances;
 		m_TunnelWrap = new TopicTunnel(tunnel);
 
@@ -138,6 +143,9 @@ class TopicBridger {
 		List<PipeReady> m_PipeReadys;
 		List<String> m_Successes;
 		AtomicInteger m_Count;
+		/** 是否已开始通知（m_Count已设置） */
+		volatile boolean m_Notified;
+		AtomicBoolean m_Finished;
 
 		TopicTunnel(Tunnel tunnel) {
 			super(tunnel);
@@ -146,6 +154,7 @@ class TopicBridger {
 			m_PipeReadys = new ArrayList<>();
 			m_Successes = new ArrayList<>();
 			m_Count = new AtomicInteger();
+			m_Finished = new AtomicBoolean();
 		}
 
 		void doNotify() {
@@ -160,11 +169,13 @@ class TopicBridger {
 			}
 			if (ListUtil.isEmpty(eps)) {
 				// responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "通知失败，无可用实例");
+				m_Notified = true;
 				checkFinish();
 				return;
 			}
 
 			m_Count.set(eps.size());
+			m_Notified = true;
 			for (ServiceEndpoint ep : eps) {
 				Pipe p = ep.connect(m_TunnelWrap, false);
 				m_Pipes.add(p);
@@ -188,6 +199,8 @@ class TopicBridger {
 
 		void requestCompleted() {
 			writeRequestStream();
+			// 可能在等请求数据接收完再转存
+			checkFinish();
 		}
 
 		void pushPipeOutput(Pipe pipe, OutputStream output) {
@@ -230,9 +243,20 @@ class TopicBridger {
 		}
 
 		void checkFinish() {
-			if (0 != m_Count.get()) {
+			if (!m_Notified || 0 != m_Count.get()) {
+				return;
+			}
+			List<ServiceInstanceBalance> undelivered = getUndelivered();
+			if (!undelivered.isEmpty() && !m_RequestBufferReady) {
+				// 等请求数据接收完再转存
 				return;
 			}
+			if (!m_Finished.compareAndSet(false, true)) {
+				return;
+			}
+			if (!undelivered.isEmpty()) {
+				store(undelivered);
+			}
 			// if (0 == m_Successes.size()) {
 			// // 全失败
 			// responseError(WeforwardException.CODE_SERVICE_INVOKE_ERROR, "通知失败，全失败");
@@ -247,6 +271,47 @@ class TopicBridger {
 			m_Tunnel.responseReady(m_PipeWrap);
 		}
 
+		/**
+		 * 没有实例收到通知的微服务（启用转存时）
+		 */
+		List<ServiceInstanceBalance> getUndelivered() {
+			if (null == m_Store) {
+				return Collections.emptyList();
+			}
+			List<ServiceInstanceBalance> result = null;
+			for (ServiceInstanceBalance balance : m_Balances) {
+				if (0 != m_Details.get(balance.getName()).receives) {
+					continue;
+				}
+				if (null == result) {
+					result = new ArrayList<>();
+				}
+				result.add(balance);
+			}
+			return (null == result) ? Collections.<ServiceInstanceBalance>emptyList() : result;
+		}
+
+		void store(List<ServiceInstanceBalance> balances) {
+			Bytes body;
+			InputStream in = null;
+			try {
+				in = duplicateTransferBuffer();
+				BytesOutputStream bos = new BytesOutputStream();
+				BytesOutputStream.transfer(in, bos, 0);
+				body = bos.getBytes();
+			} catch (Throwable e) {
+				_Logger.error("转存通知失败：" + m_Tunnel.getHeader().getService(), e);
+				return;
+			} finally {
+				CloseUtil.close(in, _Logger);
+			}
+			for (ServiceInstanceBalance balance : balances) {
+				if (m_Store.store(balance.getName(), m_Tunnel, body)) {
+					m_Details.get(balance.getName()).appendError("未送达，已转存");
+				}
+			}
+		}
+
 		void writeRequestStream() {
 			if (!m_RequestBufferReady) {
 				// 等请求数据接收完再继续
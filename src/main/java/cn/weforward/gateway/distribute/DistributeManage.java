@@ -14,6 +14,7 @@ import java.util.List;
 
 import cn.weforward.common.ResultPage;
 import cn.weforward.gateway.GatewayNode;
+import cn.weforward.gateway.ops.ratelimit.RateLimitUsage;
 
 /**
  * 网关分布管理
@@ -32,9 +33,12 @@ public interface DistributeManage {
 	 *            注册到兄弟节点的微服务
 	 * @param unregServices
 	 *            从兄弟节点注销的微服务
+	 * @param rateLimits
+	 *            兄弟节点集群模式限流规则的请求量，为null表示兄弟节点未上报
 	 * @return
 	 */
-	void syncFromBrother(List<GatewayNode> nodes, List<DistributedService> regServices, List<DistributedService> unregServices);
+	void syncFromBrother(List<GatewayNode> nodes, List<DistributedService> regServices,
+			List<DistributedService> unregServices, List<RateLimitUsage> rateLimits);
 
 	/**
 	 * 获取本节点的全部微服务
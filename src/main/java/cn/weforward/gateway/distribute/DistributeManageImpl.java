@@ -42,6 +42,8 @@ import cn.weforward.gateway.Pluginable;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.gateway.ServiceListener;
 import cn.weforward.gateway.ops.access.AccessManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitManage;
+import cn.weforward.gateway.ops.ratelimit.RateLimitUsage;
 import cn.weforward.protocol.Access;
 import cn.weforward.protocol.AccessLoader;
 import cn.weforward.protocol.Header;
@@ -74,6 +76,7 @@ public class DistributeManageImpl
 	// protected DataHub m_DataHub;
 	protected GatewayExt m_Gateway;
 	protected AccessManage m_AccessManage;
+	protected RateLimitManage m_RateLimitManage;
 	/** 当前节点 */
 	protected NodeSelf m_SelfNode;
 	/** 兄弟节点 */
@@ -110,6 +113,7 @@ public class DistributeManageImpl
 		m_Mappers.register(GatewayNodeMapper.INSTANCE, ClassUtil.getSimpleName(NodeSelf.class));
 		m_Mappers.register(GatewayNodeMapper.INSTANCE, ClassUtil.getSimpleName(NodeAgent.class));
 		m_Mappers.register(BeanObjectMapper.getInstance(DistributedService.class), DistributedService.class);
+		m_Mappers.register(BeanObjectMapper.getInstance(RateLimitUsage.class), RateLimitUsage.class);
 
 		Shutdown.register(this);
 	}
@@ -156,6 +160,10 @@ public class DistributeManageImpl
 		m_AccessManage = am;
 	}
 
+	public void setRateLimitManage(RateLimitManage rlm) {
+		m_RateLimitManage = rlm;
+	}
+
 	/**
 	 * 设置定时任务间隔，单位：秒
 	 * 
@@ -205,7 +213,7 @@ public class DistributeManageImpl
 
 	@Override
 	public void syncFromBrother(List<GatewayNode> nodes, List<DistributedService> regServices,
-			List<DistributedService> unregServices) {
+			List<DistributedService> unregServices, List<RateLimitUsage> rateLimits) {
 		// 更新兄弟节点
 		try {
 			updateBrothers(nodes);
@@ -218,6 +226,15 @@ public class DistributeManageImpl
 		} catch (Throwable e) {
 			_Logger.error(e.toString(), e);
 		}
+		// 同步限流规则的请求量（第一个节点是发起此次同步的兄弟）
+		RateLimitManage rlm = m_RateLimitManage;
+		if (null != rlm && null != rateLimits && null != nodes && !nodes.isEmpty()) {
+			try {
+				rlm.updateUsages(nodes.get(0).getId(), rateLimits);
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+			}
+		}
 	}
 
 	ServiceInstance toServiceInstance(DistributedService ds) {
@@ -470,7 +487,7 @@ public class DistributeManageImpl
 		}
 
 		void sync(List<GatewayNode> nodes, Collection<ServiceInstance> regServices,
-				Collection<ServiceInstance> unregServices) {
+				Collection<ServiceInstance> unregServices, List<RateLimitUsage> rateLimits) {
 			ServiceInvoker invoker = getInvoker();
 			if (null == invoker) {
 				return;
@@ -487,6 +504,9 @@ public class DistributeManageImpl
 				List<DistributedService> list = toDistributedService(unregServices);
 				invokeObj.putParam("unreg_services", list);
 			}
+			if (null != rateLimits) {
+				invokeObj.putParam("rate_limits", rateLimits);
+			}
 			Response resp = invoker.invoke(invokeObj.toDtObject());
 			if (0 != resp.getResponseCode()) {
 				throw new ServiceInvokeException(resp);
@@ -604,6 +624,16 @@ public class DistributeManageImpl
 		Collection<ServiceInstance> regServices = dumpRegServices();
 		// 最近注销的微服务
 		Collection<ServiceInstance> unregServices = dumpUnregServices();
+		// 集群模式限流规则的请求量（同时重新分配本节点的份额）
+		List<RateLimitUsage> rateLimits = null;
+		RateLimitManage rlm = m_RateLimitManage;
+		if (null != rlm) {
+			try {
+				rateLimits = rlm.dumpUsages();
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+			}
+		}
 
 		if (m_BrotherNodes.isEmpty()) {
 			return;
@@ -631,7 +661,7 @@ public class DistributeManageImpl
 		for (int i = 1; i < nodes.size(); i++) {
 			NodeAgent brother = (NodeAgent) nodes.get(i);
 			try {
-				brother.sync(nodes, regServices, unregServices);
+				brother.sync(nodes, regServices, unregServices, rateLimits);
 				brother.success();
 				if (_Logger.isTraceEnabled()) {
 					_Logger.trace(
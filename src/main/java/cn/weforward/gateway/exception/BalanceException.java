@@ -25,6 +25,7 @@ public class BalanceException extends Exception {
 	public static final NameItem CODE_ALL_FAIL = NameItem.valueOf("全失败", 0x40);
 	public static final NameItem CODE_ALL_BUSY = NameItem.valueOf("全忙", 0x80);
 	public static final NameItem CODE_NO_SELF_MESH = NameItem.valueOf("非本网格实例", 0x100);
+	public static final NameItem CODE_LIMITED = NameItem.valueOf("限流", 0x200);
 
 	public static final NameItem CODE_OVER_QUOTAS = NameItem.valueOf("超额", 0x10000);
 	public static final NameItem CODE_FULL_QUOTAS = NameItem.valueOf("满额", 0x20000);
@@ -86,4 +87,8 @@ public class BalanceException extends Exception {
 	public static BalanceException noSelfMesh(String serviceName, String errMsg) {
 		return new BalanceException(serviceName, errMsg, CODE_NO_SELF_MESH);
 	}
+
+	public static BalanceException limited(String serviceName, String errMsg) {
+		return new BalanceException(serviceName, errMsg, CODE_LIMITED);
+	}
 }
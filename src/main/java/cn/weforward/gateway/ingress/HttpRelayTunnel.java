@@ -54,7 +54,7 @@ public class HttpRelayTunnel extends HttpTunnel {
 			m_Schedule = SCHEDULE_BEGIN;
 		}
 
-		m_Supporter.getMetricsCollecter().onRpcBegin();
+		rpcBegin();
 		if (!m_Supporter.getGateway().isReady()) {
 			responseError(WeforwardException.CODE_UNREADY, "网关未就绪");
 			return;
@@ -92,6 +92,7 @@ public class HttpRelayTunnel extends HttpTunnel {
 		}
 
 		try {
+			m_QueuedTime = System.nanoTime();
 			m_Supporter.getRpcExecutor().execute(this);
 		} catch (RejectedExecutionException e) {
 			// 线程池忙？
@@ -102,6 +103,7 @@ public class HttpRelayTunnel extends HttpTunnel {
 
 	@Override
 	public void run() {
+		m_RunTime = System.nanoTime();
 		try {
 			// 对接微服务端
 			m_Supporter.getGateway().joint(HttpRelayTunnel.this);
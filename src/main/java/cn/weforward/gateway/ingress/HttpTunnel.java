@@ -40,6 +40,7 @@ import cn.weforward.gateway.Configure;
 import cn.weforward.gateway.Pipe;
 import cn.weforward.gateway.Tunnel;
 import cn.weforward.gateway.util.CloseUtil;
+import cn.weforward.gateway.util.WfNodeScanner;
 import cn.weforward.gateway.util.WithoutLastJsonOutput;
 import cn.weforward.protocol.Header;
 import cn.weforward.protocol.Header.HeaderOutput;
@@ -97,6 +98,14 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 	volatile AutherOutputStream m_InputAuther;
 	// 对接的微服务管道
 	volatile Pipe m_Pipe;
+	// 已对接的微服务名（用于统计响应时间）
+	volatile String m_PipeService;
+	// 请求开始的时间（System.nanoTime()）
+	long m_BeginTime;
+	// 进入rpc任务执行器排队的时间
+	volatile long m_QueuedTime;
+	// 开始处理的时间
+	volatile long m_RunTime;
 	// 响应输出流
 	volatile OutputStream m_Output;
 	// 对响应内容的验证器
@@ -151,6 +160,16 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 		return m_Addr;
 	}
 
+	@Override
+	public long getQueuedTime() {
+		return m_QueuedTime;
+	}
+
+	@Override
+	public long getRunTime() {
+		return m_RunTime;
+	}
+
 	@Override
 	public int getMarks() {
 		return m_WfReq.marks;
@@ -170,6 +189,7 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 				abort = true;
 			} else {
 				m_Pipe = pipe;
+				m_PipeService = m_Header.getService();
 			}
 		}
 		if (abort) {
@@ -196,13 +216,23 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 
 		InputStream preparedStream = null;
 		try {
-			// pipeOutput = pipe.getOutput();
-			// 先补充验证原先wf_req部分
-			preparedStream = m_Context.duplicateRequestStream();
-			m_InputAuther.write(preparedStream, m_WfReq.nextPosition);
-			// 再接驳pipe的Output，输出wf_req后面的内容
-			m_InputAuther.setTransferTo(null, pipeOutput);
-			m_Context.requestTransferTo(m_InputAuther, m_WfReq.nextPosition);
+			OutputStream spliceOutput = null;
+			if (Configure.getInstance().isTrustSplice() && Header.AUTH_TYPE_NONE.equals(m_Header.getAuthType())) {
+				spliceOutput = pipe.getRequestSpliceOutput();
+			}
+			if (null != spliceOutput) {
+				// 请求内容无需验证，直接接驳微服务端的输出流
+				m_InputAuther = null;
+				m_Context.requestTransferTo(spliceOutput, m_WfReq.nextPosition);
+			} else {
+				// pipeOutput = pipe.getOutput();
+				// 先补充验证原先wf_req部分
+				preparedStream = m_Context.duplicateRequestStream();
+				m_InputAuther.write(preparedStream, m_WfReq.nextPosition);
+				// 再接驳pipe的Output，输出wf_req后面的内容
+				m_InputAuther.setTransferTo(null, pipeOutput);
+				m_Context.requestTransferTo(m_InputAuther, m_WfReq.nextPosition);
+			}
 		} catch (Throwable e) {
 			responseError(e);
 			return;
@@ -328,11 +358,7 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 
 		// 组织响应头
 		Header respHeader = new Header(m_Header.getService());
-		String authType = Header.AUTH_TYPE_NONE;
-		// TODO
-		// if (!m_Trust && !StringUtil.isEmpty(m_Header.getAccessId())) {
-		// authType = Header.AUTH_TYPE_AES;
-		// }
+		String authType = getResponseAuthType();
 		respHeader.setAuthType(authType);
 		respHeader.setContentType(Header.CONTENT_TYPE_JSON);
 		respHeader.setCharset(Header.CHARSET_UTF8);
@@ -376,6 +402,26 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 		m_Pipe.responseReady(this, m_OutputAuther);
 	}
 
+	// 响应的验证类型
+	String getResponseAuthType() {
+		// TODO
+		// if (!m_Trust && !StringUtil.isEmpty(m_Header.getAccessId())) {
+		// return Header.AUTH_TYPE_AES;
+		// }
+		return Header.AUTH_TYPE_NONE;
+	}
+
+	@Override
+	public OutputStream getResponseSpliceOutput() throws IOException {
+		AutherOutputStream auther = m_OutputAuther;
+		if (null == auther || !Header.AUTH_TYPE_NONE.equals(getResponseAuthType())) {
+			return null;
+		}
+		// wf_resp部分可能还在验证器的缓冲中
+		auther.flush();
+		return m_Output;
+	}
+
 	void checkPipe(Pipe pipe) {
 		if (null != m_Pipe && m_Pipe != pipe) {
 			// 对不上？
@@ -464,10 +510,19 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 			}
 		}
 		
-		m_Supporter.getMetricsCollecter().onRpcEnd();
+		rpcEnd();
 		// m_Context.close(); 不用关
 	}
 
+	void rpcBegin() {
+		m_BeginTime = System.nanoTime();
+		m_Supporter.getMetricsCollecter().onRpcBegin();
+	}
+
+	void rpcEnd() {
+		m_Supporter.getMetricsCollecter().onRpcEnd(m_PipeService, m_BeginTime);
+	}
+
 	protected void parseHeader() {
 		synchronized (this) {
 			if (m_Schedule >= SCHEDULE_BEGIN) {
@@ -476,7 +531,7 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 			m_Schedule = SCHEDULE_BEGIN;
 		}
 
-		m_Supporter.getMetricsCollecter().onRpcBegin();
+		rpcBegin();
 		if (!m_Supporter.getGateway().isReady()) {
 			responseError(WeforwardException.CODE_UNREADY, "网关未就绪");
 			return;
@@ -520,29 +575,44 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 		WfReq wfReq;
 		try {
 			requestInput = m_Context.duplicateRequestStream();
-			jsonInput = new JsonInputStream(requestInput, m_Header.getCharset());
 			wfReq = createWfReq();
-			try {
-				JsonUtil.parse(jsonInput, wfReq);
-			} catch (JsonParseAbort e) {
-				if (JsonParseAbort.MATCHED != e) {
-					// _Logger.error(e.toString(), e);
-					throw e;
+			String charset = m_Header.getCharset();
+			if (WfNodeScanner.isSupported(charset)) {
+				// 按字节扫描，不构造json节点
+				int position = WfReq.SCANNER.scan(requestInput, false, wfReq);
+				if (WfNodeScanner.NOT_FOUND == position) {
+					responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfReq.getName() + "'节点，或该节点不在最前");
+					return;
 				}
+				if (WfNodeScanner.NO_SEPARATOR == position) {
+					responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfReq.getName() + "'节点后面的','符号");
+					return;
+				}
+				wfReq.nextPosition = position;
+			} else {
+				jsonInput = new JsonInputStream(requestInput, charset);
+				try {
+					JsonUtil.parse(jsonInput, wfReq);
+				} catch (JsonParseAbort e) {
+					if (JsonParseAbort.MATCHED != e) {
+						// _Logger.error(e.toString(), e);
+						throw e;
+					}
+				}
+				if (!wfReq.found) {
+					responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfReq.getName() + "'节点，或该节点不在最前");
+					return;
+				}
+				// 读取到“,”分隔符
+				char ch = JsonUtil.skipBlank(jsonInput, 100);
+				if (',' != ch) {
+					// 格式有问题
+					responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfReq.getName() + "'节点后面的','符号");
+					return;
+				}
+				// 记下输入流转接位置
+				wfReq.nextPosition = jsonInput.position() - 1;
 			}
-			if (!wfReq.found) {
-				responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfReq.getName() + "'节点，或该节点不在最前");
-				return;
-			}
-			// 读取到“,”分隔符
-			char ch = JsonUtil.skipBlank(jsonInput, 100);
-			if (',' != ch) {
-				// 格式有问题
-				responseError(WeforwardException.CODE_ILLEGAL_CONTENT, "未找到'" + wfReq.getName() + "'节点后面的','符号");
-				return;
-			}
-			// 记下输入流转接位置
-			wfReq.nextPosition = jsonInput.position() - 1;
 		} catch (Throwable e) {
 			responseError(e);
 			return;
@@ -556,6 +626,7 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 		m_WfReq = wfReq;
 
 		try {
+			m_QueuedTime = System.nanoTime();
 			m_Supporter.getRpcExecutor().execute(this);
 		} catch (RejectedExecutionException e) {
 			// 线程池忙？
@@ -569,7 +640,17 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 	}
 
 	// WfReq节点
-	protected static class WfReq implements JsonUtil.Listener {
+	protected static class WfReq implements JsonUtil.Listener, WfNodeScanner.Listener {
+		static final WfNodeScanner SCANNER = new WfNodeScanner(RequestConstants.WF_REQ, RequestConstants.WAIT_TIMEOUT,
+				RequestConstants.VERSION, RequestConstants.RESOURCE_ID, RequestConstants.TRACE_TOKEN,
+				RequestConstants.MARKS);
+		/** SCANNER中属性名的下标 */
+		static final int KEY_WAIT_TIMEOUT = 0;
+		static final int KEY_VERSION = 1;
+		static final int KEY_RESOURCE_ID = 2;
+		static final int KEY_TRACE_TOKEN = 3;
+		static final int KEY_MARKS = 4;
+
 		int waitTimeout;
 		String version;
 		String resId;
@@ -617,6 +698,37 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 			}
 			throw JsonParseAbort.MATCHED;
 		}
+
+		@Override
+		public void foundNumber(int key, long value) throws JsonParseAbort {
+			if (KEY_WAIT_TIMEOUT == key) {
+				this.waitTimeout = (int) value;
+			} else if (KEY_MARKS == key) {
+				this.marks = (int) value;
+			} else {
+				foundOther(key);
+			}
+		}
+
+		@Override
+		public void foundString(int key, String value) throws JsonParseAbort {
+			if (KEY_VERSION == key) {
+				this.version = value;
+			} else if (KEY_RESOURCE_ID == key) {
+				this.resId = value;
+			} else if (KEY_TRACE_TOKEN == key) {
+				this.traceToken = value;
+			} else {
+				foundOther(key);
+			}
+		}
+
+		@Override
+		public void foundOther(int key) throws JsonParseAbort {
+			// 与foundNode中类型转换失败时一样
+			throw new JsonParseAbort(getName() + "节点解析异常",
+					new ClassCastException(SCANNER.getKey(key) + "属性值的类型不符"));
+		}
 	}
 
 	void responseError(Throwable e) {
@@ -707,7 +819,7 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 			}
 		}
 
-		m_Supporter.getMetricsCollecter().onRpcEnd();
+		rpcEnd();
 		// m_Context.close(); 不用关
 
 		Pipe pipe = m_Pipe;
@@ -820,6 +932,7 @@ public class HttpTunnel implements Tunnel, HeaderOutput, ServerHandler, Runnable
 
 	@Override
 	public void run() {
+		m_RunTime = System.nanoTime();
 		try {
 			// 验证头
 			m_InputAuther.auth(m_Header);
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.acl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.ops.acl.AclTableVo.AclTableItemVo;
+import cn.weforward.gateway.ops.acl.AclTableVo.AclTableResourceVo;
+import cn.weforward.protocol.Access;
+import cn.weforward.protocol.ops.secure.AclTableResource;
+
+/**
+ * 由ACL项编译而成的资源权限判定表
+ * <p>
+ * 每项的资源按模式的字面前缀（第一个通配符或正则元字符之前的部分）建成字典树，
+ * 判定时沿资源id走一遍字典树，在沿途节点的候选资源中找出原顺序最靠前且匹配的，结果与按顺序逐个匹配一致；
+ * 另以小容量的直接映射缓存（无锁，冲突时覆盖）保存最近的判定结果，项有变化时整表重新编译，缓存随之失效
+ * 
+ * @author zhangpengji
+ *
+ */
+class AclDecision {
+	/** 每项缓存的判定结果数（2的幂） */
+	static final int CACHE_SIZE = 256;
+
+	/** 编译时的ACL项（用于判断是否已变化） */
+	final List<AclTableItemVo> m_Items;
+	/** 各项的资源匹配器 */
+	final ResourceMatcher[] m_Matchers;
+
+	AclDecision(List<AclTableItemVo> items) {
+		m_Items = items;
+		m_Matchers = new ResourceMatcher[items.size()];
+		for (int i = 0; i < items.size(); i++) {
+			m_Matchers[i] = new ResourceMatcher(items.get(i).resources);
+		}
+	}
+
+	int findResourceRight(Access access, String resId) {
+		for (int i = 0; i < m_Matchers.length; i++) {
+			if (AclTable.match(m_Items.get(i), access)) {
+				return m_Matchers[i].findRight(resId);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * 取模式的字面前缀，资源id须以此开头才可能匹配
+	 */
+	static String getLiteralPrefix(AclTableResourceVo res) {
+		String pattern = res.pattern;
+		if (StringUtil.isEmpty(pattern)) {
+			return "";
+		}
+		if (AclTableResource.MATCH_TYPE_REGULAR != res.matchType) {
+			int i = 0;
+			for (; i < pattern.length(); i++) {
+				char ch = pattern.charAt(i);
+				if ('*' == ch || '?' == ch || '{' == ch || '\\' == ch) {
+					break;
+				}
+			}
+			return pattern.substring(0, i);
+		}
+		if (pattern.indexOf('|') >= 0) {
+			// 有分支时不好确定前缀
+			return "";
+		}
+		int begin = ('^' == pattern.charAt(0)) ? 1 : 0;
+		int i = begin;
+		for (; i < pattern.length(); i++) {
+			char ch = pattern.charAt(i);
+			if ('*' == ch || '?' == ch || '+' == ch || '{' == ch) {
+				// 量词作用于前一字符，前一字符不算前缀
+				return pattern.substring(begin, Math.max(begin, i - 1));
+			}
+			if ('.' == ch || '[' == ch || ']' == ch || '(' == ch || ')' == ch || '}' == ch || '^' == ch || '$' == ch
+					|| '\\' == ch) {
+				break;
+			}
+		}
+		return pattern.substring(begin, i);
+	}
+
+	/**
+	 * 单个ACL项的资源匹配器
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	static class ResourceMatcher {
+		final AclTableResourceVo[] m_Resources;
+		final Node m_Root;
+		/** 按资源id的哈希直接映射的缓存，并发读写无需加锁 */
+		final CacheEntry[] m_Cache;
+
+		ResourceMatcher(List<AclTableResourceVo> resources) {
+			if (null == resources) {
+				resources = Collections.emptyList();
+			}
+			m_Resources = resources.toArray(new AclTableResourceVo[resources.size()]);
+			m_Root = new Node();
+			for (int i = 0; i < m_Resources.length; i++) {
+				String prefix = getLiteralPrefix(m_Resources[i]);
+				Node node = m_Root;
+				for (int j = 0; j < prefix.length(); j++) {
+					node = node.openChild(prefix.charAt(j));
+				}
+				node.addPosition(i);
+			}
+			m_Cache = new CacheEntry[CACHE_SIZE];
+		}
+
+		int findRight(String resId) {
+			if (0 == m_Resources.length || StringUtil.isEmpty(resId)) {
+				return 0;
+			}
+			int hash = resId.hashCode();
+			int idx = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+			CacheEntry entry = m_Cache[idx];
+			if (null != entry && entry.m_ResId.equals(resId)) {
+				return entry.m_Right;
+			}
+			int right = match(resId);
+			m_Cache[idx] = new CacheEntry(resId, right);
+			return right;
+		}
+
+		private int match(String resId) {
+			// 沿途各节点的位置都是升序的，只需找出最小的匹配位置
+			int best = m_Resources.length;
+			Node node = m_Root;
+			best = node.findFirst(m_Resources, resId, best);
+			for (int i = 0; i < resId.length(); i++) {
+				node = node.getChild(resId.charAt(i));
+				if (null == node) {
+					break;
+				}
+				best = node.findFirst(m_Resources, resId, best);
+			}
+			return (best < m_Resources.length) ? m_Resources[best].right : 0;
+		}
+	}
+
+	/**
+	 * 缓存的判定结果，不可变以便无锁发布
+	 */
+	static class CacheEntry {
+		final String m_ResId;
+		final int m_Right;
+
+		CacheEntry(String resId, int right) {
+			m_ResId = resId;
+			m_Right = right;
+		}
+	}
+
+	/**
+	 * 字典树节点，子节点按字符排序以便二分查找
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	static class Node {
+		static final char[] _NoKeys = new char[0];
+		static final Node[] _NoNodes = new Node[0];
+		static final int[] _NoPositions = new int[0];
+
+		char[] m_Keys = _NoKeys;
+		Node[] m_Children = _NoNodes;
+		/** 以此节点为前缀的资源位置 */
+		int[] m_Positions = _NoPositions;
+
+		Node getChild(char ch) {
+			int idx = Arrays.binarySearch(m_Keys, ch);
+			return idx < 0 ? null : m_Children[idx];
+		}
+
+		Node openChild(char ch) {
+			int idx = Arrays.binarySearch(m_Keys, ch);
+			if (idx >= 0) {
+				return m_Children[idx];
+			}
+			idx = -idx - 1;
+			int size = m_Keys.length;
+			char[] keys = new char[size + 1];
+			Node[] children = new Node[size + 1];
+			System.arraycopy(m_Keys, 0, keys, 0, idx);
+			System.arraycopy(m_Children, 0, children, 0, idx);
+			System.arraycopy(m_Keys, idx, keys, idx + 1, size - idx);
+			System.arraycopy(m_Children, idx, children, idx + 1, size - idx);
+			Node child = new Node();
+			keys[idx] = ch;
+			children[idx] = child;
+			m_Keys = keys;
+			m_Children = children;
+			return child;
+		}
+
+		void addPosition(int position) {
+			int[] positions = Arrays.copyOf(m_Positions, m_Positions.length + 1);
+			positions[m_Positions.length] = position;
+			m_Positions = positions;
+		}
+
+		/**
+		 * 此节点中位置小于before且匹配资源id的第一个位置
+		 * 
+		 * @return 没有时返回before
+		 */
+		int findFirst(AclTableResourceVo[] resources, String resId, int before) {
+			for (int p : m_Positions) {
+				if (p >= before) {
+					break;
+				}
+				if (AclTable.match(resources[p], resId)) {
+					return p;
+				}
+			}
+			return before;
+		}
+	}
+}
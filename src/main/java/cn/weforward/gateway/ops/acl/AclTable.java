@@ -35,6 +35,8 @@ public class AclTable implements cn.weforward.protocol.ops.secure.AclTable {
 
 	AclTableVo m_Vo;
 	AclTableVoFactory m_Factory;
+	/** 编译后的判定表 */
+	volatile AclDecision m_Decision;
 
 	AclTable(AclTableVoFactory factory, AclTableVo vo) {
 		m_Factory = factory;
@@ -67,12 +69,19 @@ public class AclTable implements cn.weforward.protocol.ops.secure.AclTable {
 		if (ListUtil.isEmpty(items)) {
 			return 0;
 		}
-		for (AclTableItemVo i : items) {
-			if (match(i, access)) {
-				return findRight(i, resId);
-			}
+		return getDecision(items).findResourceRight(access, resId);
+	}
+
+	/**
+	 * 取得判定表，ACL项有变化时重新编译（各项修改都是替换整个列表，故以列表本身为版本）
+	 */
+	AclDecision getDecision(List<AclTableItemVo> items) {
+		AclDecision decision = m_Decision;
+		if (null == decision || decision.m_Items != items) {
+			decision = new AclDecision(items);
+			m_Decision = decision;
 		}
-		return 0;
+		return decision;
 	}
 
 	static boolean match(AclTableItemVo item, Access acc) {
@@ -95,19 +104,6 @@ public class AclTable implements cn.weforward.protocol.ops.secure.AclTable {
 		return true;
 	}
 
-	static int findRight(AclTableItemVo item, String resId) {
-		List<AclTableResourceVo> resources = item.resources;
-		if (null == resources || resources.isEmpty()) {
-			return 0;
-		}
-		for (AclTableResourceVo r : resources) {
-			if (match(r, resId)) {
-				return r.right;
-			}
-		}
-		return 0;
-	}
-
 	static boolean match(AclTableResourceVo res, String resId) {
 		if (StringUtil.isEmpty(resId)) {
 			return false;
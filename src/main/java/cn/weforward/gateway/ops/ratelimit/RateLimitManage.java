@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RateLimitTableItemVo;
+
+/**
+ * 请求限流管理
+ * 
+ * @author zhangpengji
+ *
+ */
+public interface RateLimitManage {
+	static final Logger _Logger = LoggerFactory.getLogger(RateLimitManage.class);
+
+	/**
+	 * 获取一个请求许可，先按{@linkplain RateLimitTable#ALL_SERVICES}的规则表，再按微服务的规则表
+	 * 
+	 * @param accessId
+	 * @param serviceName
+	 * @param ip
+	 * @return 拒绝此请求的规则项，null表示放行
+	 */
+	RateLimitTableItemVo tryAcquire(String accessId, String serviceName, String ip);
+
+	/**
+	 * 打开服务的限流规则表
+	 * 
+	 * @param serviceName
+	 *            服务名，{@linkplain RateLimitTable#ALL_SERVICES}表示所有服务
+	 * @return
+	 */
+	RateLimitTable openRateLimitTable(String serviceName);
+
+	/**
+	 * 获取服务的限流规则表
+	 * 
+	 * @param serviceName
+	 *            服务名，{@linkplain RateLimitTable#ALL_SERVICES}表示所有服务
+	 * @return
+	 */
+	RateLimitTable getRateLimitTable(String serviceName);
+
+	/**
+	 * 取出本节点上个周期集群模式规则的请求量（取出后重新计数），并按各节点的请求量重新分配本节点的份额。
+	 * <p>
+	 * 由兄弟节点间的定时同步调用
+	 * 
+	 * @return
+	 */
+	List<RateLimitUsage> dumpUsages();
+
+	/**
+	 * 更新兄弟节点的请求量
+	 * 
+	 * @param nodeId
+	 *            兄弟节点id
+	 * @param usages
+	 */
+	void updateUsages(String nodeId, List<RateLimitUsage> usages);
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import cn.weforward.common.GcCleanable;
+import cn.weforward.common.sys.GcCleaner;
+import cn.weforward.common.util.LruCache;
+import cn.weforward.common.util.LruCache.CacheNode;
+import cn.weforward.common.util.LruCache.Loader;
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.PluginContainer;
+import cn.weforward.gateway.PluginListener;
+import cn.weforward.gateway.Pluginable;
+import cn.weforward.gateway.core.GatewayMetrics;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RateLimitTableItemVo;
+import cn.weforward.metrics.WeforwardMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <code>RateLimitManage</code>实现
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RateLimitManageImpl
+		implements RateLimitManage, PluginListener, RateLimitTableVoFactory.ReloadListener<RateLimitTableVo>, GcCleanable {
+
+	/** 兄弟节点请求量的租期（毫秒），过期未更新视为节点已离开，其份额由其它节点分摊 */
+	static final int LEASE_TIMEOUT = 30 * 1000;
+	/** 各节点平分的保底份额比例，其余按请求量分配 */
+	static final double SHARE_FLOOR = 0.2;
+
+	final String m_ServerId;
+	final MeterRegistry m_MeterRegistry;
+
+	/** 本节点集群模式规则的请求量 */
+	final ConcurrentHashMap<String, LongAdder> m_Demands;
+	/** 兄弟节点上报的请求量 */
+	final Map<String, BrotherUsage> m_BrotherUsages;
+	/** 本节点集群模式规则的份额 */
+	volatile Map<String, Double> m_Shares;
+	/** 份额的版本，每次重新分配后递增 */
+	volatile int m_ShareGeneration;
+
+	LruCache<String, RateLimitTable> m_RateLimitTableCache;
+	LruCache.Loader<String, RateLimitTable> m_RateLimitTableLoader;
+
+	RateLimitTableVoFactory m_VoFactory;
+
+	public RateLimitManageImpl(String serverId, MeterRegistry meterRegistry) {
+		m_ServerId = serverId;
+		m_MeterRegistry = meterRegistry;
+
+		m_RateLimitTableCache = new LruCache<>(1000, "rate_limit_table");
+		m_RateLimitTableCache.setReachable(true);
+		m_RateLimitTableCache.setTimeout(60 * 60);
+		m_RateLimitTableCache.setNullTimeout(5);
+
+		m_RateLimitTableLoader = new Loader<String, RateLimitTable>() {
+
+			@Override
+			public RateLimitTable load(String key, CacheNode<String, RateLimitTable> node) {
+				RateLimitTableVoFactory factory = m_VoFactory;
+				if (null == factory) {
+					return null;
+				}
+				RateLimitTableVo vo = factory.get(key);
+				if (null == vo) {
+					return null;
+				}
+				return new RateLimitTable(RateLimitManageImpl.this, factory, vo);
+			}
+		};
+
+		m_Demands = new ConcurrentHashMap<>();
+		m_BrotherUsages = new ConcurrentHashMap<>();
+		m_Shares = Collections.emptyMap();
+
+		GcCleaner.register(this);
+	}
+
+	public void setPluginContainer(PluginContainer container) {
+		container.register(this);
+	}
+
+	@Override
+	public void onPluginLoad(Pluginable plugin) {
+		if (plugin instanceof RateLimitTableVoFactory) {
+			m_VoFactory = (RateLimitTableVoFactory) plugin;
+			m_VoFactory.registerReloadListener(this);
+		}
+	}
+
+	@Override
+	public void onPluginUnload(Pluginable plugin) {
+		if (plugin instanceof RateLimitTableVoFactory) {
+			m_VoFactory = null;
+		}
+	}
+
+	@Override
+	public RateLimitTableItemVo tryAcquire(String accessId, String serviceName, String ip) {
+		long now = System.nanoTime();
+		RateLimitTable table = getRateLimitTable(RateLimitTable.ALL_SERVICES);
+		if (null != table) {
+			RateLimitTableItemVo item = table.tryAcquire(accessId, serviceName, ip, now);
+			if (null != item) {
+				return item;
+			}
+		}
+		table = getRateLimitTable(serviceName);
+		if (null != table) {
+			RateLimitTableItemVo item = table.tryAcquire(accessId, serviceName, ip, now);
+			if (null != item) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 创建规则项拒绝次数的指标（由规则项缓存）
+	 * 
+	 * @param tableName
+	 *            规则表名
+	 * @param item
+	 *            规则项
+	 * @return 没有指标注册表时返回null
+	 */
+	Counter newRejectCounter(String tableName, RateLimitTableItemVo item) {
+		MeterRegistry registry = m_MeterRegistry;
+		if (null == registry) {
+			return null;
+		}
+		return Counter.builder(GatewayMetrics.GATEWAY_RATE_LIMIT_REJECT)
+				.tags(WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(m_ServerId),
+						WeforwardMetrics.TagHelper.serviceName(tableName)))
+				.tag("rule", null == item.name ? "" : item.name).register(registry);
+	}
+
+	@Override
+	public RateLimitTable openRateLimitTable(String serviceName) {
+		if (StringUtil.isEmpty(serviceName)) {
+			throw new IllegalArgumentException("服务名不能为空");
+		}
+		RateLimitTable table = getRateLimitTable(serviceName);
+		if (null != table) {
+			return table;
+		}
+		String id;
+		synchronized (this) {
+			// double check
+			table = getRateLimitTable(serviceName);
+			if (null != table) {
+				return table;
+			}
+			// 先创建vo
+			RateLimitTableVo vo = new RateLimitTableVo();
+			vo.id = RateLimitTable.genId(serviceName);
+			vo.name = serviceName;
+			m_VoFactory.put(vo);
+			id = vo.id;
+		}
+		// 再由缓存加载
+		return m_RateLimitTableCache.getAndLoad(id, m_RateLimitTableLoader, 0);
+	}
+
+	@Override
+	public RateLimitTable getRateLimitTable(String serviceName) {
+		if (StringUtil.isEmpty(serviceName)) {
+			return null;
+		}
+		String id = RateLimitTable.genId(serviceName);
+		return m_RateLimitTableCache.getHintLoad(id, m_RateLimitTableLoader);
+	}
+
+	LongAdder getDemand(String ruleKey) {
+		LongAdder demand = m_Demands.get(ruleKey);
+		if (null == demand) {
+			demand = new LongAdder();
+			LongAdder old = m_Demands.putIfAbsent(ruleKey, demand);
+			if (null != old) {
+				demand = old;
+			}
+		}
+		return demand;
+	}
+
+	Map<String, Double> getShares() {
+		return m_Shares;
+	}
+
+	int getShareGeneration() {
+		return m_ShareGeneration;
+	}
+
+	@Override
+	public synchronized List<RateLimitUsage> dumpUsages() {
+		if (m_Demands.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<RateLimitUsage> usages = new ArrayList<>(m_Demands.size());
+		Map<String, Long> demands = new HashMap<>();
+		for (Map.Entry<String, LongAdder> e : m_Demands.entrySet()) {
+			long demand = e.getValue().sumThenReset();
+			demands.put(e.getKey(), demand);
+			if (demand > 0) {
+				usages.add(new RateLimitUsage(e.getKey(), demand));
+			}
+		}
+		rebalance(demands);
+		return usages;
+	}
+
+	@Override
+	public void updateUsages(String nodeId, List<RateLimitUsage> usages) {
+		Map<String, Long> demands = new HashMap<>();
+		if (null != usages) {
+			for (RateLimitUsage u : usages) {
+				demands.put(u.key, u.demand);
+			}
+		}
+		m_BrotherUsages.put(nodeId, new BrotherUsage(demands));
+	}
+
+	/**
+	 * 按各节点上个周期的请求量分配本节点的份额：
+	 * 保底份额由存活的节点平分，其余按请求量的比例
+	 * 
+	 * @param demands
+	 *            本节点的请求量
+	 */
+	private void rebalance(Map<String, Long> demands) {
+		long now = System.currentTimeMillis();
+		Iterator<BrotherUsage> it = m_BrotherUsages.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().m_Time > LEASE_TIMEOUT) {
+				// 租期已过
+				it.remove();
+			}
+		}
+		Collection<BrotherUsage> brothers = m_BrotherUsages.values();
+		int nodes = 1 + brothers.size();
+		Map<String, Double> shares = new HashMap<>();
+		for (Map.Entry<String, Long> e : demands.entrySet()) {
+			long self = e.getValue();
+			long total = self;
+			for (BrotherUsage b : brothers) {
+				Long d = b.m_Demands.get(e.getKey());
+				if (null != d) {
+					total += d;
+				}
+			}
+			double share;
+			if (total > 0) {
+				share = SHARE_FLOOR / nodes + (1 - SHARE_FLOOR) * self / total;
+			} else {
+				share = 1.0 / nodes;
+			}
+			shares.put(e.getKey(), share);
+		}
+		m_Shares = shares;
+		m_ShareGeneration++;
+	}
+
+	@Override
+	public void onReload(RateLimitTableVo vo) {
+		if (_Logger.isTraceEnabled()) {
+			_Logger.trace("onReload:" + vo.id);
+		}
+		RateLimitTable table = m_RateLimitTableCache.getHintLoad(vo.id, m_RateLimitTableLoader);
+		if (null == table) {
+			// 不在缓存，略过
+			return;
+		}
+		table.updateVo(vo);
+	}
+
+	@Override
+	public void onGcCleanup(int policy) {
+		if (POLICY_CRITICAL != policy) {
+			return;
+		}
+		if (null != m_RateLimitTableCache) {
+			m_RateLimitTableCache.onGcCleanup(policy);
+		}
+	}
+
+	/**
+	 * 兄弟节点上报的请求量
+	 */
+	static class BrotherUsage {
+		final long m_Time;
+		final Map<String, Long> m_Demands;
+
+		BrotherUsage(Map<String, Long> demands) {
+			m_Time = System.currentTimeMillis();
+			m_Demands = demands;
+		}
+	}
+}
@@ -0,0 +1,564 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import cn.weforward.common.util.IpRanges;
+import cn.weforward.common.util.ListUtil;
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.ops.TableItemHelper;
+import cn.weforward.gateway.ops.TableItemHelper.NameChecker;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RateLimitTableItemVo;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RejectVo;
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * 微服务的限流规则表
+ * <p>
+ * 按顺序匹配规则项（Access id、IP），由第一个匹配的项决定是否放行；规则变化后计数重新开始
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RateLimitTable {
+	/** 适用于所有微服务的规则表名 */
+	public static final String ALL_SERVICES = "*";
+
+	/** 计数维度：Access id */
+	public static final String KEY_BY_ACCESS = "access";
+	/** 计数维度：微服务名 */
+	public static final String KEY_BY_SERVICE = "service";
+	/** 计数维度：IP */
+	public static final String KEY_BY_IP = "ip";
+
+	static final int KEY_ACCESS = 0x1;
+	static final int KEY_SERVICE = 0x2;
+	static final int KEY_IP = 0x4;
+
+	/** 每个规则项最多的计数桶，超出且无法回收时新的键共用一个桶 */
+	static final int MAX_BUCKETS = 10000;
+	/** 计数桶满时全量回收的最小间隔（纳秒），间隔内只尝试回收一个 */
+	static final long PURGE_INTERVAL = 10L * 1000 * 1000 * 1000;
+	/** 共用计数桶的键 */
+	static final String SHARED_KEY = "*";
+
+	RateLimitTableVo m_Vo;
+	RateLimitTableVoFactory m_Factory;
+	RateLimitManageImpl m_Manage;
+	/** 由规则项编译的匹配及计数器 */
+	volatile Rule[] m_Rules;
+	/** 已应用的集群份额版本 */
+	volatile int m_ShareGeneration;
+
+	RateLimitTable(RateLimitManageImpl manage, RateLimitTableVoFactory factory, RateLimitTableVo vo) {
+		m_Manage = manage;
+		m_Factory = factory;
+		m_Vo = vo;
+		setRules(vo.items);
+	}
+
+	public static String genId(String serviceName) {
+		return serviceName;
+	}
+
+	RateLimitTableVo getVo() {
+		return m_Vo;
+	}
+
+	void updateVo(RateLimitTableVo vo) {
+		m_Vo = vo;
+		setRules(vo.items);
+	}
+
+	void markUpdate() {
+		m_Factory.put(m_Vo);
+		setRules(m_Vo.items);
+	}
+
+	public String getName() {
+		return getVo().name;
+	}
+
+	public List<RateLimitTableItemVo> getItems() {
+		List<RateLimitTableItemVo> items = getVo().items;
+		if (ListUtil.isEmpty(items)) {
+			return Collections.emptyList();
+		}
+		return items;
+	}
+
+	public void appendItem(RateLimitTableItemVo item) {
+		check(item);
+		getVo().items = TableItemHelper.append(getVo().items, item);
+		markUpdate();
+	}
+
+	public void insertItem(RateLimitTableItemVo item, int index) {
+		check(item);
+		getVo().items = TableItemHelper.insert(getVo().items, index, item);
+		markUpdate();
+	}
+
+	public void replaceItem(RateLimitTableItemVo item, int index, String name) {
+		check(item);
+		getVo().items = TableItemHelper.replace(getVo().items, index, item, NameChecker.valueOf(name));
+		markUpdate();
+	}
+
+	public void moveItem(int from, int to) {
+		getVo().items = TableItemHelper.move(getVo().items, from, to);
+		markUpdate();
+	}
+
+	public void removeItem(int index, String name) {
+		getVo().items = TableItemHelper.remove(getVo().items, index, NameChecker.valueOf(name));
+		markUpdate();
+	}
+
+	public void setItems(List<RateLimitTableItemVo> items) {
+		List<RateLimitTableItemVo> vos = Collections.emptyList();
+		if (!ListUtil.isEmpty(items)) {
+			for (RateLimitTableItemVo item : items) {
+				check(item);
+			}
+			vos = new ArrayList<>(items);
+		}
+		getVo().items = vos;
+		markUpdate();
+	}
+
+	/**
+	 * 获取一个请求许可
+	 * 
+	 * @param accessId
+	 * @param serviceName
+	 * @param ip
+	 * @param now
+	 *            {@linkplain System#nanoTime()}
+	 * @return 拒绝此请求的规则项，null表示放行
+	 */
+	public RateLimitTableItemVo tryAcquire(String accessId, String serviceName, String ip, long now) {
+		Rule[] rules = m_Rules;
+		if (null == rules) {
+			return null;
+		}
+		int generation = m_Manage.getShareGeneration();
+		if (generation != m_ShareGeneration) {
+			applyShares(rules, generation);
+		}
+		for (Rule rule : rules) {
+			if (rule.match(accessId, ip)) {
+				if (rule.tryAcquire(accessId, serviceName, ip, now)) {
+					return null;
+				}
+				rule.countReject(m_Manage, getName());
+				return rule.m_Item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 应用集群模式规则在本节点的份额
+	 */
+	private void applyShares(Rule[] rules, int generation) {
+		Map<String, Double> shares = m_Manage.getShares();
+		for (Rule rule : rules) {
+			if (null == rule.m_Demand) {
+				continue;
+			}
+			Double share = shares.get(rule.m_Key);
+			rule.setShare(null == share ? 1 : share);
+		}
+		m_ShareGeneration = generation;
+	}
+
+	/**
+	 * 各计数键的拒绝次数（由多到少）
+	 * 
+	 * @param limit
+	 *            最多返回的项数
+	 * @return
+	 */
+	public List<RejectVo> getRejects(int limit) {
+		Rule[] rules = m_Rules;
+		if (null == rules) {
+			return Collections.emptyList();
+		}
+		List<RejectVo> result = new ArrayList<>();
+		for (Rule rule : rules) {
+			rule.collectRejects(result);
+		}
+		Collections.sort(result, new Comparator<RejectVo>() {
+
+			@Override
+			public int compare(RejectVo o1, RejectVo o2) {
+				return Long.compare(o2.rejects, o1.rejects);
+			}
+		});
+		if (result.size() > limit) {
+			result = new ArrayList<>(result.subList(0, limit));
+		}
+		return result;
+	}
+
+	/**
+	 * 检查规则项
+	 * 
+	 * @param item
+	 * @throws IllegalArgumentException
+	 */
+	public static void check(RateLimitTableItemVo item) throws IllegalArgumentException {
+		if (null == item) {
+			throw new IllegalArgumentException("Item不能为空");
+		}
+		if (item.rate < 0 || item.burst < 0) {
+			throw new IllegalArgumentException("无效的rate/burst：" + item.rate + "/" + item.burst);
+		}
+		if (item.cluster && StringUtil.isEmpty(item.name)) {
+			throw new IllegalArgumentException("集群模式的规则项须指定名称");
+		}
+		parseKeyBy(item.keyBy);
+		parseIps(item.ip);
+	}
+
+	/**
+	 * 集群模式规则的标识
+	 */
+	static String genRuleKey(String tableName, String ruleName) {
+		return tableName + "/" + ruleName;
+	}
+
+	static int parseKeyBy(String keyBy) throws IllegalArgumentException {
+		if (StringUtil.isEmpty(keyBy)) {
+			return 0;
+		}
+		int mask = 0;
+		for (String k : keyBy.split(",")) {
+			k = k.trim();
+			if (KEY_BY_ACCESS.equals(k)) {
+				mask |= KEY_ACCESS;
+			} else if (KEY_BY_SERVICE.equals(k)) {
+				mask |= KEY_SERVICE;
+			} else if (KEY_BY_IP.equals(k)) {
+				mask |= KEY_IP;
+			} else if (!k.isEmpty()) {
+				throw new IllegalArgumentException("无效的keyBy：" + keyBy);
+			}
+		}
+		return mask;
+	}
+
+	static IpRanges parseIps(String ip) throws IllegalArgumentException {
+		if (StringUtil.isEmpty(ip)) {
+			return null;
+		}
+		try {
+			return new IpRanges(ip);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("无效的ip：" + ip, e);
+		}
+	}
+
+	private void setRules(List<RateLimitTableItemVo> items) {
+		m_Rules = compile(items);
+		// 新规则要重新应用份额
+		m_ShareGeneration = -1;
+	}
+
+	Rule[] compile(List<RateLimitTableItemVo> items) {
+		if (ListUtil.isEmpty(items)) {
+			return null;
+		}
+		List<Rule> rules = new ArrayList<>(items.size());
+		for (RateLimitTableItemVo item : items) {
+			try {
+				Rule rule = new Rule(item);
+				if (item.cluster && null != rule.m_Shared) {
+					rule.m_Key = genRuleKey(getName(), item.name);
+					rule.m_Demand = m_Manage.getDemand(rule.m_Key);
+				}
+				rules.add(rule);
+			} catch (IllegalArgumentException e) {
+				RateLimitManage._Logger.warn("忽略无效的限流规则[" + item.name + "]:" + e.getMessage());
+			}
+		}
+		return rules.toArray(new Rule[rules.size()]);
+	}
+
+	/**
+	 * 编译后的规则项
+	 */
+	static class Rule {
+		final RateLimitTableItemVo m_Item;
+		final IpRanges m_Ips;
+		final int m_KeyBy;
+		/** 共用的计数桶（不分维度或计数桶过多时） */
+		final TokenBucket m_Shared;
+		/** 按维度的计数桶 */
+		final Map<BucketKey, TokenBucket> m_Buckets;
+		final AtomicBoolean m_Purging;
+		/** 最后全量回收计数桶的时间（纳秒） */
+		volatile long m_PurgeLast;
+		/** 拒绝次数的指标，首次拒绝时创建 */
+		volatile Counter m_RejectCounter;
+		/** 集群模式时规则的标识 */
+		String m_Key;
+		/** 集群模式时的请求量，非集群模式为null */
+		LongAdder m_Demand;
+		/** 集群模式时本节点的份额（0~1） */
+		volatile double m_Share = 1;
+
+		Rule(RateLimitTableItemVo item) {
+			m_Item = item;
+			m_Ips = parseIps(item.ip);
+			m_KeyBy = parseKeyBy(item.keyBy);
+			if (item.rate > 0) {
+				m_Shared = newBucket();
+				m_Buckets = (0 == m_KeyBy) ? null : new ConcurrentHashMap<BucketKey, TokenBucket>();
+			} else {
+				m_Shared = null;
+				m_Buckets = null;
+			}
+			m_Purging = new AtomicBoolean();
+		}
+
+		TokenBucket newBucket() {
+			TokenBucket bucket = new TokenBucket(m_Item.rate, getBurst());
+			if (m_Share < 1) {
+				bucket.setRate(m_Item.rate * m_Share, getBurst() * m_Share);
+			}
+			return bucket;
+		}
+
+		int getBurst() {
+			return (m_Item.burst > 0) ? m_Item.burst : m_Item.rate;
+		}
+
+		/**
+		 * 按份额调整所有计数桶的速率
+		 */
+		void setShare(double share) {
+			if (share == m_Share) {
+				return;
+			}
+			m_Share = share;
+			double rate = m_Item.rate * share;
+			double burst = getBurst() * share;
+			m_Shared.setRate(rate, burst);
+			if (null != m_Buckets) {
+				for (TokenBucket bucket : m_Buckets.values()) {
+					bucket.setRate(rate, burst);
+				}
+			}
+		}
+
+		boolean match(String accessId, String ip) {
+			if (!StringUtil.isEmpty(m_Item.accessId) && !m_Item.accessId.equals(accessId)) {
+				return false;
+			}
+			if (null != m_Ips && (null == ip || null == m_Ips.find(ip))) {
+				return false;
+			}
+			return true;
+		}
+
+		boolean tryAcquire(String accessId, String serviceName, String ip, long now) {
+			if (null == m_Shared) {
+				// 不限制
+				return true;
+			}
+			if (null != m_Demand) {
+				m_Demand.increment();
+			}
+			return getBucket(accessId, serviceName, ip, now).tryAcquire(now);
+		}
+
+		void countReject(RateLimitManageImpl manage, String tableName) {
+			Counter counter = m_RejectCounter;
+			if (null == counter) {
+				counter = manage.newRejectCounter(tableName, m_Item);
+				if (null == counter) {
+					return;
+				}
+				m_RejectCounter = counter;
+			}
+			counter.increment();
+		}
+
+		TokenBucket getBucket(String accessId, String serviceName, String ip, long now) {
+			if (null == m_Buckets) {
+				return m_Shared;
+			}
+			// 用线程的查找键，命中时不用构造键
+			BucketKey probe = BucketKey._Probe.get().set(m_KeyBy, accessId, serviceName, ip);
+			TokenBucket bucket = m_Buckets.get(probe);
+			if (null != bucket) {
+				return bucket;
+			}
+			if (m_Buckets.size() >= MAX_BUCKETS && !purge(now)) {
+				return m_Shared;
+			}
+			bucket = newBucket();
+			TokenBucket old = m_Buckets.putIfAbsent(probe.copy(), bucket);
+			return (null == old) ? bucket : old;
+		}
+
+		/**
+		 * 计数桶满时回收已满（一段时间没请求）的计数桶：每个间隔最多全量回收一次，其它时候只尝试回收一个
+		 * 
+		 * @return 是否回收到
+		 */
+		boolean purge(long now) {
+			if (!m_Purging.compareAndSet(false, true)) {
+				return false;
+			}
+			try {
+				Iterator<TokenBucket> it = m_Buckets.values().iterator();
+				if (now - m_PurgeLast < PURGE_INTERVAL) {
+					if (it.hasNext() && it.next().isIdle(now)) {
+						it.remove();
+						return true;
+					}
+					return false;
+				}
+				m_PurgeLast = now;
+				boolean purged = false;
+				while (it.hasNext()) {
+					if (it.next().isIdle(now)) {
+						it.remove();
+						purged = true;
+					}
+				}
+				return purged;
+			} finally {
+				m_Purging.set(false);
+			}
+		}
+
+		void collectRejects(List<RejectVo> result) {
+			if (null == m_Shared) {
+				return;
+			}
+			long rejects = m_Shared.getRejects();
+			if (rejects > 0) {
+				result.add(new RejectVo(m_Item.name, SHARED_KEY, rejects));
+			}
+			if (null == m_Buckets) {
+				return;
+			}
+			for (Map.Entry<BucketKey, TokenBucket> e : m_Buckets.entrySet()) {
+				rejects = e.getValue().getRejects();
+				if (rejects > 0) {
+					result.add(new RejectVo(m_Item.name, e.getKey().toString(), rejects));
+				}
+			}
+		}
+	}
+
+	/**
+	 * 计数桶的键（按维度组合）
+	 * <p>
+	 * 查找时复用线程的实例，只在新建计数桶时复制一个
+	 */
+	static final class BucketKey {
+		static final ThreadLocal<BucketKey> _Probe = new ThreadLocal<BucketKey>() {
+			@Override
+			protected BucketKey initialValue() {
+				return new BucketKey();
+			}
+		};
+
+		String m_AccessId;
+		String m_ServiceName;
+		String m_Ip;
+		int m_Hash;
+
+		BucketKey set(int keyBy, String accessId, String serviceName, String ip) {
+			m_AccessId = (0 != (KEY_ACCESS & keyBy)) ? emptyIfNull(accessId) : null;
+			m_ServiceName = (0 != (KEY_SERVICE & keyBy)) ? emptyIfNull(serviceName) : null;
+			m_Ip = (0 != (KEY_IP & keyBy)) ? emptyIfNull(ip) : null;
+			int h = hash(m_AccessId);
+			h = 31 * h + hash(m_ServiceName);
+			m_Hash = 31 * h + hash(m_Ip);
+			return this;
+		}
+
+		BucketKey copy() {
+			BucketKey key = new BucketKey();
+			key.m_AccessId = m_AccessId;
+			key.m_ServiceName = m_ServiceName;
+			key.m_Ip = m_Ip;
+			key.m_Hash = m_Hash;
+			return key;
+		}
+
+		private static String emptyIfNull(String s) {
+			return (null == s) ? "" : s;
+		}
+
+		private static int hash(String s) {
+			return (null == s) ? 0 : s.hashCode();
+		}
+
+		private static boolean equals(String s1, String s2) {
+			return (null == s1) ? (null == s2) : s1.equals(s2);
+		}
+
+		@Override
+		public int hashCode() {
+			return m_Hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof BucketKey)) {
+				return false;
+			}
+			BucketKey other = (BucketKey) obj;
+			return m_Hash == other.m_Hash && equals(m_AccessId, other.m_AccessId)
+					&& equals(m_ServiceName, other.m_ServiceName) && equals(m_Ip, other.m_Ip);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(64);
+			if (null != m_AccessId) {
+				sb.append(m_AccessId);
+			}
+			if (null != m_ServiceName) {
+				if (sb.length() > 0) {
+					sb.append('|');
+				}
+				sb.append(m_ServiceName);
+			}
+			if (null != m_Ip) {
+				if (sb.length() > 0) {
+					sb.append('|');
+				}
+				sb.append(m_Ip);
+			}
+			return sb.toString();
+		}
+	}
+}
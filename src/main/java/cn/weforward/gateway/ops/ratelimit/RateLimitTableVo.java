@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import cn.weforward.common.Nameable;
+
+/**
+ * <code>RateLimitTable</code>'s Vo
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RateLimitTableVo {
+
+	/** 唯一标识 */
+	@Resource
+	public String id;
+	/** 服务名，{@linkplain RateLimitTable#ALL_SERVICES}表示所有服务 */
+	@Resource
+	public String name;
+	/** 项列表 */
+	@Resource
+	public List<RateLimitTableItemVo> items;
+
+	public RateLimitTableVo() {
+
+	}
+
+	public RateLimitTableVo(RateLimitTable table) {
+		this.id = table.getVo().id;
+		this.name = table.getName();
+		this.items = table.getItems();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public List<RateLimitTableItemVo> getItems() {
+		return items;
+	}
+
+	public void setItems(List<RateLimitTableItemVo> items) {
+		this.items = items;
+	}
+
+	/**
+	 * 限流规则项
+	 */
+	public static class RateLimitTableItemVo implements Nameable {
+		/** 名称 */
+		@Resource
+		public String name;
+		/** 匹配的Access id，为空表示任意 */
+		@Resource
+		public String accessId;
+		/** 匹配的IP（段）列表，以分号分隔，如：“127.0.0.1;192.168.0.0-192.168.0.100”，为空表示任意 */
+		@Resource
+		public String ip;
+		/** 每秒的请求数，0表示不限制 */
+		@Resource
+		public int rate;
+		/** 允许的突发请求数，0表示与rate相同 */
+		@Resource
+		public int burst;
+		/** 按哪些维度分别计数（access、service、ip，以逗号分隔），为空表示匹配此项的请求共用 */
+		@Resource
+		public String keyBy;
+		/** 是否集群模式，是则rate/burst为所有网关节点共用的额度，各节点按请求量分配份额 */
+		@Resource
+		public boolean cluster;
+
+		public RateLimitTableItemVo() {
+
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getAccessId() {
+			return accessId;
+		}
+
+		public void setAccessId(String accessId) {
+			this.accessId = accessId;
+		}
+
+		public String getIp() {
+			return ip;
+		}
+
+		public void setIp(String ip) {
+			this.ip = ip;
+		}
+
+		public int getRate() {
+			return rate;
+		}
+
+		public void setRate(int rate) {
+			this.rate = rate;
+		}
+
+		public int getBurst() {
+			return burst;
+		}
+
+		public void setBurst(int burst) {
+			this.burst = burst;
+		}
+
+		public String getKeyBy() {
+			return keyBy;
+		}
+
+		public void setKeyBy(String keyBy) {
+			this.keyBy = keyBy;
+		}
+
+		public boolean isCluster() {
+			return cluster;
+		}
+
+		public void setCluster(boolean cluster) {
+			this.cluster = cluster;
+		}
+	}
+
+	/**
+	 * 限流拒绝的统计
+	 */
+	public static class RejectVo {
+		/** 规则项名称 */
+		@Resource
+		public String rule;
+		/** 计数的键 */
+		@Resource
+		public String key;
+		/** 拒绝次数 */
+		@Resource
+		public long rejects;
+
+		public RejectVo() {
+
+		}
+
+		public RejectVo(String rule, String key, long rejects) {
+			this.rule = rule;
+			this.key = key;
+			this.rejects = rejects;
+		}
+
+		public String getRule() {
+			return rule;
+		}
+
+		public void setRule(String rule) {
+			this.rule = rule;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public void setKey(String key) {
+			this.key = key;
+		}
+
+		public long getRejects() {
+			return rejects;
+		}
+
+		public void setRejects(long rejects) {
+			this.rejects = rejects;
+		}
+	}
+}
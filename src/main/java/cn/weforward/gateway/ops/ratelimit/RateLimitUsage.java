@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import javax.annotation.Resource;
+
+/**
+ * 集群模式限流规则在网关节点上的请求量，经兄弟节点间的同步交换
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RateLimitUsage {
+	/** 规则的标识（规则表名/规则项名） */
+	@Resource
+	public String key;
+	/** 上个同步周期内匹配此规则的请求数 */
+	@Resource
+	public long demand;
+
+	public RateLimitUsage() {
+
+	}
+
+	public RateLimitUsage(String key, long demand) {
+		this.key = key;
+		this.demand = demand;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public long getDemand() {
+		return demand;
+	}
+
+	public void setDemand(long demand) {
+		this.demand = demand;
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 令牌桶（以GCRA方式实现，无锁）
+ * <p>
+ * 只记录理论到达时间（TAT），每次获取令牌把TAT推后一个间隔，TAT超前当前时间超过容量时拒绝
+ * 
+ * @author zhangpengji
+ *
+ */
+public class TokenBucket {
+	/** 每个令牌的间隔（纳秒） */
+	protected volatile long m_Interval;
+	/** 允许的突发容量（纳秒） */
+	protected volatile long m_Tolerance;
+	/** 理论到达时间（纳秒） */
+	protected final AtomicLong m_Tat;
+	/** 拒绝次数 */
+	protected final LongAdder m_Rejects;
+
+	/**
+	 * 构造
+	 * 
+	 * @param rate
+	 *            每秒的令牌数
+	 * @param burst
+	 *            桶容量（允许的突发数）
+	 */
+	public TokenBucket(int rate, int burst) {
+		m_Rejects = new LongAdder();
+		setRate(rate, burst);
+		// 新建的桶是满的。调用方取的now可能略早于构造的时间，TAT取在当前时间之前，以免首次突发少了一个
+		m_Tat = new AtomicLong(System.nanoTime() - m_Interval - m_Tolerance);
+	}
+
+	/**
+	 * 调整速率（如集群模式下分到的份额变化时）
+	 * 
+	 * @param rate
+	 *            每秒的令牌数
+	 * @param burst
+	 *            桶容量，小于1时按1
+	 */
+	public void setRate(double rate, double burst) {
+		m_Interval = Math.max(1, (long) (1_000_000_000L / rate));
+		m_Tolerance = (long) (m_Interval * Math.max(0, burst - 1));
+	}
+
+	/**
+	 * 获取一个令牌
+	 * 
+	 * @param now
+	 *            当前时间，{@linkplain System#nanoTime()}
+	 * @return 是否获取成功
+	 */
+	public boolean tryAcquire(long now) {
+		for (;;) {
+			long tat = m_Tat.get();
+			long base = (tat - now > 0) ? tat : now;
+			if (base - now > m_Tolerance) {
+				m_Rejects.increment();
+				return false;
+			}
+			if (m_Tat.compareAndSet(tat, base + m_Interval)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 是否已满（长时间无请求），可回收
+	 * 
+	 * @param now
+	 * @return
+	 */
+	public boolean isIdle(long now) {
+		return m_Tat.get() - now <= 0;
+	}
+
+	public long getRejects() {
+		return m_Rejects.sum();
+	}
+}
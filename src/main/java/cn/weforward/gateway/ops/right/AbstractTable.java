@@ -14,11 +14,9 @@ import java.util.Collections;
 import java.util.List;
 
 import cn.weforward.common.util.ListUtil;
-import cn.weforward.common.util.StringUtil;
 import cn.weforward.common.util.TransList;
 import cn.weforward.gateway.ops.right.RightTableVo.RightTableItemVo;
 import cn.weforward.protocol.Access;
-import cn.weforward.protocol.ops.AccessExt;
 import cn.weforward.protocol.ops.secure.RightTableItem;
 
 /**
@@ -31,49 +29,41 @@ public abstract class AbstractTable implements RightTableExt {
 	/** 标识 - 允许调用 */
 	public static final int MARK_ALLOW = 1;
 
+	/** 编译后的判定表 */
+	protected volatile RightDecision m_Decision;
+
 	protected abstract List<RightTableItemVo> getItemVos();
 
+	/**
+	 * 权限项的版本，权限项变化时须返回不同的对象（各项修改都是替换整个列表，故默认返回列表本身）
+	 */
+	protected Object getItemsVersion() {
+		return getItemVos();
+	}
+
 	@Override
 	public boolean isAllow(Access access) {
-		List<RightTableItemVo> items = getItemVos();
-		if (!ListUtil.isEmpty(items)) {
-			for (RightTableItemVo item : items) {
-				if (match(item, access)) {
-					return isAllow(item);
-				}
-			}
+		return getDecision().isAllow(access);
+	}
+
+	/**
+	 * 取得判定表，权限项有变化时重新编译
+	 */
+	RightDecision getDecision() {
+		Object version = getItemsVersion();
+		RightDecision decision = m_Decision;
+		if (null == decision || decision.m_Version != version) {
+			List<RightTableItemVo> items = getItemVos();
+			decision = new RightDecision(version, null == items ? Collections.<RightTableItemVo>emptyList() : items);
+			m_Decision = decision;
 		}
-		return false;
+		return decision;
 	}
 
 	static boolean isAllow(RightTableItemVo item) {
 		return MARK_ALLOW == (MARK_ALLOW & item.marks);
 	}
 
-	static boolean match(RightTableItemVo item, Access acc) {
-		if (StringUtil.isEmpty(item.accessId) && StringUtil.isEmpty(item.accessKind)
-				&& StringUtil.isEmpty(item.accessGroup)) {
-			// 空项（id、kind、group都未指定）的特殊匹配规则
-			return null == acc;
-		}
-		if (!StringUtil.isEmpty(item.accessId) && (null == acc || !item.accessId.equals(acc.getAccessId()))) {
-			return false;
-		}
-		if (!StringUtil.isEmpty(item.accessKind) && (null == acc || !item.accessKind.equals(acc.getKind()))) {
-			return false;
-		}
-		if (!StringUtil.isEmpty(item.accessGroup)) {
-			if (null == acc || !(acc instanceof AccessExt)) {
-				return false;
-			}
-			AccessExt ext = (AccessExt) acc;
-			if (!item.accessGroup.equals(ext.getGroupId())) {
-				return false;
-			}
-		}
-		return true;
-	}
-
 	@Override
 	public List<RightTableItem> getItems() {
 		List<RightTableItemVo> vos = getItemVos();
@@ -62,6 +62,16 @@ public class InternalRightTable extends AbstractTable {
 		return m_VariableTable;
 	}
 
+	@Override
+	protected Object getItemsVersion() {
+		// 内置项不变，只看可变部分
+		RightTable variable = openVariableTable();
+		if (null == variable) {
+			return m_ImmutableItems;
+		}
+		return variable.getItemsVersion();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	protected List<RightTableItemVo> getItemVos() {
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.right;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.ops.right.RightTableVo.RightTableItemVo;
+import cn.weforward.protocol.Access;
+import cn.weforward.protocol.ops.AccessExt;
+
+/**
+ * 由权限项编译而成的不可变判定表
+ * <p>
+ * 按项所指定的字段（id、kind、group的组合）分为7类，每类以字段值的组合为键索引其中最靠前的项；
+ * 判定时按access的字段值查各类索引，取最靠前的项，结果与按顺序逐项匹配一致，但耗时与项数无关
+ * 
+ * @author zhangpengji
+ *
+ */
+class RightDecision {
+	/** 字段标识 */
+	static final int FIELD_ID = 1;
+	static final int FIELD_KIND = 2;
+	static final int FIELD_GROUP = 4;
+
+	/** 编译时的权限项（用于判断是否已变化） */
+	final Object m_Version;
+	/** 字段组合 -> (字段值 -> 最靠前的项的位置) */
+	final Map<String, Integer>[] m_Indexes;
+	/** 各项是否允许 */
+	final boolean[] m_Allows;
+	/** 空项（匹配无access的调用）的位置，-1表示没有 */
+	final int m_EmptyIndex;
+
+	@SuppressWarnings("unchecked")
+	RightDecision(Object version, List<RightTableItemVo> items) {
+		m_Version = version;
+		m_Indexes = new Map[(FIELD_ID | FIELD_KIND | FIELD_GROUP) + 1];
+		m_Allows = new boolean[items.size()];
+		int emptyIndex = -1;
+		for (int i = 0; i < items.size(); i++) {
+			RightTableItemVo item = items.get(i);
+			m_Allows[i] = AbstractTable.isAllow(item);
+			int fields = getFields(item);
+			if (0 == fields) {
+				if (-1 == emptyIndex) {
+					emptyIndex = i;
+				}
+				continue;
+			}
+			Map<String, Integer> index = m_Indexes[fields];
+			if (null == index) {
+				index = new HashMap<>();
+				m_Indexes[fields] = index;
+			}
+			index.putIfAbsent(genKey(fields, item.accessId, item.accessKind, item.accessGroup), i);
+		}
+		m_EmptyIndex = emptyIndex;
+	}
+
+	private static int getFields(RightTableItemVo item) {
+		int fields = 0;
+		if (!StringUtil.isEmpty(item.accessId)) {
+			fields |= FIELD_ID;
+		}
+		if (!StringUtil.isEmpty(item.accessKind)) {
+			fields |= FIELD_KIND;
+		}
+		if (!StringUtil.isEmpty(item.accessGroup)) {
+			fields |= FIELD_GROUP;
+		}
+		return fields;
+	}
+
+	private static String genKey(int fields, String id, String kind, String group) {
+		if (FIELD_ID == fields) {
+			return id;
+		}
+		if (FIELD_KIND == fields) {
+			return kind;
+		}
+		if (FIELD_GROUP == fields) {
+			return group;
+		}
+		StringBuilder sb = new StringBuilder();
+		if (0 != (FIELD_ID & fields)) {
+			sb.append(id);
+		}
+		sb.append('\n');
+		if (0 != (FIELD_KIND & fields)) {
+			sb.append(kind);
+		}
+		sb.append('\n');
+		if (0 != (FIELD_GROUP & fields)) {
+			sb.append(group);
+		}
+		return sb.toString();
+	}
+
+	boolean isAllow(Access access) {
+		if (null == access) {
+			return -1 != m_EmptyIndex && m_Allows[m_EmptyIndex];
+		}
+		String id = access.getAccessId();
+		String kind = access.getKind();
+		String group = (access instanceof AccessExt) ? ((AccessExt) access).getGroupId() : null;
+		int first = Integer.MAX_VALUE;
+		for (int fields = 1; fields < m_Indexes.length; fields++) {
+			Map<String, Integer> index = m_Indexes[fields];
+			if (null == index) {
+				continue;
+			}
+			if ((0 != (FIELD_ID & fields) && null == id) || (0 != (FIELD_KIND & fields) && null == kind)
+					|| (0 != (FIELD_GROUP & fields) && null == group)) {
+				continue;
+			}
+			Integer i = index.get(genKey(fields, id, kind, group));
+			if (null != i && i < first) {
+				first = i;
+			}
+		}
+		return Integer.MAX_VALUE != first && m_Allows[first];
+	}
+}
@@ -10,18 +10,32 @@
  */
 package cn.weforward.gateway.ops.trace;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import cn.weforward.common.crypto.Hex;
 import cn.weforward.common.sys.Timestamp;
 import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.RequestPhases;
 import cn.weforward.gateway.ServiceInstance;
+import cn.weforward.gateway.core.GatewayMetrics;
+import cn.weforward.gateway.util.RingBuffer;
 import cn.weforward.metrics.WeforwardMetrics;
 import cn.weforward.protocol.ops.trace.ServiceTraceToken;
 import cn.weforward.protocol.ops.trace.SimpleServiceTraceToken;
 import cn.weforward.trace.GatewayTrace;
 import cn.weforward.trace.TraceRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 
 /**
@@ -33,18 +47,163 @@ import io.micrometer.core.instrument.Tags;
 public class MetricsServiceTracer implements ServiceTracer {
 	static final Logger _Logger = LoggerFactory.getLogger(MetricsServiceTracer.class);
 
+	/** 默认的导出缓冲区大小 */
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+	/** 每批导出的最大数量 */
+	static final int BATCH_SIZE = 256;
+	/** 导出线程空闲时的等待时间（毫秒） */
+	static final int EXPORT_IDLE_WAIT = 100;
+	/** 更换缓冲区后继续读取旧缓冲区的时间（毫秒），等正在放入的生产者完成 */
+	static final int RETIRED_BUFFER_GRACE = 1000;
+	/** 关闭时等待导出线程完成的时间（毫秒） */
+	static final int CLOSE_WAIT = 5000;
+
+	/** 生成spanId的缓冲 */
+	static final ThreadLocal<StringBuilder> _SpanIdBuilder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(32);
+		}
+	};
+
 	Timestamp m_Timestamp;
 	String m_ServiceId;
 
 	TraceRegistry m_TraceRegistry;
 
+	/** 头部采样率（0~1），按traceId决定，同一调用链的各段结果一致 */
+	volatile double m_SampleRate;
+	/** 各微服务的头部采样率，未指定的用m_SampleRate */
+	volatile Map<String, Double> m_ServiceSampleRates;
+	/** 是否总是保留出错的调用（尾部采样） */
+	volatile boolean m_KeepErrors;
+	/** 耗时达到此值（毫秒）的调用总是保留（尾部采样），0表示不启用 */
+	volatile int m_SlowThreshold;
+
+	/** 待导出的调用 */
+	volatile RingBuffer<Token> m_Buffer;
+	/** 缓冲区满而丢弃的数量 */
+	final LongAdder m_Dropped;
+	/** 导出线程 */
+	Thread m_Exporter;
+	/** 是否已关闭 */
+	volatile boolean m_Closed;
+
 	public MetricsServiceTracer(String serviceId) {
 		m_ServiceId = serviceId;
 		m_Timestamp = Timestamp.getInstance(Timestamp.POLICY_DEFAULT);
+		m_SampleRate = 1;
+		m_ServiceSampleRates = Collections.emptyMap();
+		m_KeepErrors = true;
+		m_Buffer = new RingBuffer<>(DEFAULT_BUFFER_SIZE);
+		m_Dropped = new LongAdder();
 	}
 
-	public void setTraceRegistry(TraceRegistry registry) {
+	public synchronized void setTraceRegistry(TraceRegistry registry) {
 		m_TraceRegistry = registry;
+		if (null != registry && null == m_Exporter && !m_Closed) {
+			Thread exporter = new Thread(this::export, "trace-exporter");
+			exporter.setDaemon(true);
+			exporter.start();
+			m_Exporter = exporter;
+		}
+	}
+
+	/**
+	 * 注册丢弃数的指标
+	 * 
+	 * @param registry
+	 */
+	public void setMeterRegistry(MeterRegistry registry) {
+		if (null == registry) {
+			return;
+		}
+		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(m_ServiceId));
+		FunctionCounter.builder(GatewayMetrics.GATEWAY_TRACE_DROPPED, m_Dropped, LongAdder::sum).tags(tags)
+				.register(registry);
+	}
+
+	/**
+	 * 头部采样率
+	 * 
+	 * @param rate
+	 *            0~1，默认为1（全部采样）
+	 */
+	public void setSampleRate(double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("无效的采样率：" + rate);
+		}
+		m_SampleRate = rate;
+	}
+
+	/**
+	 * 各微服务的头部采样率
+	 * 
+	 * @param rates
+	 *            格式：{服务名}:{采样率};{服务名}:{采样率}...
+	 */
+	public void setServiceSampleRates(String rates) {
+		if (StringUtil.isEmpty(rates)) {
+			m_ServiceSampleRates = Collections.emptyMap();
+			return;
+		}
+		Map<String, Double> map = new HashMap<>();
+		for (String item : rates.split(";")) {
+			item = item.trim();
+			if (item.isEmpty()) {
+				continue;
+			}
+			int idx = item.lastIndexOf(':');
+			double rate;
+			try {
+				rate = (-1 == idx) ? -1 : Double.parseDouble(item.substring(idx + 1).trim());
+			} catch (NumberFormatException e) {
+				rate = -1;
+			}
+			if (rate < 0 || rate > 1) {
+				throw new IllegalArgumentException("无效的采样率：" + item);
+			}
+			map.put(item.substring(0, idx).trim(), rate);
+		}
+		m_ServiceSampleRates = map;
+	}
+
+	/**
+	 * 是否总是保留出错的调用，默认为true
+	 * 
+	 * @param enabled
+	 */
+	public void setKeepErrors(boolean enabled) {
+		m_KeepErrors = enabled;
+	}
+
+	/**
+	 * 耗时达到此值（毫秒）的调用总是保留，0表示不启用
+	 * 
+	 * @param millis
+	 */
+	public void setSlowThreshold(int millis) {
+		m_SlowThreshold = millis;
+	}
+
+	/**
+	 * 待导出的缓冲区大小，运行中更换时旧缓冲区里的仍会导出
+	 * 
+	 * @param size
+	 */
+	public synchronized void setBufferSize(int size) {
+		if (size == m_Buffer.capacity()) {
+			return;
+		}
+		// volatile写发布新的缓冲区，导出线程发现更换后会读完旧的
+		m_Buffer = new RingBuffer<>(size);
+	}
+
+	/**
+	 * 因缓冲区满而丢弃的调用数
+	 */
+	public long getDropped() {
+		return m_Dropped.sum();
 	}
 
 	@Override
@@ -74,24 +233,155 @@ public class MetricsServiceTracer implements ServiceTracer {
 		if (null == registry) {
 			return;
 		}
-		if (StringUtil.isEmpty(token.getToken())) {
+		if (StringUtil.isEmpty(token.getTraceId()) || StringUtil.isEmpty(token.getSpanId())) {
 			return;
 		}
+		token.m_Sampled = isSampled(token);
 		token.setBeginTime(System.currentTimeMillis());
 	}
 
-	protected void gaugeFinish(Token token) {
-		if (null == token || StringUtil.isEmpty(token.getToken())) {
+	/**
+	 * 头部采样：按traceId的散列值决定，同一调用链在各网关的结果一致
+	 */
+	boolean isSampled(Token token) {
+		double rate = m_SampleRate;
+		Map<String, Double> rates = m_ServiceSampleRates;
+		if (!rates.isEmpty() && null != token.m_Service) {
+			Double r = rates.get(token.m_Service.getName());
+			if (null != r) {
+				rate = r;
+			}
+		}
+		if (rate >= 1) {
+			return true;
+		}
+		if (rate <= 0) {
+			return false;
+		}
+		int h = token.getTraceId().hashCode() * 0x9E3779B9;
+		// 取高24位作为[0,1)的值
+		return (h >>> 8) < rate * (1 << 24);
+	}
+
+	protected void gaugeFinish(Token token, boolean fail, RequestPhases phases) {
+		if (null == token || 0 == token.m_BeginTime) {
 			return;
 		}
 		TraceRegistry registry = m_TraceRegistry;
 		if (null == registry) {
 			return;
 		}
+		long duration = System.currentTimeMillis() - token.m_BeginTime;
+		if (!token.m_Sampled) {
+			// 尾部采样
+			int slow = m_SlowThreshold;
+			if (!(fail && m_KeepErrors) && !(slow > 0 && duration >= slow)) {
+				return;
+			}
+		}
+		token.m_Duration = duration;
+		token.m_Phases = phases;
+		if (m_Closed || !m_Buffer.offer(token)) {
+			m_Dropped.increment();
+		}
+	}
+
+	/**
+	 * 关闭，导出缓冲区中剩余的调用
+	 */
+	public void close() {
+		Thread exporter;
+		synchronized (this) {
+			if (m_Closed) {
+				return;
+			}
+			m_Closed = true;
+			exporter = m_Exporter;
+		}
+		if (null == exporter) {
+			return;
+		}
+		LockSupport.unpark(exporter);
+		try {
+			exporter.join(CLOSE_WAIT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (exporter.isAlive()) {
+			_Logger.warn("导出线程未在" + CLOSE_WAIT + "ms内完成");
+		}
+	}
+
+	/**
+	 * 导出线程：从缓冲区成批取出并登记
+	 */
+	void export() {
+		List<Token> batch = new ArrayList<>(BATCH_SIZE);
+		RingBuffer<Token> current = m_Buffer;
+		// 被更换的缓冲区，在宽限期内继续读取
+		RingBuffer<Token> retired = null;
+		long retiredDeadline = 0;
+		for (;;) {
+			boolean closed = m_Closed;
+			try {
+				RingBuffer<Token> buffer = m_Buffer;
+				if (buffer != current) {
+					retired = current;
+					retiredDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETIRED_BUFFER_GRACE);
+					current = buffer;
+				}
+				if (null != retired) {
+					drain(retired, batch);
+					if (batch.isEmpty() && System.nanoTime() - retiredDeadline > 0) {
+						retired = null;
+					}
+				}
+				drain(current, batch);
+				if (batch.isEmpty()) {
+					if (closed) {
+						// 已关闭且都已导出
+						return;
+					}
+					LockSupport.parkNanos(EXPORT_IDLE_WAIT * 1000000L);
+					continue;
+				}
+				TraceRegistry registry = m_TraceRegistry;
+				for (Token t : batch) {
+					register(registry, t);
+				}
+			} catch (Throwable e) {
+				_Logger.error(e.toString(), e);
+				if (closed) {
+					return;
+				}
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private static void drain(RingBuffer<Token> buffer, List<Token> batch) {
+		Token token;
+		while (batch.size() < BATCH_SIZE && null != (token = buffer.poll())) {
+			batch.add(token);
+		}
+	}
+
+	private void register(TraceRegistry registry, Token token) {
 		try {
 			Tags tags = token.getTags();
+			RequestPhases phases = token.m_Phases;
+			if (null != phases) {
+				// 各阶段耗时（毫秒）作为标签
+				for (int i = 0; i < RequestPhases.PHASE_COUNT; i++) {
+					long micros = phases.get(i);
+					if (micros >= 0) {
+						tags = tags.and("phase." + RequestPhases.getName(i), String.valueOf(micros / 1000));
+					}
+				}
+			}
 			registry.register(GatewayTrace.newTrace(token.getSpanId(), token.getParentId(), token.getTraceId(),
-					token.m_BeginTime, System.currentTimeMillis() - token.m_BeginTime, tags));
+					token.m_BeginTime, token.m_Duration, tags));
 		} catch (Throwable e) {
 			_Logger.error(e.toString(), e);
 		}
@@ -101,7 +391,9 @@ public class MetricsServiceTracer implements ServiceTracer {
 		long timestamp = m_Timestamp.next(0);
 		// 去掉最后的8位服务器标识
 		timestamp >>= 8;
-		StringBuilder sb = new StringBuilder(14 + (null == m_ServiceId ? 0 : m_ServiceId.length()));
+		// 复用线程的缓冲，只生成最终的字符串
+		StringBuilder sb = _SpanIdBuilder.get();
+		sb.setLength(0);
 		Hex.toHex(timestamp, sb);
 		if (!StringUtil.isEmpty(m_ServiceId)) {
 			sb.append(m_ServiceId);
@@ -111,8 +403,13 @@ public class MetricsServiceTracer implements ServiceTracer {
 
 	@Override
 	public void onFinish(ServiceTraceToken token) {
+		onFinish(token, false, null);
+	}
+
+	@Override
+	public void onFinish(ServiceTraceToken token, boolean fail, RequestPhases phases) {
 		if (token instanceof Token) {
-			gaugeFinish((Token) token);
+			gaugeFinish((Token) token, fail, phases);
 		}
 	}
 
@@ -152,6 +449,12 @@ public class MetricsServiceTracer implements ServiceTracer {
 		String m_ParentId;
 		long m_BeginTime;
 		ServiceInstance m_Service;
+		/** 是否被头部采样选中 */
+		boolean m_Sampled;
+		/** 耗时（毫秒） */
+		long m_Duration;
+		/** 各阶段耗时 */
+		RequestPhases m_Phases;
 
 		Token(String spanId, ServiceTraceToken pre) {
 			m_TraceId = pre.getTraceId();
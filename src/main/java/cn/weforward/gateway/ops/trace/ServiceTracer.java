@@ -11,6 +11,7 @@
 package cn.weforward.gateway.ops.trace;
 
 import cn.weforward.gateway.Pluginable;
+import cn.weforward.gateway.RequestPhases;
 import cn.weforward.gateway.ServiceInstance;
 import cn.weforward.protocol.ops.trace.ServiceTraceToken;
 
@@ -41,4 +42,18 @@ public interface ServiceTracer extends Pluginable {
 	 */
 	void onFinish(ServiceTraceToken token);
 
+	/**
+	 * 调用结束
+	 * 
+	 * @param token
+	 *            在onBegin返回的标识
+	 * @param fail
+	 *            调用是否出错
+	 * @param phases
+	 *            调用各阶段的耗时，可空
+	 */
+	default void onFinish(ServiceTraceToken token, boolean fail, RequestPhases phases) {
+		onFinish(token);
+	}
+
 }
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.traffic;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.ops.traffic.TrafficTableVo.TrafficTableItemVo;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * 由流量规则项编译而成的索引
+ * <p>
+ * 按项指定的字段分为4类（编号+版本、仅编号、仅版本、都不指定），每类以字段值为键索引其中最靠前的项，
+ * 查找时取各类命中项中最靠前的，结果与按顺序逐项匹配一致
+ * 
+ * @author zhangpengji
+ *
+ */
+class TrafficRuleIndex {
+	/** 编译时的规则项（用于判断是否已变化） */
+	final List<TrafficTableItemVo> m_Items;
+	/** 各项的包装 */
+	final TrafficTableItem[] m_Rules;
+	/** 编号+版本 -> 最靠前的项的位置 */
+	final Map<String, Integer> m_ByNoAndVersion;
+	/** 编号 -> 最靠前的项的位置 */
+	final Map<String, Integer> m_ByNo;
+	/** 版本 -> 最靠前的项的位置 */
+	final Map<String, Integer> m_ByVersion;
+	/** 不指定编号与版本的最靠前的项的位置，-1表示没有 */
+	final int m_Any;
+
+	TrafficRuleIndex(List<TrafficTableItemVo> items) {
+		m_Items = items;
+		m_Rules = new TrafficTableItem[items.size()];
+		m_ByNoAndVersion = new HashMap<>();
+		m_ByNo = new HashMap<>();
+		m_ByVersion = new HashMap<>();
+		int any = -1;
+		for (int i = 0; i < items.size(); i++) {
+			TrafficTableItemVo item = items.get(i);
+			m_Rules[i] = new TrafficTableItemWrap(item);
+			boolean anyNo = StringUtil.isEmpty(item.serviceNo);
+			boolean anyVersion = StringUtil.isEmpty(item.serviceVersion);
+			if (anyNo && anyVersion) {
+				if (-1 == any) {
+					any = i;
+				}
+			} else if (anyVersion) {
+				m_ByNo.putIfAbsent(item.serviceNo, i);
+			} else if (anyNo) {
+				m_ByVersion.putIfAbsent(item.serviceVersion, i);
+			} else {
+				m_ByNoAndVersion.putIfAbsent(genKey(item.serviceNo, item.serviceVersion), i);
+			}
+		}
+		m_Any = any;
+	}
+
+	private static String genKey(String no, String version) {
+		return no + '\n' + version;
+	}
+
+	/**
+	 * 查找实例适用的规则项
+	 * 
+	 * @param no
+	 *            实例编号
+	 * @param version
+	 *            实例版本
+	 * @return 没有匹配的项时返回null
+	 */
+	TrafficTableItem find(String no, String version) {
+		int first = (-1 == m_Any) ? Integer.MAX_VALUE : m_Any;
+		if (null != no) {
+			first = min(first, m_ByNo.get(no));
+			if (null != version) {
+				first = min(first, m_ByNoAndVersion.get(genKey(no, version)));
+			}
+		}
+		if (null != version) {
+			first = min(first, m_ByVersion.get(version));
+		}
+		return (Integer.MAX_VALUE == first) ? null : m_Rules[first];
+	}
+
+	private static int min(int first, Integer i) {
+		return (null != i && i < first) ? i : first;
+	}
+}
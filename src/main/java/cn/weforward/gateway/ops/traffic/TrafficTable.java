@@ -33,6 +33,8 @@ public class TrafficTable implements cn.weforward.protocol.ops.traffic.TrafficTa
 	TrafficTableVo m_Vo;
 	TrafficTableVoFactory m_Factory;
 	TrafficManageImpl m_Manage;
+	/** 编译后的规则索引 */
+	volatile TrafficRuleIndex m_Index;
 
 	TrafficTable(TrafficManageImpl manage, TrafficTableVoFactory factory, TrafficTableVo vo) {
 		m_Manage = manage;
@@ -68,12 +70,19 @@ public class TrafficTable implements cn.weforward.protocol.ops.traffic.TrafficTa
 			// 默认使用轮询方式
 			return TrafficTableItem.DEFAULT;
 		}
-		for (TrafficTableItemVo item : items) {
-			if (match(item, serviceNo, serviceVersion)) {
-				return new TrafficTableItemWrap(item);
-			}
+		return getIndex(items).find(serviceNo, serviceVersion);
+	}
+
+	/**
+	 * 取得规则索引，规则项有变化时重新编译（各项修改都是替换整个列表，故以列表本身为版本）
+	 */
+	TrafficRuleIndex getIndex(List<TrafficTableItemVo> items) {
+		TrafficRuleIndex index = m_Index;
+		if (null == index || index.m_Items != items) {
+			index = new TrafficRuleIndex(items);
+			m_Index = index;
 		}
-		return null;
+		return index;
 	}
 
 	public static boolean match(TrafficTableItemVo item, String no, String version) {
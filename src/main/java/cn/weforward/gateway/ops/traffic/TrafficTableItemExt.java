@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.traffic;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+/**
+ * <code>TrafficTableItem</code>扩展
+ * 
+ * @author zhangpengji
+ *
+ */
+public interface TrafficTableItemExt extends TrafficTableItem {
+
+	/** 均衡策略 - 平滑加权轮询（默认） */
+	String STRATEGY_ROUND_ROBIN = "rr";
+	/** 均衡策略 - 最少并发请求 */
+	String STRATEGY_LEAST_CONCURRENT = "lc";
+	/** 均衡策略 - 随机选两个，取负载（并发数与响应时间）较低的 */
+	String STRATEGY_POWER_OF_TWO = "p2c";
+	/** 均衡策略 - 按响应时间的指数加权平均值反比加权随机 */
+	String STRATEGY_EWMA = "ewma";
+
+	/**
+	 * 负载均衡策略，STRATEGY_xxx，为空表示默认
+	 * 
+	 * @return
+	 */
+	String getStrategy();
+
+	/**
+	 * 慢启动时间（秒），实例恢复可用后在此时间内由低到高线性放开流量，0表示不启用
+	 * 
+	 * @return
+	 */
+	int getSlowStart();
+
+	/**
+	 * 连续错误（失败、超时、异常）达到此次数时剔除实例，剔除时长同failTimeout，0表示不启用
+	 * 
+	 * @return
+	 */
+	int getEjectErrors();
+
+	/**
+	 * 响应时间超过其它实例平均值的此倍数时剔除实例，0表示不启用
+	 * 
+	 * @return
+	 */
+	int getEjectLatency();
+
+	/**
+	 * 对冲请求的响应时间百分位（1~99）。请求在此百分位的响应时间内未响应时，向另一实例发出同样的请求，取先响应的。
+	 * <p>
+	 * 只适用于幂等（如只读）的微服务，0表示不启用
+	 * 
+	 * @return
+	 */
+	int getHedge();
+
+	/**
+	 * 工具类
+	 * 
+	 * @author zhangpengji
+	 *
+	 */
+	class Helper {
+
+		/**
+		 * 取规则项的均衡策略
+		 * 
+		 * @param item
+		 * @return 未指定时返回null
+		 */
+		public static String getStrategy(TrafficTableItem item) {
+			if (!(item instanceof TrafficTableItemExt)) {
+				return null;
+			}
+			String strategy = ((TrafficTableItemExt) item).getStrategy();
+			return StringUtil.isEmpty(strategy) ? null : strategy;
+		}
+
+		/**
+		 * 取规则项的慢启动时间（秒）
+		 * 
+		 * @param item
+		 * @return 未指定时返回0
+		 */
+		public static int getSlowStart(TrafficTableItem item) {
+			if (!(item instanceof TrafficTableItemExt)) {
+				return 0;
+			}
+			return Math.max(((TrafficTableItemExt) item).getSlowStart(), 0);
+		}
+
+		/**
+		 * 取规则项剔除实例的连续错误次数
+		 * 
+		 * @param item
+		 * @return 未指定时返回0
+		 */
+		public static int getEjectErrors(TrafficTableItem item) {
+			if (!(item instanceof TrafficTableItemExt)) {
+				return 0;
+			}
+			return Math.max(((TrafficTableItemExt) item).getEjectErrors(), 0);
+		}
+
+		/**
+		 * 取规则项剔除实例的响应时间倍数
+		 * 
+		 * @param item
+		 * @return 未指定时返回0
+		 */
+		public static int getEjectLatency(TrafficTableItem item) {
+			if (!(item instanceof TrafficTableItemExt)) {
+				return 0;
+			}
+			return Math.max(((TrafficTableItemExt) item).getEjectLatency(), 0);
+		}
+
+		/**
+		 * 取规则项对冲请求的响应时间百分位
+		 * 
+		 * @param item
+		 * @return 未指定时返回0
+		 */
+		public static int getHedge(TrafficTableItem item) {
+			if (!(item instanceof TrafficTableItemExt)) {
+				return 0;
+			}
+			int hedge = ((TrafficTableItemExt) item).getHedge();
+			return (hedge > 0 && hedge < 100) ? hedge : 0;
+		}
+
+		/**
+		 * 两个规则项作用于实例的参数是否相同（不比较名称及匹配条件）
+		 * 
+		 * @param a
+		 * @param b
+		 * @return
+		 */
+		public static boolean isSameEffect(TrafficTableItem a, TrafficTableItem b) {
+			if (a == b) {
+				return true;
+			}
+			if (null == a || null == b) {
+				return false;
+			}
+			return a.getWeight() == b.getWeight() && a.getMaxFails() == b.getMaxFails()
+					&& a.getFailTimeout() == b.getFailTimeout() && a.getMaxConcurrent() == b.getMaxConcurrent()
+					&& a.getConnectTimeout() == b.getConnectTimeout() && a.getReadTimeout() == b.getReadTimeout()
+					&& StringUtil.eq(getStrategy(a), getStrategy(b)) && getSlowStart(a) == getSlowStart(b)
+					&& getEjectErrors(a) == getEjectErrors(b) && getEjectLatency(a) == getEjectLatency(b)
+					&& getHedge(a) == getHedge(b);
+		}
+
+		/**
+		 * 是否有效的均衡策略
+		 * 
+		 * @param strategy
+		 * @return
+		 */
+		public static boolean isValidStrategy(String strategy) {
+			return StringUtil.isEmpty(strategy) || STRATEGY_ROUND_ROBIN.equals(strategy)
+					|| STRATEGY_LEAST_CONCURRENT.equals(strategy) || STRATEGY_POWER_OF_TWO.equals(strategy)
+					|| STRATEGY_EWMA.equals(strategy);
+		}
+	}
+}
@@ -11,9 +11,8 @@
 package cn.weforward.gateway.ops.traffic;
 
 import cn.weforward.gateway.ops.traffic.TrafficTableVo.TrafficTableItemVo;
-import cn.weforward.protocol.ops.traffic.TrafficTableItem;
 
-public class TrafficTableItemWrap implements TrafficTableItem {
+public class TrafficTableItemWrap implements TrafficTableItemExt {
 
 	TrafficTableItemVo m_Vo;
 	
@@ -70,4 +69,29 @@ public class TrafficTableItemWrap implements TrafficTableItem {
 		return getVo().getReadTimeout();
 	}
 
+	@Override
+	public String getStrategy() {
+		return getVo().getStrategy();
+	}
+
+	@Override
+	public int getSlowStart() {
+		return getVo().getSlowStart();
+	}
+
+	@Override
+	public int getEjectErrors() {
+		return getVo().getEjectErrors();
+	}
+
+	@Override
+	public int getEjectLatency() {
+		return getVo().getEjectLatency();
+	}
+
+	@Override
+	public int getHedge() {
+		return getVo().getHedge();
+	}
+
 }
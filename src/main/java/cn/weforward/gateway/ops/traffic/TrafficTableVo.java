@@ -82,6 +82,16 @@ public class TrafficTableVo {
 		public int connectTimeout;
 		@Resource
 		public int readTimeout;
+		@Resource
+		public String strategy;
+		@Resource
+		public int slowStart;
+		@Resource
+		public int ejectErrors;
+		@Resource
+		public int ejectLatency;
+		@Resource
+		public int hedge;
 
 		public TrafficTableItemVo() {
 
@@ -97,6 +107,11 @@ public class TrafficTableVo {
 			this.maxConcurrent = item.getMaxConcurrent();
 			this.connectTimeout = item.getConnectTimeout();
 			this.readTimeout = item.getReadTimeout();
+			this.strategy = TrafficTableItemExt.Helper.getStrategy(item);
+			this.slowStart = TrafficTableItemExt.Helper.getSlowStart(item);
+			this.ejectErrors = TrafficTableItemExt.Helper.getEjectErrors(item);
+			this.ejectLatency = TrafficTableItemExt.Helper.getEjectLatency(item);
+			this.hedge = TrafficTableItemExt.Helper.getHedge(item);
 		}
 
 		public static TrafficTableItemVo valueOf(TrafficTableItem item) {
@@ -178,5 +193,45 @@ public class TrafficTableVo {
 		public void setReadTimeout(int readTimeout) {
 			this.readTimeout = readTimeout;
 		}
+
+		public String getStrategy() {
+			return strategy;
+		}
+
+		public void setStrategy(String strategy) {
+			this.strategy = strategy;
+		}
+
+		public int getSlowStart() {
+			return slowStart;
+		}
+
+		public void setSlowStart(int slowStart) {
+			this.slowStart = slowStart;
+		}
+
+		public int getEjectErrors() {
+			return ejectErrors;
+		}
+
+		public void setEjectErrors(int ejectErrors) {
+			this.ejectErrors = ejectErrors;
+		}
+
+		public int getEjectLatency() {
+			return ejectLatency;
+		}
+
+		public void setEjectLatency(int ejectLatency) {
+			this.ejectLatency = ejectLatency;
+		}
+
+		public int getHedge() {
+			return hedge;
+		}
+
+		public void setHedge(int hedge) {
+			this.hedge = hedge;
+		}
 	}
 }
@@ -39,6 +39,7 @@ public class DataFactory implements Pluginable, PropertiesLoaderAware, PluginCon
 	RightTableVoFactoryImpl m_RightTableVoFactory;
 	TrafficTableVoFactoryImpl m_TafficTableVoFactory;
 	AclTableVoFactoryImpl m_AclTableVoFactory;
+	RateLimitTableVoFactoryImpl m_RateLimitTableVoFactory;
 
 	PluginContainer m_PluginContainer;
 	PropertiesLoader m_PropertiesLoader;
@@ -84,6 +85,7 @@ public class DataFactory implements Pluginable, PropertiesLoaderAware, PluginCon
 		m_RightTableVoFactory = new RightTableVoFactoryImpl(factory);
 		m_TafficTableVoFactory = new TrafficTableVoFactoryImpl(factory);
 		m_AclTableVoFactory = new AclTableVoFactoryImpl(factory);
+		m_RateLimitTableVoFactory = new RateLimitTableVoFactoryImpl(factory);
 
 		m_Inited = true;
 		addPlugins();
@@ -98,6 +100,7 @@ public class DataFactory implements Pluginable, PropertiesLoaderAware, PluginCon
 		m_PluginContainer.add(m_RightTableVoFactory);
 		m_PluginContainer.add(m_TafficTableVoFactory);
 		m_PluginContainer.add(m_AclTableVoFactory);
+		m_PluginContainer.add(m_RateLimitTableVoFactory);
 	}
 
 	@Override
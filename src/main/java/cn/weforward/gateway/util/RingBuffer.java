@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的无锁环形队列，多生产者单消费者
+ * <p>
+ * 生产者以CAS占用位置后写入元素，满时直接放弃（不阻塞）；消费者只能有一个线程
+ * 
+ * @author zhangpengji
+ *
+ * @param <E>
+ */
+public class RingBuffer<E> {
+	final AtomicReferenceArray<E> m_Slots;
+	final int m_Mask;
+	/** 下一个写入位置 */
+	final AtomicLong m_Tail;
+	/** 下一个读取位置（只由消费者修改） */
+	volatile long m_Head;
+
+	/**
+	 * 构造
+	 * 
+	 * @param capacity
+	 *            容量，向上取2的幂
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("容量须大于0：" + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		m_Slots = new AtomicReferenceArray<>(size);
+		m_Mask = size - 1;
+		m_Tail = new AtomicLong();
+	}
+
+	/**
+	 * 放入元素
+	 * 
+	 * @param e
+	 * @return 已满时返回false
+	 */
+	public boolean offer(E e) {
+		if (null == e) {
+			throw new NullPointerException();
+		}
+		long tail;
+		do {
+			tail = m_Tail.get();
+			if (tail - m_Head > m_Mask) {
+				return false;
+			}
+		} while (!m_Tail.compareAndSet(tail, tail + 1));
+		m_Slots.set((int) tail & m_Mask, e);
+		return true;
+	}
+
+	/**
+	 * 取出元素（只能由消费者线程调用）
+	 * 
+	 * @return 没有（或生产者尚未写入完成）时返回null
+	 */
+	public E poll() {
+		long head = m_Head;
+		int idx = (int) head & m_Mask;
+		E e = m_Slots.get(idx);
+		if (null == e) {
+			return null;
+		}
+		m_Slots.set(idx, null);
+		m_Head = head + 1;
+		return e;
+	}
+
+	/**
+	 * 当前元素数（近似值）
+	 */
+	public int size() {
+		return (int) Math.max(m_Tail.get() - m_Head, 0);
+	}
+
+	public int capacity() {
+		return m_Mask + 1;
+	}
+}
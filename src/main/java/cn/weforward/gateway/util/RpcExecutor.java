@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.core.GatewayMetrics;
+import cn.weforward.metrics.WeforwardMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * 处理rpc请求的任务执行器，可按配置选择执行模式：
+ * <ul>
+ * <li>direct - 在当前（I/O）线程执行，适合不会阻塞的场景</li>
+ * <li>pool - 有界的工作窃取线程池</li>
+ * <li>virtual - 每个任务一个虚拟线程（JDK21+，低版本时退化为pool）</li>
+ * </ul>
+ * pool及virtual模式限制排队加执行中的任务数，超出时抛出RejectedExecutionException，由提交者回应网关忙；
+ * 不在提交的线程执行，以免阻塞I/O线程
+ * 
+ * @author zhangpengji
+ *
+ */
+public class RpcExecutor implements Executor {
+	static final Logger _Logger = LoggerFactory.getLogger(RpcExecutor.class);
+
+	/** 执行模式 - 在当前线程执行 */
+	public static final String MODE_DIRECT = "direct";
+	/** 执行模式 - 有界的工作窃取线程池 */
+	public static final String MODE_POOL = "pool";
+	/** 执行模式 - 每个任务一个虚拟线程 */
+	public static final String MODE_VIRTUAL = "virtual";
+
+	/** 名称 */
+	protected final String m_Name;
+	/** 实际的执行模式 */
+	protected final String m_Mode;
+	/** 排队加执行中的任务数上限，0表示不限制 */
+	protected final int m_MaxPending;
+	/** 执行任务的线程池，direct模式时为null */
+	protected final ExecutorService m_Executor;
+	/** 排队加执行中的任务数 */
+	protected final AtomicInteger m_Pending;
+	/** 被拒绝的任务数 */
+	protected final LongAdder m_Rejected;
+
+	/**
+	 * 构造
+	 * 
+	 * @param name
+	 *            名称，用作线程名前缀及指标标签
+	 * @param mode
+	 *            执行模式，MODE_xxx
+	 * @param threads
+	 *            pool模式的线程数；virtual模式的最大并发任务数
+	 * @param queueSize
+	 *            pool模式的最大排队任务数
+	 */
+	public RpcExecutor(String name, String mode, int threads, int queueSize) {
+		if (StringUtil.isEmpty(mode)) {
+			mode = MODE_POOL;
+		}
+		if (!MODE_DIRECT.equals(mode) && !MODE_POOL.equals(mode) && !MODE_VIRTUAL.equals(mode)) {
+			throw new IllegalArgumentException("无效的执行模式：" + mode);
+		}
+		if (!MODE_DIRECT.equals(mode) && threads <= 0) {
+			throw new IllegalArgumentException("线程数须大于0：" + threads);
+		}
+		ExecutorService executor = null;
+		if (MODE_VIRTUAL.equals(mode)) {
+			executor = openVirtualExecutor();
+			if (null == executor) {
+				_Logger.warn("当前JDK不支持虚拟线程，" + name + "退化为" + MODE_POOL + "模式");
+				mode = MODE_POOL;
+			}
+		}
+		if (MODE_POOL.equals(mode)) {
+			executor = openPool(name, threads);
+		}
+		m_Name = name;
+		m_Mode = mode;
+		if (MODE_POOL.equals(mode)) {
+			m_MaxPending = threads + Math.max(queueSize, 0);
+		} else if (MODE_VIRTUAL.equals(mode)) {
+			m_MaxPending = threads;
+		} else {
+			m_MaxPending = 0;
+		}
+		m_Executor = executor;
+		m_Pending = new AtomicInteger();
+		m_Rejected = new LongAdder();
+		_Logger.info(name + " executor mode:" + mode + ",max pending:" + m_MaxPending);
+	}
+
+	private static ExecutorService openPool(String name, int threads) {
+		AtomicInteger seq = new AtomicInteger();
+		ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+				};
+				thread.setName(name + "-" + seq.incrementAndGet());
+				return thread;
+			}
+		};
+		// 任务之间没有依赖，以FIFO（asyncMode）方式执行
+		return new ForkJoinPool(threads, factory, null, true);
+	}
+
+	private static ExecutorService openVirtualExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			_Logger.warn("创建虚拟线程执行器失败", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 注册排队及拒绝数的指标
+	 * 
+	 * @param gatewayId
+	 *            网关标识
+	 * @param registry
+	 */
+	public void startGauge(String gatewayId, MeterRegistry registry) {
+		if (null == registry) {
+			return;
+		}
+		Tags tags = WeforwardMetrics.TagHelper.of(WeforwardMetrics.TagHelper.gatewayId(gatewayId))
+				.and("executor", m_Name).and("mode", m_Mode);
+		Gauge.builder(GatewayMetrics.GATEWAY_EXECUTOR_PENDING, m_Pending, AtomicInteger::get).tags(tags)
+				.register(registry);
+		FunctionCounter.builder(GatewayMetrics.GATEWAY_EXECUTOR_REJECT, m_Rejected, LongAdder::sum).tags(tags)
+				.register(registry);
+	}
+
+	public String getMode() {
+		return m_Mode;
+	}
+
+	/** 排队加执行中的任务数 */
+	public int getPending() {
+		return m_Pending.get();
+	}
+
+	/** 被拒绝的任务数 */
+	public long getRejected() {
+		return m_Rejected.sum();
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (null == m_Executor) {
+			m_Pending.incrementAndGet();
+			try {
+				command.run();
+			} finally {
+				m_Pending.decrementAndGet();
+			}
+			return;
+		}
+		int pending = m_Pending.incrementAndGet();
+		if (pending > m_MaxPending) {
+			m_Pending.decrementAndGet();
+			m_Rejected.increment();
+			throw new RejectedExecutionException(m_Name + "忙，排队数：" + pending);
+		}
+		try {
+			m_Executor.execute(() -> run(command));
+		} catch (RejectedExecutionException e) {
+			m_Pending.decrementAndGet();
+			m_Rejected.increment();
+			throw e;
+		}
+	}
+
+	private void run(Runnable command) {
+		try {
+			command.run();
+		} catch (Throwable e) {
+			_Logger.error("执行任务出错：" + command, e);
+		} finally {
+			m_Pending.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 关闭线程池（不等待执行中的任务）
+	 */
+	public void shutdown() {
+		if (null != m_Executor) {
+			m_Executor.shutdown();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return m_Name + "{mode:" + m_Mode + ",pending:" + m_Pending.get() + ",rejected:" + m_Rejected.sum() + "}";
+	}
+}
@@ -0,0 +1,554 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 追加写的分段日志
+ * <p>
+ * 每段是一个固定大小的内存映射文件（以段序号命名），记录格式为：长度(4)+校验(4)+时间(8)+内容，长度最后写入，未写完的记录在重新打开时丢弃；
+ * 读取位置保存在cursor文件中，读完的段即删除。可按保留时间及占用空间淘汰最旧的段。
+ * <p>
+ * 写入只到操作系统的页缓存，进程崩溃不会丢失，但主机掉电可能丢失最近的记录；写满的段在锁外（或由指定的执行器）刷盘
+ * 
+ * @author zhangpengji
+ *
+ */
+public class SegmentLog implements Closeable {
+	static final Logger _Logger = LoggerFactory.getLogger(SegmentLog.class);
+
+	/** 记录头的长度 */
+	static final int RECORD_HEAD = 16;
+	/** 段文件的后缀 */
+	static final String SEGMENT_SUFFIX = ".seg";
+	/** 读取位置文件 */
+	static final String CURSOR_FILE = "cursor";
+
+	final File m_Dir;
+	final int m_SegmentSize;
+	/** 保留时间（毫秒） */
+	final long m_Retention;
+	/** 按序号排列的段，最后一个为写入段 */
+	final List<Segment> m_Segments;
+	/** 读取位置：段序号(8)+段内位置(4) */
+	final MappedByteBuffer m_Cursor;
+	long m_ReadSeq;
+	int m_ReadPos;
+	/** 写满的段的刷盘执行器，为null时由写入线程在锁外刷盘 */
+	final Executor m_Flusher;
+	/** 未读记录占用的空间（字节） */
+	volatile long m_UsedSize;
+	/** 汇总多个日志的占用空间，可为null */
+	final AtomicLong m_TotalSize;
+	boolean m_Closed;
+
+	/**
+	 * 打开（或创建）日志
+	 * 
+	 * @param dir
+	 *            日志目录
+	 * @param segmentSize
+	 *            段大小（字节）
+	 * @param retention
+	 *            记录的保留时间（毫秒）
+	 * @throws IOException
+	 */
+	public SegmentLog(File dir, int segmentSize, long retention) throws IOException {
+		this(dir, segmentSize, retention, null, null);
+	}
+
+	/**
+	 * 打开（或创建）日志
+	 * 
+	 * @param dir
+	 *            日志目录
+	 * @param segmentSize
+	 *            段大小（字节）
+	 * @param retention
+	 *            记录的保留时间（毫秒）
+	 * @param flusher
+	 *            写满的段的刷盘执行器，可为null
+	 * @param totalSize
+	 *            累计占用空间的计数器（多个日志共用），可为null
+	 * @throws IOException
+	 */
+	public SegmentLog(File dir, int segmentSize, long retention, Executor flusher, AtomicLong totalSize)
+			throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("无法创建目录：" + dir);
+		}
+		m_Dir = dir;
+		m_SegmentSize = segmentSize;
+		m_Retention = retention;
+		m_Flusher = flusher;
+		m_TotalSize = totalSize;
+		m_Segments = new ArrayList<>();
+
+		try (RandomAccessFile raf = new RandomAccessFile(new File(dir, CURSOR_FILE), "rw")) {
+			raf.setLength(12);
+			m_Cursor = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 12);
+		}
+		m_ReadSeq = m_Cursor.getLong(0);
+		m_ReadPos = m_Cursor.getInt(8);
+
+		File[] files = dir.listFiles();
+		List<Long> seqs = new ArrayList<>();
+		if (null != files) {
+			for (File f : files) {
+				String name = f.getName();
+				if (!name.endsWith(SEGMENT_SUFFIX)) {
+					continue;
+				}
+				try {
+					seqs.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					_Logger.warn("忽略无效的段文件：" + f);
+				}
+			}
+		}
+		seqs.sort(null);
+		for (Long seq : seqs) {
+			File f = segmentFile(seq);
+			if (seq < m_ReadSeq) {
+				// 已读完
+				delete(f);
+				continue;
+			}
+			Segment seg = new Segment(seq, f, 0);
+			seg.recover();
+			m_Segments.add(seg);
+		}
+		if (m_Segments.isEmpty()) {
+			m_Segments.add(new Segment(Math.max(1, m_ReadSeq), segmentFile(Math.max(1, m_ReadSeq)), m_SegmentSize));
+		}
+		Segment first = m_Segments.get(0);
+		if (m_ReadSeq != first.m_Seq || m_ReadPos > first.m_WritePos) {
+			saveCursor(first.m_Seq, 0);
+		}
+		long size = -m_ReadPos;
+		for (Segment seg : m_Segments) {
+			size += seg.m_WritePos;
+		}
+		addUsedSize(size);
+	}
+
+	File segmentFile(long seq) {
+		return new File(m_Dir, String.format("%020d", seq) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * 最大的记录内容
+	 */
+	public int getMaxRecordSize() {
+		return m_SegmentSize - RECORD_HEAD;
+	}
+
+	/**
+	 * 追加一条记录
+	 * 
+	 * @return 内容超过段大小时返回false
+	 * @throws IOException
+	 */
+	public boolean append(byte[] data, int offset, int length) throws IOException {
+		if (length <= 0 || length > getMaxRecordSize()) {
+			return false;
+		}
+		Segment full = null;
+		synchronized (this) {
+			if (m_Closed) {
+				throw new IOException("日志已关闭：" + this);
+			}
+			Segment seg = m_Segments.get(m_Segments.size() - 1);
+			if (!seg.hasRoom(length)) {
+				full = seg;
+				long seq = seg.m_Seq + 1;
+				seg = new Segment(seq, segmentFile(seq), m_SegmentSize);
+				m_Segments.add(seg);
+			}
+			seg.write(System.currentTimeMillis(), data, offset, length);
+			addUsedSize(RECORD_HEAD + length);
+		}
+		if (null != full) {
+			flush(full);
+		}
+		return true;
+	}
+
+	/**
+	 * 写满的段刷盘，不占用日志的锁
+	 */
+	private void flush(Segment seg) {
+		if (null != m_Flusher) {
+			try {
+				m_Flusher.execute(seg::force);
+				return;
+			} catch (RejectedExecutionException e) {
+				// 执行器已关闭，直接刷
+			}
+		}
+		seg.force();
+	}
+
+	/**
+	 * 取得读取位置的记录（不移动读取位置），过期的记录被跳过
+	 * 
+	 * @return 没有未读的记录时返回null
+	 */
+	public synchronized Record peek() {
+		if (m_Closed) {
+			return null;
+		}
+		long expired = (m_Retention > 0) ? System.currentTimeMillis() - m_Retention : 0;
+		for (;;) {
+			Segment seg = m_Segments.get(0);
+			Record r = seg.read(m_ReadPos);
+			if (null == r) {
+				if (1 == m_Segments.size()) {
+					return null;
+				}
+				// 此段已读完
+				removeFirst();
+				continue;
+			}
+			if (r.time < expired) {
+				moveCursor(r.m_Next);
+				continue;
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * 移除已处理的记录，只能是{@link #peek()}返回的记录
+	 * 
+	 * @param record
+	 */
+	public synchronized void remove(Record record) {
+		if (record.m_Seq != m_ReadSeq || record.m_Pos != m_ReadPos) {
+			// 已被淘汰
+			return;
+		}
+		moveCursor(record.m_Next);
+	}
+
+	/**
+	 * 是否有未读的记录（不检查过期）
+	 */
+	public synchronized boolean hasRemaining() {
+		if (m_Closed) {
+			return false;
+		}
+		return m_Segments.size() > 1 || m_ReadPos < m_Segments.get(0).m_WritePos;
+	}
+
+	/**
+	 * 未读记录占用的空间（字节），不含已读部分
+	 */
+	public long getUsedSize() {
+		return m_UsedSize;
+	}
+
+	/**
+	 * 最旧一段的最后写入时间，没有记录时返回Long.MAX_VALUE
+	 */
+	public synchronized long getOldestTime() {
+		if (m_Closed) {
+			return Long.MAX_VALUE;
+		}
+		Segment seg = m_Segments.get(0);
+		return (0 == seg.m_WritePos) ? Long.MAX_VALUE : seg.m_LastTime;
+	}
+
+	/**
+	 * 淘汰最旧的一段（只剩写入段时清空它）
+	 * 
+	 * @return 淘汰的未读记录数
+	 * @throws IOException
+	 */
+	public synchronized int dropOldest() throws IOException {
+		if (m_Closed) {
+			return 0;
+		}
+		Segment seg = m_Segments.get(0);
+		int count = seg.count(m_ReadPos);
+		if (1 == m_Segments.size()) {
+			long seq = seg.m_Seq + 1;
+			m_Segments.add(new Segment(seq, segmentFile(seq), m_SegmentSize));
+		}
+		removeFirst();
+		return count;
+	}
+
+	/**
+	 * 淘汰超过保留时间的段
+	 * 
+	 * @return 淘汰的未读记录数
+	 * @throws IOException
+	 */
+	public synchronized int expire() throws IOException {
+		if (m_Retention <= 0) {
+			return 0;
+		}
+		long expired = System.currentTimeMillis() - m_Retention;
+		int count = 0;
+		while (getOldestTime() < expired) {
+			count += dropOldest();
+		}
+		return count;
+	}
+
+	private void removeFirst() {
+		Segment seg = m_Segments.remove(0);
+		Segment next = m_Segments.get(0);
+		addUsedSize(m_ReadPos - seg.m_WritePos);
+		saveCursor(next.m_Seq, 0);
+		seg.close();
+		delete(seg.m_File);
+	}
+
+	/**
+	 * 在当前段内移动读取位置
+	 */
+	private void moveCursor(int pos) {
+		addUsedSize(m_ReadPos - pos);
+		saveCursor(m_ReadSeq, pos);
+	}
+
+	private void addUsedSize(long delta) {
+		m_UsedSize += delta;
+		if (null != m_TotalSize) {
+			m_TotalSize.addAndGet(delta);
+		}
+	}
+
+	private void saveCursor(long seq, int pos) {
+		m_ReadSeq = seq;
+		m_ReadPos = pos;
+		m_Cursor.putLong(0, seq);
+		m_Cursor.putInt(8, pos);
+	}
+
+	private static void delete(File f) {
+		if (!f.delete() && f.exists()) {
+			_Logger.warn("无法删除：" + f);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (m_Closed) {
+			return;
+		}
+		m_Closed = true;
+		for (Segment seg : m_Segments) {
+			seg.force();
+			seg.close();
+		}
+		m_Cursor.force();
+		unmap(m_Cursor);
+		addUsedSize(-m_UsedSize);
+	}
+
+	/**
+	 * 释放内存映射，之后不能再访问缓冲区
+	 */
+	static void unmap(MappedByteBuffer buffer) {
+		try {
+			// JDK9+
+			Class<?> clazz = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = clazz.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			invokeCleaner.invoke(field.get(null), buffer);
+			return;
+		} catch (NoSuchMethodException e) {
+			// JDK8
+		} catch (Throwable e) {
+			_Logger.warn("释放内存映射失败：" + e);
+			return;
+		}
+		try {
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(buffer);
+			if (null != c) {
+				c.getClass().getMethod("clean").invoke(c);
+			}
+		} catch (Throwable e) {
+			_Logger.warn("释放内存映射失败：" + e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return m_Dir.getPath();
+	}
+
+	/**
+	 * 日志记录
+	 */
+	public static class Record {
+		/** 写入时间 */
+		public final long time;
+		/** 内容 */
+		public final byte[] data;
+
+		final long m_Seq;
+		final int m_Pos;
+		final int m_Next;
+
+		Record(long seq, int pos, int next, long time, byte[] data) {
+			m_Seq = seq;
+			m_Pos = pos;
+			m_Next = next;
+			this.time = time;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * 日志段
+	 */
+	class Segment {
+		final long m_Seq;
+		final File m_File;
+		final MappedByteBuffer m_Buffer;
+		int m_WritePos;
+		long m_LastTime;
+		/** 内存映射是否已释放 */
+		boolean m_Unmapped;
+
+		/**
+		 * @param size
+		 *            新建段的大小，打开已有段时为0
+		 */
+		Segment(long seq, File file, int size) throws IOException {
+			m_Seq = seq;
+			m_File = file;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				if (raf.length() < size) {
+					raf.setLength(size);
+				}
+				m_Buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			}
+		}
+
+		/**
+		 * 扫描已有的记录，定位写入位置
+		 */
+		void recover() {
+			int pos = 0;
+			Record r = read(pos);
+			while (null != r) {
+				m_LastTime = r.time;
+				pos = r.m_Next;
+				r = read(pos);
+			}
+			m_WritePos = pos;
+			// 清掉未写完的记录头，避免之后的追加被误读
+			if (pos + 4 <= m_Buffer.capacity()) {
+				m_Buffer.putInt(pos, 0);
+			}
+		}
+
+		/**
+		 * 刷盘，与释放互斥，已释放的忽略
+		 */
+		synchronized void force() {
+			if (!m_Unmapped) {
+				m_Buffer.force();
+			}
+		}
+
+		/**
+		 * 释放内存映射
+		 */
+		synchronized void close() {
+			if (!m_Unmapped) {
+				m_Unmapped = true;
+				unmap(m_Buffer);
+			}
+		}
+
+		boolean hasRoom(int length) {
+			return m_WritePos + RECORD_HEAD + length <= m_Buffer.capacity();
+		}
+
+		void write(long time, byte[] data, int offset, int length) {
+			int pos = m_WritePos;
+			CRC32 crc = new CRC32();
+			crc.update(data, offset, length);
+			m_Buffer.putInt(pos + 4, (int) crc.getValue());
+			m_Buffer.putLong(pos + 8, time);
+			ByteBuffer buffer = m_Buffer.duplicate();
+			buffer.position(pos + RECORD_HEAD);
+			buffer.put(data, offset, length);
+			// 最后写长度，记录才算完整
+			m_Buffer.putInt(pos, length);
+			m_WritePos = pos + RECORD_HEAD + length;
+			m_LastTime = time;
+		}
+
+		Record read(int pos) {
+			if (pos + RECORD_HEAD > m_Buffer.capacity()) {
+				return null;
+			}
+			int length = m_Buffer.getInt(pos);
+			if (length <= 0 || pos + RECORD_HEAD + length > m_Buffer.capacity()) {
+				return null;
+			}
+			byte[] data = new byte[length];
+			ByteBuffer buffer = m_Buffer.duplicate();
+			buffer.position(pos + RECORD_HEAD);
+			buffer.get(data);
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			if ((int) crc.getValue() != m_Buffer.getInt(pos + 4)) {
+				return null;
+			}
+			return new Record(m_Seq, pos, pos + RECORD_HEAD + length, m_Buffer.getLong(pos + 8), data);
+		}
+
+		/**
+		 * 从指定位置起的记录数
+		 */
+		int count(int pos) {
+			int count = 0;
+			while (pos + RECORD_HEAD <= m_WritePos) {
+				int length = m_Buffer.getInt(pos);
+				if (length <= 0) {
+					break;
+				}
+				count++;
+				pos += RECORD_HEAD + length;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 分散计数器，用于多个线程频繁增减、而多数时候只需近似值的计数（如并发数）
+ * <p>
+ * 没有争用时只在基数上计数，与AtomicInteger无异；基数的CAS失败后按线程分散到各槽，槽内累计满一批才并入基数。
+ * {@link #get()}只读基数，与精确值的相差不超过{@link #getError()}；{@link #sum()}累加所有槽得到精确值，
+ * 只在接近临界值时才需要，见{@link #get(int)}
+ * 
+ * @author zhangpengji
+ *
+ */
+public class StripedCounter {
+	/** 每个槽占用的int个数（64字节，避免伪共享） */
+	static final int CELL_STRIDE = 16;
+	/** 累加期间有槽并入基数时重读的次数 */
+	static final int SUM_RETRIES = 3;
+	/** 最多的槽数 */
+	public static final int MAX_STRIPES;
+	static {
+		int n = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while (stripes < n && stripes < 64) {
+			stripes <<= 1;
+		}
+		MAX_STRIPES = stripes;
+	}
+
+	/** 基数 */
+	final AtomicInteger m_Base;
+	/** 槽数（2的幂） */
+	final int m_Stripes;
+	/** 槽内累计满此数（绝对值）才并入基数 */
+	final int m_Batch;
+	/** 分散的槽，出现争用前为null */
+	volatile AtomicIntegerArray m_Cells;
+
+	/**
+	 * 构造
+	 * 
+	 * @param stripes
+	 *            槽数，向上取2的幂，不超过MAX_STRIPES
+	 * @param batch
+	 *            槽内累计满此数才并入基数，越大争用越少但近似值的误差越大
+	 */
+	public StripedCounter(int stripes, int batch) {
+		int n = 1;
+		while (n < stripes && n < MAX_STRIPES) {
+			n <<= 1;
+		}
+		m_Stripes = n;
+		m_Batch = Math.max(batch, 1);
+		m_Base = new AtomicInteger();
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	public void add(int delta) {
+		AtomicIntegerArray cells = m_Cells;
+		if (null == cells) {
+			int base = m_Base.get();
+			if (m_Base.compareAndSet(base, base + delta)) {
+				return;
+			}
+			// 有争用了
+			cells = initCells();
+		}
+		int i = ((int) Thread.currentThread().getId() & (m_Stripes - 1)) * CELL_STRIDE;
+		int v = cells.addAndGet(i, delta);
+		// 并入基数（同一槽上其它线程的增减留在槽里）。正数先加基数再扣槽，负数先扣槽再减基数，
+		// 并入中途被sum()读到时只会多算，不会少算
+		if (v >= m_Batch) {
+			m_Base.addAndGet(v);
+			cells.addAndGet(i, -v);
+		} else if (v <= -m_Batch) {
+			cells.addAndGet(i, -v);
+			m_Base.addAndGet(v);
+		}
+	}
+
+	private synchronized AtomicIntegerArray initCells() {
+		AtomicIntegerArray cells = m_Cells;
+		if (null == cells) {
+			cells = new AtomicIntegerArray(m_Stripes * CELL_STRIDE);
+			m_Cells = cells;
+		}
+		return cells;
+	}
+
+	/**
+	 * 近似值（只读基数）
+	 */
+	public int get() {
+		return m_Base.get();
+	}
+
+	/**
+	 * 与临界值比较用的值：近似值离临界值超过误差时取近似值，否则取精确值
+	 * 
+	 * @param threshold
+	 *            临界值
+	 */
+	public int get(int threshold) {
+		int v = m_Base.get();
+		int error = getError();
+		if (0 == error || v < threshold - error || v > threshold + error) {
+			return v;
+		}
+		return sum();
+	}
+
+	/**
+	 * 精确值（累加基数及所有槽）。
+	 * <p>
+	 * 与并发的增减不是原子的，但不会因槽并入基数而少算
+	 */
+	public int sum() {
+		AtomicIntegerArray cells = m_Cells;
+		if (null == cells) {
+			return m_Base.get();
+		}
+		int base = m_Base.get();
+		for (int retry = 0;; retry++) {
+			int sum = 0;
+			for (int i = 0; i < m_Stripes; i++) {
+				sum += cells.get(i * CELL_STRIDE);
+			}
+			int b = m_Base.get();
+			if (b == base || retry >= SUM_RETRIES) {
+				return sum + b;
+			}
+			// 累加期间有槽并入了基数，重读
+			base = b;
+		}
+	}
+
+	/**
+	 * 近似值与精确值可能相差的最大值，没有争用（未分散）时为0
+	 */
+	public int getError() {
+		if (null == m_Cells) {
+			return 0;
+		}
+		return m_Stripes * (m_Batch - 1);
+	}
+
+	/**
+	 * 置零，特殊情况下使用（与并发的增减不是原子的）
+	 */
+	public void reset() {
+		AtomicIntegerArray cells = m_Cells;
+		if (null != cells) {
+			for (int i = 0; i < m_Stripes; i++) {
+				cells.set(i * CELL_STRIDE, 0);
+			}
+		}
+		m_Base.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(sum());
+	}
+}
@@ -0,0 +1,545 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import cn.weforward.common.json.JsonParseAbort;
+
+/**
+ * 按字节扫描json内容最前的wf_req/wf_resp节点，只提取指定属性及节点后分隔符的位置。
+ * <p>
+ * 不构造json节点对象，读缓冲区按线程复用；只支持UTF-8（含ASCII）编码，其它编码请使用JsonUtil解析
+ * 
+ * @author zhangpengji
+ *
+ */
+public class WfNodeScanner {
+	/** 未找到节点，或该节点不在最前 */
+	public static final int NOT_FOUND = -1;
+	/** 节点后面不是分隔符 */
+	public static final int NO_SEPARATOR = -2;
+
+	static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	/** 跳过嵌套值的最大深度 */
+	static final int MAX_DEPTH = 64;
+
+	static final ThreadLocal<Reader> _Readers = new ThreadLocal<Reader>() {
+		@Override
+		protected Reader initialValue() {
+			return new Reader();
+		}
+	};
+
+	/** 节点名 */
+	protected final byte[] m_Name;
+	/** 要提取的属性名 */
+	protected final byte[][] m_Keys;
+
+	/**
+	 * 构造
+	 * 
+	 * @param name
+	 *            节点名
+	 * @param keys
+	 *            要提取的属性名，回调时以其下标标识
+	 */
+	public WfNodeScanner(String name, String... keys) {
+		m_Name = name.getBytes(StandardCharsets.UTF_8);
+		m_Keys = new byte[keys.length][];
+		for (int i = 0; i < keys.length; i++) {
+			m_Keys[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * 属性名
+	 * 
+	 * @param key
+	 *            属性名的下标
+	 * @return
+	 */
+	public String getKey(int key) {
+		return new String(m_Keys[key], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 是否支持此编码
+	 * 
+	 * @param charset
+	 * @return
+	 */
+	public static boolean isSupported(String charset) {
+		return null == charset || "utf-8".equalsIgnoreCase(charset) || "utf8".equalsIgnoreCase(charset)
+				|| "us-ascii".equalsIgnoreCase(charset);
+	}
+
+	/**
+	 * 扫描节点
+	 * 
+	 * @param in
+	 *            json内容
+	 * @param allowEnd
+	 *            节点后面是否允许为'}'
+	 * @param listener
+	 *            属性的回调
+	 * @return 节点后分隔符（','或'}'）的位置（字节），或{@linkplain #NOT_FOUND}、{@linkplain #NO_SEPARATOR}
+	 * @throws IOException
+	 * @throws JsonParseAbort
+	 *             由listener抛出的属性值类型不符
+	 */
+	public int scan(InputStream in, boolean allowEnd, Listener listener) throws IOException, JsonParseAbort {
+		Reader reader = _Readers.get();
+		reader.open(in);
+		try {
+			return scan(reader, allowEnd, listener);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private int scan(Reader reader, boolean allowEnd, Listener listener) throws IOException, JsonParseAbort {
+		int ch = reader.skipBlank();
+		if (0xEF == ch) {
+			// UTF-8 BOM
+			if (0xBB != reader.read() || 0xBF != reader.read()) {
+				return NOT_FOUND;
+			}
+			ch = reader.skipBlank();
+		}
+		if ('{' != ch || '"' != reader.skipBlank()) {
+			return NOT_FOUND;
+		}
+		if (!reader.matchKey(m_Name) || ':' != reader.skipBlank() || '{' != reader.skipBlank()) {
+			return NOT_FOUND;
+		}
+		ch = reader.skipBlank();
+		if ('}' != ch) {
+			for (;;) {
+				if ('"' != ch) {
+					return NOT_FOUND;
+				}
+				int key = reader.readKey(m_Keys);
+				if (key < -1 || ':' != reader.skipBlank()) {
+					return NOT_FOUND;
+				}
+				if (!readValue(reader, key, listener)) {
+					return NOT_FOUND;
+				}
+				ch = reader.skipBlank();
+				if ('}' == ch) {
+					break;
+				}
+				if (',' != ch) {
+					return NOT_FOUND;
+				}
+				ch = reader.skipBlank();
+			}
+		}
+		ch = reader.skipBlank();
+		if (',' == ch || (allowEnd && '}' == ch)) {
+			return reader.position() - 1;
+		}
+		return NO_SEPARATOR;
+	}
+
+	private boolean readValue(Reader reader, int key, Listener listener)
+			throws IOException, JsonParseAbort {
+		int ch = reader.skipBlank();
+		if ('"' == ch) {
+			if (key < 0) {
+				return reader.skipString();
+			}
+			if (!reader.readString()) {
+				return false;
+			}
+			listener.foundString(key, reader.scratchToString());
+			return true;
+		}
+		if ('-' == ch || (ch >= '0' && ch <= '9')) {
+			boolean negative = ('-' == ch);
+			if (negative) {
+				ch = reader.read();
+				if (ch < '0' || ch > '9') {
+					return false;
+				}
+			}
+			long value = ch - '0';
+			boolean overflow = false;
+			for (;;) {
+				ch = reader.peek();
+				if (ch < '0' || ch > '9') {
+					break;
+				}
+				reader.read();
+				int d = ch - '0';
+				if (value > (Long.MAX_VALUE - d) / 10) {
+					// 超出long的范围，继续读完数字
+					overflow = true;
+				} else {
+					value = value * 10 + d;
+				}
+			}
+			// 忽略小数及指数部分
+			while ('.' == ch || 'e' == ch || 'E' == ch || '+' == ch || '-' == ch || (ch >= '0' && ch <= '9')) {
+				reader.read();
+				ch = reader.peek();
+			}
+			if (key >= 0) {
+				if (overflow) {
+					listener.foundOther(key);
+				} else {
+					listener.foundNumber(key, negative ? -value : value);
+				}
+			}
+			return true;
+		}
+		if ('{' == ch || '[' == ch) {
+			if (!reader.skipNested(ch)) {
+				return false;
+			}
+			if (key >= 0) {
+				listener.foundOther(key);
+			}
+			return true;
+		}
+		if ('n' == ch) {
+			// null值与没有此属性一样
+			return reader.matchLiteral(NULL);
+		}
+		if ('t' == ch || 'f' == ch) {
+			if (!reader.matchLiteral(('t' == ch) ? TRUE : FALSE)) {
+				return false;
+			}
+			if (key >= 0) {
+				listener.foundOther(key);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 属性的回调
+	 */
+	public interface Listener {
+		/**
+		 * 数值属性（只取整数部分）
+		 * 
+		 * @param key
+		 *            属性名的下标
+		 * @param value
+		 * @throws JsonParseAbort
+		 *             属性值类型不符
+		 */
+		void foundNumber(int key, long value) throws JsonParseAbort;
+
+		/**
+		 * 字符串属性
+		 * 
+		 * @param key
+		 *            属性名的下标
+		 * @param value
+		 * @throws JsonParseAbort
+		 *             属性值类型不符
+		 */
+		void foundString(int key, String value) throws JsonParseAbort;
+
+		/**
+		 * 属性值是数值（超出long范围的）、字符串及null以外的类型
+		 * 
+		 * @param key
+		 *            属性名的下标
+		 * @throws JsonParseAbort
+		 *             属性值类型不符
+		 */
+		void foundOther(int key) throws JsonParseAbort;
+	}
+
+	/**
+	 * 按线程复用的读取器
+	 */
+	static class Reader {
+		final byte[] m_Buffer = new byte[1024];
+		int m_Pos;
+		int m_Limit;
+		/** 缓冲区之前已读的字节数 */
+		int m_Offset;
+		InputStream m_Input;
+		/** 字符串值的暂存区 */
+		byte[] m_Scratch = new byte[256];
+		int m_ScratchLength;
+
+		void open(InputStream in) {
+			m_Input = in;
+			m_Pos = 0;
+			m_Limit = 0;
+			m_Offset = 0;
+		}
+
+		void close() {
+			m_Input = null;
+			if (m_Scratch.length > 4096) {
+				// 不要长期占用过大的暂存区
+				m_Scratch = new byte[256];
+			}
+		}
+
+		/**
+		 * 已读的字节数
+		 */
+		int position() {
+			return m_Offset + m_Pos;
+		}
+
+		private boolean fill() throws IOException {
+			m_Offset += m_Limit;
+			m_Pos = 0;
+			m_Limit = 0;
+			int n;
+			do {
+				n = m_Input.read(m_Buffer, 0, m_Buffer.length);
+			} while (0 == n);
+			if (n < 0) {
+				return false;
+			}
+			m_Limit = n;
+			return true;
+		}
+
+		int read() throws IOException {
+			if (m_Pos >= m_Limit && !fill()) {
+				return -1;
+			}
+			return m_Buffer[m_Pos++] & 0xFF;
+		}
+
+		int peek() throws IOException {
+			if (m_Pos >= m_Limit && !fill()) {
+				return -1;
+			}
+			return m_Buffer[m_Pos] & 0xFF;
+		}
+
+		int skipBlank() throws IOException {
+			int ch;
+			do {
+				ch = read();
+			} while (' ' == ch || '\n' == ch || '\r' == ch || '\t' == ch);
+			return ch;
+		}
+
+		/**
+		 * 读取属性名（已读入'"'）并与name比较，属性名含转义符时视为不相同
+		 */
+		boolean matchKey(byte[] name) throws IOException {
+			int i = 0;
+			int ch;
+			while ('"' != (ch = read())) {
+				if (ch < 0 || '\\' == ch || i >= name.length || name[i] != (byte) ch) {
+					return false;
+				}
+				i++;
+			}
+			return i == name.length;
+		}
+
+		/**
+		 * 读取属性名（已读入'"'）并查找其下标
+		 * 
+		 * @return 下标，-1表示不在keys中
+		 */
+		int readKey(byte[][] keys) throws IOException {
+			if (!readString()) {
+				return -2;
+			}
+			for (int i = 0; i < keys.length; i++) {
+				byte[] k = keys[i];
+				if (k.length != m_ScratchLength) {
+					continue;
+				}
+				int j = 0;
+				while (j < k.length && k[j] == m_Scratch[j]) {
+					j++;
+				}
+				if (j == k.length) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		boolean skipString() throws IOException {
+			int ch;
+			while ('"' != (ch = read())) {
+				if (ch < 0) {
+					return false;
+				}
+				if ('\\' == ch && read() < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * 读取并比较余下的字面量（已读入首字符），后面不能紧跟字母或数字
+		 */
+		boolean matchLiteral(byte[] literal) throws IOException {
+			for (int i = 1; i < literal.length; i++) {
+				if (literal[i] != read()) {
+					return false;
+				}
+			}
+			int ch = peek();
+			return !((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9'));
+		}
+
+		/**
+		 * 跳过对象或数组（已读入'{'或'['）
+		 */
+		boolean skipNested(int open) throws IOException {
+			int depth = 1;
+			int ch;
+			while (depth > 0) {
+				ch = read();
+				if (ch < 0) {
+					return false;
+				}
+				if ('"' == ch) {
+					if (!skipString()) {
+						return false;
+					}
+				} else if ('{' == ch || '[' == ch) {
+					if (++depth > MAX_DEPTH) {
+						return false;
+					}
+				} else if ('}' == ch || ']' == ch) {
+					depth--;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * 读取字符串（已读入'"'）到暂存区，转义符解码为UTF-8字节
+		 */
+		boolean readString() throws IOException {
+			m_ScratchLength = 0;
+			int ch;
+			while ('"' != (ch = read())) {
+				if (ch < 0) {
+					return false;
+				}
+				if ('\\' == ch) {
+					ch = read();
+					switch (ch) {
+					case 'b':
+						ch = '\b';
+						break;
+					case 'f':
+						ch = '\f';
+						break;
+					case 'n':
+						ch = '\n';
+						break;
+					case 'r':
+						ch = '\r';
+						break;
+					case 't':
+						ch = '\t';
+						break;
+					case 'u':
+						int c = readHex4();
+						if (c < 0) {
+							return false;
+						}
+						if (c >= 0xD800 && c <= 0xDBFF) {
+							// 代理对
+							if ('\\' != read() || 'u' != read()) {
+								return false;
+							}
+							int low = readHex4();
+							if (low < 0xDC00 || low > 0xDFFF) {
+								return false;
+							}
+							c = 0x10000 + ((c - 0xD800) << 10) + (low - 0xDC00);
+						}
+						appendCodePoint(c);
+						continue;
+					default:
+						if (ch < 0) {
+							return false;
+						}
+						// '"'、'\\'、'/'
+					}
+				}
+				append(ch);
+			}
+			return true;
+		}
+
+		private int readHex4() throws IOException {
+			int v = 0;
+			for (int i = 0; i < 4; i++) {
+				int ch = read();
+				int d;
+				if (ch >= '0' && ch <= '9') {
+					d = ch - '0';
+				} else if (ch >= 'a' && ch <= 'f') {
+					d = ch - 'a' + 10;
+				} else if (ch >= 'A' && ch <= 'F') {
+					d = ch - 'A' + 10;
+				} else {
+					return -1;
+				}
+				v = (v << 4) | d;
+			}
+			return v;
+		}
+
+		private void appendCodePoint(int c) {
+			if (c < 0x80) {
+				append(c);
+			} else if (c < 0x800) {
+				append(0xC0 | (c >> 6));
+				append(0x80 | (c & 0x3F));
+			} else if (c < 0x10000) {
+				append(0xE0 | (c >> 12));
+				append(0x80 | ((c >> 6) & 0x3F));
+				append(0x80 | (c & 0x3F));
+			} else {
+				append(0xF0 | (c >> 18));
+				append(0x80 | ((c >> 12) & 0x3F));
+				append(0x80 | ((c >> 6) & 0x3F));
+				append(0x80 | (c & 0x3F));
+			}
+		}
+
+		private void append(int b) {
+			if (m_ScratchLength >= m_Scratch.length) {
+				byte[] bigger = new byte[m_Scratch.length * 2];
+				System.arraycopy(m_Scratch, 0, bigger, 0, m_ScratchLength);
+				m_Scratch = bigger;
+			}
+			m_Scratch[m_ScratchLength++] = (byte) b;
+		}
+
+		String scratchToString() {
+			return new String(m_Scratch, 0, m_ScratchLength, StandardCharsets.UTF_8);
+		}
+	}
+}
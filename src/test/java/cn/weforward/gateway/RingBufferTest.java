@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.util.RingBuffer;
+
+public class RingBufferTest {
+
+	@Test
+	public void capacity() {
+		assertEquals(1, new RingBuffer<String>(1).capacity());
+		assertEquals(8, new RingBuffer<String>(5).capacity());
+		assertEquals(8, new RingBuffer<String>(8).capacity());
+		try {
+			new RingBuffer<String>(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void offerAndPoll() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(4);
+		assertNull(buffer.poll());
+		for (int round = 0; round < 3; round++) {
+			// 多轮以覆盖位置回绕
+			for (int i = 0; i < 4; i++) {
+				assertTrue(buffer.offer(i));
+			}
+			assertFalse(buffer.offer(4));
+			assertEquals(4, buffer.size());
+			for (int i = 0; i < 4; i++) {
+				assertEquals(Integer.valueOf(i), buffer.poll());
+			}
+			assertNull(buffer.poll());
+			assertEquals(0, buffer.size());
+		}
+	}
+
+	@Test
+	public void producers() throws Exception {
+		final int producers = 4;
+		final int count = 100000;
+		final RingBuffer<Long> buffer = new RingBuffer<>(1024);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final long base = (long) p << 32;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < count; i++) {
+						while (!buffer.offer(base + i)) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+			threads[p].start();
+		}
+		start.countDown();
+		// 每个生产者的元素须按放入的顺序取出，且不丢失、不重复
+		int[] next = new int[producers];
+		long total = (long) producers * count;
+		for (long got = 0; got < total;) {
+			Long e = buffer.poll();
+			if (null == e) {
+				Thread.yield();
+				continue;
+			}
+			int p = (int) (e >>> 32);
+			assertEquals(next[p], (int) (e & 0xFFFFFFFFL));
+			++next[p];
+			++got;
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		for (int p = 0; p < producers; p++) {
+			assertEquals(count, next[p]);
+		}
+		assertNull(buffer.poll());
+	}
+}
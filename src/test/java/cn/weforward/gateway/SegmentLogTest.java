@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.weforward.gateway.util.SegmentLog;
+
+public class SegmentLogTest {
+
+	File m_Dir;
+
+	@Before
+	public void setUp() throws IOException {
+		m_Dir = Files.createTempDirectory("segment-log").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = m_Dir.listFiles();
+		if (null != files) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		m_Dir.delete();
+	}
+
+	static byte[] bytes(String str) {
+		return str.getBytes(StandardCharsets.UTF_8);
+	}
+
+	static void append(SegmentLog log, String str) throws IOException {
+		byte[] data = bytes(str);
+		assertTrue(log.append(data, 0, data.length));
+	}
+
+	static String take(SegmentLog log) {
+		SegmentLog.Record r = log.peek();
+		if (null == r) {
+			return null;
+		}
+		log.remove(r);
+		return new String(r.data, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void appendAndRead() throws IOException {
+		AtomicLong total = new AtomicLong();
+		SegmentLog log = new SegmentLog(m_Dir, 64, 0, null, total);
+		try {
+			assertFalse(log.hasRemaining());
+			assertFalse(log.append(new byte[64], 0, 64));
+			for (int i = 0; i < 10; i++) {
+				append(log, "record-" + i);
+			}
+			assertEquals(10 * (16 + 8), log.getUsedSize());
+			assertEquals(log.getUsedSize(), total.get());
+			for (int i = 0; i < 10; i++) {
+				assertEquals("record-" + i, take(log));
+				assertEquals(log.getUsedSize(), total.get());
+			}
+			assertNull(log.peek());
+			assertFalse(log.hasRemaining());
+			assertEquals(0, log.getUsedSize());
+			assertEquals(0, total.get());
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void cursor() throws IOException {
+		SegmentLog log = new SegmentLog(m_Dir, 64, 0);
+		for (int i = 0; i < 5; i++) {
+			append(log, "record-" + i);
+		}
+		assertEquals("record-0", take(log));
+		assertEquals("record-1", take(log));
+		// 只取不移除的不算已读
+		assertEquals("record-2", new String(log.peek().data, StandardCharsets.UTF_8));
+		log.close();
+
+		AtomicLong total = new AtomicLong();
+		log = new SegmentLog(m_Dir, 64, 0, null, total);
+		try {
+			assertEquals(3 * (16 + 8), total.get());
+			assertEquals("record-2", take(log));
+			append(log, "record-5");
+			assertEquals("record-3", take(log));
+			assertEquals("record-4", take(log));
+			assertEquals("record-5", take(log));
+			assertNull(take(log));
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void tornWrite() throws IOException {
+		SegmentLog log = new SegmentLog(m_Dir, 1024, 0);
+		append(log, "record-0");
+		append(log, "record-1");
+		log.close();
+		// 模拟写了一半的记录：有长度但内容不符
+		File seg = m_Dir.listFiles((dir, name) -> name.endsWith(".seg"))[0];
+		try (RandomAccessFile raf = new RandomAccessFile(seg, "rw")) {
+			raf.seek(2 * (16 + 8));
+			raf.writeInt(8);
+			raf.writeInt(12345);
+			raf.writeLong(System.currentTimeMillis());
+			raf.write(bytes("record-"));
+		}
+
+		log = new SegmentLog(m_Dir, 1024, 0);
+		try {
+			assertEquals(2 * (16 + 8), log.getUsedSize());
+			append(log, "record-2");
+			assertEquals("record-0", take(log));
+			assertEquals("record-1", take(log));
+			assertEquals("record-2", take(log));
+			assertNull(take(log));
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void dropOldest() throws IOException {
+		SegmentLog log = new SegmentLog(m_Dir, 64, 0);
+		try {
+			// 每段放两条
+			for (int i = 0; i < 6; i++) {
+				append(log, "record-" + i);
+			}
+			assertEquals("record-0", take(log));
+			// 第一段只剩一条未读
+			assertEquals(1, log.dropOldest());
+			assertEquals(4 * (16 + 8), log.getUsedSize());
+			assertEquals("record-2", take(log));
+			assertEquals(1, log.dropOldest());
+			assertEquals(2, log.dropOldest());
+			assertEquals(0, log.getUsedSize());
+			assertFalse(log.hasRemaining());
+			append(log, "record-6");
+			assertArrayEquals(bytes("record-6"), log.peek().data);
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void expire() throws Exception {
+		SegmentLog log = new SegmentLog(m_Dir, 64, 50);
+		try {
+			append(log, "record-0");
+			append(log, "record-1");
+			append(log, "record-2");
+			Thread.sleep(100);
+			append(log, "record-3");
+			// 第一段已整段过期，第二段的过期记录在读取时跳过
+			assertEquals(2, log.expire());
+			assertEquals("record-3", take(log));
+			assertNull(take(log));
+			assertEquals(0, log.getUsedSize());
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	public void close() throws IOException {
+		SegmentLog log = new SegmentLog(m_Dir, 64, 0);
+		append(log, "record-0");
+		log.close();
+		log.close();
+		assertNull(log.peek());
+		assertFalse(log.hasRemaining());
+		try {
+			append(log, "record-1");
+			assertTrue(false);
+		} catch (IOException e) {
+			// 已关闭
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.util.StripedCounter;
+
+public class StripedCounterTest {
+
+	@Test
+	public void single() {
+		StripedCounter counter = new StripedCounter(8, 4);
+		counter.increment();
+		counter.add(5);
+		counter.decrement();
+		// 没有争用时只在基数上计数
+		assertEquals(0, counter.getError());
+		assertEquals(5, counter.get());
+		assertEquals(5, counter.sum());
+		assertEquals(5, counter.get(5));
+		counter.reset();
+		assertEquals(0, counter.sum());
+	}
+
+	@Test
+	public void concurrent() throws Exception {
+		final StripedCounter counter = new StripedCounter(StripedCounter.MAX_STRIPES, 4);
+		int threads = 8;
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int n = t;
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						counter.increment();
+						if (0 != (i & 1)) {
+							counter.decrement();
+						}
+					}
+					// 各线程多出n
+					counter.add(n);
+					latch.countDown();
+				}
+			}.start();
+		}
+		latch.await();
+		int expected = threads * 50000 + threads * (threads - 1) / 2;
+		assertEquals(expected, counter.sum());
+		int approx = counter.get();
+		assertTrue(counter + "/" + approx, Math.abs(expected - approx) <= counter.getError());
+		if (counter.getError() > 0) {
+			// 离临界值在误差内取精确值，否则取近似值
+			assertEquals(expected, counter.get(approx));
+			assertEquals(approx, counter.get(approx + counter.getError() + 1));
+			assertEquals(approx, counter.get(approx - counter.getError() - 1));
+		}
+		counter.reset();
+		assertEquals(0, counter.sum());
+		assertEquals(0, counter.get());
+	}
+}
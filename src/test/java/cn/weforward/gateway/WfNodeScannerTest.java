@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import cn.weforward.common.json.JsonParseAbort;
+import cn.weforward.gateway.util.WfNodeScanner;
+
+public class WfNodeScannerTest {
+
+	static final WfNodeScanner SCANNER = new WfNodeScanner("wf_req", "ws_timeout", "version", "res_id");
+
+	static class Found implements WfNodeScanner.Listener {
+		long timeout;
+		String version;
+		String resId;
+
+		@Override
+		public void foundNumber(int key, long value) throws JsonParseAbort {
+			if (0 == key) {
+				timeout = value;
+			} else {
+				foundOther(key);
+			}
+		}
+
+		@Override
+		public void foundString(int key, String value) throws JsonParseAbort {
+			if (1 == key) {
+				version = value;
+			} else if (2 == key) {
+				resId = value;
+			} else {
+				foundOther(key);
+			}
+		}
+
+		@Override
+		public void foundOther(int key) throws JsonParseAbort {
+			throw new JsonParseAbort("wf_req节点解析异常", new ClassCastException(SCANNER.getKey(key)));
+		}
+	}
+
+	static int scan(String json, Found found) throws Exception {
+		return SCANNER.scan(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), false, found);
+	}
+
+	@Test
+	public void fields() throws Exception {
+		String json = "{ \"wf_req\" : {\"ws_timeout\":-30,\"x\":{\"a\":[1,\"}\"]},\"version\":\"1.\\u4e2d\\\"\",\"res_id\":null,\"y\":true},\"invoke\":{}}";
+		Found found = new Found();
+		int pos = scan(json, found);
+		assertEquals(json.getBytes(StandardCharsets.UTF_8).length - "\"invoke\":{}}".length() - 1, pos);
+		assertEquals(',', json.charAt(pos));
+		assertEquals(-30, found.timeout);
+		assertEquals("1.中\"", found.version);
+		assertNull(found.resId);
+	}
+
+	@Test
+	public void notFound() throws Exception {
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"invoke\":{},\"wf_req\":{}}", new Found()));
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"wf_req\":[]}", new Found()));
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"wf_req\":{\"x\":1", new Found()));
+		assertEquals(WfNodeScanner.NO_SEPARATOR, scan("{\"wf_req\":{}}", new Found()));
+		assertEquals(WfNodeScanner.NO_SEPARATOR, scan("{\"wf_req\":{} \"invoke\":{}}", new Found()));
+	}
+
+	@Test
+	public void literal() throws Exception {
+		String json = "{\"wf_req\":{\"x\":null,\"y\":false},";
+		assertEquals(json.length() - 1, scan(json, new Found()));
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"wf_req\":{\"x\":nul},", new Found()));
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"wf_req\":{\"x\":trueX},", new Found()));
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"wf_req\":{\"x\":fals},", new Found()));
+		assertEquals(WfNodeScanner.NOT_FOUND, scan("{\"wf_req\":{\"x\":-},", new Found()));
+	}
+
+	@Test
+	public void mismatch() throws Exception {
+		String[] jsons = { "{\"wf_req\":{\"ws_timeout\":\"30\"},", "{\"wf_req\":{\"version\":1},",
+				"{\"wf_req\":{\"res_id\":false},", "{\"wf_req\":{\"res_id\":{}},",
+				"{\"wf_req\":{\"ws_timeout\":99999999999999999999},", };
+		for (String json : jsons) {
+			try {
+				scan(json, new Found());
+				fail(json);
+			} catch (JsonParseAbort e) {
+				assertTrue(e.getMessage().contains("节点解析异常"));
+			}
+		}
+		Found found = new Found();
+		scan("{\"wf_req\":{\"ws_timeout\":9223372036854775807},", found);
+		assertEquals(Long.MAX_VALUE, found.timeout);
+		// 不提取的属性超出范围没关系
+		assertTrue(scan("{\"wf_req\":{\"x\":99999999999999999999.5e3},", new Found()) > 0);
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BalanceElementTest {
+
+	static void call(BalanceElement element, int state) {
+		element.use();
+		element.free(state, 1000);
+	}
+
+	@Test
+	public void eject() throws Exception {
+		TestElement element = new TestElement(10);
+		element.setEjectErrors(3);
+		element.setFailTimeout(100);
+		element.setSlowStart(60 * 1000);
+		// 成功会重新计数
+		call(element, BalanceElement.STATE_TIMEOUT);
+		call(element, BalanceElement.STATE_EXCEPTION);
+		call(element, BalanceElement.STATE_OK);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		assertFalse(element.isEjected());
+		// 忙不算错误，也不重新计数
+		call(element, BalanceElement.STATE_BUSY);
+		assertFalse(element.isEjected());
+		assertTrue(element.latencyEwma > 0);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		assertTrue(element.isEjected());
+		assertEquals(1, element.m_Ejects.get());
+		assertTrue(element.isFailDuring());
+		// 响应时间在恢复后重新统计
+		assertEquals(0, element.latencyEwma);
+		// 剔除期间的错误不计数
+		for (int i = 0; i < 10; i++) {
+			call(element, BalanceElement.STATE_TIMEOUT);
+		}
+		assertEquals(1, element.m_Ejects.get());
+
+		// 过了剔除期恢复，并开始慢启动
+		Thread.sleep(150);
+		assertFalse(element.isFailDuring());
+		assertFalse(element.isEjected());
+		assertTrue(0 != element.slowStartBegin);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		assertEquals(2, element.m_Ejects.get());
+	}
+
+	@Test
+	public void ejectDenied() {
+		TestElement element = new TestElement(10);
+		element.setEjectErrors(2);
+		// 不允许剔除时只重新计数
+		element.m_Ejectable = false;
+		call(element, BalanceElement.STATE_TIMEOUT);
+		call(element, BalanceElement.STATE_TIMEOUT);
+		assertFalse(element.isEjected());
+		assertEquals(0, element.errors);
+		element.m_Ejectable = true;
+		call(element, BalanceElement.STATE_TIMEOUT);
+		assertFalse(element.isEjected());
+		call(element, BalanceElement.STATE_TIMEOUT);
+		assertTrue(element.isEjected());
+
+		// 不启用时不剔除
+		element = new TestElement(10);
+		for (int i = 0; i < 100; i++) {
+			call(element, BalanceElement.STATE_TIMEOUT);
+		}
+		assertFalse(element.isEjected());
+	}
+
+	@Test
+	public void ejectCap() {
+		// 被剔除的不超过半数
+		assertFalse(ServiceInstanceBalance.isEjectable(0, 1));
+		assertTrue(ServiceInstanceBalance.isEjectable(0, 2));
+		assertFalse(ServiceInstanceBalance.isEjectable(1, 2));
+		assertTrue(ServiceInstanceBalance.isEjectable(0, 3));
+		assertFalse(ServiceInstanceBalance.isEjectable(1, 3));
+		assertTrue(ServiceInstanceBalance.isEjectable(1, 4));
+		assertFalse(ServiceInstanceBalance.isEjectable(2, 4));
+		assertFalse(ServiceInstanceBalance.isEjectable(2, 5));
+		assertTrue(ServiceInstanceBalance.isEjectable(2, 6));
+	}
+
+	@Test
+	public void concurrentErrors() throws Exception {
+		final int threads = 8;
+		final TestElement element = new TestElement(10);
+		// 连续错误次数大于线程数，剔除后最多还有threads个迟到的计数，不会再次剔除
+		element.setEjectErrors(threads + 2);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 1000; i++) {
+						call(element, BalanceElement.STATE_EXCEPTION);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread t : workers) {
+			t.join();
+		}
+		assertEquals(1, element.m_Ejects.get());
+		assertEquals(0, element.getConcurrent());
+		assertEquals(threads * 1000, element.getTimes());
+	}
+
+	static class TestElement extends BalanceElement {
+		final AtomicInteger m_Ejects = new AtomicInteger();
+		volatile boolean m_Ejectable = true;
+
+		TestElement(int weight) {
+			super(weight);
+		}
+
+		@Override
+		protected boolean isEjectable() {
+			return m_Ejectable;
+		}
+
+		@Override
+		void eject() {
+			m_Ejects.incrementAndGet();
+			super.eject();
+		}
+
+		@Override
+		public String getElementName() {
+			return "test";
+		}
+	}
+}
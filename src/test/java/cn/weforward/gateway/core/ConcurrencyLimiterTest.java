@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void getInstance() {
+		assertNull(ConcurrencyLimiter.getInstance(null, 100));
+		assertNull(ConcurrencyLimiter.getInstance("vegas", 100));
+		assertTrue(ConcurrencyLimiter.getInstance(ConcurrencyLimiter.ALGORITHM_AIMD,
+				100) instanceof ConcurrencyLimiter.AimdLimiter);
+		assertTrue(ConcurrencyLimiter.getInstance(ConcurrencyLimiter.ALGORITHM_GRADIENT,
+				100) instanceof ConcurrencyLimiter.GradientLimiter);
+		// 初始上限不超过最大上限，最大上限不低于最低上限
+		assertEquals(ConcurrencyLimiter.INITIAL_LIMIT, new ConcurrencyLimiter.AimdLimiter(100).getLimit());
+		assertEquals(10, new ConcurrencyLimiter.AimdLimiter(10).getLimit());
+		assertEquals(ConcurrencyLimiter.MIN_LIMIT, new ConcurrencyLimiter.AimdLimiter(0).getLimit());
+	}
+
+	@Test
+	public void aimd() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.AimdLimiter(22);
+		// 并发远未到上限时不增加
+		for (int i = 0; i < 100; i++) {
+			limiter.onSample(1000, 9, false);
+		}
+		assertEquals(20, limiter.getLimit());
+		// 每成功limit次加一
+		for (int i = 0; i < 19; i++) {
+			limiter.onSample(1000, 10, false);
+		}
+		assertEquals(20, limiter.getLimit());
+		limiter.onSample(1000, 10, false);
+		assertEquals(21, limiter.getLimit());
+		for (int i = 0; i < 21; i++) {
+			limiter.onSample(1000, 20, false);
+		}
+		assertEquals(22, limiter.getLimit());
+		// 不超过最大上限
+		for (int i = 0; i < 100; i++) {
+			limiter.onSample(1000, 22, false);
+		}
+		assertEquals(22, limiter.getLimit());
+		// 超时或忙时乘性减，且重新计数
+		limiter.onSample(0, 22, true);
+		assertEquals(19, limiter.getLimit());
+		for (int i = 0; i < 18; i++) {
+			limiter.onSample(1000, 19, false);
+		}
+		limiter.onSample(0, 19, true);
+		assertEquals(17, limiter.getLimit());
+		// 不低于最低上限
+		for (int i = 0; i < 100; i++) {
+			limiter.onSample(0, 1, true);
+		}
+		assertEquals(ConcurrencyLimiter.MIN_LIMIT, limiter.getLimit());
+	}
+
+	@Test
+	public void gradient() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.GradientLimiter(100);
+		// 样本按窗口计，窗口未满不调整
+		for (int i = 1; i < ConcurrencyLimiter.GradientLimiter.WINDOW * 2; i++) {
+			limiter.onSample(1000, limiter.getLimit(), false);
+		}
+		assertEquals(ConcurrencyLimiter.INITIAL_LIMIT, limiter.getLimit());
+		// 响应时间稳定时逐步放大到最大上限
+		for (int i = 0; i < 1000; i++) {
+			limiter.onSample(1000, limiter.getLimit(), false);
+		}
+		assertEquals(100, limiter.getLimit());
+		// 响应时间变长时收缩
+		for (int i = 0; i < 100; i++) {
+			limiter.onSample(4000, limiter.getLimit(), false);
+		}
+		int limit = limiter.getLimit();
+		assertTrue(limit < 50);
+		// 并发远未到上限时不调整
+		for (int i = 0; i < 100; i++) {
+			limiter.onSample(1000, 1, false);
+		}
+		assertEquals(limit, limiter.getLimit());
+		limiter.onSample(0, limit, true);
+		assertEquals((int) (limit * ConcurrencyLimiter.BACKOFF_RATIO), limiter.getLimit());
+	}
+
+	@Test
+	public void concurrent() throws Exception {
+		final ConcurrencyLimiter[] limiters = { new ConcurrencyLimiter.AimdLimiter(100),
+				new ConcurrencyLimiter.GradientLimiter(100) };
+		for (final ConcurrencyLimiter limiter : limiters) {
+			int threads = 4;
+			final CountDownLatch latch = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i < 20000; i++) {
+							limiter.onSample(1000, limiter.getLimit(), false);
+						}
+						latch.countDown();
+					}
+				}.start();
+			}
+			latch.await();
+			// 多线程采样也能放大到最大上限
+			assertEquals(limiter.toString(), 100, limiter.getLimit());
+			limiter.onSample(0, 100, true);
+			assertEquals(90, limiter.getLimit());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import static cn.weforward.gateway.core.TestEndpoint.count;
+import static cn.weforward.gateway.core.TestEndpoint.endpoints;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+public class EndpointSelectorTest {
+
+	@Test
+	public void getInstance() {
+		assertTrue(EndpointSelector.getInstance(null) instanceof SmoothWeightedSelector);
+		assertTrue(EndpointSelector.getInstance("xx") instanceof SmoothWeightedSelector);
+		assertTrue(EndpointSelector
+				.getInstance(TrafficTableItemExt.STRATEGY_LEAST_CONCURRENT) instanceof LeastConcurrentSelector);
+		assertTrue(EndpointSelector.getInstance(TrafficTableItemExt.STRATEGY_POWER_OF_TWO) instanceof PowerOfTwoSelector);
+		assertTrue(EndpointSelector.getInstance(TrafficTableItemExt.STRATEGY_EWMA) instanceof EwmaSelector);
+		assertTrue(new SmoothWeightedSelector().isStrategy(null));
+		assertTrue(new SmoothWeightedSelector().isStrategy(TrafficTableItemExt.STRATEGY_ROUND_ROBIN));
+	}
+
+	@Test
+	public void candidate() {
+		ServiceEndpoint[] eps = endpoints(1, 1, BalanceElement.WEIGHT_BACKUP);
+		((TestEndpoint) eps[1]).m_Version = "2.0";
+		EndpointSelector[] selectors = { new SmoothWeightedSelector(), new LeastConcurrentSelector(),
+				new PowerOfTwoSelector(), new EwmaSelector() };
+		for (EndpointSelector selector : selectors) {
+			selector.reinit(eps);
+			for (int i = 0; i < 100; i++) {
+				assertSame(eps[2], selector.select(eps, null, null, EndpointSelector.SCOPE_BACKUP));
+				assertTrue(eps[2] != selector.select(eps, null, null, EndpointSelector.SCOPE_PRIMARY));
+				assertSame(eps[1], selector.select(eps, "2.0", null, EndpointSelector.SCOPE_PRIMARY));
+				assertSame(eps[0], selector.select(eps, null, Collections.singletonList("x1"),
+						EndpointSelector.SCOPE_PRIMARY));
+			}
+			// 过载的不选
+			eps[0].setMaxConcurrent(1);
+			eps[0].concurrent.add(1);
+			for (int i = 0; i < 100; i++) {
+				assertSame(eps[1], selector.select(eps, null, null, EndpointSelector.SCOPE_PRIMARY));
+			}
+			eps[0].concurrent.reset();
+			assertNull(selector.select(eps, "3.0", null, EndpointSelector.SCOPE_ALL));
+		}
+	}
+
+	@Test
+	public void powerOfTwo() {
+		PowerOfTwoSelector selector = new PowerOfTwoSelector();
+		ServiceEndpoint[] eps = endpoints(1, 1);
+		assertEquals(1, PowerOfTwoSelector.fastest(eps));
+		eps[0].latencyEwma = 1000;
+		eps[1].latencyEwma = 1000;
+		eps[0].concurrent.add(10);
+		// 只有两个端点时总是都被选上，取负载低的
+		for (int i = 0; i < 100; i++) {
+			assertSame(eps[1], selector.select(eps, null, null, EndpointSelector.SCOPE_PRIMARY));
+		}
+		eps[0].concurrent.reset();
+		eps[1].latencyEwma = 3000;
+		for (int i = 0; i < 100; i++) {
+			assertSame(eps[0], selector.select(eps, null, null, EndpointSelector.SCOPE_PRIMARY));
+		}
+		// 没有样本的新端点按最快的算，并发高时也不会压上去
+		eps = endpoints(1, 1, 1);
+		eps[0].latencyEwma = 2000;
+		eps[1].latencyEwma = 1000;
+		eps[2].concurrent.add(5);
+		assertEquals(1000, PowerOfTwoSelector.fastest(eps));
+		Map<ServiceEndpoint, Integer> counts = count(selector, eps, 3000, null, EndpointSelector.SCOPE_PRIMARY);
+		assertEquals(0, (int) counts.get(eps[2]));
+		// 并发负载按有效权重折算
+		assertEquals(6.0 / 2, EndpointSelector.concurrentLoad(eps[2]), 0.001);
+	}
+
+	@Test
+	public void ewma() {
+		EwmaSelector selector = new EwmaSelector();
+		ServiceEndpoint[] eps = endpoints(1, 1);
+		eps[0].latencyEwma = 1000;
+		eps[1].latencyEwma = 9000;
+		// 被选中的几率与响应时间成反比，约9:1
+		Map<ServiceEndpoint, Integer> counts = count(selector, eps, 10000, null, EndpointSelector.SCOPE_PRIMARY);
+		assertTrue(counts.get(eps[0]) > 8500 && counts.get(eps[0]) < 9500);
+		// 没有样本的按最快的算
+		eps[1].latencyEwma = 0;
+		counts = count(selector, eps, 10000, null, EndpointSelector.SCOPE_PRIMARY);
+		assertTrue(counts.get(eps[0]) > 4500 && counts.get(eps[0]) < 5500);
+		// 都没有样本时按权重
+		eps = endpoints(3, 1);
+		counts = count(selector, eps, 10000, null, EndpointSelector.SCOPE_PRIMARY);
+		assertTrue(counts.get(eps[0]) > 7000 && counts.get(eps[0]) < 8000);
+	}
+}
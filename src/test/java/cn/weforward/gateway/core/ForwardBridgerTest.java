@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.Pipe;
+import cn.weforward.gateway.ServiceInstance;
+import cn.weforward.gateway.Tunnel;
+import cn.weforward.gateway.exception.BalanceException;
+import cn.weforward.protocol.Header;
+import cn.weforward.protocol.Service;
+import cn.weforward.protocol.exception.WeforwardException;
+import cn.weforward.protocol.gateway.vo.ServiceVo;
+
+/**
+ * 对冲请求的胜出及取消
+ */
+public class ForwardBridgerTest {
+
+	/**
+	 * 首个实例已连接并传完请求，对冲实例待选
+	 */
+	static ForwardBridger open(TestTunnel tunnel, HedgeEndpoint primary, final HedgeEndpoint second)
+			throws IOException {
+		ForwardBridger bridger = new ForwardBridger(null, tunnel, 0, 0) {
+			@Override
+			ServiceEndpoint next(String no) throws BalanceException {
+				second.m_Picked = true;
+				return second;
+			}
+		};
+		bridger.connect(primary);
+		return bridger;
+	}
+
+	@Test
+	public void primaryWins() throws Exception {
+		TestTunnel tunnel = new TestTunnel();
+		HedgeEndpoint primary = new HedgeEndpoint("x0");
+		HedgeEndpoint second = new HedgeEndpoint("x1");
+		ForwardBridger bridger = open(tunnel, primary, second);
+		// 延时到了首个实例还没响应
+		bridger.hedge();
+		assertTrue(second.m_Picked);
+		assertTrue(second.m_Pipe.m_Completed);
+
+		primary.m_Pipe.m_Tunnel.responseReady(primary.m_Pipe);
+		assertEquals(1, tunnel.m_Ready);
+		assertTrue(second.m_Pipe.m_Canceled);
+		// 对冲请求随后的响应忽略
+		second.m_Pipe.m_Tunnel.responseReady(second.m_Pipe);
+		second.m_Pipe.m_Tunnel.responseError(second.m_Pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "x");
+		primary.m_Pipe.m_Tunnel.responseCompleted(primary.m_Pipe);
+		assertEquals(1, tunnel.m_Ready);
+		assertEquals(1, tunnel.m_Completed);
+		assertNull(tunnel.m_Error);
+		assertFalse(primary.m_Pipe.m_Canceled);
+	}
+
+	@Test
+	public void hedgeWins() throws Exception {
+		TestTunnel tunnel = new TestTunnel();
+		HedgeEndpoint primary = new HedgeEndpoint("x0");
+		HedgeEndpoint second = new HedgeEndpoint("x1");
+		ForwardBridger bridger = open(tunnel, primary, second);
+		bridger.hedge();
+
+		second.m_Pipe.m_Tunnel.responseReady(second.m_Pipe);
+		assertEquals(1, tunnel.m_Ready);
+		assertTrue(primary.m_Pipe.m_Canceled);
+		// 转出的Pipe换成对冲请求的
+		tunnel.m_Pipe.responseReady(tunnel, new ByteArrayOutputStream());
+		assertTrue(second.m_Pipe.m_Responsed);
+		assertFalse(primary.m_Pipe.m_Responsed);
+		// 首个实例随后的响应忽略
+		primary.m_Pipe.m_Tunnel.responseReady(primary.m_Pipe);
+		primary.m_Pipe.m_Tunnel.responseError(primary.m_Pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "x");
+		second.m_Pipe.m_Tunnel.responseCompleted(second.m_Pipe);
+		assertEquals(1, tunnel.m_Ready);
+		assertEquals(1, tunnel.m_Completed);
+		assertNull(tunnel.m_Error);
+		assertFalse(second.m_Pipe.m_Canceled);
+	}
+
+	@Test
+	public void bothFail() throws Exception {
+		// 首个实例先失败，等对冲请求
+		TestTunnel tunnel = new TestTunnel();
+		HedgeEndpoint primary = new HedgeEndpoint("x0");
+		HedgeEndpoint second = new HedgeEndpoint("x1");
+		ForwardBridger bridger = open(tunnel, primary, second);
+		bridger.hedge();
+		primary.m_Pipe.m_Tunnel.responseError(primary.m_Pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "x0");
+		assertNull(tunnel.m_Error);
+		second.m_Pipe.m_Tunnel.responseError(second.m_Pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "x1");
+		assertEquals("x1", tunnel.m_Error);
+		assertEquals(1, tunnel.m_Errors);
+		assertEquals(0, tunnel.m_Ready);
+
+		// 对冲请求先失败，等首个实例
+		tunnel = new TestTunnel();
+		primary = new HedgeEndpoint("x0");
+		second = new HedgeEndpoint("x1");
+		bridger = open(tunnel, primary, second);
+		bridger.hedge();
+		second.m_Pipe.m_Tunnel.responseError(second.m_Pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "x1");
+		assertNull(tunnel.m_Error);
+		primary.m_Pipe.m_Tunnel.responseError(primary.m_Pipe, WeforwardException.CODE_SERVICE_INVOKE_ERROR, "x0");
+		assertEquals("x0", tunnel.m_Error);
+		assertEquals(1, tunnel.m_Errors);
+		assertEquals(0, tunnel.m_Ready);
+	}
+
+	@Test
+	public void hedgeAfterResponse() throws Exception {
+		TestTunnel tunnel = new TestTunnel();
+		HedgeEndpoint primary = new HedgeEndpoint("x0");
+		HedgeEndpoint second = new HedgeEndpoint("x1");
+		ForwardBridger bridger = open(tunnel, primary, second);
+		// 首个实例已在传输响应，对冲才到期
+		primary.m_Pipe.m_Tunnel.responseReady(primary.m_Pipe);
+		bridger.hedge();
+		assertFalse(second.m_Picked);
+		assertNull(second.m_Pipe);
+		assertFalse(primary.m_Pipe.m_Canceled);
+
+		primary.m_Pipe.m_Tunnel.responseCompleted(primary.m_Pipe);
+		assertEquals(1, tunnel.m_Ready);
+		assertEquals(1, tunnel.m_Completed);
+		assertNull(tunnel.m_Error);
+	}
+
+	/**
+	 * 连接时即完成请求传输的端点
+	 */
+	static class HedgeEndpoint extends TestEndpoint {
+		final ServiceInstance m_Service;
+		volatile boolean m_Picked;
+		volatile TestPipe m_Pipe;
+
+		HedgeEndpoint(String no) {
+			super(no, null, 1);
+			ServiceVo vo = new ServiceVo();
+			vo.name = "test";
+			vo.no = no;
+			m_Service = new ServiceInstance(vo, null, null);
+		}
+
+		@Override
+		ServiceInstance getService() {
+			return m_Service;
+		}
+
+		@Override
+		protected Pipe openPipe(Tunnel tunnel, boolean supportForward) {
+			TestPipe pipe = new TestPipe(tunnel);
+			m_Pipe = pipe;
+			tunnel.requestInit(pipe, 0);
+			tunnel.requestReady(pipe, new ByteArrayOutputStream());
+			return pipe;
+		}
+
+		@Override
+		public String toString() {
+			return m_No;
+		}
+	}
+
+	static class TestPipe implements Pipe {
+		final Tunnel m_Tunnel;
+		volatile boolean m_Canceled;
+		volatile boolean m_Completed;
+		volatile boolean m_Responsed;
+
+		TestPipe(Tunnel tunnel) {
+			m_Tunnel = tunnel;
+		}
+
+		@Override
+		public Header getHeader() {
+			return null;
+		}
+
+		@Override
+		public String getTag() {
+			return null;
+		}
+
+		@Override
+		public String getResourceId() {
+			return null;
+		}
+
+		@Override
+		public long getResourceExpire() {
+			return 0;
+		}
+
+		@Override
+		public String getResourceService() {
+			return null;
+		}
+
+		@Override
+		public String getResourceServiceNo() {
+			return null;
+		}
+
+		@Override
+		public String getResourceUrl() {
+			return null;
+		}
+
+		@Override
+		public String getForwardTo() {
+			return null;
+		}
+
+		@Override
+		public List<String> getNotifyReceives() {
+			return null;
+		}
+
+		@Override
+		public Service getService() {
+			return null;
+		}
+
+		@Override
+		public void requestCanceled(Tunnel tunnel) {
+			m_Canceled = true;
+		}
+
+		@Override
+		public void requestCompleted(Tunnel tunnel) {
+			m_Completed = true;
+		}
+
+		@Override
+		public void responseReady(Tunnel tunnel, OutputStream output) {
+			m_Responsed = true;
+		}
+	}
+
+	/**
+	 * 记录转给调用方的回调
+	 */
+	static class TestTunnel implements Tunnel {
+		volatile Pipe m_Pipe;
+		volatile int m_Ready;
+		volatile int m_Completed;
+		volatile int m_Errors;
+		volatile String m_Error;
+
+		@Override
+		public Header getHeader() {
+			return null;
+		}
+
+		@Override
+		public int getWaitTimeout() {
+			return 0;
+		}
+
+		@Override
+		public String getVersion() {
+			return null;
+		}
+
+		@Override
+		public String getTraceToken() {
+			return null;
+		}
+
+		@Override
+		public String getResId() {
+			return null;
+		}
+
+		@Override
+		public String getAddr() {
+			return null;
+		}
+
+		@Override
+		public int getMarks() {
+			return 0;
+		}
+
+		@Override
+		public synchronized void responseError(Pipe pipe, int code, String msg) {
+			++m_Errors;
+			m_Error = msg;
+		}
+
+		@Override
+		public InputStream mirrorTransferStream() throws IOException {
+			return new ByteArrayInputStream(new byte[] { '{', '}' });
+		}
+
+		@Override
+		public void requestInit(Pipe pipe, int requestMaxSize) {
+			m_Pipe = pipe;
+		}
+
+		@Override
+		public void requestReady(Pipe pipe, OutputStream output) {
+			assertSame(m_Pipe, pipe);
+		}
+
+		@Override
+		public void requestCompleted(Pipe pipe) {
+		}
+
+		@Override
+		public synchronized void responseReady(Pipe pipe) {
+			++m_Ready;
+		}
+
+		@Override
+		public synchronized void responseCompleted(Pipe pipe) {
+			++m_Completed;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.exception.QuotasException;
+import cn.weforward.gateway.util.StripedCounter;
+
+public class ServiceQuotasTest {
+
+	@Test
+	public void overQuotas() throws Exception {
+		ServiceQuotas quotas = new ServiceQuotas(10, 3);
+		assertEquals(10 + 5, quotas.getQuota("s", 5));
+		for (int i = 0; i < 10; i++) {
+			quotas.use("s", 0);
+		}
+		try {
+			quotas.use("s", 0);
+			fail();
+		} catch (QuotasException e) {
+		}
+		// 超额时不占用
+		assertEquals(10, quotas.getCount());
+		assertEquals(0, quotas.getQuota("s", 0));
+		quotas.free("s");
+		assertEquals(9, quotas.getCount());
+		quotas.reset();
+		assertEquals(0, quotas.getCount());
+	}
+
+	@Test
+	public void fullQuotas() throws Exception {
+		ServiceQuotas quotas = new ServiceQuotas(10, 3);
+		StripedCounter concurrent = new StripedCounter(4, 2);
+		for (int i = 0; i < 7; i++) {
+			quotas.use("s", concurrent);
+		}
+		// 进入保留配额后，单个微服务的并发数达到可用额度即满额
+		concurrent.increment();
+		try {
+			quotas.use("s", concurrent);
+			fail();
+		} catch (QuotasException e) {
+		}
+		try {
+			quotas.use("s", 1);
+			fail();
+		} catch (QuotasException e) {
+		}
+		assertEquals(7, quotas.getCount());
+		// 其它微服务还能用
+		quotas.use("t", 0);
+		assertEquals(8, quotas.getCount());
+	}
+
+	@Test
+	public void concurrent() throws Exception {
+		final int max = 100;
+		final ServiceQuotas quotas = new ServiceQuotas(max, 10);
+		final AtomicInteger inuse = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		int threads = 8;
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						// 每个线程占用到20个，合计超过最大限额
+						int used = 0;
+						for (; used < 20; used++) {
+							try {
+								quotas.use("s", 0);
+							} catch (QuotasException e) {
+								break;
+							}
+							int n = inuse.incrementAndGet();
+							if (n > peak.get()) {
+								peak.set(n);
+							}
+						}
+						for (; used > 0; used--) {
+							inuse.decrementAndGet();
+							quotas.free("s");
+						}
+					}
+					latch.countDown();
+				}
+			}.start();
+		}
+		latch.await();
+		assertTrue(peak.get() + "/" + max, peak.get() <= max);
+		assertEquals(0, quotas.getCount());
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import static cn.weforward.gateway.core.TestEndpoint.count;
+import static cn.weforward.gateway.core.TestEndpoint.endpoints;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SmoothWeightedSelectorTest {
+
+	@Test
+	public void sequence() {
+		// 与Nginx平滑加权轮询的序列一致
+		assertArrayEquals(new int[] { 0, 0, 1, 0, 2, 0, 0 }, SmoothWeightedSelector.Schedule.build(endpoints(5, 1, 1)));
+		// 约去公约数
+		assertArrayEquals(new int[] { 1, 0, 1 }, SmoothWeightedSelector.Schedule.build(endpoints(10, 20)));
+		// 后备端点按1算
+		assertArrayEquals(new int[] { 0, 1, 0 },
+				SmoothWeightedSelector.Schedule.build(endpoints(2, BalanceElement.WEIGHT_BACKUP)));
+		// 超长时按比例缩小，每个端点至少出现一次
+		int[] weights = new int[101];
+		Arrays.fill(weights, 100);
+		weights[100] = 1;
+		int[] sequence = SmoothWeightedSelector.Schedule.build(endpoints(weights));
+		assertTrue(sequence.length <= SmoothWeightedSelector.SEQUENCE_MAX_LENGTH);
+		int last = 0;
+		for (int i : sequence) {
+			if (100 == i) {
+				++last;
+			}
+		}
+		assertEquals(1, last);
+	}
+
+	@Test
+	public void select() {
+		SmoothWeightedSelector selector = new SmoothWeightedSelector();
+		ServiceEndpoint[] eps = endpoints(5, 1, 1);
+		selector.reinit(eps);
+		// 同一线程走同一条游标，每个周期严格按权重
+		Map<ServiceEndpoint, Integer> counts = count(selector, eps, 7000, null, EndpointSelector.SCOPE_PRIMARY);
+		assertEquals(5000, (int) counts.get(eps[0]));
+		assertEquals(1000, (int) counts.get(eps[1]));
+		assertEquals(1000, (int) counts.get(eps[2]));
+
+		// 有效权重为0的不选
+		eps[0].effectiveWeight = 0;
+		counts = count(selector, eps, 700, null, EndpointSelector.SCOPE_PRIMARY);
+		assertEquals(0, (int) counts.get(eps[0]));
+		assertEquals(700, counts.get(eps[1]) + counts.get(eps[2]));
+		// 都不可用时才选有效权重为0的
+		((TestEndpoint) eps[1]).m_Down = true;
+		((TestEndpoint) eps[2]).m_Down = true;
+		assertSame(eps[0], selector.select(eps, null, null, EndpointSelector.SCOPE_PRIMARY));
+		((TestEndpoint) eps[0]).m_Down = true;
+		assertNull(selector.select(eps, null, null, EndpointSelector.SCOPE_PRIMARY));
+
+		// 端点列表已替换而快照未更新时随机选
+		ServiceEndpoint[] others = endpoints(1, 1);
+		ServiceEndpoint ep = selector.select(others, null, null, EndpointSelector.SCOPE_PRIMARY);
+		assertTrue(others[0] == ep || others[1] == ep);
+		selector.reinit(null);
+		assertSame(others[0], selector.select(others, null, Collections.singletonList("x1"),
+				EndpointSelector.SCOPE_PRIMARY));
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.core;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.weforward.gateway.Pipe;
+import cn.weforward.gateway.StreamPipe;
+import cn.weforward.gateway.StreamTunnel;
+import cn.weforward.gateway.Tunnel;
+import cn.weforward.gateway.ops.traffic.TrafficTableItemExt;
+
+/**
+ * 不依赖均衡器及微服务实例的端点
+ */
+class TestEndpoint extends ServiceEndpoint {
+	final String m_No;
+	String m_Version;
+	/** 是否处于失效期 */
+	boolean m_Down;
+
+	TestEndpoint(String no, String version, int weight) {
+		super(null, null, new TestRule(weight));
+		m_No = no;
+		m_Version = version;
+	}
+
+	/**
+	 * 按权重构造一组端点，编号依次为x0、x1…
+	 */
+	static ServiceEndpoint[] endpoints(int... weights) {
+		ServiceEndpoint[] eps = new ServiceEndpoint[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			eps[i] = new TestEndpoint("x" + i, "1.0", weights[i]);
+		}
+		return eps;
+	}
+
+	/**
+	 * 选择若干次，统计各端点被选中的次数
+	 */
+	static Map<ServiceEndpoint, Integer> count(EndpointSelector selector, ServiceEndpoint[] eps, int times,
+			List<String> excludeNos, int scope) {
+		Map<ServiceEndpoint, Integer> counts = new IdentityHashMap<>();
+		for (ServiceEndpoint ep : eps) {
+			counts.put(ep, 0);
+		}
+		for (int i = 0; i < times; i++) {
+			ServiceEndpoint ep = selector.select(eps, null, excludeNos, scope);
+			counts.put(ep, counts.get(ep) + 1);
+		}
+		return counts;
+	}
+
+	@Override
+	boolean isOverload() {
+		return maxConcurrent > 0 && concurrent.get(maxConcurrent) >= maxConcurrent;
+	}
+
+	@Override
+	boolean isFailDuring() {
+		return m_Down;
+	}
+
+	@Override
+	boolean matchVersion(String tag) {
+		return null == tag || tag.equals(m_Version);
+	}
+
+	@Override
+	boolean matchNo(String no) {
+		return m_No.equals(no);
+	}
+
+	@Override
+	boolean matchNos(List<String> nos) {
+		return null != nos && nos.contains(m_No);
+	}
+
+	@Override
+	protected Pipe openPipe(Tunnel tunnel, boolean supportForward) {
+		return null;
+	}
+
+	@Override
+	protected StreamPipe openPipe(StreamTunnel tunnel) {
+		return null;
+	}
+
+	@Override
+	public String getElementName() {
+		return m_No;
+	}
+
+	static class TestRule implements TrafficTableItemExt {
+		final int m_Weight;
+
+		TestRule(int weight) {
+			m_Weight = weight;
+		}
+
+		@Override
+		public String getName() {
+			return null;
+		}
+
+		@Override
+		public String getServiceNo() {
+			return null;
+		}
+
+		@Override
+		public String getServiceVersion() {
+			return null;
+		}
+
+		@Override
+		public int getWeight() {
+			return m_Weight;
+		}
+
+		@Override
+		public int getMaxFails() {
+			return 1;
+		}
+
+		@Override
+		public int getFailTimeout() {
+			return 60;
+		}
+
+		@Override
+		public int getMaxConcurrent() {
+			return 0;
+		}
+
+		@Override
+		public int getConnectTimeout() {
+			return 5;
+		}
+
+		@Override
+		public int getReadTimeout() {
+			return 10;
+		}
+
+		@Override
+		public String getStrategy() {
+			return null;
+		}
+
+		@Override
+		public int getSlowStart() {
+			return 0;
+		}
+
+		@Override
+		public int getEjectErrors() {
+			return 0;
+		}
+
+		@Override
+		public int getEjectLatency() {
+			return 0;
+		}
+
+		@Override
+		public int getHedge() {
+			return 0;
+		}
+	}
+}
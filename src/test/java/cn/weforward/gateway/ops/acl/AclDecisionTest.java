@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.acl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.ops.acl.AclTableVo.AclTableResourceVo;
+import cn.weforward.protocol.ops.secure.AclTableResource;
+
+public class AclDecisionTest {
+	/** 非正则的都按Ant风格的通配符匹配 */
+	static final int MATCH_TYPE_ANT = AclTableResource.MATCH_TYPE_REGULAR + 1;
+
+	static final String[] ANT_PATTERNS = { "**", "/a/**", "/a/*", "/a/b", "/a/b/**", "/ab*", "/a?/c", "/b/{id}",
+			"/b/*/c", "/a/b/c", "/b/**/c" };
+	static final String[] REGEX_PATTERNS = { ".*", "^/a/.*", "/a/b+", "/b/[a-c]+", "/a|/b", "/ab?/c", "^/b/(a|b)/c$",
+			"/a/b/c" };
+
+	/**
+	 * 按顺序逐个匹配（编译字典树前的做法）
+	 */
+	static int linearFindRight(List<AclTableResourceVo> resources, String resId) {
+		for (AclTableResourceVo res : resources) {
+			if (AclTable.match(res, resId)) {
+				return res.right;
+			}
+		}
+		return 0;
+	}
+
+	static AclTableResourceVo newResource(String pattern, int matchType, int right) {
+		AclTableResourceVo res = new AclTableResourceVo();
+		res.pattern = pattern;
+		res.matchType = matchType;
+		res.right = right;
+		return res;
+	}
+
+	static List<String> genResIds(Random random, int count) {
+		char[] chars = { '/', 'a', 'b', 'c' };
+		List<String> ids = new ArrayList<>(count);
+		ids.add("");
+		ids.add("/a/b/c");
+		for (int i = 0; i < count; i++) {
+			int len = 1 + random.nextInt(8);
+			StringBuilder sb = new StringBuilder(len);
+			sb.append('/');
+			for (int j = 1; j < len; j++) {
+				sb.append(chars[random.nextInt(chars.length)]);
+			}
+			ids.add(sb.toString());
+		}
+		return ids;
+	}
+
+	@Test
+	public void literalPrefix() {
+		assertEquals("", AclDecision.getLiteralPrefix(newResource("**", MATCH_TYPE_ANT, 0)));
+		assertEquals("/a/", AclDecision.getLiteralPrefix(newResource("/a/**", MATCH_TYPE_ANT, 0)));
+		assertEquals("/a", AclDecision.getLiteralPrefix(newResource("/a?/c", MATCH_TYPE_ANT, 0)));
+		assertEquals("/b/", AclDecision.getLiteralPrefix(newResource("/b/{id}", MATCH_TYPE_ANT, 0)));
+		assertEquals("/a/b", AclDecision.getLiteralPrefix(newResource("/a/b", MATCH_TYPE_ANT, 0)));
+		int regular = AclTableResource.MATCH_TYPE_REGULAR;
+		assertEquals("/a/", AclDecision.getLiteralPrefix(newResource("^/a/.*", regular, 0)));
+		// 量词作用于前一字符
+		assertEquals("/a/", AclDecision.getLiteralPrefix(newResource("/a/b+", regular, 0)));
+		assertEquals("/a", AclDecision.getLiteralPrefix(newResource("/ab?/c", regular, 0)));
+		assertEquals("/b/", AclDecision.getLiteralPrefix(newResource("/b/[a-c]+", regular, 0)));
+		assertEquals("", AclDecision.getLiteralPrefix(newResource("/a|/b", regular, 0)));
+		assertEquals("", AclDecision.getLiteralPrefix(newResource("a{2}", regular, 0)));
+	}
+
+	@Test
+	public void findRight() {
+		List<AclTableResourceVo> resources = new ArrayList<>();
+		resources.add(newResource("/a/b/c", MATCH_TYPE_ANT, 1));
+		resources.add(newResource("/a/**", MATCH_TYPE_ANT, 2));
+		resources.add(newResource("/a/b", MATCH_TYPE_ANT, 3));
+		resources.add(newResource("/b/[a-c]+", AclTableResource.MATCH_TYPE_REGULAR, 4));
+		resources.add(newResource("**", MATCH_TYPE_ANT, 5));
+		AclDecision.ResourceMatcher matcher = new AclDecision.ResourceMatcher(resources);
+		for (int i = 0; i < 2; i++) {
+			// 第二次走缓存
+			assertEquals(1, matcher.findRight("/a/b/c"));
+			assertEquals(2, matcher.findRight("/a/b"));
+			assertEquals(4, matcher.findRight("/b/abc"));
+			assertEquals(5, matcher.findRight("/b/d"));
+			assertEquals(0, matcher.findRight(""));
+			assertEquals(0, matcher.findRight(null));
+		}
+		assertEquals(0, new AclDecision.ResourceMatcher(null).findRight("/a"));
+	}
+
+	@Test
+	public void random() {
+		Random random = new Random(20200101);
+		List<AclTableResourceVo> all = new ArrayList<>();
+		for (String pattern : ANT_PATTERNS) {
+			all.add(newResource(pattern, MATCH_TYPE_ANT, 0));
+		}
+		for (String pattern : REGEX_PATTERNS) {
+			all.add(newResource(pattern, AclTableResource.MATCH_TYPE_REGULAR, 0));
+		}
+		// 资源id多于缓存容量，也覆盖缓存冲突的情况
+		List<String> resIds = genResIds(random, AclDecision.CACHE_SIZE * 2);
+		for (int round = 0; round < 200; round++) {
+			AclTableResourceVo[] shuffled = all.toArray(new AclTableResourceVo[all.size()]);
+			for (int i = shuffled.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				AclTableResourceVo t = shuffled[i];
+				shuffled[i] = shuffled[j];
+				shuffled[j] = t;
+			}
+			int size = random.nextInt(shuffled.length + 1);
+			List<AclTableResourceVo> resources = new ArrayList<>(size);
+			for (AclTableResourceVo res : Arrays.asList(shuffled).subList(0, size)) {
+				// 以位置为权限，便于区分匹配到的是哪项
+				resources.add(newResource(res.pattern, res.matchType, resources.size() + 1));
+			}
+			AclDecision.ResourceMatcher matcher = new AclDecision.ResourceMatcher(resources);
+			for (int i = 0; i < 2; i++) {
+				for (String resId : resIds) {
+					assertEquals(resources + ":" + resId, linearFindRight(resources, resId), matcher.findRight(resId));
+				}
+			}
+		}
+	}
+}
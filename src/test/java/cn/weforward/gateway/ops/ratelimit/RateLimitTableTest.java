@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RateLimitTableItemVo;
+import cn.weforward.gateway.ops.ratelimit.RateLimitTableVo.RejectVo;
+
+public class RateLimitTableTest {
+	static final long MS = 1000L * 1000;
+
+	static RateLimitTableItemVo newItem(String name, int rate, int burst, String keyBy) {
+		RateLimitTableItemVo item = new RateLimitTableItemVo();
+		item.name = name;
+		item.rate = rate;
+		item.burst = burst;
+		item.keyBy = keyBy;
+		return item;
+	}
+
+	@Test
+	public void gcra() {
+		// 每秒10个，可突发5个
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long now = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(bucket.tryAcquire(now));
+		}
+		assertFalse(bucket.tryAcquire(now));
+		assertEquals(1, bucket.getRejects());
+		// 过一个间隔补回一个令牌
+		assertFalse(bucket.tryAcquire(now + 99 * MS));
+		assertTrue(bucket.tryAcquire(now + 100 * MS));
+		assertFalse(bucket.tryAcquire(now + 100 * MS));
+		assertEquals(3, bucket.getRejects());
+		assertFalse(bucket.isIdle(now + 100 * MS));
+		assertTrue(bucket.isIdle(now + 600 * MS));
+		// 长时间无请求后最多也只能突发5个
+		long later = now + 10000 * MS;
+		int got = 0;
+		while (bucket.tryAcquire(later)) {
+			++got;
+		}
+		assertEquals(5, got);
+	}
+
+	@Test
+	public void setRate() {
+		TokenBucket bucket = new TokenBucket(10, 1);
+		long now = System.nanoTime();
+		assertTrue(bucket.tryAcquire(now));
+		assertFalse(bucket.tryAcquire(now + 99 * MS));
+		// 降为每秒5个后间隔为200毫秒
+		bucket.setRate(5, 1);
+		assertTrue(bucket.tryAcquire(now + 100 * MS));
+		assertFalse(bucket.tryAcquire(now + 299 * MS));
+		assertTrue(bucket.tryAcquire(now + 300 * MS));
+		// 容量小于1时按1
+		bucket.setRate(5, 0.5);
+		assertFalse(bucket.tryAcquire(now + 300 * MS));
+	}
+
+	@Test
+	public void keyBy() {
+		assertEquals(0, RateLimitTable.parseKeyBy(null));
+		assertEquals(RateLimitTable.KEY_ACCESS | RateLimitTable.KEY_IP, RateLimitTable.parseKeyBy("access, ip"));
+		try {
+			RateLimitTable.parseKeyBy("access,user");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// 按IP分别计数
+		RateLimitTable.Rule rule = new RateLimitTable.Rule(newItem("r1", 2, 0, "ip"));
+		long now = System.nanoTime();
+		assertTrue(rule.tryAcquire("a1", "s1", "127.0.0.1", now));
+		assertTrue(rule.tryAcquire("a2", "s1", "127.0.0.1", now));
+		assertFalse(rule.tryAcquire("a3", "s2", "127.0.0.1", now));
+		assertTrue(rule.tryAcquire("a1", "s1", "127.0.0.2", now));
+		assertTrue(rule.tryAcquire("a1", "s1", null, now));
+		assertEquals(3, rule.m_Buckets.size());
+		assertSame(rule.getBucket("a1", "s1", "127.0.0.2", now), rule.getBucket("a2", "s2", "127.0.0.2", now));
+		List<RejectVo> rejects = new ArrayList<>();
+		rule.collectRejects(rejects);
+		assertEquals(1, rejects.size());
+		assertEquals("r1", rejects.get(0).rule);
+		assertEquals("127.0.0.1", rejects.get(0).key);
+		assertEquals(1, rejects.get(0).rejects);
+
+		// 不分维度时共用一个桶
+		rule = new RateLimitTable.Rule(newItem("r2", 1, 0, null));
+		assertTrue(rule.tryAcquire("a1", "s1", "127.0.0.1", now));
+		assertFalse(rule.tryAcquire("a2", "s2", "127.0.0.2", now));
+
+		// 不限制
+		rule = new RateLimitTable.Rule(newItem("r3", 0, 0, "ip"));
+		for (int i = 0; i < 100; i++) {
+			assertTrue(rule.tryAcquire("a1", "s1", "127.0.0.1", now));
+		}
+	}
+
+	@Test
+	public void maxBuckets() {
+		RateLimitTable.Rule rule = new RateLimitTable.Rule(newItem("r1", 10, 0, "access"));
+		long now = System.nanoTime();
+		for (int i = 0; i < RateLimitTable.MAX_BUCKETS; i++) {
+			assertTrue(rule.tryAcquire("a" + i, null, null, now));
+		}
+		assertEquals(RateLimitTable.MAX_BUCKETS, rule.m_Buckets.size());
+		// 满了且都在使用中，新的键共用一个桶
+		assertSame(rule.m_Shared, rule.getBucket("new", null, null, now));
+		assertEquals(RateLimitTable.MAX_BUCKETS, rule.m_Buckets.size());
+		// 都已空闲，但离上次全量回收还不到间隔，只回收一个
+		long later = now + 1000 * MS;
+		assertNotSame(rule.m_Shared, rule.getBucket("new", null, null, later));
+		assertEquals(RateLimitTable.MAX_BUCKETS, rule.m_Buckets.size());
+		// 过了间隔，全量回收
+		later = now + RateLimitTable.PURGE_INTERVAL;
+		assertNotSame(rule.m_Shared, rule.getBucket("newer", null, null, later));
+		assertEquals(1, rule.m_Buckets.size());
+	}
+}
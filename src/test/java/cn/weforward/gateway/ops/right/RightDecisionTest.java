@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.right;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cn.weforward.common.util.StringUtil;
+import cn.weforward.gateway.ops.right.RightTableVo.RightTableItemVo;
+import cn.weforward.protocol.Access;
+import cn.weforward.protocol.ops.AccessExt;
+
+public class RightDecisionTest {
+	static final String[] IDS = { null, "H-0001", "H-0002", "H-0003" };
+	static final String[] KINDS = { null, Access.KIND_USER, Access.KIND_SERVICE };
+	static final String[] GROUPS = { null, "g1", "g2" };
+
+	/**
+	 * 按顺序逐项匹配（编译判定表前的做法）
+	 */
+	static boolean linearIsAllow(List<RightTableItemVo> items, Access access) {
+		for (RightTableItemVo item : items) {
+			if (match(item, access)) {
+				return AbstractTable.isAllow(item);
+			}
+		}
+		return false;
+	}
+
+	static boolean match(RightTableItemVo item, Access acc) {
+		if (StringUtil.isEmpty(item.accessId) && StringUtil.isEmpty(item.accessKind)
+				&& StringUtil.isEmpty(item.accessGroup)) {
+			// 空项（id、kind、group都未指定）的特殊匹配规则
+			return null == acc;
+		}
+		if (!StringUtil.isEmpty(item.accessId) && (null == acc || !item.accessId.equals(acc.getAccessId()))) {
+			return false;
+		}
+		if (!StringUtil.isEmpty(item.accessKind) && (null == acc || !item.accessKind.equals(acc.getKind()))) {
+			return false;
+		}
+		if (!StringUtil.isEmpty(item.accessGroup)) {
+			if (null == acc || !(acc instanceof AccessExt)) {
+				return false;
+			}
+			AccessExt ext = (AccessExt) acc;
+			if (!item.accessGroup.equals(ext.getGroupId())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static RightTableItemVo newItem(String id, String kind, String group, boolean allow) {
+		RightTableItemVo item = new RightTableItemVo();
+		item.accessId = id;
+		item.accessKind = kind;
+		item.accessGroup = group;
+		item.marks = allow ? AbstractTable.MARK_ALLOW : 0;
+		return item;
+	}
+
+	static List<Access> allAccesses() {
+		List<Access> accesses = new ArrayList<>();
+		accesses.add(null);
+		for (String id : IDS) {
+			for (String kind : KINDS) {
+				for (String group : GROUPS) {
+					accesses.add(new TestAccess(id, kind, group));
+				}
+			}
+		}
+		accesses.add(new TestAccess("H-0004", Access.KIND_USER, "g3"));
+		return accesses;
+	}
+
+	static void check(List<RightTableItemVo> items, List<Access> accesses) {
+		RightDecision decision = new RightDecision(items, items);
+		for (Access access : accesses) {
+			assertEquals(String.valueOf(access), linearIsAllow(items, access), decision.isAllow(access));
+		}
+	}
+
+	@Test
+	public void isAllow() {
+		List<Access> accesses = allAccesses();
+		List<RightTableItemVo> items = new ArrayList<>();
+		check(items, accesses);
+		items.add(newItem("H-0001", null, null, false));
+		items.add(newItem(null, Access.KIND_USER, null, true));
+		items.add(newItem(null, null, null, true));
+		items.add(newItem("H-0002", Access.KIND_SERVICE, "g1", true));
+		items.add(newItem(null, Access.KIND_SERVICE, "g1", false));
+		items.add(newItem(null, null, "g2", true));
+		check(items, accesses);
+
+		RightDecision decision = new RightDecision(items, items);
+		assertFalse(decision.isAllow(new TestAccess("H-0001", Access.KIND_USER, null)));
+		assertTrue(decision.isAllow(new TestAccess("H-0002", Access.KIND_USER, null)));
+		assertTrue(decision.isAllow(null));
+		assertTrue(decision.isAllow(new TestAccess("H-0002", Access.KIND_SERVICE, "g1")));
+		assertFalse(decision.isAllow(new TestAccess("H-0003", Access.KIND_SERVICE, "g1")));
+		assertTrue(decision.isAllow(new TestAccess("H-0003", Access.KIND_SERVICE, "g2")));
+		assertFalse(decision.isAllow(new TestAccess("H-0003", Access.KIND_SERVICE, null)));
+	}
+
+	@Test
+	public void random() {
+		List<Access> accesses = allAccesses();
+		Random random = new Random(20200101);
+		for (int round = 0; round < 1000; round++) {
+			int size = random.nextInt(16);
+			List<RightTableItemVo> items = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				items.add(newItem(IDS[random.nextInt(IDS.length)], KINDS[random.nextInt(KINDS.length)],
+						GROUPS[random.nextInt(GROUPS.length)], random.nextBoolean()));
+			}
+			check(items, accesses);
+		}
+	}
+
+	static class TestAccess implements AccessExt {
+		final String m_Id;
+		final String m_Kind;
+		final String m_Group;
+
+		TestAccess(String id, String kind, String group) {
+			m_Id = id;
+			m_Kind = kind;
+			m_Group = group;
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+
+		@Override
+		public String getKind() {
+			return m_Kind;
+		}
+
+		@Override
+		public byte[] getAccessKey() {
+			return null;
+		}
+
+		@Override
+		public String getAccessId() {
+			return m_Id;
+		}
+
+		@Override
+		public String getGroupId() {
+			return m_Group;
+		}
+
+		@Override
+		public String getSummary() {
+			return null;
+		}
+
+		@Override
+		public void setSummary(String summary) {
+		}
+
+		@Override
+		public String getAccessKeyHex() {
+			return null;
+		}
+
+		@Override
+		public String getAccessKeyBase64() {
+			return null;
+		}
+
+		@Override
+		public void setValid(boolean valid) {
+		}
+
+		@Override
+		public String getTenant() {
+			return null;
+		}
+
+		@Override
+		public String getOpenid() {
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return m_Id + "/" + m_Kind + "/" + m_Group;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2019,2020 honintech
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the “Software”), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package cn.weforward.gateway.ops.traffic;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cn.weforward.gateway.ops.traffic.TrafficTableVo.TrafficTableItemVo;
+import cn.weforward.protocol.ops.traffic.TrafficTableItem;
+
+public class TrafficRuleIndexTest {
+	static final String[] NOS = { null, "x00a1", "x00a2", "x00a3" };
+	static final String[] VERSIONS = { null, "1.0", "1.1", "2.0" };
+
+	/**
+	 * 按顺序逐项匹配（编译索引前的做法）
+	 */
+	static TrafficTableItemVo linearFind(List<TrafficTableItemVo> items, String no, String version) {
+		for (TrafficTableItemVo item : items) {
+			if (TrafficTable.match(item, no, version)) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	static TrafficTableItemVo newItem(String no, String version) {
+		TrafficTableItemVo item = new TrafficTableItemVo();
+		item.serviceNo = no;
+		item.serviceVersion = version;
+		return item;
+	}
+
+	static void check(List<TrafficTableItemVo> items) {
+		TrafficRuleIndex index = new TrafficRuleIndex(items);
+		// 查询也包括规则项中没有的编号及版本
+		String[] nos = { null, "x00a1", "x00a2", "x00a3", "x00a4" };
+		String[] versions = { null, "1.0", "1.1", "2.0", "3.0" };
+		for (String no : nos) {
+			for (String version : versions) {
+				TrafficTableItemVo expect = linearFind(items, no, version);
+				TrafficTableItem rule = index.find(no, version);
+				if (null == expect) {
+					assertNull(rule);
+				} else {
+					assertSame(expect, ((TrafficTableItemWrap) rule).getVo());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void find() {
+		List<TrafficTableItemVo> items = new ArrayList<>();
+		check(Collections.<TrafficTableItemVo>emptyList());
+		items.add(newItem("x00a1", "1.0"));
+		items.add(newItem("x00a1", null));
+		items.add(newItem(null, "1.0"));
+		items.add(newItem("x00a1", "1.0"));
+		items.add(newItem(null, null));
+		items.add(newItem("x00a2", null));
+		check(items);
+		// 空字符串等同于不指定
+		items.add(0, newItem("", "2.0"));
+		items.add(0, newItem("x00a3", ""));
+		check(items);
+	}
+
+	@Test
+	public void random() {
+		Random random = new Random(20200101);
+		for (int round = 0; round < 1000; round++) {
+			int size = random.nextInt(12);
+			List<TrafficTableItemVo> items = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				items.add(newItem(NOS[random.nextInt(NOS.length)], VERSIONS[random.nextInt(VERSIONS.length)]));
+			}
+			check(items);
+		}
+	}
+}